@@ -242,54 +242,46 @@ public class Ping extends javax.swing.JFrame {
 		// Now send it:
 		nic.inject(enetBA);
 		
-		// Now ... wait for the reply
-		int timeout = 0;
-		final int INCREMENT = 100;
+		// Now ... wait for the reply. poll wakes as soon as a packet
+		// is queued.
 		final int PERIOD = 5000;
+		long deadline = System.currentTimeMillis() + PERIOD;
 		jND_PacketQueue pq = cap.packetQueue();
 		
-		// Timeout after 2 sec (PERIOD)
-		while(timeout < PERIOD) {
-			if(pq.size() == 0) {
-				try {
-					Thread.sleep(INCREMENT);
-					timeout += INCREMENT;
-				} catch(Exception e) {
-					txtResults.append("pingOnce: Exception sleeping: " + e.toString() + "\n");
-				}
-			}
-			else {				
-				byte[] pkt = pq.pop();
-				
-				// Because of the filter, we already know this is an ICMP
-				// ECHO REPLY. We need to check the destination IP, the
-				// identifier, and the sequence number to be sure this is
-				// OUR reply
-				jND_EthernetII enet1 = new jND_EthernetII();
-				enet1.parse(pkt);
-				
-				// Parse the ethernet payload as an IP header
-				jND_IPv4 ip1 = new jND_IPv4();
-				ip1.parse(enet1.payload());
+		// Timeout after 5 sec (PERIOD)
+		for(;;) {
+			long left = deadline - System.currentTimeMillis();
+			byte[] pkt = left > 0 ? pq.poll(left) : null;
+			if(pkt == null) break;
+			
+			// Because of the filter, we already know this is an ICMP
+			// ECHO REPLY. We need to check the destination IP, the
+			// identifier, and the sequence number to be sure this is
+			// OUR reply
+			jND_EthernetII enet1 = new jND_EthernetII();
+			enet1.parse(pkt);
+			
+			// Parse the ethernet payload as an IP header
+			jND_IPv4 ip1 = new jND_IPv4();
+			ip1.parse(enet1.payload());
+			
+			// Check that this is destined to me
+			// (in case I am in promiscuous mode)
+			jND_BYTE4 dstIP = ip1.destAddress().toByte4();
+			jND_BYTE4 myIP = nic.ipAddress().toByte4(); 
+			if(myIP.toLong() != dstIP.toLong()) continue;
+			
+			// Parse the ip payload as an ICMP header
+			jND_ICMP icmp1 = new jND_ICMP();
+			icmp1.parse(ip1.payload());
+			
+			// Check that this is my identifier and sequence number
+			if(icmp1.identifier().toInt() != ident || icmp1.sequenceNumber().toInt() != seqno)
+				continue;
 				
-				// Check that this is destined to me
-				// (in case I am in promiscuous mode)
-				jND_BYTE4 dstIP = ip1.destAddress().toByte4();
-				jND_BYTE4 myIP = nic.ipAddress().toByte4(); 
-				if(myIP.toLong() != dstIP.toLong()) continue;
-				
-				// Parse the ip payload as an ICMP header
-				jND_ICMP icmp1 = new jND_ICMP();
-				icmp1.parse(ip1.payload());
-				
-				// Check that this is my identifier and sequence number
-				if(icmp1.identifier().toInt() != ident || icmp1.sequenceNumber().toInt() != seqno)
-					continue;
-					
-				// Stop capturing and return result
-				cap.dispose();
-				return "Reply received! Ping #" + icmp1.sequenceNumber() + "\n";
-			}
+			// Stop capturing and return result
+			cap.dispose();
+			return "Reply received! Ping #" + icmp1.sequenceNumber() + "\n";
 		}
 		cap.dispose();
 		return "Request timed out!";
@@ -0,0 +1,47 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+import jNetDev.*;
+import jNetDev.Headers.*;
+
+/*
+ * Find the hosts on the subnet of a NIC (run as root).
+ *	java ARPSweep [nic number] [requests per second]
+ */
+public class ARPSweep {
+	public static void main(String[] args) {
+		try {
+			jND_NIC nic = new jND_NIC(args.length > 0 ? Integer.parseInt(args[0]) : 0);
+			jND_ARPSweep sweep = new jND_ARPSweep(nic);
+			if(args.length > 1)
+				sweep.rate(Integer.parseInt(args[1]));
+			sweep.listener(new jND_ARPSweepListener() {
+				public void found(int ip, byte[] mac) {
+					jND_IPv4Address a = new jND_IPv4Address();
+					a.address(ip);
+					System.out.print(a + "\t" + new jND_EthernetAddress(mac) + "\n");
+				}
+			});
+
+			long start = System.currentTimeMillis();
+			int hosts = sweep.sweep();
+			System.out.print(hosts + " hosts, " + sweep.sent() + " requests, "
+				+ (System.currentTimeMillis() - start) + " ms\n");
+		} catch(Exception e) {
+			System.out.print(e + "\n");
+		}
+	}
+}
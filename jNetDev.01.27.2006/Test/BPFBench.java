@@ -0,0 +1,129 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+import jNetDev.*;
+import jNetDev.Headers.*;
+import java.nio.ByteBuffer;
+
+/*
+ * Compare three ways of picking "tcp port 80" packets out of a trace
+ * file: interpreting the BPF program of the filter on a jND_BPFMachine,
+ * running the class the machine generates from it, and parsing the
+ * headers with the header views and checking the fields. None needs
+ * libpcap; the program below is the output of
+ *	tcpdump -dd tcp port 80
+ * Run as "java -classpath .:.. BPFBench file.pcap [rounds]".
+ */
+public class BPFBench {
+	static final int[][] TCP_PORT_80 = {
+		{ 0x28, 0, 0, 0x0000000c },
+		{ 0x15, 0, 6, 0x000086dd },
+		{ 0x30, 0, 0, 0x00000014 },
+		{ 0x15, 0, 15, 0x00000006 },
+		{ 0x28, 0, 0, 0x00000036 },
+		{ 0x15, 12, 0, 0x00000050 },
+		{ 0x28, 0, 0, 0x00000038 },
+		{ 0x15, 10, 11, 0x00000050 },
+		{ 0x15, 0, 10, 0x00000800 },
+		{ 0x30, 0, 0, 0x00000017 },
+		{ 0x15, 0, 8, 0x00000006 },
+		{ 0x28, 0, 0, 0x00000014 },
+		{ 0x45, 6, 0, 0x00001fff },
+		{ 0xb1, 0, 0, 0x0000000e },
+		{ 0x48, 0, 0, 0x0000000e },
+		{ 0x15, 2, 0, 0x00000050 },
+		{ 0x48, 0, 0, 0x00000010 },
+		{ 0x15, 0, 1, 0x00000050 },
+		{ 0x6, 0, 0, 0x00040000 },
+		{ 0x6, 0, 0, 0x00000000 },
+	};
+
+	public static void main(String[] args) {
+		try {
+			if(args.length < 1) {
+				System.out.print("usage: java BPFBench file.pcap [rounds]\n");
+				return;
+			}
+			int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+			jND_BPFProgram prog = new jND_BPFProgram("tcp port 80", TCP_PORT_80,
+				jND_PcapReader.LINKTYPE_ETHERNET);
+			jND_BPFMachine interp = new jND_BPFMachine(prog, -1);
+			jND_BPFMachine compiled = new jND_BPFMachine(prog, 0);
+
+			// The first rounds warm up the JIT
+			for(int r = 0; r < rounds; r++) {
+				long t0 = System.nanoTime();
+				long[] i = bpf(args[0], interp);
+				long t1 = System.nanoTime();
+				long[] c = bpf(args[0], compiled);
+				long t2 = System.nanoTime();
+				long[] p = parse(args[0]);
+				long t3 = System.nanoTime();
+				System.out.print("round " + r + ": " + p[1] + "/" + p[0] + " packets"
+					+ ", interpreted " + (t1 - t0) / 1000000 + " ms"
+					+ ", compiled " + (t2 - t1) / 1000000 + " ms"
+					+ ", parsed " + (t3 - t2) / 1000000 + " ms"
+					+ (i[1] != p[1] || c[1] != p[1] ? "  MISMATCH" : "") + "\n");
+			}
+		} catch(Exception e) {
+			System.out.print("Exception caught: " + e.getMessage() + "\n");
+		}
+	}
+
+	// Count the packets, and those accepted by the machine
+	static long[] bpf(String fname, jND_BPFMachine m) {
+		long[] n = new long[2];
+		jND_PcapReader in = new jND_PcapReader(fname);
+		while(in.nextPacket()) {
+			n[0]++;
+			if(m.run(in.buffer(), in.offset(), in.caplen(), in.wireLength()) != 0)
+				n[1]++;
+		}
+		in.close();
+		return n;
+	}
+
+	// Count the packets, and those that parse as TCP to or from port 80.
+	// Like the filter, IPv6 is taken only when TCP follows the fixed
+	// header, and a port counts if it was captured
+	static long[] parse(String fname) {
+		long[] n = new long[2];
+		jND_EthernetView eth = new jND_EthernetView();
+		jND_IPv4View ip = new jND_IPv4View();
+		jND_TCPView tcp = new jND_TCPView();
+		jND_PcapReader in = new jND_PcapReader(fname);
+		while(in.nextPacket()) {
+			n[0]++;
+			eth.bind(in.buffer(), in.offset(), in.caplen());
+			if(!eth.valid()) continue;
+			if(eth.type() == 0x86dd) {
+				if(eth.payloadLength() <= 40
+						|| in.buffer().get(eth.payloadOffset() + 6) != 6) continue;
+				tcp.bind(in.buffer(), eth.payloadOffset() + 40, eth.payloadLength() - 40);
+			} else if(eth.type() == 0x0800) {
+				ip.bind(eth);
+				if(!ip.valid() || ip.protocol() != 6 || ip.fragmentOffset() != 0) continue;
+				tcp.bind(ip);
+			} else
+				continue;
+			if(tcp.length() >= 2 && tcp.sourcePort() == 80
+					|| tcp.length() >= 4 && tcp.destPort() == 80)
+				n[1]++;
+		}
+		in.close();
+		return n;
+	}
+}
@@ -0,0 +1,129 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+import jNetDev.*;
+import jNetDev.Headers.*;
+import java.lang.management.ManagementFactory;
+
+/*
+ * Measure what checking the fields of parsed headers costs through the
+ * jND_BYTE* wrapper accessors, e.g. enet.type().toInt(), and through the
+ * primitive ones, e.g. enet.typeValue(): time and bytes allocated per
+ * packet. The packets are TCP segments to a few ports, built and parsed
+ * in memory, so neither libpcap nor a NIC is needed.
+ * Run as "java -classpath .:.. HeaderBench [rounds] [packets]".
+ * The JIT may remove some wrapper allocations by escape analysis; run
+ * with -XX:-DoEscapeAnalysis as well to see all the allocations the
+ * accessors make.
+ */
+public class HeaderBench {
+	// Different packets, read in turn
+	static final int KINDS = 1024;
+
+	public static void main(String[] args) {
+		try {
+			int rounds = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+			int packets = args.length > 1 ? Integer.parseInt(args[1]) : 10000000;
+			jND_EthernetII[] enet = new jND_EthernetII[KINDS];
+			jND_IPv4[] ip = new jND_IPv4[KINDS];
+			jND_TCP[] tcp = new jND_TCP[KINDS];
+			for(int k = 0; k < KINDS; k++) {
+				byte[] pkt = packet(k);
+				enet[k] = new jND_EthernetII();
+				enet[k].parse(pkt, 0);
+				ip[k] = new jND_IPv4();
+				ip[k].parse(pkt, 14);
+				tcp[k] = new jND_TCP();
+				tcp[k].parse(pkt, 34);
+			}
+
+			// The first rounds warm up the JIT
+			for(int r = 0; r < rounds; r++) {
+				long b0 = allocated();
+				long t0 = System.nanoTime();
+				long w = wrappers(enet, ip, tcp, packets);
+				long t1 = System.nanoTime();
+				long b1 = allocated();
+				long p = primitives(enet, ip, tcp, packets);
+				long t2 = System.nanoTime();
+				long b2 = allocated();
+				System.out.print("round " + r + ": " + w + "/" + packets + " packets"
+					+ ", wrappers " + (t1 - t0) / packets + " ns " + (b1 - b0) / packets + " bytes"
+					+ ", primitives " + (t2 - t1) / packets + " ns " + (b2 - b1) / packets + " bytes"
+					+ " per packet" + (w != p ? "  MISMATCH" : "") + "\n");
+			}
+		} catch(Exception e) {
+			System.out.print("Exception caught: " + e.getMessage() + "\n");
+		}
+	}
+
+	// Count the packets that are IPv4 TCP to or from port 80, reading the
+	// fields through the wrappers
+	static long wrappers(jND_EthernetII[] enet, jND_IPv4[] ip, jND_TCP[] tcp, int packets) {
+		long n = 0;
+		for(int i = 0; i < packets; i++) {
+			int k = i & (KINDS - 1);
+			if(enet[k].type().toInt() == jND_EthernetII.T_IP
+					&& ip[k].protocol().toInt() == jND_IPv4.P_TCP
+					&& ip[k].fragmentOffset().toInt() == 0
+					&& (tcp[k].sourcePort().toInt() == 80 || tcp[k].destPort().toInt() == 80))
+				n++;
+		}
+		return n;
+	}
+
+	// The same, through the primitive accessors
+	static long primitives(jND_EthernetII[] enet, jND_IPv4[] ip, jND_TCP[] tcp, int packets) {
+		long n = 0;
+		for(int i = 0; i < packets; i++) {
+			int k = i & (KINDS - 1);
+			if(enet[k].typeValue() == jND_EthernetII.T_IP
+					&& ip[k].protocolValue() == jND_IPv4.P_TCP
+					&& ip[k].fragmentOffsetValue() == 0
+					&& (tcp[k].sourcePortValue() == 80 || tcp[k].destPortValue() == 80))
+				n++;
+		}
+		return n;
+	}
+
+	// Bytes allocated so far by this thread, or 0 if the JVM cannot tell
+	static long allocated() {
+		java.lang.management.ThreadMXBean mx = ManagementFactory.getThreadMXBean();
+		if(mx instanceof com.sun.management.ThreadMXBean)
+			return ((com.sun.management.ThreadMXBean)mx).getThreadAllocatedBytes(
+				Thread.currentThread().getId());
+		return 0;
+	}
+
+	// An Ethernet frame holding an IPv4 TCP segment, to port 80 for one
+	// packet in four
+	static byte[] packet(int k) {
+		byte[] p = new byte[14 + 20 + 20];
+		p[12] = 0x08;					// Ethernet type: IPv4
+		p[14] = 0x45;					// IPv4, 20 octet header
+		p[17] = 40;						// total length
+		p[22] = 64;						// ttl
+		p[23] = 6;						// protocol: TCP
+		p[26] = 10; p[29] = 1;			// 10.0.0.1
+		p[30] = 10; p[33] = 2;			// to 10.0.0.2
+		p[34] = (byte)0xc0; p[35] = 0x01;	// source port 49153
+		p[36] = (byte)(k % 4 == 0 ? 0 : k >> 8);	// destination port
+		p[37] = (byte)(k % 4 == 0 ? 80 : k);
+		p[46] = 0x50;					// 20 octet TCP header
+		p[47] = 0x02;					// SYN
+		return p;
+	}
+}
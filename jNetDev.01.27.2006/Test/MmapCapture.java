@@ -0,0 +1,63 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+import jNetDev.*;
+import java.nio.ByteBuffer;
+
+/*
+ * Read a few blocks from a memory mapped ring (Linux only, run as root).
+ * Works on loopback: run "java MmapCapture lo" and "ping 127.0.0.1" in
+ * another window. For a veth pair:
+ *	ip link add veth0 type veth peer name veth1
+ *	ip link set veth0 up; ip link set veth1 up
+ * then capture on veth1 while sending on veth0.
+ */
+public class MmapCapture {
+	public static void main(String[] args) {
+		try {
+			String ifname = args.length > 0 ? args[0] : "lo";
+			jND_MmapRing ring = new jND_MmapRing(ifname, false,
+				1 << 16, 8, 100);
+
+			int blocks = 0;
+			while(blocks < 10) {
+				jND_MmapBlock b = ring.next(1000);
+				if(b == null) {
+					System.out.print("(timeout)\n");
+					continue;
+				}
+				blocks++;
+				System.out.print("BLOCK " + b.sequence() + ": "
+					+ b.packetCount() + " packets\n");
+				while(b.nextPacket()) {
+					ByteBuffer pkt = b.packet();
+					System.out.print("  t=" + b.timestamp()
+						+ " caplen=" + b.caplen()
+						+ " len=" + b.wireLength()
+						+ " ethertype=0x"
+						+ Integer.toHexString(pkt.getShort(pkt.position() + 12) & 0xffff)
+						+ "\n");
+				}
+				b.release();
+			}
+			System.out.print("kernel: " + ring.packets() + " packets, "
+				+ ring.drops() + " dropped\n");
+			ring.close();
+		} catch(Exception e) {
+			System.out.println("MmapCapture.main exception: " + e.toString() + "\n");
+		}
+	}
+}
@@ -0,0 +1,62 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+import jNetDev.*;
+import jNetDev.Headers.*;
+
+/*
+ * Ping a list of hosts at once for 10 seconds (run as root).
+ *	java Pinger nicNumber host ...
+ */
+public class Pinger {
+	public static void main(String[] args) {
+		try {
+			jND_NIC nic = new jND_NIC(Integer.parseInt(args[0]));
+			jND_Pinger pinger = new jND_Pinger(nic);
+			for(int i = 1; i < args.length; i++)
+				pinger.add(new jND_IPv4Address(args[i]));
+			pinger.listener(new jND_PingListener() {
+				public void reply(int ip, int seq, long rtt) {
+					System.out.print(name(ip) + " seq=" + seq + " time="
+						+ rtt / 1000 + " us\n");
+				}
+				public void timeout(int ip, int seq) {
+					System.out.print(name(ip) + " seq=" + seq + " timed out\n");
+				}
+			});
+
+			pinger.start();
+			Thread.sleep(10000);
+			pinger.stop();
+			jND_ARPResolver.forNIC(nic).close();	// release its listener
+
+			for(int i = 1; i < args.length; i++) {
+				int ip = new jND_IPv4Address(args[i]).toInt();
+				System.out.print(args[i] + ": " + pinger.sent(ip) + " sent, "
+					+ pinger.received(ip) + " received, avg "
+					+ pinger.averageRtt(ip) / 1000 + " us\n");
+			}
+		} catch(Exception e) {
+			System.out.print(e + "\n");
+		}
+	}
+
+	private static String name(int ip) {
+		jND_IPv4Address a = new jND_IPv4Address();
+		a.address(ip);
+		return a.toString();
+	}
+}
@@ -85,11 +85,11 @@ import java.io.*;
 public class jND_ARP {
 	private int headerOffset;
 	private int payloadOffset;
-	private jND_BYTE2 hwAddrTypeNo;
-	private jND_BYTE2 protAddrTypeNo;
-	private jND_BYTE1 hwLenNo;
-	private jND_BYTE1 protLenNo;
-	private jND_BYTE2 opcodeNo;
+	private int hwAddrTypeNo;
+	private int protAddrTypeNo;
+	private int hwLenNo;
+	private int protLenNo;
+	private int opcodeNo;
 	private byte[] srcHWAddr;
 	private byte[] srcProtAddr;
 	private byte[] targetHWAddr;
@@ -115,11 +115,11 @@ public class jND_ARP {
 			headerOffset = 0;
 			payloadOffset = 0;
 
-			hwAddrTypeNo = new jND_BYTE2();
-			protAddrTypeNo = new jND_BYTE2();
-			hwLenNo = new jND_BYTE1();
-			protLenNo = new jND_BYTE1();
-			opcodeNo = new jND_BYTE2();
+			hwAddrTypeNo = 0;
+			protAddrTypeNo = 0;
+			hwLenNo = 0;
+			protLenNo = 0;
+			opcodeNo = 0;
 
 			srcHWAddr = new byte[]{ 0, 0, 0, 0, 0, 0 };
 			srcProtAddr = new byte[]{ 0, 0, 0, 0 };
@@ -140,7 +140,7 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE2 hwAddressType() {
-		return hwAddrTypeNo;
+		return new jND_BYTE2(hwAddrTypeNo);
 	}
 
 	/**
@@ -151,7 +151,24 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public void hwAddressType(jND_BYTE2 hwType) {
-		hwAddrTypeNo = hwType;
+		hwAddressType(hwType.toInt());
+	}
+
+	/**
+	 * Get the hardware address type as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the hardware address type
+	 */
+	public int hwAddressTypeValue() {
+		return hwAddrTypeNo;
+	}
+
+	/**
+	 * Set the hardware address type from an unsigned int.
+	 * @param	value - the new hardware address type
+	 */
+	public void hwAddressType(int value) {
+		hwAddrTypeNo = value & 0xffff;
 	}
 
 	/**
@@ -161,7 +178,7 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE2 protocolAddressType() {
-		return protAddrTypeNo;
+		return new jND_BYTE2(protAddrTypeNo);
 	}
 
 	/**
@@ -172,7 +189,24 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public void protocolAddressType(jND_BYTE2 protType) {
-		protAddrTypeNo = protType;
+		protocolAddressType(protType.toInt());
+	}
+
+	/**
+	 * Get the protocol address type as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the protocol address type
+	 */
+	public int protocolAddressTypeValue() {
+		return protAddrTypeNo;
+	}
+
+	/**
+	 * Set the protocol address type from an unsigned int.
+	 * @param	value - the new protocol address type
+	 */
+	public void protocolAddressType(int value) {
+		protAddrTypeNo = value & 0xffff;
 	}
 
 	/**
@@ -182,7 +216,7 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE1 hwAddressLength() {
-		return hwLenNo;
+		return new jND_BYTE1(hwLenNo);
 	}
 
 	/**
@@ -193,7 +227,24 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public void hwAddressLength(jND_BYTE1 hwLen) {
-		hwLenNo = hwLen;
+		hwAddressLength(hwLen.toInt());
+	}
+
+	/**
+	 * Get the hardware address length as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the hardware address length
+	 */
+	public int hwAddressLengthValue() {
+		return hwLenNo;
+	}
+
+	/**
+	 * Set the hardware address length from an unsigned int.
+	 * @param	value - the new hardware address length
+	 */
+	public void hwAddressLength(int value) {
+		hwLenNo = value & 0xff;
 	}
 
 	/**
@@ -203,7 +254,7 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE1 protocolAddressLength() {
-		return protLenNo;
+		return new jND_BYTE1(protLenNo);
 	}
 
 	/**
@@ -214,7 +265,24 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public void protocolAddressLength(jND_BYTE1 protLen) {
-		protLenNo = protLen;
+		protocolAddressLength(protLen.toInt());
+	}
+
+	/**
+	 * Get the protocol address length as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the protocol address length
+	 */
+	public int protocolAddressLengthValue() {
+		return protLenNo;
+	}
+
+	/**
+	 * Set the protocol address length from an unsigned int.
+	 * @param	value - the new protocol address length
+	 */
+	public void protocolAddressLength(int value) {
+		protLenNo = value & 0xff;
 	}
 
 	/**
@@ -224,7 +292,7 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE2 opcode() {
-		return opcodeNo;
+		return new jND_BYTE2(opcodeNo);
 	}
 
 	/**
@@ -235,7 +303,24 @@ public class jND_ARP {
 	 * @author Pete Lutz
 	 */
 	public void opcode(jND_BYTE2 opcode) {
-		opcodeNo = opcode;
+		opcode(opcode.toInt());
+	}
+
+	/**
+	 * Get the opcode as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the opcode
+	 */
+	public int opcodeValue() {
+		return opcodeNo;
+	}
+
+	/**
+	 * Set the opcode from an unsigned int.
+	 * @param	value - the new opcode
+	 */
+	public void opcode(int value) {
+		opcodeNo = value & 0xffff;
 	}
 
 	/**
@@ -373,21 +458,21 @@ public class jND_ARP {
 			DataInputStream pis = new DataInputStream(bais);
 			pis.skipBytes(offset);
 
-			hwAddrTypeNo = new jND_BYTE2(pis.readShort());
-			protAddrTypeNo = new jND_BYTE2(pis.readShort());
-			hwLenNo = new jND_BYTE1(pis.readByte());
+			hwAddrTypeNo = pis.readUnsignedShort();
+			protAddrTypeNo = pis.readUnsignedShort();
+			hwLenNo = pis.readUnsignedByte();
 
-			short effHWLen = hwLenNo.toShort();
+			short effHWLen = (short)hwLenNo;
 			if (effHWLen < 0 || effHWLen > HW_MAX_LEN)
 				effHWLen = HW_MAX_LEN;
 
-			protLenNo = new jND_BYTE1(pis.readByte());
+			protLenNo = pis.readUnsignedByte();
 
-			short effProtLen = protLenNo.toShort();
+			short effProtLen = (short)protLenNo;
 			if (effProtLen < 0 || effProtLen > PROT_MAX_LEN)
 				effProtLen = PROT_MAX_LEN;
 
-			opcodeNo = new jND_BYTE2(pis.readShort());
+			opcodeNo = pis.readUnsignedShort();
 
 			srcHWAddr = new byte[effHWLen];
 			for (int i = 0; i < HW_MAX_LEN; i++) {
@@ -441,11 +526,11 @@ public class jND_ARP {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream pos = new DataOutputStream(baos);
 			
-			pos.writeShort(hwAddrTypeNo.toShort());
-			pos.writeShort(protAddrTypeNo.toShort());
-			pos.writeByte(hwLenNo.toByte());
-			pos.writeByte(protLenNo.toByte());
-			pos.writeShort(opcodeNo.toShort());
+			pos.writeShort((short)hwAddrTypeNo);
+			pos.writeShort((short)protAddrTypeNo);
+			pos.writeByte((byte)hwLenNo);
+			pos.writeByte((byte)protLenNo);
+			pos.writeShort((short)opcodeNo);
 
 			for (int i = 0; i < HW_MAX_LEN; i++) {
 				byte byte1 = 0;
@@ -0,0 +1,121 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_ARPView <br>
+ * Flyweight view of an ARP message (see jND_HeaderView and jND_ARP).
+ * The address fields follow the lengths given in the header. Hardware
+ * addresses of up to 8 octets are returned in the low bits of a long and
+ * protocol addresses of up to 4 octets in the low bits of an int, so for
+ * Ethernet and IPv4 they read as a MAC address and an IP address.
+ * <br><br>
+ */
+public class jND_ARPView extends jND_HeaderView {
+	public static final int FIXED_SIZE = 8;
+
+	/**
+	 * Get the hardware address type.
+	 * @return	the type, 1 for Ethernet.
+	 */
+	public int hwAddressType() {
+		return u16(0);
+	}
+
+	/**
+	 * Get the protocol address type.
+	 * @return	the type, 0x800 for IP.
+	 */
+	public int protocolAddressType() {
+		return u16(2);
+	}
+
+	/**
+	 * Get the hardware address length.
+	 * @return	the length in octets.
+	 */
+	public int hwAddressLength() {
+		return u8(4);
+	}
+
+	/**
+	 * Get the protocol address length.
+	 * @return	the length in octets.
+	 */
+	public int protocolAddressLength() {
+		return u8(5);
+	}
+
+	/**
+	 * Get the opcode.
+	 * @return	the opcode, such as jND_ARP.ARP_REQUEST.
+	 */
+	public int opcode() {
+		return u16(6);
+	}
+
+	/**
+	 * Get the sender's hardware address.
+	 * @return	the address, in the low bits.
+	 */
+	public long sourceHWAddress() {
+		return field(FIXED_SIZE, hwAddressLength());
+	}
+
+	/**
+	 * Get the sender's protocol address.
+	 * @return	the address, in the low bits.
+	 */
+	public int sourceProtocolAddress() {
+		return (int)field(FIXED_SIZE + hwAddressLength(), protocolAddressLength());
+	}
+
+	/**
+	 * Get the target's hardware address.
+	 * @return	the address, in the low bits.
+	 */
+	public long targetHWAddress() {
+		return field(FIXED_SIZE + hwAddressLength() + protocolAddressLength(),
+			hwAddressLength());
+	}
+
+	/**
+	 * Get the target's protocol address.
+	 * @return	the address, in the low bits.
+	 */
+	public int targetProtocolAddress() {
+		return (int)field(FIXED_SIZE + 2 * hwAddressLength() + protocolAddressLength(),
+			protocolAddressLength());
+	}
+
+	// Read an n octet field at i, keeping at most the last 8 octets
+	private long field(int i, int n) {
+		long v = 0;
+		for(int k = 0; k < n; k++)
+			v = (v << 8) | u8(i + k);
+		return v;
+	}
+
+	public int headerSize() {
+		return FIXED_SIZE + 2 * (hwAddressLength() + protocolAddressLength());
+	}
+
+	protected int minimumSize() {
+		return FIXED_SIZE;
+	}
+};
@@ -61,7 +61,7 @@ public class jND_Ethernet802_3 {
 	private int payloadOffset;
 	private jND_EthernetAddress dstMAC;
 	private jND_EthernetAddress srcMAC;
-	private jND_BYTE2 type_len;
+	private int type_len;
 	private byte[] pload;
 
 	/** 
@@ -74,7 +74,7 @@ public class jND_Ethernet802_3 {
 			payloadOffset = -1;
 			dstMAC = new jND_EthernetAddress();
 			srcMAC = new jND_EthernetAddress();
-			type_len =  new jND_BYTE2(0);;
+			type_len = 0;
 			pload = null;
 		} catch(jND_Exception nde) {
 			throw nde;
@@ -124,7 +124,7 @@ public class jND_Ethernet802_3 {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 length()  {
-		return type_len;
+		return new jND_BYTE2(type_len);
 	}
 
 	/**
@@ -133,7 +133,24 @@ public class jND_Ethernet802_3 {
 	 * @author	Pete Lutz
 	 */
 	public void length(jND_BYTE2 len) {
-		type_len = len;
+		length(len.toInt());
+	}
+
+	/**
+	 * Get the length as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the length
+	 */
+	public int lengthValue() {
+		return type_len;
+	}
+
+	/**
+	 * Set the length from an unsigned int.
+	 * @param	value - the new length
+	 */
+	public void length(int value) {
+		type_len = value & 0xffff;
 	}
 
 	/**
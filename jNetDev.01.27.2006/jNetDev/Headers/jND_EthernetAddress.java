@@ -140,19 +140,20 @@ public class jND_EthernetAddress extends Object
 	 * @author Pete Lutz
 	 */
 	public void address(jND_BYTE8 mac){
-		long tmp = mac.toLong();
-		
-		v_mac[5] = (byte)(tmp & 0xff);
-		tmp = tmp >> 8;
-		v_mac[4] = (byte)(tmp & 0xff);
-		tmp = tmp >> 8;
-		v_mac[3] = (byte)(tmp & 0xff);
-		tmp = tmp >> 8;
-		v_mac[2] = (byte)(tmp & 0xff);
-		tmp = tmp >> 8;
-		v_mac[1] = (byte)(tmp & 0xff);
-		tmp = tmp >> 8;
-		v_mac[0] = (byte)(tmp & 0xff);
+		address(mac.toLong());
+	}
+	
+	/**
+	 * Mutate (change) the underlying address based on a long holding
+	 * the address in its low 6 octets, the first octet highest. Unlike
+	 * address(jND_BYTE8), no wrapper is needed.
+	 * @param mac - the new value of the Ethernet address.
+	 */
+	public void address(long mac) {
+		for(int i = ENET_ADDR_LEN - 1; i >= 0; i--) {
+			v_mac[i] = (byte)(mac & 0xff);
+			mac = mac >> 8;
+		}
 	}
 	
 	/**
@@ -191,20 +192,20 @@ public class jND_EthernetAddress extends Object
 	 * @author Pete Lutz
 	 */
 	public jND_BYTE8 toByte8()  {
+		return new jND_BYTE8(toLong());
+	}
+
+	/**
+	 * Convert the underlying Ethernet address to a long, the first
+	 * octet in the highest of the low 6 octets. Unlike toByte8(), no
+	 * wrapper is allocated.
+	 * @return the address as a long.
+	 */
+	public long toLong() {
 		long retval = 0;
-		
-		retval |= (v_mac[0] & 0xff);
-		retval = retval << 8;
-		retval |= (v_mac[1] & 0xff);
-		retval = retval << 8;
-		retval |= (v_mac[2] & 0xff);
-		retval = retval << 8;
-		retval |= (v_mac[3] & 0xff);
-		retval = retval << 8;
-		retval |= (v_mac[4] & 0xff);
-		retval = retval << 8;
-		retval |= (v_mac[5] & 0xff);
-		return new jND_BYTE8(retval);
+		for(int i = 0; i < ENET_ADDR_LEN; i++)
+			retval = (retval << 8) | (v_mac[i] & 0xff);
+		return retval;
 	}
 
 
@@ -17,6 +17,7 @@
 package jNetDev.Headers;
 import jNetDev.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /** 
  * jND_EthernetII <br>
@@ -62,7 +63,7 @@ public class jND_EthernetII {
 	private int payloadOffset;
 	private jND_EthernetAddress dstMAC;
 	private jND_EthernetAddress srcMAC;
-	private jND_BYTE2 type_len;
+	private int type_len;
 	private byte[] pload;
 
     public static final int T_IP = 0x800;
@@ -78,7 +79,7 @@ public class jND_EthernetII {
     		payloadOffset = -1;
     		dstMAC = new jND_EthernetAddress();
     		srcMAC = new jND_EthernetAddress();
-    		type_len = new jND_BYTE2(0);
+    		type_len = 0;
     		pload = null;
     	} catch(jND_Exception nde) {
     		throw nde;
@@ -128,7 +129,7 @@ public class jND_EthernetII {
 	 * @author	Pete Lutz
 	 */
     public jND_BYTE2 type()  {
-    	return type_len;
+    	return new jND_BYTE2(type_len);
     }
 
 	/**
@@ -137,7 +138,24 @@ public class jND_EthernetII {
 	 * @author	Pete Lutz
 	 */
     public void type(jND_BYTE2 type) {
-    	type_len = type;
+    	type(type.toInt());
+    }
+
+    /**
+     * Get the type as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the type
+     */
+    public int typeValue() {
+    	return type_len;
+    }
+
+    /**
+     * Set the type from an unsigned int.
+     * @param	value - the new type
+     */
+    public void type(int value) {
+    	type_len = value & 0xffff;
     }
 
 	/**
@@ -197,7 +215,7 @@ public class jND_EthernetII {
     		}
     		srcMAC.address(tmpmac);
 
-    		type_len = new jND_BYTE2(pis.readShort());
+    		type_len = pis.readUnsignedShort();
     		
     		payloadOffset = headerOffset + 14;
     		pload = new byte[pkt.length - payloadOffset];
@@ -234,7 +252,7 @@ public class jND_EthernetII {
     			else
     				pos.writeByte(0);
 
-    		pos.writeShort(type_len.toShort());
+    		pos.writeShort((short)type_len);
 
     		if(pload != null)
     			for(int i = 0; i < pload.length; i++)
@@ -250,5 +268,41 @@ public class jND_EthernetII {
     	}
     }
 
+	/**
+	 * Method to build the header into a buffer, ahead of a payload that
+	 * is, or will be, placed right after it. Unlike build(), nothing is
+	 * allocated and the payload field is not used.
+	 * @param		buf - the buffer to write the header into.
+	 * @param		offset - where the header starts in buf.
+	 * @param		payloadLength - the length of the payload. The
+	 *				Ethernet II header has no length field, so this is
+	 *				only checked against the room left in buf.
+	 * @return		the length of the header, 14.
+	 */
+    public int build(ByteBuffer buf, int offset, int payloadLength) {
+    	try {
+    		if(offset + 14 + payloadLength > buf.limit())
+    			throw new jND_Exception("jND_EthernetII.build : buffer too small");
+
+    		byte[] tmpmac = dstMAC.toByteArray();
+    		for(int i = 0; i < jND_EthernetAddress.ENET_ADDR_LEN; i++)
+    			buf.put(offset + i, tmpmac[i]);
+
+    		tmpmac = srcMAC.toByteArray();
+    		for(int i = 0; i < jND_EthernetAddress.ENET_ADDR_LEN; i++)
+    			buf.put(offset + 6 + i, tmpmac[i]);
+
+    		buf.put(offset + 12, (byte)(type_len >> 8));
+    		buf.put(offset + 13, (byte)type_len);
+    		headerOffset = offset;
+    		payloadOffset = offset + 14;
+    		return 14;
+    	} catch(jND_Exception nde) {
+    		throw nde;
+    	} catch (Exception e) {
+    		throw new jND_Exception("jND_EthernetII.build : " + e.toString());
+    	}
+    }
+
 };
 
@@ -0,0 +1,66 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_EthernetView <br>
+ * Flyweight view of an Ethernet II header (see jND_HeaderView and
+ * jND_EthernetII). MAC addresses are returned as 48 bit values in the low
+ * bits of a long.
+ * <pre>
+ *      +---------------------+---------------------+---------+
+ *      |     destAddress     |     srcAddress      |  type   |
+ *      +----------48---------+----------48---------+---16----+
+ * </pre>
+ * <br>
+ */
+public class jND_EthernetView extends jND_HeaderView {
+	public static final int HEADER_SIZE = 14;
+
+	/**
+	 * Get the destination MAC address.
+	 * @return	the address, in the low 48 bits.
+	 */
+	public long destAddress() {
+		return u48(0);
+	}
+
+	/**
+	 * Get the source MAC address.
+	 * @return	the address, in the low 48 bits.
+	 */
+	public long srcAddress() {
+		return u48(6);
+	}
+
+	/**
+	 * Get the type (or, for 802.3 frames, length) field.
+	 * @return	the type, such as jND_EthernetII.T_IP.
+	 */
+	public int type() {
+		return u16(12);
+	}
+
+	public int headerSize() {
+		return HEADER_SIZE;
+	}
+
+	protected int minimumSize() {
+		return HEADER_SIZE;
+	}
+};
@@ -0,0 +1,238 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_HeaderView <br>
+ * Base class of the header views. A view is a flyweight: rather than
+ * copying a header out of a packet, it is bound to the packet where it
+ * lies, (buffer, offset, length), and each accessor reads its field
+ * straight from the buffer as a primitive. Binding does not allocate, so
+ * a single set of views can decode packet after packet.
+ * <pre>
+ *		jND_EthernetView eth = new jND_EthernetView();
+ *		jND_IPv4View ip = new jND_IPv4View();
+ *		jND_TCPView tcp = new jND_TCPView();
+ *		...
+ *		eth.bind(pkt, 0, pkt.length);
+ *		if(eth.type() == jND_EthernetII.T_IP) {
+ *			ip.bind(eth);
+ *			if(ip.protocol() == jND_IPv4.P_TCP) {
+ *				tcp.bind(ip);
+ *				int port = tcp.destPort();
+ *				...
+ *			}
+ *		}
+ * </pre>
+ * The buffer may be a byte array or a ByteBuffer (direct or not). Offsets
+ * into a ByteBuffer are absolute and its position, limit and byte order
+ * are left alone. Fields are always read in network order.
+ * <br><br>
+ * A view reads the buffer each time an accessor is called. If the packet
+ * in the buffer changes, so do the values returned. Accessors do not
+ * check that the bound length covers the field; check valid() first for
+ * a packet that may be truncated.
+ * <br><br>
+ */
+public abstract class jND_HeaderView {
+	protected byte[] array;			// the packet, if bound to a byte array
+	protected ByteBuffer buffer;	// the packet, if bound to a ByteBuffer
+	protected int offset;			// where the header starts
+	protected int length;			// octets from offset to the end of the packet
+
+	/**
+	 * Bind the view to a header in a byte array.
+	 * @param	buf - the packet.
+	 * @param	off - where the header starts.
+	 * @param	len - octets from off to the end of the packet.
+	 */
+	public void bind(byte[] buf, int off, int len) {
+		array = buf;
+		buffer = null;
+		offset = off;
+		length = len;
+	}
+
+	/**
+	 * Bind the view to a header in a ByteBuffer.
+	 * @param	buf - the packet.
+	 * @param	off - where the header starts (an absolute index).
+	 * @param	len - octets from off to the end of the packet.
+	 */
+	public void bind(ByteBuffer buf, int off, int len) {
+		array = null;
+		buffer = buf;
+		offset = off;
+		length = len;
+	}
+
+	/**
+	 * Bind the view to the payload of another view. For example, bind an
+	 * IPv4 view to the payload of an Ethernet view.
+	 * @param	outer - the view of the enclosing header.
+	 */
+	public void bind(jND_HeaderView outer) {
+		array = outer.array;
+		buffer = outer.buffer;
+		offset = outer.payloadOffset();
+		length = outer.payloadLength();
+	}
+
+	/**
+	 * Get the offset of the header in the buffer.
+	 * @return	where the header starts.
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Get the number of octets the view is bound to.
+	 * @return	the octets from offset() to the end of the packet.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Get the size of the header, including any options.
+	 * @return	the header size in octets.
+	 */
+	public abstract int headerSize();
+
+	/**
+	 * Find out whether the bound octets hold a whole header.
+	 * @return	true if the header can be read.
+	 */
+	public boolean valid() {
+		return length >= minimumSize() && length >= headerSize();
+	}
+
+	/**
+	 * Get the smallest possible size of the header. valid() checks this
+	 * before asking headerSize(), which may read a length field.
+	 * @return	the minimum header size in octets.
+	 */
+	protected abstract int minimumSize();
+
+	/**
+	 * Get the offset of the payload in the buffer.
+	 * @return	where the payload starts.
+	 */
+	public int payloadOffset() {
+		return offset + headerSize();
+	}
+
+	/**
+	 * Get the size of the payload.
+	 * @return	the octets following the header.
+	 */
+	public int payloadLength() {
+		int n = length - headerSize();
+		return n < 0 ? 0 : n;
+	}
+
+	/**
+	 * Copy the payload out of the packet.
+	 * @return	a new byte array containing the payload.
+	 */
+	public byte[] payload() {
+		byte[] pload = new byte[payloadLength()];
+		copy(payloadOffset(), pload, 0, pload.length);
+		return pload;
+	}
+
+	// ========== Field access, relative to offset ==========
+
+	/** Read an unsigned octet at offset + i */
+	protected final int u8(int i) {
+		if(array != null)
+			return array[offset + i] & 0xff;
+		return buffer.get(offset + i) & 0xff;
+	}
+
+	/** Read an unsigned 16 bit field at offset + i */
+	protected final int u16(int i) {
+		int p = offset + i;
+		if(array != null)
+			return ((array[p] & 0xff) << 8) | (array[p + 1] & 0xff);
+		return ((buffer.get(p) & 0xff) << 8) | (buffer.get(p + 1) & 0xff);
+	}
+
+	/** Read a 32 bit field at offset + i */
+	protected final int s32(int i) {
+		int p = offset + i;
+		if(array != null)
+			return ((array[p] & 0xff) << 24) | ((array[p + 1] & 0xff) << 16)
+				| ((array[p + 2] & 0xff) << 8) | (array[p + 3] & 0xff);
+		return ((buffer.get(p) & 0xff) << 24) | ((buffer.get(p + 1) & 0xff) << 16)
+			| ((buffer.get(p + 2) & 0xff) << 8) | (buffer.get(p + 3) & 0xff);
+	}
+
+	/** Read an unsigned 32 bit field at offset + i */
+	protected final long u32(int i) {
+		return s32(i) & 0xffffffffL;
+	}
+
+	/** Read a 48 bit field (a MAC address) at offset + i */
+	protected final long u48(int i) {
+		return ((long)u16(i) << 32) | u32(i + 2);
+	}
+
+	/** Copy n octets starting at absolute offset 'from' */
+	protected final void copy(int from, byte[] dst, int dstOff, int n) {
+		if(array != null)
+			System.arraycopy(array, from, dst, dstOff, n);
+		else
+			for(int i = 0; i < n; i++)
+				dst[dstOff + i] = buffer.get(from + i);
+	}
+
+	/**
+	 * Compute the internet checksum of n octets at offset + i, folded but
+	 * not complemented. A header whose checksum field is correct sums to
+	 * 0xffff.
+	 */
+	protected final int sum(int i, int n) {
+		int s = 0;
+		int k = 0;
+		for(; k + 1 < n; k += 2)
+			s += u16(i + k);
+		if(k < n)
+			s += u8(i + k) << 8;
+		return fold(s);
+	}
+
+	/**
+	 * Sum the IPv4 pseudo header that TCP and UDP checksums cover.
+	 */
+	protected static int pseudoSum(jND_IPv4View ip, int protocol, int len) {
+		int src = ip.srcAddress();
+		int dst = ip.destAddress();
+		return (src >>> 16) + (src & 0xffff) + (dst >>> 16) + (dst & 0xffff)
+			+ protocol + len;
+	}
+
+	/** Fold the carries of a one's complement sum into 16 bits */
+	protected static int fold(int s) {
+		while((s >>> 16) != 0)
+			s = (s & 0xffff) + (s >>> 16);
+		return s;
+	}
+};
@@ -399,36 +399,36 @@ public class jND_ICMP {
 	private int headerOffset;
 	private int payloadOffset;
 	
-	private jND_BYTE1 typeNo;
-	private jND_BYTE1 codeNo;
-	private jND_BYTE2 checkSumNo;
+	private int typeNo;
+	private int codeNo;
+	private int checkSumNo;
     
-	private jND_BYTE2 identifierNo;
-	private jND_BYTE2 sequenceNumberNo;
+	private int identifierNo;
+	private int sequenceNumberNo;
     
-	private jND_BYTE4 unusedNo;
-	private jND_BYTE2 nextHopMTUNo;
+	private int unusedNo;
+	private int nextHopMTUNo;
     
 	private jND_IPv4 returnedVal;          
 	private jND_IPv4Address routerVal;
     
-	private jND_BYTE4 reservedNo;
-	private jND_BYTE4 preferenceLevelNo;
-	private jND_BYTE1 countNo;
-	private jND_BYTE1 sizeNo;
-	private jND_BYTE4 ttlNo;
+	private int reservedNo;
+	private int preferenceLevelNo;
+	private int countNo;
+	private int sizeNo;
+	private int ttlNo;
     
-	private jND_BYTE4 originateTimestampNo;
-	private jND_BYTE4 receiveTimestampNo;
-	private jND_BYTE4 transmitTimestampNo;
+	private int originateTimestampNo;
+	private int receiveTimestampNo;
+	private int transmitTimestampNo;
 	private jND_IPv4Address addressMaskVal;
     
-	private jND_BYTE2 outboundHopCountNo;
-	private jND_BYTE2 returnHopCountNo;
-	private jND_BYTE1 pointerNo;
-	private jND_BYTE4 outputLinkSpeedNo;
-	private jND_BYTE4 outputLinkMTUNo;
-	private jND_BYTE4 dataOffsetNo;
+	private int outboundHopCountNo;
+	private int returnHopCountNo;
+	private int pointerNo;
+	private int outputLinkSpeedNo;
+	private int outputLinkMTUNo;
+	private int dataOffsetNo;
 
 	private byte[] pload;
 
@@ -498,39 +498,39 @@ public class jND_ICMP {
 			headerOffset = -1;
 			payloadOffset = -1;
 			
-			typeNo = new jND_BYTE1(0);
-			codeNo = new jND_BYTE1(0);
-			checkSumNo = new jND_BYTE2(0);
+			typeNo = 0;
+			codeNo = 0;
+			checkSumNo = 0;
 		    
-			identifierNo = new jND_BYTE2(0);
-			sequenceNumberNo = new jND_BYTE2(0);
+			identifierNo = 0;
+			sequenceNumberNo = 0;
 		    
-			unusedNo = new jND_BYTE4(0);
-			nextHopMTUNo = new jND_BYTE2(0);
+			unusedNo = 0;
+			nextHopMTUNo = 0;
 		    
 		    // returnedVal is a default constructed jND_IPv4
 			returnedVal = new jND_IPv4();
 		    // routerVal is a default constructed jND_IPv4Address
 			routerVal = new jND_IPv4Address();
 		    
-			reservedNo = new jND_BYTE4(0);
-			preferenceLevelNo = new jND_BYTE4(0);
-			countNo = new jND_BYTE1(0);
-			sizeNo = new jND_BYTE1(0);
-			ttlNo = new jND_BYTE4(0);
+			reservedNo = 0;
+			preferenceLevelNo = 0;
+			countNo = 0;
+			sizeNo = 0;
+			ttlNo = 0;
 		    
-			originateTimestampNo = new jND_BYTE4(0);
-			receiveTimestampNo = new jND_BYTE4(0);
-			transmitTimestampNo = new jND_BYTE4(0);			
+			originateTimestampNo = 0;
+			receiveTimestampNo = 0;
+			transmitTimestampNo = 0;			
 			// addressMask is an default constructed jND_IPv4Address
 			addressMaskVal = new jND_IPv4Address();
 		    
-			outboundHopCountNo = new jND_BYTE2(0);
-			returnHopCountNo = new jND_BYTE2(0);
-			pointerNo = new jND_BYTE1(0);
-			outputLinkSpeedNo = new jND_BYTE4(0);
-			outputLinkMTUNo = new jND_BYTE4(0);
-			dataOffsetNo = new jND_BYTE4(0);
+			outboundHopCountNo = 0;
+			returnHopCountNo = 0;
+			pointerNo = 0;
+			outputLinkSpeedNo = 0;
+			outputLinkMTUNo = 0;
+			dataOffsetNo = 0;
 		    
 
 			pload = null;
@@ -547,7 +547,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 type()  {
-		return typeNo;
+		return new jND_BYTE1(typeNo);
 	}
 
 	/**
@@ -556,7 +556,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void type(jND_BYTE1 type) {
-		typeNo = type;
+		type(type.toInt());
+	}
+
+	/**
+	 * Get the type as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the type
+	 */
+	public int typeValue() {
+		return typeNo;
+	}
+
+	/**
+	 * Set the type from an unsigned int.
+	 * @param	value - the new type
+	 */
+	public void type(int value) {
+		typeNo = value & 0xff;
 	}
 
 	/**
@@ -565,7 +582,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 code()  {
-		return codeNo;
+		return new jND_BYTE1(codeNo);
 	}
 
 	/**
@@ -574,7 +591,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void code(jND_BYTE1 code) {
-		codeNo = code;
+		code(code.toInt());
+	}
+
+	/**
+	 * Get the code as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the code
+	 */
+	public int codeValue() {
+		return codeNo;
+	}
+
+	/**
+	 * Set the code from an unsigned int.
+	 * @param	value - the new code
+	 */
+	public void code(int value) {
+		codeNo = value & 0xff;
 	}
 
 	/**
@@ -583,7 +617,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 checkSum()  {
-		return checkSumNo;
+		return new jND_BYTE2(checkSumNo);
 	}
 
 	/**
@@ -594,7 +628,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void checkSum(jND_BYTE2 cksum) {
-		checkSumNo = cksum;
+		checkSum(cksum.toInt());
+	}
+
+	/**
+	 * Get the check sum as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the check sum
+	 */
+	public int checkSumValue() {
+		return checkSumNo;
+	}
+
+	/**
+	 * Set the check sum from an unsigned int.
+	 * @param	value - the new check sum
+	 */
+	public void checkSum(int value) {
+		checkSumNo = value & 0xffff;
 	}
 
 	/**
@@ -603,7 +654,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 identifier()  {
-		return identifierNo;
+		return new jND_BYTE2(identifierNo);
 	}
 
 	/**
@@ -611,7 +662,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void identifier(jND_BYTE2 id) {
-		identifierNo = id;
+		identifier(id.toInt());
+	}
+
+	/**
+	 * Get the identifier as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the identifier
+	 */
+	public int identifierValue() {
+		return identifierNo;
+	}
+
+	/**
+	 * Set the identifier from an unsigned int.
+	 * @param	value - the new identifier
+	 */
+	public void identifier(int value) {
+		identifierNo = value & 0xffff;
 	}
 
 	/**
@@ -620,7 +688,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 sequenceNumber()  {
-		return sequenceNumberNo;
+		return new jND_BYTE2(sequenceNumberNo);
 	}
 
 	/**
@@ -629,7 +697,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void sequenceNumber(jND_BYTE2 seq) {
-		sequenceNumberNo = seq;
+		sequenceNumber(seq.toInt());
+	}
+
+	/**
+	 * Get the sequence number as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the sequence number
+	 */
+	public int sequenceNumberValue() {
+		return sequenceNumberNo;
+	}
+
+	/**
+	 * Set the sequence number from an unsigned int.
+	 * @param	value - the new sequence number
+	 */
+	public void sequenceNumber(int value) {
+		sequenceNumberNo = value & 0xffff;
 	}
 
 	/**
@@ -638,7 +723,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 unused()  {
-		return unusedNo;
+		return new jND_BYTE4(unusedNo);
 	}
 
 	/**
@@ -647,7 +732,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void unused(jND_BYTE4 unused) {
-		unusedNo = unused;
+		unused(unused.toLong());
+	}
+
+	/**
+	 * Get the unused as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the unused
+	 */
+	public long unusedValue() {
+		return unusedNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the unused from an unsigned long.
+	 * @param	value - the new unused
+	 */
+	public void unused(long value) {
+		unusedNo = (int)value;
 	}
 
 	/**
@@ -656,7 +758,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 nextHopMTU()  {
-		return nextHopMTUNo;
+		return new jND_BYTE2(nextHopMTUNo);
 	}
 
 	/**
@@ -665,7 +767,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void nextHopMTU(jND_BYTE2 nextHopMTU) {
-		nextHopMTUNo = nextHopMTU;
+		nextHopMTU(nextHopMTU.toInt());
+	}
+
+	/**
+	 * Get the next hop MTU as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the next hop MTU
+	 */
+	public int nextHopMTUValue() {
+		return nextHopMTUNo;
+	}
+
+	/**
+	 * Set the next hop MTU from an unsigned int.
+	 * @param	value - the new next hop MTU
+	 */
+	public void nextHopMTU(int value) {
+		nextHopMTUNo = value & 0xffff;
 	}
 
 	/**
@@ -709,7 +828,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 reserved()  {
-		return reservedNo;
+		return new jND_BYTE4(reservedNo);
 	}
 
 	/**
@@ -718,7 +837,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void reserved(jND_BYTE4 reserved) {
-		reservedNo = reserved;
+		reserved(reserved.toLong());
+	}
+
+	/**
+	 * Get the reserved as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the reserved
+	 */
+	public long reservedValue() {
+		return reservedNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the reserved from an unsigned long.
+	 * @param	value - the new reserved
+	 */
+	public void reserved(long value) {
+		reservedNo = (int)value;
 	}
 
 	/**
@@ -727,7 +863,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 preferenceLevel()  {
-		return preferenceLevelNo;
+		return new jND_BYTE4(preferenceLevelNo);
 	}
 
 	/**
@@ -736,7 +872,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void preferenceLevel(jND_BYTE4 pref) {
-		preferenceLevelNo = pref;
+		preferenceLevel(pref.toLong());
+	}
+
+	/**
+	 * Get the preference level as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the preference level
+	 */
+	public long preferenceLevelValue() {
+		return preferenceLevelNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the preference level from an unsigned long.
+	 * @param	value - the new preference level
+	 */
+	public void preferenceLevel(long value) {
+		preferenceLevelNo = (int)value;
 	}
 
 	/**
@@ -745,7 +898,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 count()  {
-		return countNo;
+		return new jND_BYTE1(countNo);
 	}
 
 	/**
@@ -754,7 +907,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void count(jND_BYTE1 count) {
-		countNo = count;
+		count(count.toInt());
+	}
+
+	/**
+	 * Get the count as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the count
+	 */
+	public int countValue() {
+		return countNo;
+	}
+
+	/**
+	 * Set the count from an unsigned int.
+	 * @param	value - the new count
+	 */
+	public void count(int value) {
+		countNo = value & 0xff;
 	}
 
 	/**
@@ -763,7 +933,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 size()  {
-		return sizeNo;
+		return new jND_BYTE1(sizeNo);
 	}
 
 	/**
@@ -772,7 +942,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void size(jND_BYTE1 size) {
-		sizeNo = size;
+		size(size.toInt());
+	}
+
+	/**
+	 * Get the size as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the size
+	 */
+	public int sizeValue() {
+		return sizeNo;
+	}
+
+	/**
+	 * Set the size from an unsigned int.
+	 * @param	value - the new size
+	 */
+	public void size(int value) {
+		sizeNo = value & 0xff;
 	}
 
 	/**
@@ -781,7 +968,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 ttl()  {
-		return ttlNo;
+		return new jND_BYTE4(ttlNo);
 	}
 
 	/**
@@ -790,7 +977,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void ttl(jND_BYTE4 ttl) {
-		ttlNo = ttl;
+		ttl(ttl.toLong());
+	}
+
+	/**
+	 * Get the ttl as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the ttl
+	 */
+	public long ttlValue() {
+		return ttlNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the ttl from an unsigned long.
+	 * @param	value - the new ttl
+	 */
+	public void ttl(long value) {
+		ttlNo = (int)value;
 	}
 
 	/**
@@ -800,7 +1004,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 originateTimestamp()  {
-		return originateTimestampNo;
+		return new jND_BYTE4(originateTimestampNo);
 	}
 
 	/**
@@ -810,7 +1014,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void originateTimestamp(jND_BYTE4 timeStamp) {
-		originateTimestampNo = timeStamp;
+		originateTimestamp(timeStamp.toLong());
+	}
+
+	/**
+	 * Get the originate timestamp as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the originate timestamp
+	 */
+	public long originateTimestampValue() {
+		return originateTimestampNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the originate timestamp from an unsigned long.
+	 * @param	value - the new originate timestamp
+	 */
+	public void originateTimestamp(long value) {
+		originateTimestampNo = (int)value;
 	}
 
 	/**
@@ -820,7 +1041,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 receiveTimestamp()  {
-		return receiveTimestampNo;
+		return new jND_BYTE4(receiveTimestampNo);
 	}
 
 	/**
@@ -830,7 +1051,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void receiveTimestamp(jND_BYTE4 timeStamp) {
-		receiveTimestampNo = timeStamp;
+		receiveTimestamp(timeStamp.toLong());
+	}
+
+	/**
+	 * Get the receive timestamp as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the receive timestamp
+	 */
+	public long receiveTimestampValue() {
+		return receiveTimestampNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the receive timestamp from an unsigned long.
+	 * @param	value - the new receive timestamp
+	 */
+	public void receiveTimestamp(long value) {
+		receiveTimestampNo = (int)value;
 	}
 
 	/**
@@ -840,7 +1078,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 transmitTimestamp()  {
-		return transmitTimestampNo;
+		return new jND_BYTE4(transmitTimestampNo);
 	}
 
 	/**
@@ -850,7 +1088,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void transmitTimestamp(jND_BYTE4 timeStamp) {
-		transmitTimestampNo = timeStamp;
+		transmitTimestamp(timeStamp.toLong());
+	}
+
+	/**
+	 * Get the transmit timestamp as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the transmit timestamp
+	 */
+	public long transmitTimestampValue() {
+		return transmitTimestampNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the transmit timestamp from an unsigned long.
+	 * @param	value - the new transmit timestamp
+	 */
+	public void transmitTimestamp(long value) {
+		transmitTimestampNo = (int)value;
 	}
 
 	/**
@@ -877,7 +1132,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 outboundHopCount()  {
-		return outboundHopCountNo;
+		return new jND_BYTE2(outboundHopCountNo);
 	}
 
 	/**
@@ -886,7 +1141,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void outboundHopCount(jND_BYTE2 hops) {
-		outboundHopCountNo = hops;
+		outboundHopCount(hops.toInt());
+	}
+
+	/**
+	 * Get the outbound hop count as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the outbound hop count
+	 */
+	public int outboundHopCountValue() {
+		return outboundHopCountNo;
+	}
+
+	/**
+	 * Set the outbound hop count from an unsigned int.
+	 * @param	value - the new outbound hop count
+	 */
+	public void outboundHopCount(int value) {
+		outboundHopCountNo = value & 0xffff;
 	}
 
 	/**
@@ -895,7 +1167,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 returnHopCount()  {
-		return returnHopCountNo;
+		return new jND_BYTE2(returnHopCountNo);
 	}
 
 	/**
@@ -904,7 +1176,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void returnHopCount(jND_BYTE2 hops) {
-		returnHopCountNo = hops;
+		returnHopCount(hops.toInt());
+	}
+
+	/**
+	 * Get the return hop count as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the return hop count
+	 */
+	public int returnHopCountValue() {
+		return returnHopCountNo;
+	}
+
+	/**
+	 * Set the return hop count from an unsigned int.
+	 * @param	value - the new return hop count
+	 */
+	public void returnHopCount(int value) {
+		returnHopCountNo = value & 0xffff;
 	}
 
 	/**
@@ -913,7 +1202,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 pointer()  {
-		return pointerNo;
+		return new jND_BYTE1(pointerNo);
 	}
 
 	/**
@@ -922,7 +1211,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void pointer(jND_BYTE1 ptr) {
-		pointerNo = ptr;
+		pointer(ptr.toInt());
+	}
+
+	/**
+	 * Get the pointer as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the pointer
+	 */
+	public int pointerValue() {
+		return pointerNo;
+	}
+
+	/**
+	 * Set the pointer from an unsigned int.
+	 * @param	value - the new pointer
+	 */
+	public void pointer(int value) {
+		pointerNo = value & 0xff;
 	}
 
 	/**
@@ -931,7 +1237,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 outputLinkSpeed()  {
-		return outputLinkSpeedNo;
+		return new jND_BYTE4(outputLinkSpeedNo);
 	}
 
 	/**
@@ -940,7 +1246,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void outputLinkSpeed(jND_BYTE4 linkSpeed) {
-		outputLinkSpeedNo = linkSpeed;
+		outputLinkSpeed(linkSpeed.toLong());
+	}
+
+	/**
+	 * Get the output link speed as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the output link speed
+	 */
+	public long outputLinkSpeedValue() {
+		return outputLinkSpeedNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the output link speed from an unsigned long.
+	 * @param	value - the new output link speed
+	 */
+	public void outputLinkSpeed(long value) {
+		outputLinkSpeedNo = (int)value;
 	}
 
 	/**
@@ -949,7 +1272,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 outputLinkMTU()  {
-		return outputLinkMTUNo;
+		return new jND_BYTE4(outputLinkMTUNo);
 	}
 
 	/**
@@ -958,7 +1281,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void outputLinkMTU(jND_BYTE4 linkMTU) {
-		outputLinkMTUNo = linkMTU;
+		outputLinkMTU(linkMTU.toLong());
+	}
+
+	/**
+	 * Get the output link MTU as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the output link MTU
+	 */
+	public long outputLinkMTUValue() {
+		return outputLinkMTUNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the output link MTU from an unsigned long.
+	 * @param	value - the new output link MTU
+	 */
+	public void outputLinkMTU(long value) {
+		outputLinkMTUNo = (int)value;
 	}
 
 	/**
@@ -967,7 +1307,7 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 dataOffset()  {
-		return dataOffsetNo;
+		return new jND_BYTE4(dataOffsetNo);
 	}
 
 	/**
@@ -976,7 +1316,24 @@ public class jND_ICMP {
 	 * @author	Pete Lutz
 	 */
 	public void dataOffset(jND_BYTE4 offset) {
-		dataOffsetNo = offset;
+		dataOffset(offset.toLong());
+	}
+
+	/**
+	 * Get the data offset as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the data offset
+	 */
+	public long dataOffsetValue() {
+		return dataOffsetNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the data offset from an unsigned long.
+	 * @param	value - the new data offset
+	 */
+	public void dataOffset(long value) {
+		dataOffsetNo = (int)value;
 	}
 
 	/**
@@ -1024,18 +1381,18 @@ public class jND_ICMP {
 			DataInputStream pis = new DataInputStream(bais);
 			pis.skipBytes(headerOffset);
 		    
-			typeNo = new jND_BYTE1(pis.readByte());
-			codeNo = new jND_BYTE1(pis.readByte());
-			checkSumNo = new jND_BYTE2(pis.readShort());
+			typeNo = pis.readUnsignedByte();
+			codeNo = pis.readUnsignedByte();
+			checkSumNo = pis.readUnsignedShort();
 
 			long tmp;
 		    
-			switch(typeNo.toInt()) {
+			switch(typeNo) {
 				// Ping req/reply
 				case 0:
 				case 8:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					sequenceNumberNo = new jND_BYTE2(pis.readShort());
+					identifierNo = pis.readUnsignedShort();
+					sequenceNumberNo = pis.readUnsignedShort();
 					if(offset+8 < pkt.length) {
 						pload = new byte[pkt.length - (offset+8)];
 						for(int i = 0; i < pload.length; i++) 
@@ -1059,27 +1416,27 @@ public class jND_ICMP {
 						pload = returnedVal.payload();
 
 					// Now, parse the unusedTmp from above depending on type
-					if(typeNo.toInt() == 3) {
-						nextHopMTUNo = new jND_BYTE2(unusedTmp);
-						unusedNo = new jND_BYTE4(unusedTmp >> 16);
+					if(typeNo == 3) {
+						nextHopMTUNo = unusedTmp & 0xffff;
+						unusedNo = unusedTmp >> 16;
 					}
-					else if(typeNo.toInt() == 5) {
+					else if(typeNo == 5) {
 						for(int i = 0; i < jND_IPv4Address.IP_ADDR_LEN; i++) {
 							tmpRouterVal[i] = (byte)((unusedTmp >> 24) & 0xff);
 							unusedTmp = unusedTmp << 8;
 						}
 						routerVal = new jND_IPv4Address(tmpRouterVal);
-						unusedNo = new jND_BYTE4(0);
+						unusedNo = 0;
 					}
-					else if(typeNo.toInt() == 12) {
-						pointerNo = new jND_BYTE1(unusedTmp >> 24);
-						unusedNo = new jND_BYTE4(unusedTmp & 0xffffff);
+					else if(typeNo == 12) {
+						pointerNo = (unusedTmp >> 24) & 0xff;
+						unusedNo = unusedTmp & 0xffffff;
 					}
 					break;  
 				case 9:
-					countNo = new jND_BYTE1(pis.readByte());
-					sizeNo = new jND_BYTE1(pis.readByte());
-					ttlNo = new jND_BYTE4(pis.readShort());
+					countNo = pis.readUnsignedByte();
+					sizeNo = pis.readUnsignedByte();
+					ttlNo = pis.readUnsignedShort();
 
 					tmp = pis.readInt();
 					for(int i = 0; i < 4; i++) {
@@ -1088,65 +1445,65 @@ public class jND_ICMP {
 					}
 					routerVal = new jND_IPv4Address(tmpRouterVal);
 
-					preferenceLevelNo = new jND_BYTE4(pis.readInt());
+					preferenceLevelNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+16)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 10:
-					reservedNo = new jND_BYTE4(pis.readInt());
+					reservedNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+16)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 13:
 				case 14:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					sequenceNumberNo = new jND_BYTE2(pis.readShort());
-					originateTimestampNo = new jND_BYTE4(pis.readInt());
-					receiveTimestampNo = new jND_BYTE4(pis.readInt());
-					transmitTimestampNo = new jND_BYTE4(pis.readInt());
+					identifierNo = pis.readUnsignedShort();
+					sequenceNumberNo = pis.readUnsignedShort();
+					originateTimestampNo = pis.readInt();
+					receiveTimestampNo = pis.readInt();
+					transmitTimestampNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+20)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 17:
 				case 18:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					sequenceNumberNo = new jND_BYTE2(pis.readShort());
+					identifierNo = pis.readUnsignedShort();
+					sequenceNumberNo = pis.readUnsignedShort();
 					addressMaskVal = new jND_IPv4Address(new jND_BYTE4(pis.readInt()));
 					pload= new byte[pkt.length - (offset+12)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 30:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					unusedNo = new jND_BYTE4(pis.readShort());
-					outboundHopCountNo = new jND_BYTE2(pis.readShort());
-					returnHopCountNo = new jND_BYTE2(pis.readShort());
-					outputLinkSpeedNo = new jND_BYTE4(pis.readInt());
-					outputLinkMTUNo = new jND_BYTE4(pis.readInt());
+					identifierNo = pis.readUnsignedShort();
+					unusedNo = pis.readUnsignedShort();
+					outboundHopCountNo = pis.readUnsignedShort();
+					returnHopCountNo = pis.readUnsignedShort();
+					outputLinkSpeedNo = pis.readInt();
+					outputLinkMTUNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+20)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 31:
-					dataOffsetNo = new jND_BYTE4(pis.readInt());
+					dataOffsetNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+8)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 37:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					sequenceNumberNo = new jND_BYTE2(pis.readShort());
+					identifierNo = pis.readUnsignedShort();
+					sequenceNumberNo = pis.readUnsignedShort();
 					pload = new byte[pkt.length - (offset+8)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
 					break;
 				case 38:
-					identifierNo = new jND_BYTE2(pis.readShort());
-					sequenceNumberNo = new jND_BYTE2(pis.readShort());
-					ttlNo = new jND_BYTE4(pis.readInt());
+					identifierNo = pis.readUnsignedShort();
+					sequenceNumberNo = pis.readUnsignedShort();
+					ttlNo = pis.readInt();
 					pload = new byte[pkt.length - (offset+12)];
 					for(int i = 0; i < pload.length; i++)
 						pload[i] = pis.readByte();
@@ -1169,19 +1526,19 @@ public class jND_ICMP {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream pos = new DataOutputStream(baos);
 
-			pos.writeByte(typeNo.toByte());
-			pos.writeByte(codeNo.toByte());
-			checkSumNo = new jND_BYTE2(0);	// To be calculated and replaced below
-			pos.writeShort(checkSumNo.toShort());
+			pos.writeByte((byte)typeNo);
+			pos.writeByte((byte)codeNo);
+			checkSumNo = 0;	// To be calculated and replaced below
+			pos.writeShort((short)checkSumNo);
 
 			long tmp;
 			byte[] retHdr;
 		    
-			switch(typeNo.toInt()) {
+			switch(typeNo) {
 				case 0:
 				case 8:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(sequenceNumberNo.toShort());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)sequenceNumberNo);
 					break;
 				case 3:
 				case 4:
@@ -1189,20 +1546,20 @@ public class jND_ICMP {
 				case 11:
 				case 12:
 					tmp = 0;
-					if(typeNo.toInt() == 3) 
-						tmp = (unusedNo.toInt() << 16) | 
-							(nextHopMTUNo.toInt());
-					else if(typeNo.toInt() == 4 || typeNo.toInt() == 11) 
-						tmp = unusedNo.toLong();
-					else if(typeNo.toInt() == 5) {
+					if(typeNo == 3) 
+						tmp = (unusedNo << 16) | 
+							(nextHopMTUNo);
+					else if(typeNo == 4 || typeNo == 11) 
+						tmp = (unusedNo & 0xffffffffL);
+					else if(typeNo == 5) {
 						byte[] tmprv = routerVal.toByteArray();
 						for(int i = 0; i < 4; i++) {
 							tmp = tmp << 8;
 							tmp = tmp | (tmprv[i] & 0xff);
 						}
 					}
-					else if(typeNo.toInt() == 12) 
-						tmp = (pointerNo.toByte() << 24) | (unusedNo.toInt() & 0xffffff);
+					else if(typeNo == 12) 
+						tmp = ((byte)pointerNo << 24) | (unusedNo & 0xffffff);
 					pos.writeInt((int)tmp);
 					retHdr = returnedVal.build();
 					// the +8 is because the 1st 8 bytes of the IP payload is
@@ -1213,37 +1570,37 @@ public class jND_ICMP {
 					break;
 				case 13:
 				case 14:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(sequenceNumberNo.toShort());
-					pos.writeInt(originateTimestampNo.toInt());
-					pos.writeInt(receiveTimestampNo.toInt());
-					pos.writeInt(transmitTimestampNo.toInt());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)sequenceNumberNo);
+					pos.writeInt(originateTimestampNo);
+					pos.writeInt(receiveTimestampNo);
+					pos.writeInt(transmitTimestampNo);
 					break;
 				case 17:
 				case 18:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(sequenceNumberNo.toShort());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)sequenceNumberNo);
 					pos.writeInt(addressMaskVal.toByte4().toInt());
 					break;
 				case 30:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(unusedNo.toShort());
-					pos.writeShort(outboundHopCountNo.toShort());
-					pos.writeShort(returnHopCountNo.toShort());
-					pos.writeInt(outputLinkSpeedNo.toInt());
-					pos.writeInt(outputLinkMTUNo.toInt());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)unusedNo);
+					pos.writeShort((short)outboundHopCountNo);
+					pos.writeShort((short)returnHopCountNo);
+					pos.writeInt(outputLinkSpeedNo);
+					pos.writeInt(outputLinkMTUNo);
 					break;
 				case 31:
-					pos.writeInt(dataOffsetNo.toInt());
+					pos.writeInt(dataOffsetNo);
 					break;
 				case 37:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(sequenceNumberNo.toShort());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)sequenceNumberNo);
 					break;
 				case 38:
-					pos.writeShort(identifierNo.toShort());
-					pos.writeShort(sequenceNumberNo.toShort());
-					pos.writeInt(ttlNo.toInt());
+					pos.writeShort((short)identifierNo);
+					pos.writeShort((short)sequenceNumberNo);
+					pos.writeInt(ttlNo);
 					break;                
 			} 
 			
@@ -1257,10 +1614,9 @@ public class jND_ICMP {
 		    
 			// Recalculate the checksum
 			byte[] packet = baos.toByteArray();
-			checkSumNo = new jND_BYTE2(
-					jND_Utility.checkSum(packet, (int)(packet.length)));
-			packet[2] = (byte)((checkSumNo.toInt() >> 8) & 0xff);
-			packet[3] = (byte)(checkSumNo.toInt() & 0xff);
+			checkSumNo = jND_Utility.checkSum(packet, packet.length);
+			packet[2] = (byte)((checkSumNo >> 8) & 0xff);
+			packet[3] = (byte)(checkSumNo & 0xff);
 		    
 			return packet;
 		} catch(jND_Exception nde) {
@@ -0,0 +1,118 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_ICMPView <br>
+ * Flyweight view of an ICMP message (see jND_HeaderView and jND_ICMP).
+ * The view covers the 8 octet header common to all ICMP messages; the
+ * meaning of octets 4 to 7 depends on the type, so several accessors
+ * read the same octets. The payload starts after those 8 octets. For
+ * error messages (destination unreachable, time exceeded, ...) it holds
+ * the IP header of the offending datagram, which a jND_IPv4View can be
+ * bound to:
+ * <pre>
+ *		if(icmp.type() == jND_ICMP.T_TIME_EXCEEDED)
+ *			inner.bind(icmp);
+ * </pre>
+ * <br>
+ */
+public class jND_ICMPView extends jND_HeaderView {
+	public static final int HEADER_SIZE = 8;
+
+	/**
+	 * Get the message type.
+	 * @return	the type, such as jND_ICMP.T_PING_REQUEST.
+	 */
+	public int type() {
+		return u8(0);
+	}
+
+	/**
+	 * Get the message code.
+	 * @return	the code.
+	 */
+	public int code() {
+		return u8(1);
+	}
+
+	/**
+	 * Get the checksum.
+	 * @return	the checksum field.
+	 */
+	public int checkSum() {
+		return u16(2);
+	}
+
+	/**
+	 * Get the identifier (echo, timestamp and address mask messages).
+	 * @return	the identifier.
+	 */
+	public int identifier() {
+		return u16(4);
+	}
+
+	/**
+	 * Get the sequence number (echo, timestamp and address mask messages).
+	 * @return	the sequence number.
+	 */
+	public int sequenceNumber() {
+		return u16(6);
+	}
+
+	/**
+	 * Get the next hop MTU (destination unreachable, fragmentation needed).
+	 * @return	the MTU.
+	 */
+	public int nextHopMTU() {
+		return u16(6);
+	}
+
+	/**
+	 * Get the gateway address (redirect messages).
+	 * @return	the address as an int.
+	 */
+	public int router() {
+		return s32(4);
+	}
+
+	/**
+	 * Get the pointer (parameter problem messages).
+	 * @return	the offset of the octet in error.
+	 */
+	public int pointer() {
+		return u8(4);
+	}
+
+	/**
+	 * Find out whether the checksum, which covers the whole message, is
+	 * correct.
+	 * @return	true if it is.
+	 */
+	public boolean checksumValid() {
+		return sum(0, length) == 0xffff;
+	}
+
+	public int headerSize() {
+		return HEADER_SIZE;
+	}
+
+	protected int minimumSize() {
+		return HEADER_SIZE;
+	}
+};
@@ -17,6 +17,7 @@
 package jNetDev.Headers;
 import jNetDev.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /**
  * jND_IPv4 <br>
@@ -91,16 +92,16 @@ import java.io.*;
 public class jND_IPv4 {
 	private int headerOffset;
 	private int payloadOffset;
-	private jND_BYTE1 versionNo;
-	private jND_BYTE1 hdrLenNo;
-	private jND_BYTE1 tosNo;
-	private jND_BYTE2 lengthNo;
-	private jND_BYTE2 fragIDNo;
-	private jND_BYTE1 flagsNo;
-	private jND_BYTE2 fragOffNo;
-	private jND_BYTE1 ttlNo;
-	private jND_BYTE1 protocolNo;
-	private jND_BYTE2 hdrCkSumNo;
+	private int versionNo;
+	private int hdrLenNo;
+	private int tosNo;
+	private int lengthNo;
+	private int fragIDNo;
+	private int flagsNo;
+	private int fragOffNo;
+	private int ttlNo;
+	private int protocolNo;
+	private int hdrCkSumNo;
 	private jND_IPv4Address srcIP;
 	private jND_IPv4Address dstIP;
 	private byte[] optArray;
@@ -120,16 +121,16 @@ public class jND_IPv4 {
     	try {
     		headerOffset = -1;
     		payloadOffset = -1;
-    		versionNo = new jND_BYTE1(0);
-    		hdrLenNo = new jND_BYTE1(0);
-    		tosNo = new jND_BYTE1(0);
-    		lengthNo = new jND_BYTE2(0);
-    		fragIDNo = new jND_BYTE2(0);
-    		flagsNo = new jND_BYTE1(0);
-    		fragOffNo = new jND_BYTE2(0);
-    		ttlNo = new jND_BYTE1(0);
-    		protocolNo = new jND_BYTE1(0);
-    		hdrCkSumNo = new jND_BYTE2(0);
+    		versionNo = 0;
+    		hdrLenNo = 0;
+    		tosNo = 0;
+    		lengthNo = 0;
+    		fragIDNo = 0;
+    		flagsNo = 0;
+    		fragOffNo = 0;
+    		ttlNo = 0;
+    		protocolNo = 0;
+    		hdrCkSumNo = 0;
     		srcIP = new jND_IPv4Address();
     		dstIP = new jND_IPv4Address();
     		optArray = null;
@@ -148,7 +149,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 version()  {
-    	return versionNo;
+    	return new jND_BYTE1(versionNo);
     }
     
 	/**
@@ -159,7 +160,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void version(jND_BYTE1 ver) {
-    	versionNo = new jND_BYTE1(ver.toInt() & 0xf);
+    	version(ver.toInt());
+    }
+
+    /**
+     * Get the version as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the version
+     */
+    public int versionValue() {
+    	return versionNo;
+    }
+
+    /**
+     * Set the version from an unsigned int.
+     * @param	value - the new version
+     */
+    public void version(int value) {
+    	versionNo = value & 0xf;
     }
 	
 	/**
@@ -170,7 +188,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 headerLength()  {
-    	return hdrLenNo;
+    	return new jND_BYTE1(hdrLenNo);
     }
     
 	/**
@@ -182,7 +200,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void headerLength(jND_BYTE1 hdrlen) {
-    	hdrLenNo = new jND_BYTE1(hdrlen.toInt() & 0xf);
+    	headerLength(hdrlen.toInt());
+    }
+
+    /**
+     * Get the header length as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the header length
+     */
+    public int headerLengthValue() {
+    	return hdrLenNo;
+    }
+
+    /**
+     * Set the header length from an unsigned int.
+     * @param	value - the new header length
+     */
+    public void headerLength(int value) {
+    	hdrLenNo = value & 0xf;
     }
 
 	/**
@@ -192,7 +227,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 tos()  {
-    	return tosNo;
+    	return new jND_BYTE1(tosNo);
     }
     
 	/**
@@ -203,7 +238,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void tos(jND_BYTE1 type) {
-    	tosNo = type;
+    	tos(type.toInt());
+    }
+
+    /**
+     * Get the tos as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the tos
+     */
+    public int tosValue() {
+    	return tosNo;
+    }
+
+    /**
+     * Set the tos from an unsigned int.
+     * @param	value - the new tos
+     */
+    public void tos(int value) {
+    	tosNo = value & 0xff;
     }
 
 	/**
@@ -214,7 +266,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE2 length()  {
-    	return lengthNo;
+    	return new jND_BYTE2(lengthNo);
     }
     
 	/**
@@ -226,8 +278,25 @@ public class jND_IPv4 {
 	 *            the length
 	 * @author Pete Lutz
 	 */
-    public void length( jND_BYTE2 len) {
-    	lengthNo = (len);
+    public void length(jND_BYTE2 len) {
+    	length(len.toInt());
+    }
+
+    /**
+     * Get the length as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the length
+     */
+    public int lengthValue() {
+    	return lengthNo;
+    }
+
+    /**
+     * Set the length from an unsigned int.
+     * @param	value - the new length
+     */
+    public void length(int value) {
+    	lengthNo = value & 0xffff;
     }
 
 	/**
@@ -239,7 +308,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE2 fragmentID()  {
-    	return fragIDNo;
+    	return new jND_BYTE2(fragIDNo);
     }
     
 	/**
@@ -252,7 +321,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void fragmentID(jND_BYTE2 id) {
-    	fragIDNo = id;
+    	fragmentID(id.toInt());
+    }
+
+    /**
+     * Get the fragment ID as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the fragment ID
+     */
+    public int fragmentIDValue() {
+    	return fragIDNo;
+    }
+
+    /**
+     * Set the fragment ID from an unsigned int.
+     * @param	value - the new fragment ID
+     */
+    public void fragmentID(int value) {
+    	fragIDNo = value & 0xffff;
     }
 
 	/**
@@ -262,7 +348,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 flags()  {
-    	return flagsNo;
+    	return new jND_BYTE1(flagsNo);
     }
     
 	/**
@@ -273,7 +359,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void flags(jND_BYTE1 flagbits) {
-    	flagsNo = new jND_BYTE1(flagbits.toInt() & 0x7);
+    	flags(flagbits.toInt());
+    }
+
+    /**
+     * Get the flags as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the flags
+     */
+    public int flagsValue() {
+    	return flagsNo;
+    }
+
+    /**
+     * Set the flags from an unsigned int.
+     * @param	value - the new flags
+     */
+    public void flags(int value) {
+    	flagsNo = value & 0x7;
     }
 
 	/**
@@ -285,7 +388,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE2 fragmentOffset()  {
-    	return fragOffNo;
+    	return new jND_BYTE2(fragOffNo);
     }
     
 	/**
@@ -298,7 +401,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void fragmentOffset(jND_BYTE2 fragOffset) {
-    	fragOffNo = new jND_BYTE2(fragOffset.toInt() & 0x1fff);
+    	fragmentOffset(fragOffset.toInt());
+    }
+
+    /**
+     * Get the fragment offset as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the fragment offset
+     */
+    public int fragmentOffsetValue() {
+    	return fragOffNo;
+    }
+
+    /**
+     * Set the fragment offset from an unsigned int.
+     * @param	value - the new fragment offset
+     */
+    public void fragmentOffset(int value) {
+    	fragOffNo = value & 0x1fff;
     }
 
 	/**
@@ -309,7 +429,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 ttl()  {
-    	return ttlNo;
+    	return new jND_BYTE1(ttlNo);
     }
     
 	/**
@@ -320,7 +440,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void ttl(jND_BYTE1 newttl) {
-    	ttlNo = newttl;
+    	ttl(newttl.toInt());
+    }
+
+    /**
+     * Get the ttl as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the ttl
+     */
+    public int ttlValue() {
+    	return ttlNo;
+    }
+
+    /**
+     * Set the ttl from an unsigned int.
+     * @param	value - the new ttl
+     */
+    public void ttl(int value) {
+    	ttlNo = value & 0xff;
     }
 
 	/**
@@ -331,7 +468,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE1 protocol()  {
-    	return protocolNo;
+    	return new jND_BYTE1(protocolNo);
     }
     
 	/**
@@ -343,7 +480,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void protocol(jND_BYTE1 protocol) {
-    	protocolNo = protocol;
+    	protocol(protocol.toInt());
+    }
+
+    /**
+     * Get the protocol as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the protocol
+     */
+    public int protocolValue() {
+    	return protocolNo;
+    }
+
+    /**
+     * Set the protocol from an unsigned int.
+     * @param	value - the new protocol
+     */
+    public void protocol(int value) {
+    	protocolNo = value & 0xff;
     }
 
 	/**
@@ -353,7 +507,7 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public jND_BYTE2 headerCheckSum()  {
-    	return hdrCkSumNo;
+    	return new jND_BYTE2(hdrCkSumNo);
     }
     
 	/**
@@ -366,7 +520,24 @@ public class jND_IPv4 {
 	 * @author Pete Lutz
 	 */
     public void headerCheckSum(jND_BYTE2 newcksum) {
-    	hdrCkSumNo = newcksum;
+    	headerCheckSum(newcksum.toInt());
+    }
+
+    /**
+     * Get the header check sum as an unsigned int,
+     * without allocating a wrapper.
+     * @return	the header check sum
+     */
+    public int headerCheckSumValue() {
+    	return hdrCkSumNo;
+    }
+
+    /**
+     * Set the header check sum from an unsigned int.
+     * @param	value - the new header check sum
+     */
+    public void headerCheckSum(int value) {
+    	hdrCkSumNo = value & 0xffff;
     }
 
 	/**
@@ -485,17 +656,17 @@ public class jND_IPv4 {
     		pis.skipBytes(offset);;
 
     		int tmp = pis.readByte();
-    		versionNo = new jND_BYTE1((tmp >> 4) & 0xf);
-    		hdrLenNo = new jND_BYTE1(tmp & 0xf);
-    		tosNo = new jND_BYTE1(pis.readByte());
-    		lengthNo = new jND_BYTE2(pis.readShort());
-    		fragIDNo = new jND_BYTE2(pis.readShort());
+    		versionNo = (tmp >> 4) & 0xf;
+    		hdrLenNo = tmp & 0xf;
+    		tosNo = pis.readUnsignedByte();
+    		lengthNo = pis.readUnsignedShort();
+    		fragIDNo = pis.readUnsignedShort();
     		tmp = pis.readShort();
-    		flagsNo = new jND_BYTE1((tmp >> 13) & 0x7);
-    		fragOffNo = new jND_BYTE2(tmp & 0x1fff);
-    		ttlNo = new jND_BYTE1(pis.readByte());
-    		protocolNo = new jND_BYTE1(pis.readByte());
-    		hdrCkSumNo = new jND_BYTE2(pis.readShort());
+    		flagsNo = (tmp >> 13) & 0x7;
+    		fragOffNo = tmp & 0x1fff;
+    		ttlNo = pis.readUnsignedByte();
+    		protocolNo = pis.readUnsignedByte();
+    		hdrCkSumNo = pis.readUnsignedShort();
 
     		byte[] tmpip = new byte[jND_IPv4Address.IP_ADDR_LEN];
     		for(int i = 0; i < jND_IPv4Address.IP_ADDR_LEN; i++) {
@@ -508,7 +679,7 @@ public class jND_IPv4 {
     		}
     		dstIP.address(tmpip);
 
-    		int hlen = hdrLenNo.toInt() * 4; // Header length in bytes
+    		int hlen = hdrLenNo * 4; // Header length in bytes
     		int optLen = hlen - 20; // # of bytes of options
     		if(optLen > 0) {
     			optArray = new byte[optLen];
@@ -592,4 +763,64 @@ public class jND_IPv4 {
     	}
     }
 
+	/**
+	 * Method to build the header into a buffer, ahead of a payload that
+	 * is, or will be, placed right after it. The header length, total
+	 * length and header checksum are filled in. Unlike build(), nothing
+	 * is allocated and the payload field is not used.
+	 * @param		buf - the buffer to write the header into.
+	 * @param		offset - where the header starts in buf.
+	 * @param		payloadLength - the length of the payload.
+	 * @return		the length of the header, options included.
+	 */
+    public int build(ByteBuffer buf, int offset, int payloadLength) {
+    	try {
+    		int hlen = 20;
+    		if(optArray != null) hlen += optArray.length;
+    		if(offset + hlen + payloadLength > buf.limit())
+    			throw new jND_Exception("jND_IPv4.build : buffer too small");
+
+    		hdrLenNo = (hlen / 4) & 0xf;
+    		lengthNo = (hlen + payloadLength) & 0xffff;
+    		hdrCkSumNo = 0;						// recalculated below
+
+    		buf.put(offset, (byte)((versionNo << 4) | hdrLenNo));
+    		buf.put(offset + 1, (byte)tosNo);
+    		buf.put(offset + 2, (byte)(lengthNo >> 8));
+    		buf.put(offset + 3, (byte)lengthNo);
+    		buf.put(offset + 4, (byte)(fragIDNo >> 8));
+    		buf.put(offset + 5, (byte)fragIDNo);
+    		int fragWord = (flagsNo << 13) | fragOffNo;
+    		buf.put(offset + 6, (byte)(fragWord >> 8));
+    		buf.put(offset + 7, (byte)fragWord);
+    		buf.put(offset + 8, (byte)ttlNo);
+    		buf.put(offset + 9, (byte)protocolNo);
+    		buf.put(offset + 10, (byte)0);
+    		buf.put(offset + 11, (byte)0);
+
+    		byte[] tmp = srcIP.toByteArray();
+    		for(int i = 0; i < jND_IPv4Address.IP_ADDR_LEN; i++)
+    			buf.put(offset + 12 + i, tmp[i]);
+
+    		tmp = dstIP.toByteArray();
+    		for(int i = 0; i < jND_IPv4Address.IP_ADDR_LEN; i++)
+    			buf.put(offset + 16 + i, tmp[i]);
+
+    		if(optArray != null)
+    			for(int i = 0; i < optArray.length; i++)
+    				buf.put(offset + 20 + i, optArray[i]);
+
+    		hdrCkSumNo = jND_Utility.checkSum(buf, offset, hlen);
+    		buf.put(offset + 10, (byte)(hdrCkSumNo >> 8));
+    		buf.put(offset + 11, (byte)hdrCkSumNo);
+    		headerOffset = offset;
+    		payloadOffset = offset + hlen;
+    		return hlen;
+    	} catch(jND_Exception nde) {
+    		throw nde;
+    	} catch (Exception e) {
+    		throw new jND_Exception("jND_IPv4.build : " + e.toString());
+    	}
+    }
+
 };
@@ -134,15 +134,20 @@ public class jND_IPv4Address
 	 * @author Pete Lutz
 	 */
     public void address(jND_BYTE4 ip) {
-    	int tmp = ip.toInt();
-    	
-    	v_ip[3] = (byte)(tmp & 0xff);
-    	tmp = tmp >> 8;
-    	v_ip[2] = (byte)(tmp & 0xff);
-    	tmp = tmp >> 8;
-    	v_ip[1] = (byte)(tmp & 0xff);
-    	tmp = tmp >> 8;
-    	v_ip[0] = (byte)(tmp & 0xff);
+    	address(ip.toInt());
+    }
+
+	/**
+	 * Mutate (change) the underlying address based on an int
+	 * holding the address in network order (the first octet in the
+	 * high byte). Unlike address(jND_BYTE4), no wrapper is needed.
+	 * @param ip - the new value of the IP address.
+	 */
+    public void address(int ip) {
+    	v_ip[0] = (byte)(ip >> 24);
+    	v_ip[1] = (byte)(ip >> 16);
+    	v_ip[2] = (byte)(ip >> 8);
+    	v_ip[3] = (byte)ip;
     }
 	
 	/**
@@ -181,15 +186,16 @@ public class jND_IPv4Address
 	 * @author Pete Lutz
 	 */
     public jND_BYTE4 toByte4()  {
-    	int retval = 0;
-    	
-    	retval |= (v_ip[0] & 0xff);
-    	retval = retval << 8;
-    	retval |= (v_ip[1] & 0xff);
-    	retval = retval << 8;
-    	retval |= (v_ip[2] & 0xff);
-    	retval = retval << 8;
-    	retval |= (v_ip[3] & 0xff);
-    	return new jND_BYTE4(retval);
+    	return new jND_BYTE4(toInt());
+    }
+
+	/**
+	 * Convert the underlying IP address to an int, the first octet
+	 * in the high byte. Unlike toByte4(), no wrapper is allocated.
+	 * @return the address as an int.
+	 */
+    public int toInt() {
+    	return ((v_ip[0] & 0xff) << 24) | ((v_ip[1] & 0xff) << 16)
+    		| ((v_ip[2] & 0xff) << 8) | (v_ip[3] & 0xff);
     }
 };
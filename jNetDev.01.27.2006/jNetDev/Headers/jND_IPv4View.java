@@ -0,0 +1,152 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_IPv4View <br>
+ * Flyweight view of an IPv4 header (see jND_HeaderView and jND_IPv4).
+ * Addresses are returned as ints, most significant octet first.
+ * <br><br>
+ * The payload is taken to end where the datagram's length field says,
+ * so Ethernet padding after a short datagram is not part of it.
+ * <br><br>
+ */
+public class jND_IPv4View extends jND_HeaderView {
+	public static final int MIN_HEADER_SIZE = 20;
+
+	/**
+	 * Get the IP version.
+	 * @return	the version, 4 for a proper IPv4 header.
+	 */
+	public int version() {
+		return u8(0) >> 4;
+	}
+
+	/**
+	 * Get the header length.
+	 * @return	the number of 4-byte words in the header.
+	 */
+	public int headerLength() {
+		return u8(0) & 0xf;
+	}
+
+	/**
+	 * Get the type of service.
+	 * @return	the tos octet.
+	 */
+	public int tos() {
+		return u8(1);
+	}
+
+	/**
+	 * Get the total length of the datagram, header included.
+	 * @return	the length in octets.
+	 */
+	public int totalLength() {
+		return u16(2);
+	}
+
+	/**
+	 * Get the fragment ID.
+	 * @return	the ID shared by the fragments of a datagram.
+	 */
+	public int fragmentID() {
+		return u16(4);
+	}
+
+	/**
+	 * Get the flags.
+	 * @return	the 3 flag bits (0x2 = don't fragment, 0x1 = more fragments).
+	 */
+	public int flags() {
+		return u8(6) >> 5;
+	}
+
+	/**
+	 * Get the fragment offset.
+	 * @return	the offset of this fragment, in 8 octet units.
+	 */
+	public int fragmentOffset() {
+		return u16(6) & 0x1fff;
+	}
+
+	/**
+	 * Get the time to live.
+	 * @return	the ttl.
+	 */
+	public int ttl() {
+		return u8(8);
+	}
+
+	/**
+	 * Get the protocol of the payload.
+	 * @return	the protocol, such as jND_IPv4.P_TCP.
+	 */
+	public int protocol() {
+		return u8(9);
+	}
+
+	/**
+	 * Get the header checksum.
+	 * @return	the checksum field.
+	 */
+	public int headerChecksum() {
+		return u16(10);
+	}
+
+	/**
+	 * Get the source address.
+	 * @return	the address as an int.
+	 */
+	public int srcAddress() {
+		return s32(12);
+	}
+
+	/**
+	 * Get the destination address.
+	 * @return	the address as an int.
+	 */
+	public int destAddress() {
+		return s32(16);
+	}
+
+	/**
+	 * Find out whether the header checksum is correct.
+	 * @return	true if it is.
+	 */
+	public boolean checksumValid() {
+		return sum(0, headerSize()) == 0xffff;
+	}
+
+	public int headerSize() {
+		return headerLength() * 4;
+	}
+
+	protected int minimumSize() {
+		return MIN_HEADER_SIZE;
+	}
+
+	public boolean valid() {
+		return super.valid() && headerSize() >= MIN_HEADER_SIZE;
+	}
+
+	public int payloadLength() {
+		int n = Math.min(totalLength(), length) - headerSize();
+		return n < 0 ? 0 : n;
+	}
+};
@@ -0,0 +1,210 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_PacketBuilder <br>
+ * Class to build a whole Ethernet II / IPv4 / transport packet into a
+ * caller supplied ByteBuffer in one pass. Each layer writes its header
+ * straight into the buffer with its build(ByteBuffer, int, int) method,
+ * and lengths and checksums are filled in place, so building a packet
+ * allocates nothing. The same buffer (for instance a slot of a
+ * jND_PacketArena) may be reused for every packet.
+ * <pre>
+ *   offset
+ *     |  ethernet  |  ipv4  | tcp/udp |      payload      |
+ *     +-----14-----+--20+---+--20+/8--+---payloadLength---+
+ *                                     ^
+ *                                     payloadOffset(offset)
+ * </pre>
+ * The headers are ordinary jND_EthernetII, jND_IPv4, jND_TCP and jND_UDP
+ * objects. Set their fields as usual between packets; the builder fills
+ * in the Ethernet type, the IP protocol and the transport pseudo header
+ * addresses itself. The Ethernet header may be null to build an IP
+ * packet, and the transport header may be null to send a raw IP payload.
+ * <br><br>
+ * A typical generator writes (or leaves) the payload at
+ * payloadOffset(offset), then calls build(buf, offset, payloadLength).
+ * <br><br>
+ */
+public class jND_PacketBuilder {
+	private jND_EthernetII eth;
+	private jND_IPv4 ip;
+	private jND_TCP tcp;
+	private jND_UDP udp;
+
+	/**
+	 * Construct a builder for IP packets with no transport header of
+	 * their own (the payload follows the IP header).
+	 * @param		eth - the Ethernet header, or null for none.
+	 * @param		ip - the IP header.
+	 */
+	public jND_PacketBuilder(jND_EthernetII eth, jND_IPv4 ip) {
+		if(ip == null)
+			throw new jND_Exception("jND_PacketBuilder.constructor : null IP header");
+		this.eth = eth;
+		this.ip = ip;
+		tcp = null;
+		udp = null;
+	}
+
+	/**
+	 * Construct a builder for TCP segments.
+	 * @param		eth - the Ethernet header, or null for none.
+	 * @param		ip - the IP header.
+	 * @param		tcp - the TCP header.
+	 */
+	public jND_PacketBuilder(jND_EthernetII eth, jND_IPv4 ip, jND_TCP tcp) {
+		this(eth, ip);
+		this.tcp = tcp;
+	}
+
+	/**
+	 * Construct a builder for UDP datagrams.
+	 * @param		eth - the Ethernet header, or null for none.
+	 * @param		ip - the IP header.
+	 * @param		udp - the UDP header.
+	 */
+	public jND_PacketBuilder(jND_EthernetII eth, jND_IPv4 ip, jND_UDP udp) {
+		this(eth, ip);
+		this.udp = udp;
+	}
+
+	/**
+	 * Accessor for the Ethernet header.
+	 * @return		the Ethernet header, or null if there is none.
+	 */
+	public jND_EthernetII ethernet() {
+		return eth;
+	}
+
+	/**
+	 * Accessor for the IP header.
+	 * @return		the IP header.
+	 */
+	public jND_IPv4 ipv4() {
+		return ip;
+	}
+
+	/**
+	 * Accessor for the TCP header.
+	 * @return		the TCP header, or null if this builder is not for TCP.
+	 */
+	public jND_TCP tcp() {
+		return tcp;
+	}
+
+	/**
+	 * Accessor for the UDP header.
+	 * @return		the UDP header, or null if this builder is not for UDP.
+	 */
+	public jND_UDP udp() {
+		return udp;
+	}
+
+	/**
+	 * Get the combined length of all headers, given the current IP and
+	 * TCP options.
+	 * @return		the number of octets in front of the payload.
+	 */
+	public int headerLength() {
+		int len = eth != null ? 14 : 0;
+		len += 20;
+		if(ip.options() != null) len += ip.options().length;
+		if(tcp != null) {
+			len += 20;
+			if(tcp.options() != null) len += (tcp.options().length + 3) & ~3;
+		}
+		else if(udp != null)
+			len += 8;
+		return len;
+	}
+
+	/**
+	 * Get where the payload of a packet built at 'offset' goes.
+	 * @param		offset - where the packet starts in the buffer.
+	 * @return		offset + headerLength()
+	 */
+	public int payloadOffset(int offset) {
+		return offset + headerLength();
+	}
+
+	/**
+	 * Build the headers of a packet in front of a payload that is
+	 * already in place at payloadOffset(offset).
+	 * @param		buf - the buffer to build the packet in.
+	 * @param		offset - where the packet starts in buf.
+	 * @param		payloadLength - the length of the payload.
+	 * @return		the length of the whole packet.
+	 */
+	public int build(ByteBuffer buf, int offset, int payloadLength) {
+		try {
+			int ipOffset = eth != null ? offset + 14 : offset;
+			int ipHeader = 20;
+			if(ip.options() != null) ipHeader += ip.options().length;
+			int transOffset = ipOffset + ipHeader;
+
+			// The transport checksum covers the payload, so build from the
+			// inside out
+			int ipPayload = payloadLength;
+			if(tcp != null) {
+				ip.protocol(jND_IPv4.P_TCP);
+				tcp.sourceIP(ip.srcAddress());
+				tcp.destinationIP(ip.destAddress());
+				ipPayload += tcp.build(buf, transOffset, payloadLength);
+			}
+			else if(udp != null) {
+				ip.protocol(jND_IPv4.P_UDP);
+				udp.sourceIP(ip.srcAddress());
+				udp.destinationIP(ip.destAddress());
+				ipPayload += udp.build(buf, transOffset, payloadLength);
+			}
+			int len = ip.build(buf, ipOffset, ipPayload) + ipPayload;
+
+			if(eth != null) {
+				eth.type(jND_EthernetII.T_IP);
+				len += eth.build(buf, offset, len);
+			}
+			return len;
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_PacketBuilder.build : " + e.toString());
+		}
+	}
+
+	/**
+	 * Copy a payload into place and build the headers in front of it.
+	 * @param		buf - the buffer to build the packet in.
+	 * @param		offset - where the packet starts in buf.
+	 * @param		data - the payload.
+	 * @param		dataOffset - where the payload starts in data.
+	 * @param		dataLength - the length of the payload.
+	 * @return		the length of the whole packet.
+	 */
+	public int build(ByteBuffer buf, int offset, byte[] data, int dataOffset,
+			int dataLength) {
+		int pos = payloadOffset(offset);
+		if(pos + dataLength > buf.limit())
+			throw new jND_Exception("jND_PacketBuilder.build : buffer too small");
+		for(int i = 0; i < dataLength; i++)
+			buf.put(pos + i, data[dataOffset + i]);
+		return build(buf, offset, dataLength);
+	}
+};
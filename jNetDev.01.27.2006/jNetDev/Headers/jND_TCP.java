@@ -17,6 +17,7 @@
 package jNetDev.Headers;
 import jNetDev.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /** 
  * jND_TCP <br>
@@ -60,17 +61,17 @@ import java.io.*;
 public class jND_TCP {
 	private int headerOffset;
 	int payloadOffset;
-	private jND_BYTE2 srcPortNo;
-	private jND_BYTE2 dstPortNo;
-	private jND_BYTE4 seqNumNo;
-	private jND_BYTE4 ackNumNo;
-	private jND_BYTE1 offsetNo;
-	private jND_BYTE1 reservedNo;
-	private jND_BYTE1 ecnNo;
-	private jND_BYTE1 flagsNo;
-	private jND_BYTE2 windowNo;
-	private jND_BYTE2 checkSumNo;
-	private jND_BYTE2 urgentNo;
+	private int srcPortNo;
+	private int dstPortNo;
+	private int seqNumNo;
+	private int ackNumNo;
+	private int offsetNo;
+	private int reservedNo;
+	private int ecnNo;
+	private int flagsNo;
+	private int windowNo;
+	private int checkSumNo;
+	private int urgentNo;
 	private byte[] opts;
 	private byte[] pload;
 
@@ -86,17 +87,17 @@ public class jND_TCP {
 		try {
 			headerOffset = -1;
 			payloadOffset = -1;
-			srcPortNo = new jND_BYTE2(0);
-			dstPortNo = new jND_BYTE2(0);
-			seqNumNo = new jND_BYTE4(0);
-			ackNumNo = new jND_BYTE4(0);
-			offsetNo = new jND_BYTE1(0);
-			reservedNo = new jND_BYTE1(0);
-			ecnNo = new jND_BYTE1(0);
-			flagsNo = new jND_BYTE1(0);
-			windowNo = new jND_BYTE2(0);
-			checkSumNo = new jND_BYTE2(0);
-			urgentNo = new jND_BYTE2(0);
+			srcPortNo = 0;
+			dstPortNo = 0;
+			seqNumNo = 0;
+			ackNumNo = 0;
+			offsetNo = 0;
+			reservedNo = 0;
+			ecnNo = 0;
+			flagsNo = 0;
+			windowNo = 0;
+			checkSumNo = 0;
+			urgentNo = 0;
 			opts = null;
 			pload = null;
 			
@@ -115,7 +116,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 sourcePort()  {
-		return srcPortNo;
+		return new jND_BYTE2(srcPortNo);
 	}
 	/**
 	 * Method to set the source port of the header.
@@ -123,7 +124,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void sourcePort(jND_BYTE2 port) {
-		srcPortNo = port;
+		sourcePort(port.toInt());
+	}
+
+	/**
+	 * Get the source port as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the source port
+	 */
+	public int sourcePortValue() {
+		return srcPortNo;
+	}
+
+	/**
+	 * Set the source port from an unsigned int.
+	 * @param	value - the new source port
+	 */
+	public void sourcePort(int value) {
+		srcPortNo = value & 0xffff;
 	}
 	
 	/**
@@ -132,7 +150,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 destPort()  {
-		return dstPortNo;
+		return new jND_BYTE2(dstPortNo);
 	}
 	/**
 	 * Method to set the destination port of the header.
@@ -140,7 +158,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void destPort(jND_BYTE2 port) {
-		dstPortNo = port;
+		destPort(port.toInt());
+	}
+
+	/**
+	 * Get the dest port as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the dest port
+	 */
+	public int destPortValue() {
+		return dstPortNo;
+	}
+
+	/**
+	 * Set the dest port from an unsigned int.
+	 * @param	value - the new dest port
+	 */
+	public void destPort(int value) {
+		dstPortNo = value & 0xffff;
 	}
 
 	/**
@@ -149,7 +184,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 sequenceNumber()  {
-		return seqNumNo;
+		return new jND_BYTE4(seqNumNo);
 	}
 	/**
 	 * Method to set the sequence number of the header.
@@ -157,7 +192,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void sequenceNumber(jND_BYTE4 seqNo) {
-		seqNumNo = seqNo;
+		sequenceNumber(seqNo.toLong());
+	}
+
+	/**
+	 * Get the sequence number as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the sequence number
+	 */
+	public long sequenceNumberValue() {
+		return seqNumNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the sequence number from an unsigned long.
+	 * @param	value - the new sequence number
+	 */
+	public void sequenceNumber(long value) {
+		seqNumNo = (int)value;
 	}
 
 	/**
@@ -166,7 +218,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE4 ackNumber()  {
-		return ackNumNo;
+		return new jND_BYTE4(ackNumNo);
 	}
 	/**
 	 * Method to set the acknowledgement number of the header.
@@ -174,7 +226,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void ackNumber(jND_BYTE4 port) {
-		ackNumNo = port;
+		ackNumber(port.toLong());
+	}
+
+	/**
+	 * Get the ack number as an unsigned long,
+	 * without allocating a wrapper.
+	 * @return	the ack number
+	 */
+	public long ackNumberValue() {
+		return ackNumNo & 0xffffffffL;
+	}
+
+	/**
+	 * Set the ack number from an unsigned long.
+	 * @param	value - the new ack number
+	 */
+	public void ackNumber(long value) {
+		ackNumNo = (int)value;
 	}
 
 	/**
@@ -183,7 +252,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 offset()  {
-		return offsetNo;
+		return new jND_BYTE1(offsetNo);
 	}
 	
 	/**
@@ -194,7 +263,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void offset(jND_BYTE1 offset) {
-		offsetNo = offset;
+		offset(offset.toInt());
+	}
+
+	/**
+	 * Get the offset as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the offset
+	 */
+	public int offsetValue() {
+		return offsetNo;
+	}
+
+	/**
+	 * Set the offset from an unsigned int.
+	 * @param	value - the new offset
+	 */
+	public void offset(int value) {
+		offsetNo = value & 0xff;
 	}
 
 	/**
@@ -203,7 +289,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 reserved()  {
-		return reservedNo;
+		return new jND_BYTE1(reservedNo);
 	}
 	
 	/**
@@ -212,7 +298,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void reserved(jND_BYTE1 reserved) {
-		reservedNo = reserved;
+		reserved(reserved.toInt());
+	}
+
+	/**
+	 * Get the reserved as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the reserved
+	 */
+	public int reservedValue() {
+		return reservedNo;
+	}
+
+	/**
+	 * Set the reserved from an unsigned int.
+	 * @param	value - the new reserved
+	 */
+	public void reserved(int value) {
+		reservedNo = value & 0xff;
 	}
 
 	/**
@@ -221,7 +324,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 ecn()  {
-		return ecnNo;
+		return new jND_BYTE1(ecnNo);
 	}
 	
 	/**
@@ -230,7 +333,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void ecn(jND_BYTE1 ecn) {
-		ecnNo = ecn;
+		ecn(ecn.toInt());
+	}
+
+	/**
+	 * Get the ecn as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the ecn
+	 */
+	public int ecnValue() {
+		return ecnNo;
+	}
+
+	/**
+	 * Set the ecn from an unsigned int.
+	 * @param	value - the new ecn
+	 */
+	public void ecn(int value) {
+		ecnNo = value & 0xff;
 	}
 
 	/**
@@ -239,7 +359,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE1 flags()  {
-		return flagsNo;
+		return new jND_BYTE1(flagsNo);
 	}
 	
 	/**
@@ -248,7 +368,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void flags(jND_BYTE1 flags) {
-		flagsNo = flags;
+		flags(flags.toInt());
+	}
+
+	/**
+	 * Get the flags as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the flags
+	 */
+	public int flagsValue() {
+		return flagsNo;
+	}
+
+	/**
+	 * Set the flags from an unsigned int.
+	 * @param	value - the new flags
+	 */
+	public void flags(int value) {
+		flagsNo = value & 0xff;
 	}
 
 	/**
@@ -257,7 +394,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 window()  {
-		return windowNo;
+		return new jND_BYTE2(windowNo);
 	}
 	
 	/**
@@ -266,7 +403,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void window(jND_BYTE2 wsize) {
-		windowNo = wsize;
+		window(wsize.toInt());
+	}
+
+	/**
+	 * Get the window as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the window
+	 */
+	public int windowValue() {
+		return windowNo;
+	}
+
+	/**
+	 * Set the window from an unsigned int.
+	 * @param	value - the new window
+	 */
+	public void window(int value) {
+		windowNo = value & 0xffff;
 	}
 
 	/**
@@ -275,7 +429,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 checkSum()  {
-		return checkSumNo;
+		return new jND_BYTE2(checkSumNo);
 	}
 	
 	/**
@@ -286,7 +440,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	void checkSum(jND_BYTE2 checksum) {
-		checkSumNo = checksum;
+		checkSum(checksum.toInt());
+	}
+
+	/**
+	 * Get the check sum as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the check sum
+	 */
+	public int checkSumValue() {
+		return checkSumNo;
+	}
+
+	/**
+	 * Set the check sum from an unsigned int.
+	 * @param	value - the new check sum
+	 */
+	void checkSum(int value) {
+		checkSumNo = value & 0xffff;
 	}
 
 	/**
@@ -295,7 +466,7 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 urgent()  {
-		return urgentNo;
+		return new jND_BYTE2(urgentNo);
 	}
 	/**
 	 * Method to set the urgent pointer field of the header.
@@ -303,7 +474,24 @@ public class jND_TCP {
 	 * @author	Pete Lutz
 	 */
 	public void urgent(jND_BYTE2 urgent) {
-		urgentNo = urgent;
+		urgent(urgent.toInt());
+	}
+
+	/**
+	 * Get the urgent as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the urgent
+	 */
+	public int urgentValue() {
+		return urgentNo;
+	}
+
+	/**
+	 * Set the urgent from an unsigned int.
+	 * @param	value - the new urgent
+	 */
+	public void urgent(int value) {
+		urgentNo = value & 0xffff;
 	}
 
 	/**
@@ -418,24 +606,24 @@ public class jND_TCP {
 			DataInputStream pis = new DataInputStream(bais);
 			pis.skipBytes(headerOffset);
 
-			srcPortNo = new jND_BYTE2(pis.readShort());
-			dstPortNo = new jND_BYTE2(pis.readShort());
-			seqNumNo = new jND_BYTE4(pis.readInt());
-			ackNumNo = new jND_BYTE4(pis.readInt());
+			srcPortNo = pis.readUnsignedShort();
+			dstPortNo = pis.readUnsignedShort();
+			seqNumNo = pis.readInt();
+			ackNumNo = pis.readInt();
 
 			short tmp = pis.readByte();
-			offsetNo = new jND_BYTE1((tmp >> 4) & 0xf);
-			reservedNo = new jND_BYTE1(tmp & 0xf);
+			offsetNo = (tmp >> 4) & 0xf;
+			reservedNo = tmp & 0xf;
 
 			tmp = pis.readByte();
-			ecnNo = new jND_BYTE1((tmp >> 6) & 0x3);
-			flagsNo = new jND_BYTE1(tmp & 0x3f);
+			ecnNo = (tmp >> 6) & 0x3;
+			flagsNo = tmp & 0x3f;
 
-			windowNo = new jND_BYTE2(pis.readShort());
-			checkSumNo = new jND_BYTE2(pis.readShort());
-			urgentNo = new jND_BYTE2(pis.readShort());
+			windowNo = pis.readUnsignedShort();
+			checkSumNo = pis.readUnsignedShort();
+			urgentNo = pis.readUnsignedShort();
 
-			int hdrlength = offsetNo.toInt() * 4;
+			int hdrlength = offsetNo * 4;
 			if(hdrlength > 20) {
 				int optlen = hdrlength - 20;
 				opts = new byte[optlen];
@@ -463,22 +651,22 @@ public class jND_TCP {
 		try {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream pos = new DataOutputStream(baos);
-			pos.writeShort(srcPortNo.toShort());
-			pos.writeShort(dstPortNo.toShort());
-			pos.writeInt(seqNumNo.toInt());
-			pos.writeInt(ackNumNo.toInt());
-
-			offsetNo = new jND_BYTE1(20 + opts.length + (4 - opts.length % 4));
-			byte tmp = (byte)(((offsetNo.toInt() & 0xf) << 4) 
-					| (reservedNo.toInt() & 0xf));
+			pos.writeShort((short)srcPortNo);
+			pos.writeShort((short)dstPortNo);
+			pos.writeInt(seqNumNo);
+			pos.writeInt(ackNumNo);
+
+			offsetNo = (20 + opts.length + (4 - opts.length % 4)) & 0xff;
+			byte tmp = (byte)(((offsetNo & 0xf) << 4) 
+					| (reservedNo & 0xf));
 			pos.writeByte(tmp);
 
-			tmp = (byte)(((ecnNo.toInt() & 0x3) << 6) | (flagsNo.toInt() & 0x3f));
+			tmp = (byte)(((ecnNo & 0x3) << 6) | (flagsNo & 0x3f));
 			pos.writeByte(tmp);
 
-			pos.writeShort(windowNo.toShort());
+			pos.writeShort((short)windowNo);
 			pos.writeShort(0);			// Dummy checksum - recalculated below
-			pos.writeShort(urgentNo.toShort());
+			pos.writeShort((short)urgentNo);
 
 			if(opts != null) {
 				int optlen = opts.length;
@@ -498,10 +686,9 @@ public class jND_TCP {
 
 			// Calculate and insert the checksum
 			byte[] ary = baos.toByteArray();
-			checkSumNo = new jND_BYTE2(
-					jND_Utility.transportCheckSum(jND_IPv4.P_TCP, srcIP, dstIP, ary));
-			byte msb = (byte) ((checkSumNo.toInt() >> 8) & 0xff);
-			byte lsb = (byte) (checkSumNo.toInt() & 0xff); 
+			checkSumNo = jND_Utility.transportCheckSum(jND_IPv4.P_TCP, srcIP, dstIP, ary);
+			byte msb = (byte) ((checkSumNo >> 8) & 0xff);
+			byte lsb = (byte) (checkSumNo & 0xff); 
 			ary[16] = msb;
 			ary[17] = lsb;
 
@@ -513,5 +700,58 @@ public class jND_TCP {
 		}
 	}
 
+	/**
+	 * Method to build the header into a buffer, in front of a payload
+	 * that is already in place right after it. The data offset and the
+	 * checksum are filled in; the checksum covers the payload, so the
+	 * payload must be written first. Unlike build(), nothing is allocated
+	 * and the payload field is not used.
+	 * @param		buf - the buffer to write the header into.
+	 * @param		offset - where the header starts in buf.
+	 * @param		payloadLength - the length of the payload.
+	 * @return		the length of the header, padded options included.
+	 */
+	public int build(ByteBuffer buf, int offset, int payloadLength) {
+		try {
+			int optlen = opts == null ? 0 : (opts.length + 3) & ~3;
+			int hlen = 20 + optlen;
+			if(offset + hlen + payloadLength > buf.limit())
+				throw new jND_Exception("jND_TCP.build : buffer too small");
+
+			offsetNo = hlen / 4;
+			buf.put(offset, (byte)(srcPortNo >> 8));
+			buf.put(offset + 1, (byte)srcPortNo);
+			buf.put(offset + 2, (byte)(dstPortNo >> 8));
+			buf.put(offset + 3, (byte)dstPortNo);
+			for(int i = 0; i < 4; i++) {
+				buf.put(offset + 4 + i, (byte)(seqNumNo >> (24 - 8 * i)));
+				buf.put(offset + 8 + i, (byte)(ackNumNo >> (24 - 8 * i)));
+			}
+			buf.put(offset + 12, (byte)(((offsetNo & 0xf) << 4) | (reservedNo & 0xf)));
+			buf.put(offset + 13, (byte)(((ecnNo & 0x3) << 6) | (flagsNo & 0x3f)));
+			buf.put(offset + 14, (byte)(windowNo >> 8));
+			buf.put(offset + 15, (byte)windowNo);
+			buf.put(offset + 16, (byte)0);		// Dummy checksum - recalculated below
+			buf.put(offset + 17, (byte)0);
+			buf.put(offset + 18, (byte)(urgentNo >> 8));
+			buf.put(offset + 19, (byte)urgentNo);
+
+			for(int i = 0; i < optlen; i++)
+				buf.put(offset + 20 + i, i < opts.length ? opts[i] : 0);
+
+			checkSumNo = jND_Utility.transportCheckSum(jND_IPv4.P_TCP,
+				srcIP.toInt(), dstIP.toInt(), buf, offset, hlen + payloadLength);
+			buf.put(offset + 16, (byte)(checkSumNo >> 8));
+			buf.put(offset + 17, (byte)checkSumNo);
+			headerOffset = offset;
+			payloadOffset = offset + hlen;
+			return hlen;
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_TCP.build : " + e.toString());
+		}
+	}
+
 };
 
@@ -0,0 +1,148 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_TCPView <br>
+ * Flyweight view of a TCP header (see jND_HeaderView and jND_TCP).
+ * Sequence and acknowledgement numbers are returned as unsigned values
+ * in a long.
+ * <br><br>
+ */
+public class jND_TCPView extends jND_HeaderView {
+	public static final int MIN_HEADER_SIZE = 20;
+
+	// Bits of flags()
+	public static final int FIN = 0x01;
+	public static final int SYN = 0x02;
+	public static final int RST = 0x04;
+	public static final int PSH = 0x08;
+	public static final int ACK = 0x10;
+	public static final int URG = 0x20;
+
+	/**
+	 * Get the source port.
+	 * @return	the port number.
+	 */
+	public int sourcePort() {
+		return u16(0);
+	}
+
+	/**
+	 * Get the destination port.
+	 * @return	the port number.
+	 */
+	public int destPort() {
+		return u16(2);
+	}
+
+	/**
+	 * Get the sequence number.
+	 * @return	the sequence number, unsigned.
+	 */
+	public long sequenceNumber() {
+		return u32(4);
+	}
+
+	/**
+	 * Get the acknowledgement number.
+	 * @return	the ack number, unsigned.
+	 */
+	public long ackNumber() {
+		return u32(8);
+	}
+
+	/**
+	 * Get the data offset.
+	 * @return	the number of 4-byte words in the header.
+	 */
+	public int dataOffset() {
+		return u8(12) >> 4;
+	}
+
+	/**
+	 * Get the reserved bits.
+	 * @return	the 4 reserved bits.
+	 */
+	public int reserved() {
+		return u8(12) & 0xf;
+	}
+
+	/**
+	 * Get the ECN bits.
+	 * @return	the 2 ECN bits.
+	 */
+	public int ecn() {
+		return u8(13) >> 6;
+	}
+
+	/**
+	 * Get the flags.
+	 * @return	the 6 flag bits; see FIN, SYN, RST, PSH, ACK and URG.
+	 */
+	public int flags() {
+		return u8(13) & 0x3f;
+	}
+
+	/**
+	 * Get the window size.
+	 * @return	the window.
+	 */
+	public int window() {
+		return u16(14);
+	}
+
+	/**
+	 * Get the checksum.
+	 * @return	the checksum field.
+	 */
+	public int checkSum() {
+		return u16(16);
+	}
+
+	/**
+	 * Get the urgent pointer.
+	 * @return	the urgent pointer.
+	 */
+	public int urgent() {
+		return u16(18);
+	}
+
+	/**
+	 * Find out whether the checksum, which covers the segment and a
+	 * pseudo header taken from the IP header, is correct. The view must
+	 * be bound to the whole segment.
+	 * @param	ip - the view of the enclosing IP header.
+	 * @return	true if it is.
+	 */
+	public boolean checksumValid(jND_IPv4View ip) {
+		return fold(sum(0, length) + pseudoSum(ip, jND_IPv4.P_TCP, length)) == 0xffff;
+	}
+
+	public int headerSize() {
+		return dataOffset() * 4;
+	}
+
+	protected int minimumSize() {
+		return MIN_HEADER_SIZE;
+	}
+
+	public boolean valid() {
+		return super.valid() && headerSize() >= MIN_HEADER_SIZE;
+	}
+};
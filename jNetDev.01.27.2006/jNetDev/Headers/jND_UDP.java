@@ -17,6 +17,7 @@
 package jNetDev.Headers;
 import jNetDev.*;
 import java.io.*;
+import java.nio.ByteBuffer;
 
 /** 
  * jND_UDP <br>
@@ -43,10 +44,10 @@ import java.io.*;
 public class jND_UDP {
 	private int headerOffset;
 	private int payloadOffset;
-	private jND_BYTE2 srcPortNo;
-	private jND_BYTE2 dstPortNo;
-	private jND_BYTE2 dataLengthNo;
-	private jND_BYTE2 checkSumNo;
+	private int srcPortNo;
+	private int dstPortNo;
+	private int dataLengthNo;
+	private int checkSumNo;
 	private byte[] pload;
 
 	// Needed to calculate the checksum
@@ -61,10 +62,10 @@ public class jND_UDP {
 		try {
 			headerOffset = -1;
 			payloadOffset = -1;
-			srcPortNo = new jND_BYTE2(0);
-			dstPortNo = new jND_BYTE2(0);
-			dataLengthNo = new jND_BYTE2(0);
-			checkSumNo = new jND_BYTE2(0);
+			srcPortNo = 0;
+			dstPortNo = 0;
+			dataLengthNo = 0;
+			checkSumNo = 0;
 			pload = null;
 			srcIP = new jND_IPv4Address();
 			dstIP = new jND_IPv4Address();
@@ -81,7 +82,7 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 sourcePort()  {
-		return srcPortNo;
+		return new jND_BYTE2(srcPortNo);
 	}
 	
 	/**
@@ -90,7 +91,24 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public void sourcePort(jND_BYTE2 port) {
-		srcPortNo = port;
+		sourcePort(port.toInt());
+	}
+
+	/**
+	 * Get the source port as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the source port
+	 */
+	public int sourcePortValue() {
+		return srcPortNo;
+	}
+
+	/**
+	 * Set the source port from an unsigned int.
+	 * @param	value - the new source port
+	 */
+	public void sourcePort(int value) {
+		srcPortNo = value & 0xffff;
 	}
 	
 	/**
@@ -99,7 +117,7 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 destPort()  {
-		return dstPortNo;
+		return new jND_BYTE2(dstPortNo);
 	}
 	
 	/**
@@ -108,7 +126,24 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public void destPort(jND_BYTE2 port) {
-		dstPortNo = port;
+		destPort(port.toInt());
+	}
+
+	/**
+	 * Get the dest port as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the dest port
+	 */
+	public int destPortValue() {
+		return dstPortNo;
+	}
+
+	/**
+	 * Set the dest port from an unsigned int.
+	 * @param	value - the new dest port
+	 */
+	public void destPort(int value) {
+		dstPortNo = value & 0xffff;
 	}
 
 	/**
@@ -117,7 +152,7 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 dataLength()  {
-		return dataLengthNo;
+		return new jND_BYTE2(dataLengthNo);
 	}
 	
 	/**
@@ -128,7 +163,24 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public void dataLength(jND_BYTE2 len) {
-		dataLengthNo = len;
+		dataLength(len.toInt());
+	}
+
+	/**
+	 * Get the data length as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the data length
+	 */
+	public int dataLengthValue() {
+		return dataLengthNo;
+	}
+
+	/**
+	 * Set the data length from an unsigned int.
+	 * @param	value - the new data length
+	 */
+	public void dataLength(int value) {
+		dataLengthNo = value & 0xffff;
 	}
 
 	/**
@@ -137,7 +189,7 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public jND_BYTE2 checkSum()  {
-		return checkSumNo;
+		return new jND_BYTE2(checkSumNo);
 	}
 	
 	/**
@@ -148,7 +200,24 @@ public class jND_UDP {
 	 * @author	Pete Lutz
 	 */
 	public void checkSum(jND_BYTE2 checksum) {
-		checkSumNo = checksum;
+		checkSum(checksum.toInt());
+	}
+
+	/**
+	 * Get the check sum as an unsigned int,
+	 * without allocating a wrapper.
+	 * @return	the check sum
+	 */
+	public int checkSumValue() {
+		return checkSumNo;
+	}
+
+	/**
+	 * Set the check sum from an unsigned int.
+	 * @param	value - the new check sum
+	 */
+	public void checkSum(int value) {
+		checkSumNo = value & 0xffff;
 	}
 
 	/**
@@ -246,10 +315,10 @@ public class jND_UDP {
 			DataInputStream pis = new DataInputStream(bais);
 			pis.skipBytes(headerOffset);
 
-			srcPortNo = new jND_BYTE2(pis.readShort());
-			dstPortNo = new jND_BYTE2(pis.readShort());
-			dataLengthNo = new jND_BYTE2(pis.readShort());
-			checkSumNo = new jND_BYTE2(pis.readShort());
+			srcPortNo = pis.readUnsignedShort();
+			dstPortNo = pis.readUnsignedShort();
+			dataLengthNo = pis.readUnsignedShort();
+			checkSumNo = pis.readUnsignedShort();
 			
 			payloadOffset = headerOffset + 8;
 			pload = new byte[pkt.length - payloadOffset];
@@ -272,10 +341,10 @@ public class jND_UDP {
 			ByteArrayOutputStream baos = new ByteArrayOutputStream();
 			DataOutputStream pos = new DataOutputStream(baos);
 			
-			pos.writeShort(srcPortNo.toShort());
-			pos.writeShort(dstPortNo.toShort());
-			dataLengthNo = new jND_BYTE2(pload.length + 8);
-			pos.writeShort(dataLengthNo.toShort());	// datalength
+			pos.writeShort((short)srcPortNo);
+			pos.writeShort((short)dstPortNo);
+			dataLengthNo = (pload.length + 8) & 0xffff;
+			pos.writeShort((short)dataLengthNo);	// datalength
 			pos.writeShort(0);					// dummy checksum
 
 			if(pload != null)
@@ -287,10 +356,9 @@ public class jND_UDP {
 
 			// Calculate and insert the checksum
 			byte[] ary = baos.toByteArray();
-			checkSumNo = new jND_BYTE2(
-				jND_Utility.transportCheckSum(jND_IPv4.P_UDP, srcIP, dstIP, ary));
-			byte msb = (byte) (((checkSumNo.toInt() >> 8) & 0xff));
-			byte lsb = (byte) (byte)(checkSumNo.toInt() & 0xff); 
+			checkSumNo = jND_Utility.transportCheckSum(jND_IPv4.P_UDP, srcIP, dstIP, ary);
+			byte msb = (byte) (((checkSumNo >> 8) & 0xff));
+			byte lsb = (byte) (byte)(checkSumNo & 0xff); 
 			ary[6] = msb;
 			ary[7] = lsb;
 
@@ -302,5 +370,45 @@ public class jND_UDP {
 		}
 	}
 
+	/**
+	 * Method to build the header into a buffer, in front of a payload
+	 * that is already in place right after it. The data length and the
+	 * checksum are filled in; the checksum covers the payload, so the
+	 * payload must be written first. Unlike build(), nothing is allocated
+	 * and the payload field is not used.
+	 * @param		buf - the buffer to write the header into.
+	 * @param		offset - where the header starts in buf.
+	 * @param		payloadLength - the length of the payload.
+	 * @return		the length of the header, 8.
+	 */
+	public int build(ByteBuffer buf, int offset, int payloadLength) {
+		try {
+			if(offset + 8 + payloadLength > buf.limit())
+				throw new jND_Exception("jND_UDP.build : buffer too small");
+
+			dataLengthNo = (payloadLength + 8) & 0xffff;
+			buf.put(offset, (byte)(srcPortNo >> 8));
+			buf.put(offset + 1, (byte)srcPortNo);
+			buf.put(offset + 2, (byte)(dstPortNo >> 8));
+			buf.put(offset + 3, (byte)dstPortNo);
+			buf.put(offset + 4, (byte)(dataLengthNo >> 8));
+			buf.put(offset + 5, (byte)dataLengthNo);
+			buf.put(offset + 6, (byte)0);		// dummy checksum
+			buf.put(offset + 7, (byte)0);
+
+			checkSumNo = jND_Utility.transportCheckSum(jND_IPv4.P_UDP,
+				srcIP.toInt(), dstIP.toInt(), buf, offset, dataLengthNo);
+			buf.put(offset + 6, (byte)(checkSumNo >> 8));
+			buf.put(offset + 7, (byte)checkSumNo);
+			headerOffset = offset;
+			payloadOffset = offset + 8;
+			return 8;
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_UDP.build : " + e.toString());
+		}
+	}
+
 };
 
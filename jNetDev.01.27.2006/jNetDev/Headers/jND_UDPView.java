@@ -0,0 +1,88 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev.Headers;
+import jNetDev.*;
+
+/**
+ * jND_UDPView <br>
+ * Flyweight view of a UDP header (see jND_HeaderView and jND_UDP).
+ * <br><br>
+ * The payload is taken to end where the datagram's length field says.
+ * <br><br>
+ */
+public class jND_UDPView extends jND_HeaderView {
+	public static final int HEADER_SIZE = 8;
+
+	/**
+	 * Get the source port.
+	 * @return	the port number.
+	 */
+	public int sourcePort() {
+		return u16(0);
+	}
+
+	/**
+	 * Get the destination port.
+	 * @return	the port number.
+	 */
+	public int destPort() {
+		return u16(2);
+	}
+
+	/**
+	 * Get the length field.
+	 * @return	the length of header and data, in octets.
+	 */
+	public int dataLength() {
+		return u16(4);
+	}
+
+	/**
+	 * Get the checksum.
+	 * @return	the checksum field, 0 if none was computed.
+	 */
+	public int checkSum() {
+		return u16(6);
+	}
+
+	/**
+	 * Find out whether the checksum, which covers the datagram and a
+	 * pseudo header taken from the IP header, is correct. A checksum of 0
+	 * means none was computed and is taken as correct.
+	 * @param	ip - the view of the enclosing IP header.
+	 * @return	true if it is.
+	 */
+	public boolean checksumValid(jND_IPv4View ip) {
+		if(checkSum() == 0)
+			return true;
+		int len = Math.min(dataLength(), length);
+		return fold(sum(0, len) + pseudoSum(ip, jND_IPv4.P_UDP, len)) == 0xffff;
+	}
+
+	public int headerSize() {
+		return HEADER_SIZE;
+	}
+
+	protected int minimumSize() {
+		return HEADER_SIZE;
+	}
+
+	public int payloadLength() {
+		int n = Math.min(dataLength(), length) - HEADER_SIZE;
+		return n < 0 ? 0 : n;
+	}
+};
@@ -0,0 +1,731 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import jNetDev.Headers.*;
+
+/**
+ * jND_ARPResolver <br>
+ * Class to resolve IP addresses to MAC addresses on a NIC, keeping the
+ * answers. One capture session listens for ARP on the NIC for as long as
+ * the resolver lives, so a lookup only sends a request; the reply is
+ * picked up by the listener and completes every lookup waiting for that
+ * address. Addresses are kept for ttl() milliseconds, and addresses that
+ * did not answer are remembered for negativeTtl() milliseconds so they
+ * are not asked for again straight away.
+ * <pre>
+ *     jND_ARPResolver arp = jND_ARPResolver.forNIC(nic);
+ *     byte[] mac = arp.resolve(ip, 2000);		// blocks
+ *     arp.lookup(ip).thenAccept(...);			// does not block
+ * </pre>
+ * A lookup for an address that is not on the subnet of the NIC asks for
+ * the gateway instead, as jND_Utility.arpFor always has. A request that is
+ * not answered is sent again every retryInterval() milliseconds, up to
+ * retries() times in all.
+ * <br><br>
+ * The futures returned by lookup are completed on the capture thread of
+ * the resolver or on the thread of the shared jND_TimerWheel, which
+ * times the retries, and any action chained to them
+ * with thenAccept and the like runs there too. Such actions must be short;
+ * use the Async forms for anything else.
+ * <br><br>
+ * The listener runs on a daemon thread, so it does not keep the JVM
+ * running. A resolver from forNIC also releases its listener once no
+ * lookup has been made for IDLE_TIMEOUT milliseconds, and starts it again
+ * on the next lookup.
+ * <br><br>
+ * A resolver may be used by any number of threads.
+ * <br><br>
+ */
+public class jND_ARPResolver {
+	// Defaults
+	public static final long DEFAULT_TTL = 60000;
+	public static final long DEFAULT_NEGATIVE_TTL = 5000;
+	public static final int DEFAULT_RETRIES = 4;
+	public static final long DEFAULT_RETRY_INTERVAL = 500;
+
+	// Addresses kept by the cache, answered or not. Addresses being asked
+	// for are never dropped, so the cache may hold more while they are.
+	public static final int CACHE_SIZE = 4096;
+
+	// Time without lookups after which a resolver from forNIC releases its
+	// listener, in milliseconds
+	public static final long IDLE_TIMEOUT = 60000;
+
+	// Length of an ARP request frame for Ethernet and IPv4
+	static final int REQUEST_SIZE = jND_EthernetView.HEADER_SIZE + 28;
+
+	// One resolver per NIC, keyed by NIC name
+	private static jND_Mutex registryMutex = new jND_Mutex();
+	private static HashMap registry = new HashMap();
+
+	// What is known of one address. While pending is not null a request is
+	// outstanding and mac and expires have no meaning.
+	private static class Entry {
+		int ip;
+		byte[] mac;					// null if the address did not answer
+		long expires;				// in ms, on the System.nanoTime clock
+		CompletableFuture pending;
+		jND_Timeout retry;
+		int sent;					// requests sent for the pending lookup
+	};
+
+	private jND_NIC nic;
+	private int myIP;
+	private int mask;
+	private int gateway;
+	private byte[] myMAC;
+	private byte[] request;			// an ARP request, with the target left blank
+
+	private jND_Mutex mutex = new jND_Mutex();
+	private jND_Mutex sendMutex = new jND_Mutex();
+	private LinkedHashMap cache = new LinkedHashMap(16, 0.75f, true) {
+		// Drop the least recently used addresses that are not being asked
+		// for; a pending entry holds the future its lookups wait on
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			java.util.Iterator it = values().iterator();
+			while(size() > CACHE_SIZE && it.hasNext())
+				if(((jND_ARPResolver.Entry)it.next()).pending == null)
+					it.remove();
+			return false;
+		}
+	};
+	private jND_CaptureSession cap;		// null while released
+	private boolean closed = false;
+	private boolean shared = false;		// handed out by forNIC
+	private long lastUsed;				// time of the last lookup, in ms on the nanoTime clock
+	private jND_Timeout idle = null;
+
+	private long ttl = DEFAULT_TTL;
+	private long negativeTtl = DEFAULT_NEGATIVE_TTL;
+	private int retries = DEFAULT_RETRIES;
+	private long retryInterval = DEFAULT_RETRY_INTERVAL;
+
+	private long hits = 0;
+	private long misses = 0;
+	private long coalesced = 0;
+	private long requests = 0;
+	private long failures = 0;
+
+	/**
+	 * Get the resolver of a NIC, creating it the first time. Every caller
+	 * asking for the same NIC shares the resolver, its cache and its
+	 * listener.
+	 * @param		nic - the NIC to resolve on.
+	 * @return		the resolver.
+	 */
+	public static jND_ARPResolver forNIC(jND_NIC nic) {
+		synchronized(registryMutex) {
+			jND_ARPResolver r = (jND_ARPResolver)registry.get(nic.name());
+			if(r == null) {
+				r = new jND_ARPResolver(nic);
+				r.shared = true;
+				synchronized(r.mutex) {
+					r.lastUsed = System.nanoTime() / 1000000;
+					r.idleCheck(IDLE_TIMEOUT);
+				}
+				registry.put(nic.name(), r);
+			}
+			return r;
+		}
+	}
+
+	/**
+	 * Construct a resolver of its own for a NIC and start listening for ARP.
+	 * Most callers should share the one given by forNIC instead.
+	 * @param		nic - the NIC to resolve on.
+	 */
+	public jND_ARPResolver(jND_NIC nic) {
+		try {
+			if(nic == null)
+				throw new jND_Exception("jND_ARPResolver.constructor : nic must not be null");
+			this.nic = nic;
+			myIP = nic.ipAddress().toInt();
+			mask = nic.netMask().toInt();
+			gateway = nic.gateway().toInt();
+			myMAC = nic.macAddress().toByteArray();
+			request = new byte[REQUEST_SIZE];
+			requestFrame(request, 0, myMAC, myIP);
+
+			cap = listen();
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_ARPResolver.constructor : " + e.toString());
+		}
+	}
+
+	/**
+	 * Look up the MAC address of an IP address without blocking.
+	 * @param		ip - the IP address, as an int.
+	 * @return		a future completed with the MAC address, or with null if
+	 *				the address did not answer. The future is already
+	 *				complete if the answer was in the cache, and lookups of
+	 *				an address that is already being asked for share the
+	 *				same future.
+	 */
+	public CompletableFuture lookup(int ip) {
+		int target = nextHop(ip);
+		if(target == myIP)
+			return CompletableFuture.completedFuture(myMAC.clone());
+		if(shared)
+			wake();
+		Entry e;
+		synchronized(mutex) {
+			if(closed)
+				throw new jND_Exception("jND_ARPResolver.lookup : resolver is closed");
+			e = (Entry)cache.get(Integer.valueOf(target));
+			if(e != null && e.pending != null) {
+				coalesced++;
+				return e.pending;
+			}
+			if(e != null && System.nanoTime() / 1000000 < e.expires) {
+				hits++;
+				return CompletableFuture.completedFuture(e.mac == null ? null : e.mac.clone());
+			}
+			misses++;
+			e = new Entry();
+			e.ip = target;
+			e.pending = new CompletableFuture();
+			cache.put(Integer.valueOf(target), e);
+		}
+		ask(e);
+		return e.pending;
+	}
+
+	/**
+	 * Look up the MAC address of an IP address without blocking.
+	 * @param		ip - the IP address, as 4 octets in network order.
+	 * @return		a future, as for lookup(int).
+	 */
+	public CompletableFuture lookup(byte[] ip) {
+		return lookup(toInt(ip, "lookup"));
+	}
+
+	/**
+	 * Look up the MAC address of an IP address, waiting for the answer.
+	 * @param		ip - the IP address, as an int.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		the MAC address, or null if there was no answer in time.
+	 */
+	public byte[] resolve(int ip, long timeout) {
+		CompletableFuture f = lookup(ip);
+		try {
+			return (byte[])f.get(timeout, TimeUnit.MILLISECONDS);
+		} catch(java.util.concurrent.TimeoutException te) {
+			return null;
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			return null;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_ARPResolver.resolve : " + e.toString());
+		}
+	}
+
+	/**
+	 * Look up the MAC address of an IP address, waiting for the answer.
+	 * @param		ip - the IP address, as 4 octets in network order.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		the MAC address, or null if there was no answer in time.
+	 */
+	public byte[] resolve(byte[] ip, long timeout) {
+		return resolve(toInt(ip, "resolve"), timeout);
+	}
+
+	/**
+	 * Get the MAC address of an IP address if it is in the cache, without
+	 * sending anything.
+	 * @param		ip - the IP address, as an int.
+	 * @return		the MAC address, or null if it is not known.
+	 */
+	public byte[] cached(int ip) {
+		int target = nextHop(ip);
+		if(target == myIP)
+			return myMAC.clone();
+		synchronized(mutex) {
+			Entry e = (Entry)cache.get(Integer.valueOf(target));
+			if(e == null || e.pending != null || e.mac == null
+					|| System.nanoTime() / 1000000 >= e.expires)
+				return null;
+			return e.mac.clone();
+		}
+	}
+
+	/**
+	 * Forget every address in the cache. Lookups in progress go on.
+	 */
+	public void flush() {
+		synchronized(mutex) {
+			java.util.Iterator it = cache.values().iterator();
+			while(it.hasNext())
+				if(((Entry)it.next()).pending == null)
+					it.remove();
+		}
+	}
+
+	/**
+	 * Stop listening and release the capture session. Lookups in progress
+	 * complete with null. A resolver from forNIC is removed from the
+	 * registry, so the next forNIC makes a new one.
+	 */
+	public void close() {
+		synchronized(registryMutex) {
+			if(nic != null && registry.get(nic.name()) == this)
+				registry.remove(nic.name());
+		}
+		java.util.ArrayList waiting = new java.util.ArrayList();
+		jND_CaptureSession c;
+		synchronized(mutex) {
+			if(closed) return;
+			closed = true;
+			if(idle != null) idle.cancel();
+			idle = null;
+			c = cap;
+			cap = null;
+			java.util.Iterator it = cache.values().iterator();
+			while(it.hasNext()) {
+				Entry e = (Entry)it.next();
+				if(e.pending != null) {
+					waiting.add(e.pending);
+					e.pending = null;
+					if(e.retry != null) e.retry.cancel();
+					e.retry = null;
+				}
+			}
+			cache.clear();
+		}
+		release(c);
+		for(int i = 0; i < waiting.size(); i++)
+			((CompletableFuture)waiting.get(i)).complete(null);
+	}
+
+	/**
+	 * Find out whether the resolver has been closed.
+	 * @return		true if close has been called.
+	 */
+	public boolean closed() {
+		synchronized(mutex) {
+			return closed;
+		}
+	}
+
+	/**
+	 * Get the NIC the resolver works on.
+	 * @return		the NIC.
+	 */
+	public jND_NIC nic() {
+		return nic;
+	}
+
+	/**
+	 * Get how long an answer is kept.
+	 * @return		the time in milliseconds.
+	 */
+	public long ttl() {
+		synchronized(mutex) {
+			return ttl;
+		}
+	}
+
+	/**
+	 * Set how long an answer is kept. Answers already in the cache keep
+	 * the time they were given.
+	 * @param		ms - the time in milliseconds.
+	 */
+	public void ttl(long ms) {
+		if(ms < 0)
+			throw new jND_Exception("jND_ARPResolver.ttl : time must not be negative - " + ms);
+		synchronized(mutex) {
+			ttl = ms;
+		}
+	}
+
+	/**
+	 * Get how long an address that did not answer is remembered.
+	 * @return		the time in milliseconds.
+	 */
+	public long negativeTtl() {
+		synchronized(mutex) {
+			return negativeTtl;
+		}
+	}
+
+	/**
+	 * Set how long an address that did not answer is remembered. Zero
+	 * asks again on the next lookup.
+	 * @param		ms - the time in milliseconds.
+	 */
+	public void negativeTtl(long ms) {
+		if(ms < 0)
+			throw new jND_Exception("jND_ARPResolver.negativeTtl : time must not be negative - " + ms);
+		synchronized(mutex) {
+			negativeTtl = ms;
+		}
+	}
+
+	/**
+	 * Get the number of requests sent for a lookup before giving up.
+	 * @return		the request count.
+	 */
+	public int retries() {
+		synchronized(mutex) {
+			return retries;
+		}
+	}
+
+	/**
+	 * Set the number of requests sent for a lookup before giving up.
+	 * @param		n - the request count, at least 1.
+	 */
+	public void retries(int n) {
+		if(n < 1)
+			throw new jND_Exception("jND_ARPResolver.retries : count must be positive - " + n);
+		synchronized(mutex) {
+			retries = n;
+		}
+	}
+
+	/**
+	 * Get the time between requests for a lookup.
+	 * @return		the time in milliseconds.
+	 */
+	public long retryInterval() {
+		synchronized(mutex) {
+			return retryInterval;
+		}
+	}
+
+	/**
+	 * Set the time between requests for a lookup. A lookup gives up
+	 * retries() * retryInterval() milliseconds after its first request.
+	 * @param		ms - the time in milliseconds.
+	 */
+	public void retryInterval(long ms) {
+		if(ms < 1)
+			throw new jND_Exception("jND_ARPResolver.retryInterval : time must be positive - " + ms);
+		synchronized(mutex) {
+			retryInterval = ms;
+		}
+	}
+
+	/**
+	 * Get the number of addresses in the cache, including those being
+	 * asked for.
+	 * @return		the address count.
+	 */
+	public int size() {
+		synchronized(mutex) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Get the number of lookups answered from the cache.
+	 * @return		the hit count.
+	 */
+	public long hits() {
+		synchronized(mutex) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Get the number of lookups that had to send a request.
+	 * @return		the miss count.
+	 */
+	public long misses() {
+		synchronized(mutex) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Get the number of lookups that joined a request already in progress.
+	 * @return		the lookup count.
+	 */
+	public long coalesced() {
+		synchronized(mutex) {
+			return coalesced;
+		}
+	}
+
+	/**
+	 * Get the number of ARP requests sent.
+	 * @return		the request count.
+	 */
+	public long requests() {
+		synchronized(mutex) {
+			return requests;
+		}
+	}
+
+	/**
+	 * Get the number of lookups that got no answer.
+	 * @return		the failure count.
+	 */
+	public long failures() {
+		synchronized(mutex) {
+			return failures;
+		}
+	}
+
+	// The address to ask for: the gateway for addresses on other subnets
+	private int nextHop(int ip) {
+		return (ip & mask) == (myIP & mask) ? ip : gateway;
+	}
+
+	private static int toInt(byte[] ip, String method) {
+		if(ip == null || ip.length != 4)
+			throw new jND_Exception("jND_ARPResolver." + method + " : IP address must be 4 octets");
+		return (ip[0] & 0xff) << 24 | (ip[1] & 0xff) << 16 | (ip[2] & 0xff) << 8 | (ip[3] & 0xff);
+	}
+
+	// Send a request for a pending entry and check on it later
+	private void ask(Entry e) {
+		long interval;
+		synchronized(mutex) {
+			if(e.pending == null || closed) return;
+			e.sent++;
+			requests++;
+			interval = retryInterval;
+		}
+		try {
+			send(e.ip);
+		} catch(jND_Exception nde) {
+			// Counted as a request that was not answered
+			jND_Utility.debug("jND_ARPResolver : " + nde.getMessage());
+		}
+		final Entry fe = e;
+		synchronized(mutex) {
+			if(e.pending == null || closed) return;
+			e.retry = jND_TimerWheel.shared().schedule(new Runnable() {
+				public void run() {
+					check(fe);
+				}
+			}, interval);
+		}
+	}
+
+	// Called by the timer when a request has had no answer for a while
+	private void check(Entry e) {
+		CompletableFuture f = null;
+		synchronized(mutex) {
+			if(e.pending == null || closed) return;
+			e.retry = null;
+			if(e.sent >= retries) {
+				f = e.pending;
+				e.pending = null;
+				e.mac = null;
+				e.expires = System.nanoTime() / 1000000 + negativeTtl;
+				failures++;
+			}
+		}
+		if(f != null)
+			f.complete(null);
+		else
+			ask(e);
+	}
+
+	// Called by the listener for each ARP message seen. Only replies to us
+	// and requests aimed at us add addresses; anything else only refreshes
+	// an address already in the cache.
+	private void learn(int ip, long mac, boolean forMe) {
+		if(ip == 0 || ip == myIP) return;
+		byte[] m = new byte[6];
+		for(int i = 5; i >= 0; i--, mac >>>= 8)
+			m[i] = (byte)mac;
+		CompletableFuture f = null;
+		synchronized(mutex) {
+			if(closed) return;
+			Integer key = Integer.valueOf(ip);
+			Entry e = (Entry)cache.get(key);
+			if(e == null) {
+				if(!forMe) return;
+				e = new Entry();
+				e.ip = ip;
+				cache.put(key, e);
+			}
+			e.mac = m;
+			e.expires = System.nanoTime() / 1000000 + ttl;
+			if(e.pending != null) {
+				f = e.pending;
+				e.pending = null;
+				if(e.retry != null) e.retry.cancel();
+				e.retry = null;
+			}
+		}
+		if(f != null)
+			f.complete(m.clone());
+	}
+
+	/**
+	 * Write an ARP request for Ethernet and IPv4, with a blank target
+	 * address, as used by this class and jND_ARPSweep.
+	 * @param		b - the buffer, with REQUEST_SIZE octets free at off.
+	 * @param		off - where the frame starts.
+	 * @param		mac - the MAC address of the sender.
+	 * @param		ip - the IP address of the sender.
+	 */
+	static void requestFrame(byte[] b, int off, byte[] mac, int ip) {
+		for(int i = 0; i < 6; i++) {
+			b[off + i] = (byte)0xff;
+			b[off + 6 + i] = mac[i];
+			b[off + 22 + i] = mac[i];
+			b[off + 32 + i] = 0;
+		}
+		b[off + 12] = (byte)(jND_EthernetII.T_ARP >> 8);
+		b[off + 13] = (byte)jND_EthernetII.T_ARP;
+		b[off + 14] = 0;
+		b[off + 15] = 1;						// hardware type: Ethernet
+		b[off + 16] = (byte)(jND_EthernetII.T_IP >> 8);
+		b[off + 17] = (byte)jND_EthernetII.T_IP;
+		b[off + 18] = 6;
+		b[off + 19] = 4;
+		b[off + 20] = 0;
+		b[off + 21] = (byte)jND_ARP.ARP_REQUEST;
+		for(int i = 0; i < 4; i++)
+			b[off + 28 + i] = (byte)(ip >>> (24 - 8 * i));
+		requestTarget(b, off, 0);
+	}
+
+	/**
+	 * Fill in the target address of a request written by requestFrame.
+	 */
+	static void requestTarget(byte[] b, int off, int ip) {
+		for(int i = 0; i < 4; i++)
+			b[off + 38 + i] = (byte)(ip >>> (24 - 8 * i));
+	}
+
+	// Send a request for an address. The NIC is opened for the send if the
+	// caller has not opened it, as jND_Utility.arpFor always did.
+	private void send(int ip) {
+		synchronized(sendMutex) {
+			requestTarget(request, 0, ip);
+			boolean closeNIC = false;
+			if(nic.closed()) {
+				closeNIC = true;
+				nic.open();
+			}
+			try {
+				nic.inject(request);
+			} finally {
+				if(closeNIC)
+					nic.close();
+			}
+		}
+	}
+
+	// Open a capture session listening for ARP, on a daemon thread
+	private jND_CaptureSession listen() {
+		jND_CaptureSession c = new jND_CaptureSession(nic, false);
+		try {
+			c.filter("arp", true, nic.netMask());
+			c.handler(new jND_PacketHandler() {
+				private jND_EthernetView eth = new jND_EthernetView();
+				private jND_ARPView arp = new jND_ARPView();
+				public void handle(jND_CapturedPacket pkt) {
+					eth.bind(pkt.data(), 0, pkt.caplen());
+					if(!eth.valid() || eth.type() != jND_EthernetII.T_ARP) return;
+					arp.bind(eth);
+					if(!arp.valid() || arp.hwAddressType() != 1
+							|| arp.protocolAddressType() != jND_EthernetII.T_IP
+							|| arp.hwAddressLength() != 6 || arp.protocolAddressLength() != 4)
+						return;
+					learn(arp.sourceProtocolAddress(), arp.sourceHWAddress(),
+						arp.targetProtocolAddress() == myIP);
+				}
+			});
+			c.daemon(true);
+			c.start();
+			c.getThread().setName("jND_ARPResolver-" + nic.name() + "-listener");
+			return c;
+		} catch(jND_Exception nde) {
+			release(c);
+			throw nde;
+		}
+	}
+
+	// Note a lookup, and start the listener again if it was released
+	private void wake() {
+		synchronized(mutex) {
+			lastUsed = System.nanoTime() / 1000000;
+			if(cap != null || closed) return;
+		}
+		jND_CaptureSession c = listen();
+		synchronized(mutex) {
+			if(cap == null && !closed) {
+				cap = c;
+				idleCheck(IDLE_TIMEOUT);
+				return;
+			}
+		}
+		release(c);
+	}
+
+	// Check for idleness after a delay. Called with the mutex held.
+	private void idleCheck(long delay) {
+		idle = jND_TimerWheel.shared().schedule(new Runnable() {
+			public void run() {
+				idle();
+			}
+		}, delay);
+	}
+
+	// Called by the timer: release the listener of a resolver from forNIC
+	// that has not been used for IDLE_TIMEOUT, unless a lookup is waiting
+	private void idle() {
+		final jND_CaptureSession c;
+		synchronized(mutex) {
+			idle = null;
+			if(closed || cap == null) return;
+			long left = lastUsed + IDLE_TIMEOUT - System.nanoTime() / 1000000;
+			if(left <= 0) {
+				java.util.Iterator it = cache.values().iterator();
+				while(it.hasNext() && left <= 0)
+					if(((Entry)it.next()).pending != null)
+						left = retryInterval;
+			}
+			if(left > 0) {
+				idleCheck(left);
+				return;
+			}
+			c = cap;
+			cap = null;
+		}
+		// Disposing of the session waits for its thread; keep that off
+		// the timer thread
+		CompletableFuture.runAsync(new Runnable() {
+			public void run() {
+				release(c);
+			}
+		});
+	}
+
+	// Release a listener
+	private static void release(jND_CaptureSession c) {
+		if(c == null) return;
+		try {
+			c.dispose();
+		} catch(jND_Exception nde) {
+			jND_Utility.debug("jND_ARPResolver : " + nde.getMessage());
+		}
+	}
+};
@@ -0,0 +1,501 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.LinkedHashMap;
+import java.util.concurrent.locks.LockSupport;
+import jNetDev.Headers.*;
+
+/**
+ * jND_ARPSweep <br>
+ * Class to find the hosts of a range of IP addresses by ARPing for all of
+ * them at once. Requests go out through the NIC at rate() per second,
+ * several to a native call, while one capture session collects the
+ * replies; a reply is matched to its request by the address it answers
+ * for. Hosts are reported to the listener as they answer, and are in
+ * results() when the sweep ends.
+ * <pre>
+ *     jND_ARPSweep sweep = new jND_ARPSweep(nic);
+ *     sweep.rate(2000);
+ *     sweep.listener(...);
+ *     int hosts = sweep.sweep();			// the subnet of the NIC
+ * </pre>
+ * The addresses that have not answered are asked again, passes() times
+ * in all, each pass waiting linger() milliseconds for late replies. The
+ * sweep ends when the last pass has lingered, when every address has
+ * answered, when deadline() milliseconds have passed since it began, or
+ * when cancel is called from another thread.
+ * <br><br>
+ * A pass sends one request per host at rate() requests a second, so
+ * sweeping a /22 (1022 hosts) at DEFAULT_RATE takes about 1 second for
+ * each pass, plus the linger.
+ * <br><br>
+ * Only one sweep may run on an object at a time. The listener is called
+ * on the capture thread.
+ * <br><br>
+ */
+public class jND_ARPSweep {
+	// Defaults
+	public static final int DEFAULT_RATE = 1000;
+	public static final long DEFAULT_LINGER = 1000;
+	public static final int DEFAULT_PASSES = 2;
+
+	// Most addresses in one sweep, a /8
+	public static final int MAX_ADDRESSES = 1 << 24;
+
+	// Most requests handed to the NIC in one call
+	public static final int BATCH = 64;
+
+	private jND_NIC nic;
+	private int myIP;
+	private byte[] myMAC;
+
+	private jND_Mutex mutex = new jND_Mutex();
+	private int rate = DEFAULT_RATE;
+	private long linger = DEFAULT_LINGER;
+	private long deadline = 0;
+	private int passes = DEFAULT_PASSES;
+	private jND_ARPSweepListener listener = null;
+
+	// State of the sweep in progress, or of the last sweep
+	private boolean running = false;
+	private boolean cancelled = false;
+	private int first;				// the first address swept
+	private int count;				// addresses in the range
+	private int targets;			// addresses in the range other than the NIC's
+	private long[] asked;			// one bit per address, set once a request is sent
+	private long[] answered;		// one bit per address, set when it answers
+	private int found;
+	private long sent;
+	private LinkedHashMap results = new LinkedHashMap();
+
+	/**
+	 * Construct a sweep on a NIC.
+	 * @param		nic - the NIC to send the requests and capture the
+	 *				replies on.
+	 */
+	public jND_ARPSweep(jND_NIC nic) {
+		if(nic == null)
+			throw new jND_Exception("jND_ARPSweep.constructor : nic must not be null");
+		this.nic = nic;
+		myIP = nic.ipAddress().toInt();
+		myMAC = nic.macAddress().toByteArray();
+	}
+
+	/**
+	 * Sweep the subnet of the NIC, leaving out its network and broadcast
+	 * addresses and the NIC itself.
+	 * @return		the number of hosts that answered.
+	 */
+	public int sweep() {
+		int mask = nic.netMask().toInt();
+		int net = myIP & mask;
+		int bcast = net | ~mask;
+		if(Integer.compareUnsigned(bcast - net, 2) < 0)
+			return sweep(net, bcast);
+		return sweep(net + 1, bcast - 1);
+	}
+
+	/**
+	 * Sweep a range of addresses.
+	 * @param		first - the first address to ask for.
+	 * @param		last - the last address to ask for.
+	 * @return		the number of hosts that answered.
+	 */
+	public int sweep(jND_IPv4Address first, jND_IPv4Address last) {
+		return sweep(first.toInt(), last.toInt());
+	}
+
+	/**
+	 * Sweep a range of addresses, waiting until the sweep ends. Addresses
+	 * on other subnets are asked for like any other, though only hosts on
+	 * the link can answer.
+	 * @param		first - the first address to ask for, as an int.
+	 * @param		last - the last address to ask for, as an int.
+	 * @return		the number of hosts that answered.
+	 */
+	public int sweep(int first, int last) {
+		long n = (last & 0xffffffffL) - (first & 0xffffffffL) + 1;
+		if(n < 1 || n > MAX_ADDRESSES)
+			throw new jND_Exception("jND_ARPSweep.sweep : range must hold 1 to "
+				+ MAX_ADDRESSES + " addresses - " + n);
+		int rate, passes;
+		long linger, deadline;
+		synchronized(mutex) {
+			if(running)
+				throw new jND_Exception("jND_ARPSweep.sweep : a sweep is already running");
+			running = true;
+			cancelled = false;
+			this.first = first;
+			count = (int)n;
+			targets = (myIP & 0xffffffffL) - (first & 0xffffffffL) < n
+				&& (myIP & 0xffffffffL) >= (first & 0xffffffffL) ? count - 1 : count;
+			asked = new long[(count + 63) >>> 6];
+			answered = new long[asked.length];
+			found = 0;
+			sent = 0;
+			results = new LinkedHashMap();
+			rate = this.rate;
+			passes = this.passes;
+			linger = this.linger;
+			deadline = this.deadline;
+		}
+		long start = System.nanoTime();
+		long end = deadline > 0 ? start + deadline * 1000000 : Long.MAX_VALUE;
+
+		jND_CaptureSession cap = null;
+		boolean closeNIC = false;
+		try {
+			cap = new jND_CaptureSession(nic, false);
+			cap.filter("arp", true, nic.netMask());
+			cap.handler(new jND_PacketHandler() {
+				private jND_EthernetView eth = new jND_EthernetView();
+				private jND_ARPView arp = new jND_ARPView();
+				public void handle(jND_CapturedPacket pkt) {
+					eth.bind(pkt.data(), 0, pkt.caplen());
+					if(!eth.valid() || eth.type() != jND_EthernetII.T_ARP) return;
+					arp.bind(eth);
+					if(!arp.valid() || arp.hwAddressType() != 1
+							|| arp.protocolAddressType() != jND_EthernetII.T_IP
+							|| arp.hwAddressLength() != 6 || arp.protocolAddressLength() != 4
+							|| arp.targetProtocolAddress() != myIP)
+						return;
+					reply(arp.sourceProtocolAddress(), arp.sourceHWAddress());
+				}
+			});
+			cap.start();
+			cap.getThread().setName("jND_ARPSweep-" + nic.name());
+
+			if(nic.closed()) {
+				closeNIC = true;
+				nic.open();
+			}
+
+			for(int pass = 0; pass < passes; pass++) {
+				if(!send(rate, end) || !linger(linger, end))
+					break;
+			}
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_ARPSweep.sweep : " + e.toString());
+		} finally {
+			if(closeNIC)
+				nic.close();
+			if(cap != null)
+				cap.dispose();
+			synchronized(mutex) {
+				running = false;
+			}
+		}
+		synchronized(mutex) {
+			return found;
+		}
+	}
+
+	/**
+	 * Stop a sweep in progress. The sweep returns with the hosts found so
+	 * far.
+	 */
+	public void cancel() {
+		synchronized(mutex) {
+			cancelled = true;
+			mutex.notifyAll();
+		}
+	}
+
+	/**
+	 * Find out whether a sweep is in progress.
+	 * @return		true while sweep is running.
+	 */
+	public boolean running() {
+		synchronized(mutex) {
+			return running;
+		}
+	}
+
+	/**
+	 * Get the number of hosts that have answered the current or last
+	 * sweep.
+	 * @return		the host count.
+	 */
+	public int found() {
+		synchronized(mutex) {
+			return found;
+		}
+	}
+
+	/**
+	 * Get the number of requests sent by the current or last sweep.
+	 * @return		the request count.
+	 */
+	public long sent() {
+		synchronized(mutex) {
+			return sent;
+		}
+	}
+
+	/**
+	 * Get the hosts that have answered the current or last sweep.
+	 * @return		a new map of Integer IP address to byte[] MAC address,
+	 *				in the order the hosts answered.
+	 */
+	public LinkedHashMap results() {
+		synchronized(mutex) {
+			return new LinkedHashMap(results);
+		}
+	}
+
+	/**
+	 * Get the MAC address a host gave in the current or last sweep.
+	 * @param		ip - the IP address, as an int.
+	 * @return		the MAC address, or null if the host did not answer.
+	 */
+	public byte[] mac(int ip) {
+		synchronized(mutex) {
+			byte[] m = (byte[])results.get(Integer.valueOf(ip));
+			return m == null ? null : m.clone();
+		}
+	}
+
+	/**
+	 * Get the NIC the sweep works on.
+	 * @return		the NIC.
+	 */
+	public jND_NIC nic() {
+		return nic;
+	}
+
+	/**
+	 * Get the number of requests sent per second.
+	 * @return		the rate.
+	 */
+	public int rate() {
+		synchronized(mutex) {
+			return rate;
+		}
+	}
+
+	/**
+	 * Set the number of requests sent per second. Takes effect at the next
+	 * sweep.
+	 * @param		n - the rate, at least 1.
+	 */
+	public void rate(int n) {
+		if(n < 1)
+			throw new jND_Exception("jND_ARPSweep.rate : rate must be positive - " + n);
+		synchronized(mutex) {
+			rate = n;
+		}
+	}
+
+	/**
+	 * Get how long each pass waits for late replies.
+	 * @return		the time in milliseconds.
+	 */
+	public long linger() {
+		synchronized(mutex) {
+			return linger;
+		}
+	}
+
+	/**
+	 * Set how long each pass waits for late replies after its last
+	 * request. Takes effect at the next sweep.
+	 * @param		ms - the time in milliseconds.
+	 */
+	public void linger(long ms) {
+		if(ms < 0)
+			throw new jND_Exception("jND_ARPSweep.linger : time must not be negative - " + ms);
+		synchronized(mutex) {
+			linger = ms;
+		}
+	}
+
+	/**
+	 * Get the longest a sweep may take.
+	 * @return		the time in milliseconds, or 0 for no limit.
+	 */
+	public long deadline() {
+		synchronized(mutex) {
+			return deadline;
+		}
+	}
+
+	/**
+	 * Set the longest a sweep may take, sending and lingering included.
+	 * Takes effect at the next sweep.
+	 * @param		ms - the time in milliseconds, or 0 for no limit.
+	 */
+	public void deadline(long ms) {
+		if(ms < 0)
+			throw new jND_Exception("jND_ARPSweep.deadline : time must not be negative - " + ms);
+		synchronized(mutex) {
+			deadline = ms;
+		}
+	}
+
+	/**
+	 * Get the number of times an address that does not answer is asked
+	 * for.
+	 * @return		the pass count.
+	 */
+	public int passes() {
+		synchronized(mutex) {
+			return passes;
+		}
+	}
+
+	/**
+	 * Set the number of times an address that does not answer is asked
+	 * for. Takes effect at the next sweep.
+	 * @param		n - the pass count, at least 1.
+	 */
+	public void passes(int n) {
+		if(n < 1)
+			throw new jND_Exception("jND_ARPSweep.passes : count must be positive - " + n);
+		synchronized(mutex) {
+			passes = n;
+		}
+	}
+
+	/**
+	 * Get the listener told of each host found.
+	 * @return		the listener, or null if there is none.
+	 */
+	public jND_ARPSweepListener listener() {
+		synchronized(mutex) {
+			return listener;
+		}
+	}
+
+	/**
+	 * Set the listener told of each host found.
+	 * @param		l - the listener, or null for none.
+	 */
+	public void listener(jND_ARPSweepListener l) {
+		synchronized(mutex) {
+			listener = l;
+		}
+	}
+
+	// Send one pass of requests, to every address that has not answered,
+	// no faster than rate per second. Returns false if the sweep must end.
+	private boolean send(int rate, long end) {
+		int burst = Math.max(1, Math.min(BATCH, rate / 1000));
+		long interval = 1000000000L / rate;		// ns per request
+		byte[] data = new byte[burst * jND_ARPResolver.REQUEST_SIZE];
+		int[] offsets = new int[burst];
+		int[] lengths = new int[burst];
+		for(int i = 0; i < burst; i++) {
+			offsets[i] = i * jND_ARPResolver.REQUEST_SIZE;
+			jND_ARPResolver.requestFrame(data, offsets[i], myMAC, myIP);
+		}
+
+		long next = System.nanoTime();
+		int i = 0;
+		while(i < count) {
+			// Gather the next burst of addresses still to ask for
+			int n = 0;
+			synchronized(mutex) {
+				if(cancelled || found == targets) return false;
+				for(; i < count && n < burst; i++) {
+					int ip = first + i;
+					if(ip == myIP || (answered[i >>> 6] & 1L << i) != 0)
+						continue;
+					jND_ARPResolver.requestTarget(data, offsets[n], ip);
+					lengths[n] = jND_ARPResolver.REQUEST_SIZE;
+					asked[i >>> 6] |= 1L << i;
+					n++;
+				}
+			}
+			if(n == 0) break;
+
+			// Wait for the burst's turn
+			long now = System.nanoTime();
+			if(now - end >= 0) return false;
+			if(next - now > 0) {
+				LockSupport.parkNanos(next - now);
+				now = System.nanoTime();
+			} else if(now - next > 1000000) {
+				next = now;		// fell behind; do not burst to catch up
+			}
+
+			// Send it, going on from where the OS stopped if it stops
+			int done = 0;
+			while(done < n) {
+				int k = nic.injectBatch(data, offsets, lengths, n - done);
+				if(k < 1)
+					throw new jND_Exception("jND_ARPSweep.sweep : NIC accepted no requests");
+				if(k < n - done)
+					System.arraycopy(offsets, k, offsets, 0, n - done - k);
+				done += k;
+			}
+			for(int j = 0; j < burst; j++)
+				offsets[j] = j * jND_ARPResolver.REQUEST_SIZE;
+			synchronized(mutex) {
+				sent += n;
+			}
+			next += n * interval;
+		}
+		return true;
+	}
+
+	// Wait for late replies. Returns false if the sweep must end.
+	private boolean linger(long ms, long end) {
+		long until = System.nanoTime() + ms * 1000000;
+		if(until - end > 0) until = end;
+		synchronized(mutex) {
+			for(;;) {
+				if(cancelled || found == targets) return false;
+				long left = until - System.nanoTime();
+				if(left <= 0) break;
+				try {
+					mutex.wait(left / 1000000, (int)(left % 1000000));
+				} catch(InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					return false;
+				}
+			}
+		}
+		return System.nanoTime() - end < 0;
+	}
+
+	// Called by the capture thread for each reply addressed to us
+	private void reply(int ip, long mac) {
+		byte[] m;
+		jND_ARPSweepListener l;
+		synchronized(mutex) {
+			if(!running) return;
+			long i = (ip & 0xffffffffL) - (first & 0xffffffffL);
+			if(i < 0 || i >= count) return;
+			int b = (int)i;
+			if((asked[b >>> 6] & 1L << b) == 0 || (answered[b >>> 6] & 1L << b) != 0)
+				return;
+			answered[b >>> 6] |= 1L << b;
+			found++;
+			m = new byte[6];
+			for(int k = 5; k >= 0; k--, mac >>>= 8)
+				m[k] = (byte)mac;
+			results.put(Integer.valueOf(ip), m);
+			if(found == targets)
+				mutex.notifyAll();
+			l = listener;
+		}
+		if(l != null)
+			l.found(ip, m.clone());
+	}
+};
@@ -0,0 +1,42 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_ARPSweepListener <br>
+ * Interface of code told of each host a jND_ARPSweep finds, as the
+ * replies come in. See jND_ARPSweep.listener.
+ * <pre>
+ *     sweep.listener(new jND_ARPSweepListener() {
+ *         public void found(int ip, byte[] mac) {
+ *             jND_IPv4Address a = new jND_IPv4Address();
+ *             a.address(ip);
+ *             System.out.print(a + "\n");
+ *         }
+ *     });
+ * </pre>
+ * <br>
+ */
+public interface jND_ARPSweepListener {
+	/**
+	 * Handle a host that answered. Each host is reported once per sweep.
+	 * @param		ip - the IP address of the host, as an int.
+	 * @param		mac - its MAC address. The array belongs to the
+	 *				listener.
+	 */
+	public void found(int ip, byte[] mac);
+};
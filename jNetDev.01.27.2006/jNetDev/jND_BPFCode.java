@@ -0,0 +1,127 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_BPFCode <br>
+ * Base class of the classes jND_BPFMachine generates from hot programs.
+ * A generated class runs one program as straight Java bytecode, which the
+ * JVM compiles to machine code like any other method: the accumulator, X
+ * register and scratch memory become local variables and the jumps of the
+ * program become branches. The loads and checks below are called by the
+ * generated code and are inlined by the JVM.
+ * <br><br>
+ * It is NOT normally necessary for users of the jNetDev package to use
+ * this class; a jND_BPFMachine runs the generated code when it has it.
+ * Generated code keeps no state, so one instance serves every machine
+ * running the same program, in any thread.
+ * <br><br>
+ */
+public abstract class jND_BPFCode {
+	protected jND_BPFCode() {
+	}
+
+	/**
+	 * Run the program on a packet in a byte array. The packet is known to
+	 * lie inside the array.
+	 * @param		a - the array holding the packet.
+	 * @param		off - where the packet starts in the array.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @return		the value returned by the program.
+	 */
+	public abstract int run(byte[] a, int off, int caplen, int wireLength);
+
+	/**
+	 * Run the program on a packet in a buffer. The packet is known to lie
+	 * inside the buffer.
+	 * @param		b - the buffer holding the packet.
+	 * @param		off - where the packet starts in the buffer.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @return		the value returned by the program.
+	 */
+	public abstract int run(ByteBuffer b, int off, int caplen, int wireLength);
+
+	/**
+	 * Find out whether an indexed load of size octets at X + k falls
+	 * outside the captured data. X and k are unsigned.
+	 */
+	protected static boolean outside(int x, int k, int size, int caplen) {
+		return (x & 0xffffffffL) + (k & 0xffffffffL) + size > caplen;
+	}
+
+	/**
+	 * Shift left by X; a shift of 32 or more gives 0.
+	 */
+	protected static int shl(int a, int x) {
+		return (x & 0xffffffffL) < 32 ? a << x : 0;
+	}
+
+	/**
+	 * Shift right by X; a shift of 32 or more gives 0.
+	 */
+	protected static int shr(int a, int x) {
+		return (x & 0xffffffffL) < 32 ? a >>> x : 0;
+	}
+
+	/**
+	 * Read an unsigned octet.
+	 */
+	protected static int u8(byte[] a, int i) {
+		return a[i] & 0xff;
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	protected static int u16(byte[] a, int i) {
+		return ((a[i] & 0xff) << 8) | (a[i + 1] & 0xff);
+	}
+
+	/**
+	 * Read a 32 bit field in network order.
+	 */
+	protected static int u32(byte[] a, int i) {
+		return (a[i] << 24) | ((a[i + 1] & 0xff) << 16)
+			| ((a[i + 2] & 0xff) << 8) | (a[i + 3] & 0xff);
+	}
+
+	/**
+	 * Read an unsigned octet. The byte order of the buffer does not
+	 * matter; fields are always read in network order.
+	 */
+	protected static int u8(ByteBuffer b, int i) {
+		return b.get(i) & 0xff;
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	protected static int u16(ByteBuffer b, int i) {
+		return ((b.get(i) & 0xff) << 8) | (b.get(i + 1) & 0xff);
+	}
+
+	/**
+	 * Read a 32 bit field in network order.
+	 */
+	protected static int u32(ByteBuffer b, int i) {
+		return (b.get(i) << 24) | ((b.get(i + 1) & 0xff) << 16)
+			| ((b.get(i + 2) & 0xff) << 8) | (b.get(i + 3) & 0xff);
+	}
+};
@@ -0,0 +1,563 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+/**
+ * jND_BPFCompiler <br>
+ * Class to translate a program checked and decoded by jND_BPFMachine into
+ * a subclass of jND_BPFCode, written out as a class file and loaded by a
+ * class loader of its own, so that it is unloaded with the program.
+ * <br><br>
+ * Each BPF instruction becomes a few bytecodes. Loads check the captured
+ * length first and return 0 when they fall outside it, as the interpreter
+ * does. Classic BPF only jumps forward, so the class is written in the
+ * version 49 format, which the JVM verifies without stack map frames.
+ * A program whose bytecode would not fit the 16 bit branch offsets of a
+ * method is not compiled and stays interpreted.
+ * <br><br>
+ */
+class jND_BPFCompiler {
+	// JVM opcodes
+	private static final int ICONST_0 = 0x03, BIPUSH = 0x10, SIPUSH = 0x11, LDC_W = 0x13;
+	private static final int ILOAD = 0x15, ALOAD_0 = 0x2a, ALOAD_1 = 0x2b, ISTORE = 0x36;
+	private static final int IADD = 0x60, ISUB = 0x64, IMUL = 0x68, INEG = 0x74;
+	private static final int ISHL = 0x78, IUSHR = 0x7c, IAND = 0x7e, IOR = 0x80, IXOR = 0x82;
+	private static final int IFEQ = 0x99, IFNE = 0x9a;
+	private static final int IF_ICMPEQ = 0x9f, IF_ICMPGE = 0xa2, IF_ICMPGT = 0xa3;
+	private static final int GOTO = 0xa7, IRETURN = 0xac, RETURN = 0xb1;
+	private static final int INVOKESPECIAL = 0xb7, INVOKESTATIC = 0xb8;
+
+	// Local variables of the generated run methods
+	private static final int PKT = 1, OFF = 2, CAPLEN = 3, WIRE = 4, A = 5, X = 6, MEM = 7;
+	private static final int LOCALS = MEM + jND_BPFMachine.MEMWORDS;
+	private static final int STACK = 6;
+
+	private static final String BASE = "jNetDev/jND_BPFCode";
+	private static final String ARRAY = "[B";
+	private static final String BUFFER = "Ljava/nio/ByteBuffer;";
+
+	private static jND_Mutex countMutex = new jND_Mutex();
+	private static int count = 0;		// classes generated, to name them
+
+	// The decoded program
+	private int[] op;
+	private int[] k;
+	private int[] jt;
+	private int[] jf;
+
+	// The constant pool
+	private ArrayList pool = new ArrayList();
+	private HashMap poolIndex = new HashMap();
+
+	// The method being written
+	private ByteArrayOutputStream code;
+	private int[] labels;			// where each instruction starts
+	private ArrayList fixups;		// branches to patch: { at, instruction }
+
+	/**
+	 * A class loader for one generated class.
+	 */
+	private static class Loader extends ClassLoader {
+		Loader(ClassLoader parent) {
+			super(parent);
+		}
+
+		Class define(String name, byte[] b) {
+			return defineClass(name, b, 0, b.length);
+		}
+	};
+
+	private jND_BPFCompiler(int[] op, int[] k, int[] jt, int[] jf) {
+		this.op = op;
+		this.k = k;
+		this.jt = jt;
+		this.jf = jf;
+	}
+
+	/**
+	 * Generate and load the code of a decoded program.
+	 * @param		op - the decoded operation of each instruction.
+	 * @param		k - the constant operand of each instruction.
+	 * @param		jt - the target of each jump when true.
+	 * @param		jf - the target of each jump when false.
+	 * @return		an instance of the generated class, or null if the
+	 *				program cannot be compiled.
+	 */
+	static jND_BPFCode compile(int[] op, int[] k, int[] jt, int[] jf) {
+		String name;
+		synchronized(countMutex) {
+			name = "jNetDev/jND_BPFGenerated" + (count++);
+		}
+		try {
+			byte[] b = new jND_BPFCompiler(op, k, jt, jf).classFile(name);
+			if(b == null)
+				return null;
+			Loader l = new Loader(jND_BPFCode.class.getClassLoader());
+			Class c = l.define(name.replace('/', '.'), b);
+			return (jND_BPFCode)c.getDeclaredConstructor().newInstance();
+		} catch(Exception e) {
+			return null;
+		} catch(LinkageError e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Write the class file.
+	 * @return		the class file, or null if a method is too large.
+	 */
+	private byte[] classFile(String name) throws IOException {
+		int thisClass = classRef(name);
+		int superClass = classRef(BASE);
+		int superInit = methodRef(BASE, "<init>", "()V");
+		int init = utf8("<init>");
+		int initDesc = utf8("()V");
+		int run = utf8("run");
+		int runArray = utf8("(" + ARRAY + "III)I");
+		int runBuffer = utf8("(" + BUFFER + "III)I");
+		int codeAttr = utf8("Code");
+
+		// The constructor calls that of jND_BPFCode
+		code = new ByteArrayOutputStream();
+		code.write(ALOAD_0);
+		code.write(INVOKESPECIAL);
+		u2(code, superInit);
+		code.write(RETURN);
+		byte[] initCode = code.toByteArray();
+
+		byte[] arrayCode = method(ARRAY);
+		byte[] bufferCode = method(BUFFER);
+		if(arrayCode == null || bufferCode == null)
+			return null;
+
+		// Every constant is in the pool now
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0xcafebabe);
+		out.writeShort(0);
+		out.writeShort(49);
+		out.writeShort(pool.size() + 1);
+		for(int i = 0; i < pool.size(); i++)
+			out.write((byte[])pool.get(i));
+		out.writeShort(0x0031);			// public final super
+		out.writeShort(thisClass);
+		out.writeShort(superClass);
+		out.writeShort(0);				// interfaces
+		out.writeShort(0);				// fields
+		out.writeShort(3);				// methods
+		method(out, init, initDesc, codeAttr, 1, 1, initCode);
+		method(out, run, runArray, codeAttr, STACK, LOCALS, arrayCode);
+		method(out, run, runBuffer, codeAttr, STACK, LOCALS, bufferCode);
+		out.writeShort(0);				// attributes
+		out.flush();
+		return bytes.toByteArray();
+	}
+
+	/**
+	 * Write a public method and its Code attribute.
+	 */
+	private static void method(DataOutputStream out, int name, int desc, int codeAttr,
+			int maxStack, int maxLocals, byte[] body) throws IOException {
+		out.writeShort(0x0001);			// public
+		out.writeShort(name);
+		out.writeShort(desc);
+		out.writeShort(1);
+		out.writeShort(codeAttr);
+		out.writeInt(12 + body.length);
+		out.writeShort(maxStack);
+		out.writeShort(maxLocals);
+		out.writeInt(body.length);
+		out.write(body);
+		out.writeShort(0);				// exception table
+		out.writeShort(0);				// attributes
+	}
+
+	/**
+	 * Write the body of a run method.
+	 * @param		pkt - the descriptor of the packet argument.
+	 * @return		the bytecode, or null if it is too large.
+	 */
+	private byte[] method(String pkt) {
+		code = new ByteArrayOutputStream();
+		labels = new int[op.length];
+		fixups = new ArrayList();
+
+		// The verifier wants every local set before it is read
+		for(int v = A; v < LOCALS; v++) {
+			code.write(ICONST_0);
+			local(ISTORE, v);
+		}
+		for(int i = 0; i < op.length; i++) {
+			labels[i] = code.size();
+			instruction(i, pkt);
+		}
+
+		byte[] b = code.toByteArray();
+		if(b.length > 65535)
+			return null;
+		for(int f = 0; f < fixups.size(); f++) {
+			int[] fix = (int[])fixups.get(f);
+			int offset = labels[fix[1]] - fix[0];
+			if(offset > Short.MAX_VALUE)
+				return null;
+			b[fix[0] + 1] = (byte)(offset >> 8);
+			b[fix[0] + 2] = (byte)offset;
+		}
+		return b;
+	}
+
+	/**
+	 * Write the bytecode of one instruction.
+	 */
+	private void instruction(int i, String pkt) {
+		int kk = k[i];
+		switch(op[i]) {
+		case jND_BPFMachine.LD_W_ABS: absolute(pkt, kk, 4); break;
+		case jND_BPFMachine.LD_H_ABS: absolute(pkt, kk, 2); break;
+		case jND_BPFMachine.LD_B_ABS: absolute(pkt, kk, 1); break;
+		case jND_BPFMachine.LD_W_IND: indexed(pkt, kk, 4); break;
+		case jND_BPFMachine.LD_H_IND: indexed(pkt, kk, 2); break;
+		case jND_BPFMachine.LD_B_IND: indexed(pkt, kk, 1); break;
+		case jND_BPFMachine.LD_LEN: move(WIRE, A); break;
+		case jND_BPFMachine.LD_IMM: push(kk); local(ISTORE, A); break;
+		case jND_BPFMachine.LD_MEM: move(MEM + kk, A); break;
+		case jND_BPFMachine.LDX_LEN: move(WIRE, X); break;
+		case jND_BPFMachine.LDX_IMM: push(kk); local(ISTORE, X); break;
+		case jND_BPFMachine.LDX_MEM: move(MEM + kk, X); break;
+		case jND_BPFMachine.LDX_MSH:
+			inside(kk, 1);
+			load(pkt, kk, 1, false);
+			push(0x0f);
+			code.write(IAND);
+			push(2);
+			code.write(ISHL);
+			local(ISTORE, X);
+			break;
+		case jND_BPFMachine.ST: move(A, MEM + kk); break;
+		case jND_BPFMachine.STX: move(X, MEM + kk); break;
+		case jND_BPFMachine.ADD_K: constant(kk, IADD); break;
+		case jND_BPFMachine.SUB_K: constant(kk, ISUB); break;
+		case jND_BPFMachine.MUL_K: constant(kk, IMUL); break;
+		case jND_BPFMachine.OR_K: constant(kk, IOR); break;
+		case jND_BPFMachine.AND_K: constant(kk, IAND); break;
+		case jND_BPFMachine.XOR_K: constant(kk, IXOR); break;
+		case jND_BPFMachine.LSH_K: constant(kk, ISHL); break;
+		case jND_BPFMachine.RSH_K: constant(kk, IUSHR); break;
+		case jND_BPFMachine.DIV_K:
+			local(ILOAD, A);
+			push(kk);
+			call("java/lang/Integer", "divideUnsigned", "(II)I");
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.MOD_K:
+			local(ILOAD, A);
+			push(kk);
+			call("java/lang/Integer", "remainderUnsigned", "(II)I");
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.ADD_X: register(IADD); break;
+		case jND_BPFMachine.SUB_X: register(ISUB); break;
+		case jND_BPFMachine.MUL_X: register(IMUL); break;
+		case jND_BPFMachine.OR_X: register(IOR); break;
+		case jND_BPFMachine.AND_X: register(IAND); break;
+		case jND_BPFMachine.XOR_X: register(IXOR); break;
+		case jND_BPFMachine.DIV_X:
+		case jND_BPFMachine.MOD_X:
+			// Division by zero rejects the packet
+			local(ILOAD, X);
+			code.write(IFNE);
+			u2(code, 5);
+			code.write(ICONST_0);
+			code.write(IRETURN);
+			local(ILOAD, A);
+			local(ILOAD, X);
+			call("java/lang/Integer", op[i] == jND_BPFMachine.DIV_X
+				? "divideUnsigned" : "remainderUnsigned", "(II)I");
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.LSH_X:
+			local(ILOAD, A);
+			local(ILOAD, X);
+			call(BASE, "shl", "(II)I");
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.RSH_X:
+			local(ILOAD, A);
+			local(ILOAD, X);
+			call(BASE, "shr", "(II)I");
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.NEG:
+			local(ILOAD, A);
+			code.write(INEG);
+			local(ISTORE, A);
+			break;
+		case jND_BPFMachine.JA:
+			if(jt[i] != i + 1)
+				branch(GOTO, jt[i]);
+			break;
+		case jND_BPFMachine.JEQ_K:
+			local(ILOAD, A);
+			push(kk);
+			test(i, IF_ICMPEQ);
+			break;
+		case jND_BPFMachine.JGT_K:
+		case jND_BPFMachine.JGE_K:
+			// Unsigned compare: flip the sign bits and compare signed
+			local(ILOAD, A);
+			push(Integer.MIN_VALUE);
+			code.write(IXOR);
+			push(kk ^ Integer.MIN_VALUE);
+			test(i, op[i] == jND_BPFMachine.JGT_K ? IF_ICMPGT : IF_ICMPGE);
+			break;
+		case jND_BPFMachine.JSET_K:
+			local(ILOAD, A);
+			push(kk);
+			code.write(IAND);
+			test(i, IFNE);
+			break;
+		case jND_BPFMachine.JEQ_X:
+			local(ILOAD, A);
+			local(ILOAD, X);
+			test(i, IF_ICMPEQ);
+			break;
+		case jND_BPFMachine.JGT_X:
+		case jND_BPFMachine.JGE_X:
+			local(ILOAD, A);
+			push(Integer.MIN_VALUE);
+			code.write(IXOR);
+			local(ILOAD, X);
+			push(Integer.MIN_VALUE);
+			code.write(IXOR);
+			test(i, op[i] == jND_BPFMachine.JGT_X ? IF_ICMPGT : IF_ICMPGE);
+			break;
+		case jND_BPFMachine.JSET_X:
+			local(ILOAD, A);
+			local(ILOAD, X);
+			code.write(IAND);
+			test(i, IFNE);
+			break;
+		case jND_BPFMachine.RET_K:
+			push(kk);
+			code.write(IRETURN);
+			break;
+		case jND_BPFMachine.RET_A:
+			local(ILOAD, A);
+			code.write(IRETURN);
+			break;
+		case jND_BPFMachine.TAX: move(A, X); break;
+		case jND_BPFMachine.TXA: move(X, A); break;
+		default:
+			throw new jND_Exception("jND_BPFCompiler.instruction : bad operation at " + i);
+		}
+	}
+
+	/**
+	 * A load at a constant offset.
+	 */
+	private void absolute(String pkt, int kk, int size) {
+		inside(kk, size);
+		load(pkt, kk, size, false);
+		local(ISTORE, A);
+	}
+
+	/**
+	 * A load at X plus a constant offset.
+	 */
+	private void indexed(String pkt, int kk, int size) {
+		local(ILOAD, X);
+		push(kk);
+		push(size);
+		local(ILOAD, CAPLEN);
+		call(BASE, "outside", "(IIII)Z");
+		code.write(IFEQ);
+		u2(code, 5);
+		code.write(ICONST_0);
+		code.write(IRETURN);
+		load(pkt, kk, size, true);
+		local(ISTORE, A);
+	}
+
+	/**
+	 * Return 0 unless the size octets at the constant offset kk were
+	 * captured.
+	 */
+	private void inside(int kk, int size) {
+		long end = (kk & 0xffffffffL) + size;
+		if(end > Integer.MAX_VALUE) {
+			// Never captured; the rest of the instruction is dead code
+			code.write(ICONST_0);
+			code.write(IRETURN);
+			return;
+		}
+		local(ILOAD, CAPLEN);
+		push((int)end);
+		code.write(IF_ICMPGE);
+		u2(code, 5);
+		code.write(ICONST_0);
+		code.write(IRETURN);
+	}
+
+	/**
+	 * Push the field of size octets at off + kk, or off + X + kk.
+	 */
+	private void load(String pkt, int kk, int size, boolean indexed) {
+		code.write(ALOAD_1);
+		local(ILOAD, OFF);
+		if(indexed) {
+			local(ILOAD, X);
+			code.write(IADD);
+		}
+		if(kk != 0) {
+			push(kk);
+			code.write(IADD);
+		}
+		call(BASE, size == 4 ? "u32" : size == 2 ? "u16" : "u8", "(" + pkt + "I)I");
+	}
+
+	/**
+	 * A = A op k.
+	 */
+	private void constant(int kk, int opcode) {
+		local(ILOAD, A);
+		push(kk);
+		code.write(opcode);
+		local(ISTORE, A);
+	}
+
+	/**
+	 * A = A op X.
+	 */
+	private void register(int opcode) {
+		local(ILOAD, A);
+		local(ILOAD, X);
+		code.write(opcode);
+		local(ISTORE, A);
+	}
+
+	/**
+	 * Copy one local to another.
+	 */
+	private void move(int from, int to) {
+		local(ILOAD, from);
+		local(ISTORE, to);
+	}
+
+	/**
+	 * Branch on a comparison already set up on the stack, falling through
+	 * where the program goes to the next instruction.
+	 */
+	private void test(int i, int opcode) {
+		if(jf[i] == i + 1) {
+			branch(opcode, jt[i]);
+		} else if(jt[i] == i + 1) {
+			// The opposite test is the other of each pair of opcodes
+			branch((opcode & 1) == 1 ? opcode + 1 : opcode - 1, jf[i]);
+		} else {
+			branch(opcode, jt[i]);
+			branch(GOTO, jf[i]);
+		}
+	}
+
+	/**
+	 * A branch to an instruction, patched when the method is done.
+	 */
+	private void branch(int opcode, int target) {
+		fixups.add(new int[] { code.size(), target });
+		code.write(opcode);
+		u2(code, 0);
+	}
+
+	private void local(int opcode, int v) {
+		code.write(opcode);
+		code.write(v);
+	}
+
+	private void push(int v) {
+		if(v >= -1 && v <= 5) {
+			code.write(ICONST_0 + v);
+		} else if(v >= Byte.MIN_VALUE && v <= Byte.MAX_VALUE) {
+			code.write(BIPUSH);
+			code.write(v);
+		} else if(v >= Short.MIN_VALUE && v <= Short.MAX_VALUE) {
+			code.write(SIPUSH);
+			u2(code, v);
+		} else {
+			code.write(LDC_W);
+			u2(code, integer(v));
+		}
+	}
+
+	private void call(String owner, String name, String desc) {
+		code.write(INVOKESTATIC);
+		u2(code, methodRef(owner, name, desc));
+	}
+
+	private static void u2(ByteArrayOutputStream out, int v) {
+		out.write(v >> 8);
+		out.write(v);
+	}
+
+	// ========== Constant pool ==========
+
+	private int entry(String key, byte[] entry) {
+		Integer i = (Integer)poolIndex.get(key);
+		if(i != null)
+			return i.intValue();
+		pool.add(entry);
+		poolIndex.put(key, Integer.valueOf(pool.size()));
+		return pool.size();
+	}
+
+	private int utf8(String s) {
+		ByteArrayOutputStream b = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(b);
+		try {
+			out.writeByte(1);
+			out.writeUTF(s);
+			out.flush();
+		} catch(IOException e) {
+			throw new jND_Exception("jND_BPFCompiler.utf8 : " + e.toString());
+		}
+		return entry("U" + s, b.toByteArray());
+	}
+
+	private int classRef(String name) {
+		int n = utf8(name);
+		return entry("C" + name, new byte[] { 7, (byte)(n >> 8), (byte)n });
+	}
+
+	private int methodRef(String owner, String name, String desc) {
+		int c = classRef(owner);
+		int n = utf8(name);
+		int d = utf8(desc);
+		int nt = entry("N" + name + " " + desc,
+			new byte[] { 12, (byte)(n >> 8), (byte)n, (byte)(d >> 8), (byte)d });
+		return entry("M" + owner + "." + name + desc,
+			new byte[] { 10, (byte)(c >> 8), (byte)c, (byte)(nt >> 8), (byte)nt });
+	}
+
+	private int integer(int v) {
+		return entry("I" + v, new byte[] { 3, (byte)(v >> 24), (byte)(v >> 16),
+			(byte)(v >> 8), (byte)v });
+	}
+};
@@ -0,0 +1,483 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * jND_BPFMachine <br>
+ * Class to run a jND_BPFProgram in Java, without libpcap. It gives the
+ * same answer the kernel or libpcap would for the same classic BPF
+ * program, so packets read from a trace file or taken from a queue can
+ * be filtered with the filters used for live capture.
+ * <pre>
+ *     jND_BPFMachine m = new jND_BPFMachine(
+ *         jND_BPFProgram.compile("tcp port 80", true, 0));
+ *     while(reader.nextPacket())
+ *         if(m.matches(reader.buffer(), reader.offset(),
+ *                 reader.caplen(), reader.wireLength()))
+ *             ...
+ * </pre>
+ * The program is checked once, when the machine is built, the way the
+ * kernel checks a program before attaching it: every jump must land
+ * inside the program, the program must end in a return, scratch memory
+ * indexes must be in range and division by a constant zero is refused.
+ * It is then decoded into flat arrays with absolute jump targets, so that
+ * running it is one switch per instruction and nothing is allocated.
+ * <br><br>
+ * Once a machine has run a program COMPILE_THRESHOLD times, it translates
+ * the program into a Java class (see jND_BPFCode) and runs that instead.
+ * The JVM compiles the class to machine code, which removes the cost of
+ * interpreting each instruction. The generated code is kept with the
+ * program, so other machines running the same program use it at once.
+ * A program too large to translate stays interpreted.
+ * <br><br>
+ * As in the kernel, a load past the end of the captured data and a
+ * division by a zero X register end the program and reject the packet.
+ * The registers and scratch memory are zero when a run starts.
+ * <br><br>
+ * A machine holds the scratch memory of the program, so it must not be
+ * used by two threads at once. The program itself may be shared; build
+ * one machine per thread.
+ * <br><br>
+ */
+public class jND_BPFMachine {
+	// Instruction classes, sizes, modes and operations of classic BPF
+	private static final int BPF_LD = 0x00, BPF_LDX = 0x01, BPF_ST = 0x02, BPF_STX = 0x03;
+	private static final int BPF_ALU = 0x04, BPF_JMP = 0x05, BPF_RET = 0x06, BPF_MISC = 0x07;
+	private static final int BPF_W = 0x00, BPF_H = 0x08, BPF_B = 0x10;
+	private static final int BPF_IMM = 0x00, BPF_ABS = 0x20, BPF_IND = 0x40;
+	private static final int BPF_MEM = 0x60, BPF_LEN = 0x80, BPF_MSH = 0xa0;
+	private static final int BPF_ADD = 0x00, BPF_SUB = 0x10, BPF_MUL = 0x20, BPF_DIV = 0x30;
+	private static final int BPF_OR = 0x40, BPF_AND = 0x50, BPF_LSH = 0x60, BPF_RSH = 0x70;
+	private static final int BPF_NEG = 0x80, BPF_MOD = 0x90, BPF_XOR = 0xa0;
+	private static final int BPF_JA = 0x00, BPF_JEQ = 0x10, BPF_JGT = 0x20;
+	private static final int BPF_JGE = 0x30, BPF_JSET = 0x40;
+	private static final int BPF_K = 0x00, BPF_X = 0x08, BPF_A = 0x10;
+	private static final int BPF_TAX = 0x00, BPF_TXA = 0x80;
+
+	// Scratch memory words
+	public static final int MEMWORDS = 16;
+
+	// Runs of a program before it is translated to a class
+	public static final int COMPILE_THRESHOLD = 1000;
+
+	// Decoded operations, numbered densely so the switch is a jump table;
+	// shared with jND_BPFCompiler
+	static final int LD_W_ABS = 0, LD_H_ABS = 1, LD_B_ABS = 2;
+	static final int LD_W_IND = 3, LD_H_IND = 4, LD_B_IND = 5;
+	static final int LD_LEN = 6, LD_IMM = 7, LD_MEM = 8;
+	static final int LDX_LEN = 9, LDX_IMM = 10, LDX_MEM = 11, LDX_MSH = 12;
+	static final int ST = 13, STX = 14;
+	static final int ADD_K = 15, SUB_K = 16, MUL_K = 17, DIV_K = 18, MOD_K = 19;
+	static final int OR_K = 20, AND_K = 21, XOR_K = 22, LSH_K = 23, RSH_K = 24;
+	static final int ADD_X = 25, SUB_X = 26, MUL_X = 27, DIV_X = 28, MOD_X = 29;
+	static final int OR_X = 30, AND_X = 31, XOR_X = 32, LSH_X = 33, RSH_X = 34;
+	static final int NEG = 35, JA = 36;
+	static final int JEQ_K = 37, JGT_K = 38, JGE_K = 39, JSET_K = 40;
+	static final int JEQ_X = 41, JGT_X = 42, JGE_X = 43, JSET_X = 44;
+	static final int RET_K = 45, RET_A = 46, TAX = 47, TXA = 48;
+
+	private jND_BPFProgram prog;
+	private int[] op;			// decoded operation of each instruction
+	private int[] k;			// constant operand
+	private int[] jt;			// index of the next instruction when true
+	private int[] jf;			// index of the next instruction when false
+	private int[] mem = new int[MEMWORDS];
+	private boolean usesMemory = false;	// does the program touch mem?
+	private jND_BPFCode code = null;	// generated code, once the program is hot
+	private int threshold;		// runs before translating, -1 for never
+	private int runs = 0;
+
+	/**
+	 * Check and decode a program, to be translated to a class after
+	 * COMPILE_THRESHOLD runs.
+	 * @param		prog - the program to run.
+	 */
+	public jND_BPFMachine(jND_BPFProgram prog) {
+		this(prog, COMPILE_THRESHOLD);
+	}
+
+	/**
+	 * Check and decode a program.
+	 * @param		prog - the program to run.
+	 * @param		threshold - the runs before the program is translated
+	 *				to a class: 0 to translate it now, -1 to always
+	 *				interpret it.
+	 */
+	public jND_BPFMachine(jND_BPFProgram prog, int threshold) {
+		if(prog == null)
+			throw new jND_Exception("jND_BPFMachine.constructor : program must not be null");
+		this.prog = prog;
+		int n = prog.length();
+		op = new int[n];
+		k = new int[n];
+		jt = new int[n];
+		jf = new int[n];
+		for(int i = 0; i < n; i++) {
+			k[i] = prog.k(i);
+			op[i] = decode(i, prog.code(i), k[i]);
+			if(op[i] == LD_MEM || op[i] == LDX_MEM || op[i] == ST || op[i] == STX)
+				usesMemory = true;
+			if(op[i] == JA) {
+				// The offset of an unconditional jump is all of k
+				jt[i] = jf[i] = target(i, k[i]);
+			} else if(op[i] >= JEQ_K && op[i] <= JSET_X) {
+				jt[i] = target(i, prog.jt(i));
+				jf[i] = target(i, prog.jf(i));
+			}
+		}
+		if(op[n - 1] != RET_K && op[n - 1] != RET_A)
+			throw new jND_Exception("jND_BPFMachine.constructor : program does not end with a return");
+		this.threshold = threshold;
+		if(threshold == 0)
+			translate();
+	}
+
+	/**
+	 * Get the program this machine runs.
+	 * @return		the program.
+	 */
+	public jND_BPFProgram program() {
+		return prog;
+	}
+
+	/**
+	 * Find out whether the program runs as a generated class.
+	 * @return		true once the program has been translated.
+	 */
+	public boolean compiled() {
+		return code != null;
+	}
+
+	/**
+	 * Run the program on a packet in a byte array.
+	 * @param		pkt - the array holding the packet.
+	 * @param		off - where the packet starts in the array.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @return		the value returned by the program: the number of octets
+	 *				to keep, or 0 if the packet is rejected.
+	 */
+	public int run(byte[] pkt, int off, int caplen, int wireLength) {
+		if(off < 0 || caplen < 0 || off + caplen > pkt.length)
+			throw new jND_Exception("jND_BPFMachine.run : packet out of bounds");
+		if(code == null && threshold >= 0 && ++runs >= threshold)
+			translate();
+		if(code != null)
+			return code.run(pkt, off, caplen, wireLength);
+		return run(pkt, null, off, caplen, wireLength);
+	}
+
+	/**
+	 * Run the program on a packet in a buffer. The position and limit of
+	 * the buffer are left alone.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		off - where the packet starts in the buffer.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @return		the value returned by the program: the number of octets
+	 *				to keep, or 0 if the packet is rejected.
+	 */
+	public int run(ByteBuffer buf, int off, int caplen, int wireLength) {
+		if(off < 0 || caplen < 0 || off + caplen > buf.capacity())
+			throw new jND_Exception("jND_BPFMachine.run : packet out of bounds");
+		if(code == null && threshold >= 0 && ++runs >= threshold)
+			translate();
+		if(code != null)
+			return code.run(buf, off, caplen, wireLength);
+		return run(null, buf, off, caplen, wireLength);
+	}
+
+	/**
+	 * Find out whether a whole packet passes the filter.
+	 * @param		pkt - the packet.
+	 * @return		true if the program accepts the packet.
+	 */
+	public boolean matches(byte[] pkt) {
+		return run(pkt, 0, pkt.length, pkt.length) != 0;
+	}
+
+	/**
+	 * Find out whether a captured packet passes the filter.
+	 * @param		pkt - the packet.
+	 * @return		true if the program accepts the packet.
+	 */
+	public boolean matches(jND_CapturedPacket pkt) {
+		byte[] data = pkt.data();
+		return run(data, 0, data.length, pkt.wireLength()) != 0;
+	}
+
+	/**
+	 * Find out whether a packet in a buffer passes the filter.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		off - where the packet starts in the buffer.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @return		true if the program accepts the packet.
+	 */
+	public boolean matches(ByteBuffer buf, int off, int caplen, int wireLength) {
+		return run(buf, off, caplen, wireLength) != 0;
+	}
+
+	/**
+	 * The interpreter. Exactly one of a and b is set, and the packet lies
+	 * inside it.
+	 */
+	private int run(byte[] a, ByteBuffer b, int off, int caplen, int wireLength) {
+		int[] op = this.op, k = this.k, jt = this.jt, jf = this.jf, mem = this.mem;
+		int A = 0, X = 0;
+		int pc = 0;
+		// Every run starts with clear memory, as generated code does
+		if(usesMemory)
+			Arrays.fill(mem, 0);
+		long at;
+		for(;;) {
+			int i = pc++;
+			switch(op[i]) {
+			case LD_W_ABS:
+				at = k[i] & 0xffffffffL;
+				if(at + 4 > caplen) return 0;
+				A = u32(a, b, off + (int)at);
+				break;
+			case LD_H_ABS:
+				at = k[i] & 0xffffffffL;
+				if(at + 2 > caplen) return 0;
+				A = u16(a, b, off + (int)at);
+				break;
+			case LD_B_ABS:
+				at = k[i] & 0xffffffffL;
+				if(at + 1 > caplen) return 0;
+				A = u8(a, b, off + (int)at);
+				break;
+			case LD_W_IND:
+				at = (X & 0xffffffffL) + (k[i] & 0xffffffffL);
+				if(at + 4 > caplen) return 0;
+				A = u32(a, b, off + (int)at);
+				break;
+			case LD_H_IND:
+				at = (X & 0xffffffffL) + (k[i] & 0xffffffffL);
+				if(at + 2 > caplen) return 0;
+				A = u16(a, b, off + (int)at);
+				break;
+			case LD_B_IND:
+				at = (X & 0xffffffffL) + (k[i] & 0xffffffffL);
+				if(at + 1 > caplen) return 0;
+				A = u8(a, b, off + (int)at);
+				break;
+			case LD_LEN:	A = wireLength; break;
+			case LD_IMM:	A = k[i]; break;
+			case LD_MEM:	A = mem[k[i]]; break;
+			case LDX_LEN:	X = wireLength; break;
+			case LDX_IMM:	X = k[i]; break;
+			case LDX_MEM:	X = mem[k[i]]; break;
+			case LDX_MSH:
+				at = k[i] & 0xffffffffL;
+				if(at + 1 > caplen) return 0;
+				X = (u8(a, b, off + (int)at) & 0x0f) << 2;
+				break;
+			case ST:		mem[k[i]] = A; break;
+			case STX:		mem[k[i]] = X; break;
+			case ADD_K:		A += k[i]; break;
+			case SUB_K:		A -= k[i]; break;
+			case MUL_K:		A *= k[i]; break;
+			case DIV_K:		A = Integer.divideUnsigned(A, k[i]); break;
+			case MOD_K:		A = Integer.remainderUnsigned(A, k[i]); break;
+			case OR_K:		A |= k[i]; break;
+			case AND_K:		A &= k[i]; break;
+			case XOR_K:		A ^= k[i]; break;
+			case LSH_K:		A <<= k[i]; break;
+			case RSH_K:		A >>>= k[i]; break;
+			case ADD_X:		A += X; break;
+			case SUB_X:		A -= X; break;
+			case MUL_X:		A *= X; break;
+			case DIV_X:
+				if(X == 0) return 0;
+				A = Integer.divideUnsigned(A, X);
+				break;
+			case MOD_X:
+				if(X == 0) return 0;
+				A = Integer.remainderUnsigned(A, X);
+				break;
+			case OR_X:		A |= X; break;
+			case AND_X:		A &= X; break;
+			case XOR_X:		A ^= X; break;
+			case LSH_X:		A = jND_BPFCode.shl(A, X); break;
+			case RSH_X:		A = jND_BPFCode.shr(A, X); break;
+			case NEG:		A = -A; break;
+			case JA:		pc = jt[i]; break;
+			case JEQ_K:		pc = A == k[i] ? jt[i] : jf[i]; break;
+			case JGT_K:		pc = Integer.compareUnsigned(A, k[i]) > 0 ? jt[i] : jf[i]; break;
+			case JGE_K:		pc = Integer.compareUnsigned(A, k[i]) >= 0 ? jt[i] : jf[i]; break;
+			case JSET_K:	pc = (A & k[i]) != 0 ? jt[i] : jf[i]; break;
+			case JEQ_X:		pc = A == X ? jt[i] : jf[i]; break;
+			case JGT_X:		pc = Integer.compareUnsigned(A, X) > 0 ? jt[i] : jf[i]; break;
+			case JGE_X:		pc = Integer.compareUnsigned(A, X) >= 0 ? jt[i] : jf[i]; break;
+			case JSET_X:	pc = (A & X) != 0 ? jt[i] : jf[i]; break;
+			case RET_K:		return k[i];
+			case RET_A:		return A;
+			case TAX:		X = A; break;
+			case TXA:		A = X; break;
+			default:
+				throw new jND_Exception("jND_BPFMachine.run : bad operation at " + i);
+			}
+		}
+	}
+
+	/**
+	 * Switch to generated code, made now unless another machine running
+	 * the same program has made it already.
+	 */
+	private void translate() {
+		code = prog.code();
+		if(code == null) {
+			code = jND_BPFCompiler.compile(op, k, jt, jf);
+			if(code != null)
+				prog.code(code);
+		}
+		// Do not try again if the program could not be translated
+		threshold = -1;
+	}
+
+	/**
+	 * Decode and check one instruction.
+	 */
+	private int decode(int i, int code, int k) {
+		switch(code & 0x07) {
+		case BPF_LD:
+			switch(code & 0xe0) {
+			case BPF_ABS:
+			case BPF_IND:
+				int base = (code & 0xe0) == BPF_ABS ? LD_W_ABS : LD_W_IND;
+				switch(code & 0x18) {
+				case BPF_W: return base;
+				case BPF_H: return base + 1;
+				case BPF_B: return base + 2;
+				}
+				break;
+			case BPF_LEN: return LD_LEN;
+			case BPF_IMM: return LD_IMM;
+			case BPF_MEM: return memory(i, k, LD_MEM);
+			}
+			break;
+		case BPF_LDX:
+			switch(code & 0xe0) {
+			case BPF_LEN: return LDX_LEN;
+			case BPF_IMM: return LDX_IMM;
+			case BPF_MEM: return memory(i, k, LDX_MEM);
+			case BPF_MSH:
+				if((code & 0x18) == BPF_B)
+					return LDX_MSH;
+				break;
+			}
+			break;
+		case BPF_ST:	return memory(i, k, ST);
+		case BPF_STX:	return memory(i, k, STX);
+		case BPF_ALU:
+			boolean x = (code & 0x08) == BPF_X;
+			switch(code & 0xf0) {
+			case BPF_ADD: return x ? ADD_X : ADD_K;
+			case BPF_SUB: return x ? SUB_X : SUB_K;
+			case BPF_MUL: return x ? MUL_X : MUL_K;
+			case BPF_OR: return x ? OR_X : OR_K;
+			case BPF_AND: return x ? AND_X : AND_K;
+			case BPF_XOR: return x ? XOR_X : XOR_K;
+			case BPF_NEG: return NEG;
+			case BPF_DIV:
+			case BPF_MOD:
+				if(!x && k == 0)
+					throw new jND_Exception("jND_BPFMachine.constructor : division by zero at " + i);
+				if((code & 0xf0) == BPF_DIV)
+					return x ? DIV_X : DIV_K;
+				return x ? MOD_X : MOD_K;
+			case BPF_LSH:
+			case BPF_RSH:
+				if(!x && (k & 0xffffffffL) >= 32)
+					throw new jND_Exception("jND_BPFMachine.constructor : shift too large at " + i);
+				if((code & 0xf0) == BPF_LSH)
+					return x ? LSH_X : LSH_K;
+				return x ? RSH_X : RSH_K;
+			}
+			break;
+		case BPF_JMP:
+			boolean jx = (code & 0x08) == BPF_X;
+			switch(code & 0xf0) {
+			case BPF_JA: return JA;
+			case BPF_JEQ: return jx ? JEQ_X : JEQ_K;
+			case BPF_JGT: return jx ? JGT_X : JGT_K;
+			case BPF_JGE: return jx ? JGE_X : JGE_K;
+			case BPF_JSET: return jx ? JSET_X : JSET_K;
+			}
+			break;
+		case BPF_RET:
+			switch(code & 0x18) {
+			case BPF_K: return RET_K;
+			case BPF_A: return RET_A;
+			}
+			break;
+		case BPF_MISC:
+			switch(code & 0xf8) {
+			case BPF_TAX: return TAX;
+			case BPF_TXA: return TXA;
+			}
+			break;
+		}
+		throw new jND_Exception("jND_BPFMachine.constructor : bad instruction 0x"
+			+ Integer.toHexString(code) + " at " + i);
+	}
+
+	/**
+	 * Check the scratch memory index of an instruction.
+	 */
+	private static int memory(int i, int k, int op) {
+		if(k < 0 || k >= MEMWORDS)
+			throw new jND_Exception("jND_BPFMachine.constructor : bad memory index "
+				+ k + " at " + i);
+		return op;
+	}
+
+	/**
+	 * Find the absolute target of a jump, and check it is in the program.
+	 */
+	private int target(int i, int offset) {
+		long t = i + 1 + (offset & 0xffffffffL);
+		if(t >= op.length)
+			throw new jND_Exception("jND_BPFMachine.constructor : jump out of program at " + i);
+		return (int)t;
+	}
+
+	/**
+	 * Read an unsigned octet.
+	 */
+	private static int u8(byte[] a, ByteBuffer b, int i) {
+		return a != null ? jND_BPFCode.u8(a, i) : jND_BPFCode.u8(b, i);
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	private static int u16(byte[] a, ByteBuffer b, int i) {
+		return a != null ? jND_BPFCode.u16(a, i) : jND_BPFCode.u16(b, i);
+	}
+
+	/**
+	 * Read a 32 bit field in network order.
+	 */
+	private static int u32(byte[] a, ByteBuffer b, int i) {
+		return a != null ? jND_BPFCode.u32(a, i) : jND_BPFCode.u32(b, i);
+	}
+};
@@ -0,0 +1,363 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import jNetDev.Headers.*;
+
+/**
+ * jND_BPFProgram <br>
+ * Class to hold a compiled capture filter: the BPF instructions that
+ * libpcap's pcap_compile makes of a tcpdump filter string. The
+ * instructions are kept in Java, so one program may be installed on any
+ * number of capture sessions and memory mapped rings, and is installed
+ * again whenever a session is restarted, without compiling again.
+ * <pre>
+ *     jND_BPFProgram arp = jND_BPFProgram.compile("arp", true, nic.netMask());
+ *     cap1.filter(arp);
+ *     cap2.filter(arp);
+ * </pre>
+ * The static compile methods keep a cache of programs keyed by filter
+ * text, optimize flag, netmask, link type and snapshot length, so asking
+ * for the same filter again returns the same program. The cache holds the
+ * CACHE_SIZE programs used most recently. The constructor always
+ * compiles.
+ * <br><br>
+ * A program is immutable and may be shared between threads.
+ * <br><br>
+ */
+public class jND_BPFProgram {
+	// Programs kept by the cache
+	public static final int CACHE_SIZE = 64;
+
+	// Defaults for programs compiled for a NIC
+	public static final int DEFAULT_SNAPLEN = 65535;
+
+	private static jND_Mutex cacheMutex = new jND_Mutex();
+	private static LinkedHashMap cache = new LinkedHashMap(16, 0.75f, true) {
+		protected boolean removeEldestEntry(Map.Entry eldest) {
+			return size() > CACHE_SIZE;
+		}
+	};
+	private static long hits = 0;
+	private static long misses = 0;
+
+	private String text;
+	private boolean optimize;
+	private int netmask;
+	private int linkType;
+	private int snaplen;
+	private int[] insns;		// two ints per instruction: code | jt << 16 | jf << 24, k
+	private volatile jND_BPFCode code = null;	// generated by a jND_BPFMachine, if any
+
+	// ========== B E G I N    N A T I V E    M E T H O D S ==========
+
+	/**
+	 * Private method to compile a filter with pcap_compile on a dead pcap
+	 * descriptor of the given link type.
+	 * @return an int[] of two ints per instruction, or a String holding
+	 *			the error message.
+	 */
+	private static native Object pcapCompile(String filterStr, boolean optimize,
+			int netmask, int linkType, int snaplen);
+
+	// ==========   E N D    N A T I V E    M E T H O D S   ==========
+
+	/**
+	 * Compile a filter, without the cache.
+	 * @param		filterStr - the filter, using the syntax for tcpdump.
+	 * @param		optimize - should the filter be optimized or not?
+	 * @param		netmask - the netmask used by the filter, if needed.
+	 * @param		linkType - the link type of the packets, e.g.
+	 *				jND_PcapReader.LINKTYPE_ETHERNET.
+	 * @param		snaplen - the snapshot length of the capture.
+	 */
+	public jND_BPFProgram(String filterStr, boolean optimize, int netmask,
+			int linkType, int snaplen) {
+		if(filterStr == null)
+			throw new jND_Exception("jND_BPFProgram.constructor : filter must not be null");
+		Object r;
+		try {
+			jND_NICList.setup();	// Load the native library
+			r = pcapCompile(filterStr, optimize, netmask, linkType, snaplen);
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Throwable t) {
+			throw new jND_Exception("jND_BPFProgram.constructor : " + t.toString());
+		}
+		if(!(r instanceof int[]))
+			throw new jND_Exception("jND_BPFProgram.constructor : cannot compile filter \""
+				+ filterStr + "\": " + r);
+		text = filterStr;
+		this.optimize = optimize;
+		this.netmask = netmask;
+		this.linkType = linkType;
+		this.snaplen = snaplen;
+		insns = (int[])r;
+	}
+
+	/**
+	 * Build a program from instructions compiled elsewhere, as printed by
+	 * "tcpdump -dd". No native code is used, so such a program can be run
+	 * by a jND_BPFMachine where libpcap is not available.
+	 * <pre>
+	 *     // tcpdump -dd ip
+	 *     int[][] ip = {
+	 *         { 0x28, 0, 0, 0x0000000c },
+	 *         { 0x15, 0, 1, 0x00000800 },
+	 *         { 0x6, 0, 0, 0x00040000 },
+	 *         { 0x6, 0, 0, 0x00000000 },
+	 *     };
+	 *     jND_BPFProgram prog = new jND_BPFProgram("ip", ip,
+	 *         jND_PcapReader.LINKTYPE_ETHERNET);
+	 * </pre>
+	 * @param		filterStr - a name for the program, returned by filter().
+	 * @param		code - one row of { code, jt, jf, k } per instruction.
+	 * @param		linkType - the link type of the packets.
+	 */
+	public jND_BPFProgram(String filterStr, int[][] code, int linkType) {
+		if(code == null || code.length == 0)
+			throw new jND_Exception("jND_BPFProgram.constructor : program must not be empty");
+		insns = new int[2 * code.length];
+		for(int i = 0; i < code.length; i++) {
+			int[] row = code[i];
+			if(row == null || row.length != 4)
+				throw new jND_Exception("jND_BPFProgram.constructor : instruction "
+					+ i + " must have 4 fields");
+			if((row[0] & ~0xffff) != 0 || (row[1] & ~0xff) != 0 || (row[2] & ~0xff) != 0)
+				throw new jND_Exception("jND_BPFProgram.constructor : instruction "
+					+ i + " has a field out of range");
+			insns[2 * i] = row[0] | row[1] << 16 | row[2] << 24;
+			insns[2 * i + 1] = row[3];
+		}
+		text = filterStr == null ? "" : filterStr;
+		optimize = false;
+		netmask = 0;
+		this.linkType = linkType;
+		snaplen = DEFAULT_SNAPLEN;
+	}
+
+	/**
+	 * Get the program for a filter on Ethernet packets, from the cache if
+	 * it has been compiled before.
+	 * @param		filterStr - the filter, using the syntax for tcpdump.
+	 * @param		optimize - should the filter be optimized or not?
+	 * @param		netmask - the netmask used by the filter, if needed.
+	 * @return		the program.
+	 */
+	public static jND_BPFProgram compile(String filterStr, boolean optimize, jND_IPv4Address netmask) {
+		return compile(filterStr, optimize, netmask.toInt(),
+			jND_PcapReader.LINKTYPE_ETHERNET, DEFAULT_SNAPLEN);
+	}
+
+	/**
+	 * Get the program for a filter on Ethernet packets, from the cache if
+	 * it has been compiled before.
+	 * @param		filterStr - the filter, using the syntax for tcpdump.
+	 * @param		optimize - should the filter be optimized or not?
+	 * @param		netmask - the netmask used by the filter, as an int.
+	 * @return		the program.
+	 */
+	public static jND_BPFProgram compile(String filterStr, boolean optimize, int netmask) {
+		return compile(filterStr, optimize, netmask,
+			jND_PcapReader.LINKTYPE_ETHERNET, DEFAULT_SNAPLEN);
+	}
+
+	/**
+	 * Get the program for a filter, from the cache if it has been
+	 * compiled before.
+	 * @param		filterStr - the filter, using the syntax for tcpdump.
+	 * @param		optimize - should the filter be optimized or not?
+	 * @param		netmask - the netmask used by the filter, as an int.
+	 * @param		linkType - the link type of the packets.
+	 * @param		snaplen - the snapshot length of the capture.
+	 * @return		the program.
+	 */
+	public static jND_BPFProgram compile(String filterStr, boolean optimize, int netmask,
+			int linkType, int snaplen) {
+		String key = filterStr + "\n" + optimize + "\n" + netmask + "\n"
+			+ linkType + "\n" + snaplen;
+		synchronized(cacheMutex) {
+			jND_BPFProgram p = (jND_BPFProgram)cache.get(key);
+			if(p != null) {
+				hits++;
+				return p;
+			}
+			misses++;
+		}
+		// Compile outside the lock; two threads may both compile a new
+		// filter, which is harmless
+		jND_BPFProgram p = new jND_BPFProgram(filterStr, optimize, netmask, linkType, snaplen);
+		synchronized(cacheMutex) {
+			cache.put(key, p);
+		}
+		return p;
+	}
+
+	/**
+	 * Empty the cache.
+	 */
+	public static void clearCache() {
+		synchronized(cacheMutex) {
+			cache.clear();
+		}
+	}
+
+	/**
+	 * Get the number of programs in the cache.
+	 * @return		the program count.
+	 */
+	public static int cacheSize() {
+		synchronized(cacheMutex) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Get the number of times compile found a program in the cache.
+	 * @return		the hit count.
+	 */
+	public static long cacheHits() {
+		synchronized(cacheMutex) {
+			return hits;
+		}
+	}
+
+	/**
+	 * Get the number of times compile had to compile a program.
+	 * @return		the miss count.
+	 */
+	public static long cacheMisses() {
+		synchronized(cacheMutex) {
+			return misses;
+		}
+	}
+
+	/**
+	 * Get the filter string the program was compiled from.
+	 * @return		the filter.
+	 */
+	public String filter() {
+		return text;
+	}
+
+	/**
+	 * Find out whether the program was optimized.
+	 * @return		the optimize flag it was compiled with.
+	 */
+	public boolean optimize() {
+		return optimize;
+	}
+
+	/**
+	 * Get the netmask the program was compiled with.
+	 * @return		the netmask, as an int.
+	 */
+	public int netmask() {
+		return netmask;
+	}
+
+	/**
+	 * Get the link type the program was compiled for.
+	 * @return		the link type.
+	 */
+	public int linkType() {
+		return linkType;
+	}
+
+	/**
+	 * Get the snapshot length the program was compiled for.
+	 * @return		the snapshot length.
+	 */
+	public int snaplen() {
+		return snaplen;
+	}
+
+	/**
+	 * Get the number of instructions in the program.
+	 * @return		the instruction count.
+	 */
+	public int length() {
+		return insns.length / 2;
+	}
+
+	/**
+	 * Get the opcode of an instruction.
+	 * @param		i - the index of the instruction.
+	 * @return		the 16 bit opcode.
+	 */
+	public int code(int i) {
+		return insns[2 * i] & 0xffff;
+	}
+
+	/**
+	 * Get the jump offset taken when a conditional instruction is true.
+	 * @param		i - the index of the instruction.
+	 * @return		the offset, from 0 to 255.
+	 */
+	public int jt(int i) {
+		return (insns[2 * i] >>> 16) & 0xff;
+	}
+
+	/**
+	 * Get the jump offset taken when a conditional instruction is false.
+	 * @param		i - the index of the instruction.
+	 * @return		the offset, from 0 to 255.
+	 */
+	public int jf(int i) {
+		return insns[2 * i] >>> 24;
+	}
+
+	/**
+	 * Get the constant operand of an instruction.
+	 * @param		i - the index of the instruction.
+	 * @return		the 32 bit operand.
+	 */
+	public int k(int i) {
+		return insns[2 * i + 1];
+	}
+
+	/**
+	 * Get the packed instructions, for the native layer.
+	 */
+	int[] instructions() {
+		return insns;
+	}
+
+	/**
+	 * Get the code generated for this program by a jND_BPFMachine.
+	 * @return		the code, or null if none has been generated.
+	 */
+	jND_BPFCode code() {
+		return code;
+	}
+
+	/**
+	 * Keep the code generated for this program, for other machines.
+	 */
+	void code(jND_BPFCode c) {
+		code = c;
+	}
+
+	/**
+	 * Obtain the filter string of the program.
+	 * @return		the filter.
+	 */
+	public String toString() {
+		return text;
+	}
+};
@@ -17,6 +17,7 @@
 package jNetDev;
 
 import jNetDev.Headers.*;
+import java.util.concurrent.Executor;
 
 /**
  * jND_CaptureSession <br>
@@ -37,6 +38,13 @@ import jNetDev.Headers.*;
  * There is much to this class, including installing capture filters and
  * capturing to a file. Read through the methods for details.
  * <br><br>
+ * On Linux, a session may also be built on a jND_MmapRing (jND_MMAP mode).
+ * The kernel then delivers packets a block at a time through a memory
+ * mapped ring, bypassing pcap, which keeps up with much higher packet rates.
+ * <br><br>
+ * An offline session may also be built on a jND_PcapReader, which reads
+ * pcap and pcapng files in Java without entering the native layer.
+ * <br><br>
  * SPECIAL NOTE: When a capture session is created, the underlying pcap library
  * is called to open a capture descriptor. The memory inherent in this is NEVER
  * released unless you call the dispose() method. It is the programmer's
@@ -59,13 +67,23 @@ public class jND_CaptureSession {
 	private int currCaptureID; // seq no for THIS capture session
 	private boolean capturing; // TRUE if capturing packets, FALSE if not
 	private String currFilter; // last filter installed
-	private byte[] p_filter; // compiled filter if any
+	private jND_BPFProgram currProgram; // compiled filter if any
 	private jND_PacketQueue currPacketQueue; // packet queue for this session
 	private byte[] currPcap_d; // libpcap descriptor
 	private byte[] dumper; // descriptor for offline session
+	private volatile jND_PcapWriter dumpWriter = null; // Java dump file, if any
 	private int inuse; // indicator: 0 = not in use,
 	private boolean delayed_dispose = false; // true <=> dispose was called while thread was running
 	private boolean delayed_stop = false; // true <=> stop was called while thread was running
+	private int batchSize = 0; // packets per native call, 0 = one at a time
+	private boolean daemon = false; // start the capture thread as a daemon thread
+	private int batchTimeout = 10; // msec to keep filling a partial batch
+	private jND_PacketBatch currBatch = null; // reusable batch for batch capture
+	private int ifIndex = -1; // index of the NIC captured from, -1 if offline
+	private jND_PacketArena currArena = null; // direct buffer to capture into, if any
+	private jND_MmapRing ring = null; // kernel ring for a jND_MMAP session
+	private jND_PcapReader reader = null; // file reader for a Java offline session
+	private volatile jND_BPFMachine readerFilter = null; // filter run in Java on the reader
 
 	//    LIVE = live capture, OFFLINE = offline session
 	private jND_CaptureThread capThread;
@@ -77,11 +95,12 @@ public class jND_CaptureSession {
 	private int size; // The size in a native method reply.
 
 	// Type of capture
-	// *** NOTE: These three constants MUST coincide
+	// *** NOTE: These four constants MUST coincide
 	// *** with those in jNetDev.c
 	public static final int jND_NONE = 0;
 	public static final int jND_LIVE = 1;
 	public static final int jND_OFFLINE = 2;
+	public static final int jND_MMAP = 3;
 
 	// null ptr for jni pointers
 	private static final byte[] NULLPTR = { 0, 0, 0, 0, 0, 0, 0, 0 };
@@ -125,18 +144,15 @@ public class jND_CaptureSession {
 
 	/**
 	 * Private method to close a capture session. It also closes an affiliated
-	 * dump session and releases memory allocated for a filter, if any.
+	 * dump session, if any.
 	 * 
 	 * @param pcapd -
 	 *            the pcap descriptor for the session.
-	 * @param pfilter -
-	 *            pointer to the filter installed on this session (null if
-	 *            none).
 	 * @param dumper -
 	 *            pointer to the dump session running. (null if none).
 	 * @author Pete Lutz
 	 */
-	private static native void closeCapture(byte[] pcapd, byte[] pfilter, byte[] dumper);
+	private static native void closeCapture(byte[] pcapd, byte[] dumper);
 
 	/**
 	 * Private method to open a dump session to a file.
@@ -157,9 +173,16 @@ public class jND_CaptureSession {
 	 *            dump handle, returned by dumpOpen.
 	 * @param pkt -
 	 *            the packet to write to the dump file.
+	 * @param caplen -
+	 *            the number of octets of pkt to write.
+	 * @param timestamp -
+	 *            the capture time of the packet, in ns since the epoch.
+	 * @param wireLength -
+	 *            the length of the packet on the wire.
 	 * @author Pete Lutz
 	 */
-	private static native void dump1(byte[] dumper, byte[] pkt);
+	private static native void dump1(byte[] dumper, byte[] pkt, int caplen,
+			long timestamp, int wireLength);
 
 	/**
 	 * Private method to close a packet dump session.
@@ -171,35 +194,32 @@ public class jND_CaptureSession {
 	private static native void dumpClose(byte[] dumper);
 
 	/**
-	 * Private method to install a filter on a capture session. The reply from
-	 * this is a byte array in the following form:
+	 * Private method to install a compiled filter on a capture session with
+	 * pcap_setfilter. libpcap keeps its own copy of the program.
 	 * 
-	 * <pre>
+	 * @param pcapd -
+	 *            the pcap descriptor for the session.
+	 * @param insns -
+	 *            the instructions of the program (see jND_BPFProgram).
+	 * @return null on success, otherwise an error message.
+	 */
+	private static native String setFilter(byte[] pcapd, int[] insns);
+
+	/**
+	 * Private method to get the link type of a capture session with
+	 * pcap_datalink.
 	 * 
-	 *  	+-------+-------+--   --+-------+-------+--   --+
-	 *   | size  |pfilter in 'size' bytes| message to end|
-	 *   +-------+-------+--   --+-------+-------+--   --+
-	 *  
-	 * </pre>
+	 * @return the link type, or -1 if there is no descriptor.
+	 */
+	private static native int datalink(byte[] pcapd);
+
+	/**
+	 * Private method to get the snapshot length of a capture session with
+	 * pcap_snapshot.
 	 * 
-	 * The size is the # of octets in the pfilter object. The remainder of the
-	 * byte array is an ASCII error message, which has a meaning if the size is
-	 * 0 (indicating an error).
-	 * 
-	 * pfilter is a pointer to dynamic memory allocated for the compiled filter
-	 * object. It must be passed in to successive calls so that the memory may
-	 * be released. If pfilter == 0 there is no filter installed.
-	 * 
-	 * @param filterStr -
-	 *            The filter as a string in tcpdump format.
-	 * @param optimize -
-	 *            whether or not to optimize the filter.
-	 * @param netmask -
-	 *            the netmask to use (required for some filters)
-	 * @author Pete Lutz
+	 * @return the snapshot length, or -1 if there is no descriptor.
 	 */
-	private static native byte[] installFilter(byte[] pcapd, byte[] pfilter,
-			String filterStr, boolean optimize, int netmask);
+	private static native int snapshot(byte[] pcapd);
 
 	// ==========   E N D   N A T I V E   M E T H O D S   ==========
 
@@ -273,7 +293,7 @@ public class jND_CaptureSession {
 			synchronized (special_mutex) {
 				currCaptureID = nextCaptureID++;
 			}
-			p_filter = NULLPTR;
+			currProgram = null;
 			capturing = false;
 			currFilter = "";
 			currPacketQueue = new jND_PacketQueue();
@@ -286,6 +306,7 @@ public class jND_CaptureSession {
 
 			this.mode = jND_LIVE;
 			this.nicname = nic.name();
+			this.ifIndex = nic.index();
 			this.snaplen = snaplen;
 			this.promisc = promisc;
 			this.to_ms = to_ms;
@@ -326,7 +347,7 @@ public class jND_CaptureSession {
 			synchronized (special_mutex) {
 				currCaptureID = nextCaptureID++;
 			}
-			p_filter = NULLPTR;
+			currProgram = null;
 			capturing = false;
 			currFilter = "";
 			currPacketQueue = new jND_PacketQueue();
@@ -339,6 +360,7 @@ public class jND_CaptureSession {
 
 			this.mode = jND_LIVE;
 			this.nicname = nic.name();
+			this.ifIndex = nic.index();
 			this.snaplen = 1550;
 			this.promisc = promisc;
 			this.to_ms = 100;
@@ -378,7 +400,7 @@ public class jND_CaptureSession {
 			synchronized (special_mutex) {
 				currCaptureID = nextCaptureID++;
 			}
-			p_filter = NULLPTR;
+			currProgram = null;
 			capturing = false;
 			currFilter = "";
 			currPacketQueue = new jND_PacketQueue();
@@ -413,6 +435,97 @@ public class jND_CaptureSession {
 
 	}
 
+	/**
+	 * Creates a new capture session on a memory mapped ring (jND_MMAP mode,
+	 * Linux only). The session captures from the ring's interface; when
+	 * started, its thread reads the ring a block at a time and places the
+	 * packets in the packet queue. Filters set on the session are run in
+	 * the kernel, on the ring's socket. Disposing of the session closes
+	 * the ring.
+	 * 
+	 * @param ring
+	 *            an open jND_MmapRing.
+	 */
+	public jND_CaptureSession(jND_MmapRing ring) {
+		try {
+			if (ring == null || ring.closed())
+				throw new jND_Exception(
+						"jND_CaptureSession.constructor : ring must be open");
+			synchronized (special_mutex) {
+				currCaptureID = nextCaptureID++;
+			}
+			currProgram = null;
+			capturing = false;
+			currFilter = "";
+			currPacketQueue = new jND_PacketQueue();
+			currPcap_d = NULLPTR;
+			dumper = NULLPTR;
+			mutex = new jND_Mutex();
+
+			delayed_dispose = false;
+			delayed_stop = false;
+
+			this.mode = jND_MMAP;
+			this.nicname = ring.ifName();
+			this.ifIndex = ring.ifIndex();
+			this.snaplen = 0;
+			this.promisc = false;
+			this.to_ms = 100;
+			this.ring = ring;
+			inuse = jND_MMAP;
+		} catch (jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_CaptureSession.constructor : "
+					+ e.toString());
+		}
+	}
+
+	/**
+	 * Creates a new offline capture session on a jND_PcapReader. When
+	 * started, the session's thread reads packets from the file in Java and
+	 * places them in the packet queue (or arena), with their timestamps,
+	 * until the end of the file, when the capture stops by itself. No pcap
+	 * descriptor is opened. Capture filters are not available on such a
+	 * session. Disposing of the session closes the reader.
+	 * 
+	 * @param reader
+	 *            an open jND_PcapReader.
+	 */
+	public jND_CaptureSession(jND_PcapReader reader) {
+		try {
+			if (reader == null || reader.closed())
+				throw new jND_Exception(
+						"jND_CaptureSession.constructor : reader must be open");
+			synchronized (special_mutex) {
+				currCaptureID = nextCaptureID++;
+			}
+			currProgram = null;
+			capturing = false;
+			currFilter = "";
+			currPacketQueue = new jND_PacketQueue();
+			currPcap_d = NULLPTR;
+			dumper = NULLPTR;
+			mutex = new jND_Mutex();
+
+			delayed_dispose = false;
+			delayed_stop = false;
+
+			this.mode = jND_OFFLINE;
+			this.nicname = reader.fileName();
+			this.snaplen = 0;
+			this.promisc = false;
+			this.to_ms = 0;
+			this.reader = reader;
+			inuse = jND_OFFLINE;
+		} catch (jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_CaptureSession.constructor : "
+					+ e.toString());
+		}
+	}
+
 	/**
 	 * Get underlying thread
 	 */
@@ -451,12 +564,31 @@ public class jND_CaptureSession {
 
 			// Do dispose
 			if (currPcap_d != NULLPTR) {
-				closeCapture(currPcap_d, p_filter, dumper);
+				closeCapture(currPcap_d, dumper);
 				currPcap_d = NULLPTR;
-				p_filter = NULLPTR;
+				currProgram = null;
 				currFilter = "";
 				dumper = NULLPTR;
 			}
+			if (ring != null) {
+				if (dumper != NULLPTR) {
+					dumpClose(dumper);
+					dumper = NULLPTR;
+				}
+				ring.close();
+				currFilter = "";
+			}
+			if (reader != null) {
+				if (dumper != NULLPTR) {
+					dumpClose(dumper);
+					dumper = NULLPTR;
+				}
+				reader.close();
+			}
+			if (dumpWriter != null) {
+				dumpWriter.close();
+				dumpWriter = null;
+			}
 			captureStatus(false);
 			delayed_dispose = false;
 		} catch (jND_Exception nde) {
@@ -469,14 +601,18 @@ public class jND_CaptureSession {
 
 	/**
 	 * Packets can be saved to a dump file. See openDumpFile and dumpPacket for
-	 * more information. This closes an open dump file.
+	 * more information. This closes an open dump file, or the jND_PcapWriter
+	 * set by dumpWriter.
 	 * 
 	 * @author Pete Lutz
 	 */
 	public void closeDumpFile() {
 		try {
 			synchronized (mutex) {
-				if (dumper == NULLPTR) {
+				if (dumpWriter != null) {
+					dumpWriter.close();
+					dumpWriter = null;
+				} else if (dumper == NULLPTR) {
 					throw new jND_Exception(
 							"jND_CaptureSession: closeDumpFile: No dump session open.");
 				} else {
@@ -494,7 +630,8 @@ public class jND_CaptureSession {
 	}
 
 	/**
-	 * Dumps one packet to an already open dumpfile.
+	 * Dumps one packet to an already open dumpfile. The packet is stamped
+	 * with the current time.
 	 * 
 	 * @param pkt -
 	 *            the packet to dump.
@@ -502,12 +639,52 @@ public class jND_CaptureSession {
 	 */
 	public void dumpPacket(byte[] pkt) {
 		try {
+			jND_PcapWriter w = dumpWriter;
+			if (w != null) {
+				w.write(pkt);
+				return;
+			}
+			synchronized (mutex) {
+				if (dumper == NULLPTR) {
+					throw new jND_Exception(
+							"jND_CaptureSession: dumpPacket: No dump session open.");
+				} else {
+					dump1(dumper, pkt, pkt.length, jND_CapturedPacket.now(), pkt.length);
+				}
+			}
+		} catch (jND_Exception nde) {
+			throw nde;
+		} catch (Exception e) {
+			throw new jND_Exception("jND_CaptureSession.dumpPacket : "
+					+ e.toString());
+		}
+
+	}
+
+	/**
+	 * Dumps one captured packet to an already open dumpfile, keeping its
+	 * original capture time and wire length.
+	 * 
+	 * @param rec -
+	 *            the packet to dump, as filled by jND_PacketQueue.pop.
+	 */
+	public void dumpPacket(jND_CapturedPacket rec) {
+		try {
+			jND_PcapWriter w = dumpWriter;
+			if (w != null) {
+				w.write(rec);
+				return;
+			}
 			synchronized (mutex) {
 				if (dumper == NULLPTR) {
 					throw new jND_Exception(
 							"jND_CaptureSession: dumpPacket: No dump session open.");
+				} else if (rec.data() == null) {
+					throw new jND_Exception(
+							"jND_CaptureSession: dumpPacket: empty packet record.");
 				} else {
-					dump1(dumper, pkt);
+					dump1(dumper, rec.data(), rec.caplen(), rec.timestamp(),
+							rec.wireLength());
 				}
 			}
 		} catch (jND_Exception nde) {
@@ -516,7 +693,33 @@ public class jND_CaptureSession {
 			throw new jND_Exception("jND_CaptureSession.dumpPacket : "
 					+ e.toString());
 		}
+	}
+
+	/**
+	 * Dump packets through a jND_PcapWriter instead of libpcap. dumpPacket
+	 * then copies each packet into the writer's buffer without taking the
+	 * session lock or entering the native layer, and the session need not
+	 * hold a pcap descriptor. closeDumpFile and dispose close the writer.
+	 * 
+	 * @param w -
+	 *            the writer, or null to stop using one.
+	 */
+	public void dumpWriter(jND_PcapWriter w) {
+		synchronized (mutex) {
+			if (w != null && dumper != NULLPTR)
+				throw new jND_Exception(
+						"jND_CaptureSession: dumpWriter: Dump session already open");
+			dumpWriter = w;
+		}
+	}
 
+	/**
+	 * Obtains the jND_PcapWriter packets are dumped through, if any.
+	 * 
+	 * @return the writer, or null if dumpPacket uses libpcap.
+	 */
+	public jND_PcapWriter dumpWriter() {
+		return dumpWriter;
 	}
 
 	/**
@@ -530,6 +733,34 @@ public class jND_CaptureSession {
 		return currCaptureID;
 	}
 
+	/**
+	 * Obtains the index of the NIC this session captures from. Packets
+	 * captured by the session carry this index (see jND_CapturedPacket).
+	 * 
+	 * @return the NIC index (see jND_NIC.index), -1 for an offline session.
+	 */
+	public int ifIndex() {
+		return ifIndex;
+	}
+
+	/**
+	 * Obtains the memory mapped ring of a jND_MMAP session.
+	 * 
+	 * @return the ring, or null if the session uses pcap.
+	 */
+	public jND_MmapRing mmapRing() {
+		return ring;
+	}
+
+	/**
+	 * Obtains the file reader of a session built on a jND_PcapReader.
+	 * 
+	 * @return the reader, or null if the session uses pcap or a ring.
+	 */
+	public jND_PcapReader pcapReader() {
+		return reader;
+	}
+
 	/**
 	 * Obtains the pcap descriptor of this capture session.
 	 * 
@@ -548,9 +779,10 @@ public class jND_CaptureSession {
 	 * previously created dump file.
 	 * 
 	 * jND_NONE, jND_LIVE and jND_OFFLINE are defined when jND_CaptureSession.h
-	 * is included.
+	 * is included. jND_MMAP is returned for a session on a jND_MmapRing.
 	 * 
-	 * @return the capture mode: one of jND_NONE, jND_LIVE or jND_OFFLINE.
+	 * @return the capture mode: one of jND_NONE, jND_LIVE, jND_OFFLINE or
+	 *         jND_MMAP.
 	 * @author Pete Lutz
 	 */
 	public int inUseStatus() {
@@ -606,6 +838,69 @@ public class jND_CaptureSession {
 		return currPacketQueue;
 	}
 
+	/**
+	 * Replaces the queue of packets associated with this capture session.
+	 * Use this to choose the capacity and overflow policy of the queue (see
+	 * jND_PacketQueue). The queue may only be replaced while the session is
+	 * not capturing.
+	 *
+	 * @param pq -
+	 *            the new packet queue.
+	 */
+	public void packetQueue(jND_PacketQueue pq) {
+		if (pq == null)
+			throw new jND_Exception(
+					"jND_CaptureSession.packetQueue : queue must not be null");
+		synchronized (mutex) {
+			if (capturing || (javaThread != null && javaThread.isAlive()))
+				throw new jND_Exception(
+						"jND_CaptureSession.packetQueue : cannot replace the queue while capturing");
+			currPacketQueue = pq;
+		}
+	}
+
+	/**
+	 * Hands each captured packet to a handler on the capture thread, with
+	 * no packet queue in between. This gives the lowest latency, but the
+	 * session does not capture while the handler runs, so the handler
+	 * should be quick. The handler replaces the packet queue (see
+	 * jND_HandlerQueue) and may only be set while the session is not
+	 * capturing. A session capturing into a jND_PacketArena delivers
+	 * through the arena and does not use a handler.
+	 *
+	 * @param h -
+	 *            the handler, or null to go back to a packet queue.
+	 */
+	public void handler(jND_PacketHandler h) {
+		handler(h, null);
+	}
+
+	/**
+	 * Hands each captured packet to a handler run by an executor. Each
+	 * packet becomes a task, so the capture thread goes straight back to
+	 * capturing; packets may then be handled out of order.
+	 *
+	 * @param h -
+	 *            the handler, or null to go back to a packet queue.
+	 * @param executor -
+	 *            runs the handler, or null to run it on the capture
+	 *            thread.
+	 */
+	public void handler(jND_PacketHandler h, Executor executor) {
+		packetQueue(h == null ? new jND_PacketQueue()
+				: (jND_PacketQueue) new jND_HandlerQueue(h, executor));
+	}
+
+	/**
+	 * Obtains the handler packets are handed to, if any.
+	 *
+	 * @return the handler, or null if packets go to a packet queue.
+	 */
+	public jND_PacketHandler handler() {
+		jND_PacketQueue pq = currPacketQueue;
+		return pq instanceof jND_HandlerQueue ? ((jND_HandlerQueue) pq).handler() : null;
+	}
+
 	/**
 	 * Opens a dump file for saving packets. Packets are saved to the file with
 	 * the dumpPacket method.
@@ -618,7 +913,7 @@ public class jND_CaptureSession {
 		try {
 			byte[] reply = null;
 			synchronized (mutex) {
-				if (dumper != NULLPTR) {
+				if (dumper != NULLPTR || dumpWriter != null) {
 					throw new jND_Exception(
 							"jND_CaptureSession: openDumpFile: Dump session already open");
 				} else {
@@ -647,6 +942,11 @@ public class jND_CaptureSession {
 	 * For details on filter strings, see the documentation of capture filters
 	 * for tcpdump.
 	 * 
+	 * The filter is compiled for the link type and snapshot length of the
+	 * session, through the jND_BPFProgram cache, so setting a filter used
+	 * before costs no compile, and it is installed again when the session
+	 * is stopped and restarted.
+	 * 
 	 * @param filterStr
 	 *            a char string describing the filter using the syntax for
 	 *            tcpdump.
@@ -660,24 +960,7 @@ public class jND_CaptureSession {
 	 * @author Pete Lutz
 	 */
 	public void filter(String filterStr, boolean optimize, jND_BYTE4 netmask) {
-		try {
-			byte[] reply = null;
-			currFilter = filterStr;
-
-			synchronized (mutex) {
-				reply = installFilter(currPcap_d, p_filter, currFilter,
-						optimize, netmask.toInt());
-			}
-			p_filter = parseReply(reply);
-			if (p_filter == NULLPTR)
-				throw new jND_Exception("jND_CaptureSession.filter : "
-						+ captureSessionError);
-		} catch (jND_Exception nde) {
-			throw nde;
-		} catch (Exception e) {
-			throw new jND_Exception("jND_CaptureSession.filter : "
-					+ e.toString());
-		}
+		filter(compile(filterStr, optimize, netmask.toInt()));
 	}
 
 	/**
@@ -702,26 +985,231 @@ public class jND_CaptureSession {
 	 */
 	public void filter(String filterStr, boolean optimize,
 			jND_IPv4Address inmask) {
-		try {
-			byte[] reply = null;
-			jND_BYTE4 netmask = inmask.toByte4();
-			currFilter = filterStr;
+		filter(compile(filterStr, optimize, inmask.toInt()));
+	}
 
-			synchronized (mutex) {
-				reply = installFilter(currPcap_d, p_filter, filterStr,
-						optimize, inmask.toByte4().toInt());
+	/**
+	 * Sets the filter for the capture session to a compiled program. The
+	 * same program may be installed on many sessions, and it stays
+	 * installed when the session is stopped and restarted. It is OK to set
+	 * the filter while the Capture Session is capturing.
+	 * 
+	 * The program must have been compiled for the link type of the
+	 * session (see linkType). For a session built on a jND_PcapReader the
+	 * program is run in Java by a jND_BPFMachine as packets are read.
+	 * 
+	 * @param prog
+	 *            the program, as from jND_BPFProgram.compile.
+	 */
+	public void filter(jND_BPFProgram prog) {
+		try {
+			if (prog == null)
+				throw new jND_Exception(
+						"jND_CaptureSession.filter : program must not be null");
+			if (ring != null) {
+				checkLinkType(prog);
+				ring.filter(prog);
+			} else if (reader != null) {
+				checkLinkType(prog);
+				readerFilter = new jND_BPFMachine(prog);
+			} else {
+				install(prog);
 			}
-			p_filter = parseReply(reply);
-			if (p_filter == NULLPTR)
-				throw new jND_Exception("jND_CaptureSession.filter : "
-						+ captureSessionError);
+			currProgram = prog;
+			currFilter = prog.filter();
 		} catch (jND_Exception nde) {
 			throw nde;
 		} catch (Exception e) {
 			throw new jND_Exception("jND_CaptureSession.filter : "
 					+ e.toString());
 		}
+	}
 
+	/**
+	 * Obtains the compiled filter installed on this session.
+	 * 
+	 * @return the program, or null if no filter is installed.
+	 */
+	public jND_BPFProgram program() {
+		return currProgram;
+	}
+
+	/**
+	 * Obtains the machine filtering the packets of a jND_PcapReader session.
+	 */
+	jND_BPFMachine readerFilter() {
+		return readerFilter;
+	}
+
+	/**
+	 * Obtains the link type of the packets of this session, e.g.
+	 * jND_PcapReader.LINKTYPE_ETHERNET. Programs installed on the session
+	 * must be compiled for it.
+	 * 
+	 * @return the link type, or -1 if the session has been disposed of.
+	 */
+	public int linkType() {
+		if (ring != null)
+			return jND_PcapReader.LINKTYPE_ETHERNET;
+		if (reader != null)
+			return reader.linkType();
+		synchronized (mutex) {
+			return datalink(currPcap_d);
+		}
+	}
+
+	/**
+	 * Private method to compile a filter for this session, through the
+	 * jND_BPFProgram cache.
+	 */
+	private jND_BPFProgram compile(String filterStr, boolean optimize, int netmask) {
+		int len = jND_BPFProgram.DEFAULT_SNAPLEN;
+		if (ring == null && reader == null) {
+			synchronized (mutex) {
+				len = snapshot(currPcap_d);
+			}
+		}
+		int type = linkType();
+		if (type < 0 || len < 0)
+			throw new jND_Exception("jND_CaptureSession.filter : session is disposed");
+		return jND_BPFProgram.compile(filterStr, optimize, netmask, type, len);
+	}
+
+	/**
+	 * Private method to refuse a program compiled for another link type.
+	 */
+	private void checkLinkType(jND_BPFProgram prog) {
+		int type = linkType();
+		if (prog.linkType() != type)
+			throw new jND_Exception("jND_CaptureSession.filter : program is for link type "
+					+ prog.linkType() + ", session has link type " + type);
+	}
+
+	/**
+	 * Private method to install a program on the pcap descriptor.
+	 */
+	private void install(jND_BPFProgram prog) {
+		checkLinkType(prog);
+		String err;
+		synchronized (mutex) {
+			err = setFilter(currPcap_d, prog.instructions());
+		}
+		if (err != null)
+			throw new jND_Exception("jND_CaptureSession.filter : " + err);
+	}
+
+	/**
+	 * Finds out whether the capture thread is a daemon thread.
+	 *
+	 * @return true if it is.
+	 */
+	public boolean daemon() {
+		return daemon;
+	}
+
+	/**
+	 * Sets whether the capture thread is a daemon thread, which does not
+	 * keep the JVM running. Sessions that live in the background of a
+	 * library, such as the listener of a jND_ARPResolver, should be. The
+	 * setting takes effect at the next start().
+	 *
+	 * @param on -
+	 *            true for a daemon thread.
+	 */
+	public void daemon(boolean on) {
+		daemon = on;
+	}
+
+	/**
+	 * Obtains the number of packets captured per native call. Zero means
+	 * packets are captured one at a time.
+	 *
+	 * @return the batch size.
+	 */
+	public int batchSize() {
+		return batchSize;
+	}
+
+	/**
+	 * Sets the number of packets captured per native call. With a batch
+	 * size of N, the capture thread drains up to N packets from pcap into
+	 * one reusable buffer with a single call into the native layer, instead
+	 * of crossing into the native layer once per packet. This pays off at
+	 * high packet rates. A batch size of 0 (the default) captures packets
+	 * one at a time. The new size takes effect at the next start().
+	 *
+	 * @param n -
+	 *            the batch size, 0 to capture one packet at a time.
+	 */
+	public void batchSize(int n) {
+		if (n < 0)
+			throw new jND_Exception(
+					"jND_CaptureSession.batchSize : batch size must not be negative - " + n);
+		batchSize = n;
+	}
+
+	/**
+	 * Obtains the batch flush timeout.
+	 *
+	 * @return the flush timeout in milliseconds.
+	 */
+	public int batchTimeout() {
+		return batchTimeout;
+	}
+
+	/**
+	 * Sets the batch flush timeout. Once a batch holds at least one packet,
+	 * the capture thread keeps filling it for at most this long before
+	 * handing it on, so a partial batch is never held back for more than
+	 * this time (plus the pcap timeout). Only used when batchSize() != 0.
+	 *
+	 * @param ms -
+	 *            the flush timeout in milliseconds, 0 to hand on whatever
+	 *            one pcap read returns.
+	 */
+	public void batchTimeout(int ms) {
+		if (ms < 0)
+			throw new jND_Exception(
+					"jND_CaptureSession.batchTimeout : timeout must not be negative - " + ms);
+		batchTimeout = ms;
+	}
+
+	/**
+	 * Obtains the arena this session captures into.
+	 *
+	 * @return the arena, or null if packets go to the packet queue.
+	 */
+	public jND_PacketArena arena() {
+		return currArena;
+	}
+
+	/**
+	 * Sets an arena for this session to capture into. With an arena, the
+	 * native layer writes each packet directly into a slot of the arena's
+	 * direct buffer and consumers take packets from the arena (see
+	 * jND_PacketArena.next) instead of from the packet queue. Packets are
+	 * captured batchSize() at a time (64 if batchSize() is 0). The arena
+	 * may only be changed while the session is not capturing. A jND_MMAP
+	 * session does not use an arena; read its ring directly instead.
+	 *
+	 * @param arena -
+	 *            the arena, or null to go back to the packet queue.
+	 */
+	public void arena(jND_PacketArena arena) {
+		synchronized (mutex) {
+			if (capturing || (javaThread != null && javaThread.isAlive()))
+				throw new jND_Exception(
+						"jND_CaptureSession.arena : cannot change the arena while capturing");
+			currArena = arena;
+		}
+	}
+
+	/**
+	 * Obtains the batch used by the capture thread, or null if packets are
+	 * captured one at a time.
+	 */
+	jND_PacketBatch packetBatch() {
+		return currBatch;
 	}
 
 	/**
@@ -735,10 +1223,21 @@ public class jND_CaptureSession {
 	public void start() {
 		try {
 			if (!capturing) {
+				// Set up the batch, if capturing a batch at a time
+				// into the packet queue
+				if (batchSize > 0 && currArena == null) {
+					int slen = snaplen > 0 ? snaplen : 65535;
+					if (currBatch == null || currBatch.capacity() != batchSize)
+						currBatch = new jND_PacketBatch(batchSize,
+								(int) Math.min((long) batchSize * slen, 1 << 26));
+				} else
+					currBatch = null;
+
 				// Start a thread
 				captureStatus(true);	
 				capThread = new jND_CaptureThread(this);
 				javaThread = new Thread(capThread);
+				javaThread.setDaemon(daemon);
 				javaThread.start();
 			} else {
 				throw new jND_Exception(
@@ -764,7 +1263,7 @@ public class jND_CaptureSession {
 	 * Stops capturing packets. This actually closes the session, then reopens
 	 * it, as this is a sure fire way to cancel a waiting capture call. This is
 	 * less drastic than dispose, as the packet queue remains intact and the
-	 * session is reopened after being closed.
+	 * session is reopened after being closed, with its filter reinstalled.
 	 * 
 	 * @author Pete Lutz
 	 */
@@ -785,10 +1284,13 @@ public class jND_CaptureSession {
 					delayed_stop = true;
 					return;
 				}
-				closeCapture(currPcap_d, p_filter, dumper);
+				// A ring or reader needs no restart: neither blocks in pcap
+				if(ring != null || reader != null) {
+					delayed_stop = false;
+					return;
+				}
+				closeCapture(currPcap_d, dumper);
 				currPcap_d = NULLPTR;
-				p_filter = NULLPTR;
-				currFilter = "";
 				dumper = NULLPTR;
 				reply = openCapture(this.mode, this.nicname, this.snaplen, this.promisc, this.to_ms);
 				delayed_stop = false;
@@ -799,6 +1301,9 @@ public class jND_CaptureSession {
 				throw new jND_Exception("jND_CaptureSession.stop : Cannot restart session: "
 						+ captureSessionError);
 			}
+			// The filter lives on in the restarted session
+			if (currProgram != null)
+				install(currProgram);
 		} catch (jND_Exception nde) {
 			throw nde;
 		} catch (Exception e) {
@@ -15,6 +15,7 @@
 **
 ****************************************************************************/
 package jNetDev;
+import java.nio.ByteBuffer;
 
 /** 
  * jND_CaptureThread <br>
@@ -39,14 +40,84 @@ public class jND_CaptureThread implements Runnable {
 	 *            the pcap descriptor for the session.
 	 * @param pq -
 	 *            the packet queue to add the packet to.
+	 * @param ifIndex -
+	 *            the NIC index to record with the packet.
 	 * @return the number of packets captured (0 = EOF for an
 	 * 				offline capture.
 	 * @author Pete Lutz
 	 */
-	private static native int capture1(byte[] pcap_d, jND_PacketQueue pq);
+	private static native int capture1(byte[] pcap_d, jND_PacketQueue pq, int ifIndex);
+
+	/**
+	 * Private method to capture a batch of packets via an open capture
+	 * session with a single native call. Packets are copied back to back
+	 * into 'data' and indexed by 'offsets', 'lengths' and 'timestamps'.
+	 * The call returns when 'maxPackets' packets have been captured, when
+	 * 'data' cannot hold another packet, or when at least one packet has
+	 * been captured and 'flushMs' milliseconds have passed.
+	 *
+	 * @param pcap_d -
+	 *            the pcap descriptor for the session.
+	 * @param data -
+	 *            buffer to receive the packets.
+	 * @param offsets -
+	 *            receives the offset of each packet in data.
+	 * @param lengths -
+	 *            receives the captured length of each packet.
+	 * @param wireLengths -
+	 *            receives the length of each packet on the wire.
+	 * @param timestamps -
+	 *            receives the capture time of each packet in ns.
+	 * @param maxPackets -
+	 *            the most packets to capture.
+	 * @param flushMs -
+	 *            how long to keep filling a partial batch, in msec.
+	 * @return the number of packets captured (0 = pcap timeout), or
+	 * 				a negative flag as for capture1.
+	 */
+	private static native int captureBatch(byte[] pcap_d, byte[] data,
+			int[] offsets, int[] lengths, int[] wireLengths, long[] timestamps,
+			int maxPackets, int flushMs);
+
+	/**
+	 * Private method to capture a batch of packets directly into the
+	 * slots of a direct buffer. Packet i is written at offset
+	 * slots[i] * slotSize, truncated to slotSize octets. The call returns
+	 * as captureBatch does.
+	 *
+	 * @param pcap_d -
+	 *            the pcap descriptor for the session.
+	 * @param buf -
+	 *            the direct buffer of a jND_PacketArena.
+	 * @param slotSize -
+	 *            the octets per slot.
+	 * @param slots -
+	 *            the free slots to fill, in order.
+	 * @param lengths -
+	 *            receives the captured length of each packet.
+	 * @param wireLengths -
+	 *            receives the length of each packet on the wire.
+	 * @param timestamps -
+	 *            receives the capture time of each packet in ns.
+	 * @param maxPackets -
+	 *            the most packets to capture, at most slots.length.
+	 * @param flushMs -
+	 *            how long to keep filling a partial batch, in msec.
+	 * @return the number of packets captured (0 = pcap timeout), or
+	 * 				a negative flag as for capture1.
+	 */
+	private static native int captureDirect(byte[] pcap_d, ByteBuffer buf,
+			int slotSize, int[] slots, int[] lengths, int[] wireLengths,
+			long[] timestamps, int maxPackets, int flushMs);
 
 	// ==========   E N D    N A T I V E    M E T H O D S   ==========
 
+	// Packets per captureDirect call when the session has no batch size
+	private static final int DEFAULT_DIRECT_BATCH = 64;
+
+	// Longest wait for a block of a memory mapped ring, in msec
+	private static final int POLL_MS = 100;
+
 	/**
 	 * Default constructor
 	 * @author Pete Lutz
@@ -93,23 +164,79 @@ public class jND_CaptureThread implements Runnable {
 	 * method is called. run() is effectively the main program of the thread.
 	 * 
 	 * This method dispatches the pcap system to capture 1 packet at a time
-	 * with a callback to the private method 'callback' above. callback 
+	 * with a callback to the private method 'callback' above. callback
 	 * places each captured packet in a packet queue.
-	 * 
+	 *
+	 * If the session has a batch size (see jND_CaptureSession.batchSize),
+	 * packets are instead captured a batch at a time with one native call
+	 * and then placed in the packet queue. If the session has an arena
+	 * (see jND_CaptureSession.arena), packets are captured a batch at a
+	 * time straight into free slots of the arena. For a jND_MMAP session,
+	 * the kernel ring is read a block at a time instead of using pcap, and
+	 * for a session built on a jND_PcapReader the file is read in Java.
+	 *
 	 * NOTE: run should always be called indirectly by calling start().
 	 * It rarely, if ever, makes sense for the programmer to call run()
 	 * directly.
-	 * 
+	 *
 	 * @author Pete Lutz
 	 */
 	public void run() throws jND_Exception {
-		try {			
+		try {
+			jND_PacketBatch batch = session.packetBatch();
+			jND_PacketArena arena = session.arena();
+			jND_MmapRing ring = session.mmapRing();
+			jND_PcapReader reader = session.pcapReader();
+			int perCall = session.batchSize() > 0 ? session.batchSize() : DEFAULT_DIRECT_BATCH;
 			while(session.captureStatus()) {
-				// capture1 will stuff the packet in the packetQueue and
-				// return a result flag
-				int flag =
-					capture1(session.pcap_d(), session.packetQueue());
-				
+				int flag;
+				if(ring != null) {
+					// -1 is a timeout, -2 an error and -3 a closed ring
+					int b = ring.poll(POLL_MS);
+					if(b >= 0) {
+						deliver(ring.block(b));
+						continue;
+					}
+					flag = b == -1 ? 0 : b == -2 ? -1 : -3;
+				}
+				else if(reader != null) {
+					// -2 is the end of the file, handled below like pcap's EOF
+					flag = arena != null ? deliver(reader, arena, perCall)
+						: deliver(reader, perCall);
+					if(flag > 0) continue;
+				}
+				else if(arena != null) {
+					// Wait a little for free slots, so stop() is noticed
+					// even when consumers hold every slot
+					int n = arena.acquire(perCall, 10);
+					if(n == 0) continue;
+					flag = captureDirect(session.pcap_d(), arena.buffer(),
+						arena.slotSize(), arena.slots(), arena.lengths(),
+						arena.wireLengths(), arena.timestamps(), n,
+						session.batchTimeout());
+					arena.publish(flag > 0 ? flag : 0, n, session.ifIndex());
+					if(flag >= 0) continue;
+				}
+				else if(batch != null) {
+					// captureBatch fills the batch and returns a packet count
+					// or a negative result flag
+					flag = captureBatch(session.pcap_d(), batch.data(),
+						batch.offsets(), batch.lengths(), batch.wireLengths(),
+						batch.timestamps(),
+						batch.capacity(), session.batchTimeout());
+					if(flag >= 0) {
+						batch.count(flag);
+						deliver(batch);
+						continue;
+					}
+				}
+				else {
+					// capture1 will stuff the packet in the packetQueue and
+					// return a result flag
+					flag = capture1(session.pcap_d(), session.packetQueue(),
+						session.ifIndex());
+				}
+
 				// Often, flag == 1 indicating 1 packet captured. It has already
 				// been stuffed in the packet queue, in that case, by capture1. 
 				// A flag of 0 means that pcap timeout and no packet was caught.
@@ -142,4 +269,100 @@ public class jND_CaptureThread implements Runnable {
 			throw new jND_Exception ("jND_CaptureThread.run : " + e.toString());
 		}
 	}
+
+	/**
+	 * Place each packet of a freshly captured batch in the packet queue
+	 * of the session.
+	 *
+	 * @param	batch - the batch just filled by captureBatch.
+	 */
+	private void deliver(jND_PacketBatch batch) {
+		jND_PacketQueue pq = session.packetQueue();
+		int ifIndex = session.ifIndex();
+		int n = batch.count();
+		for(int i = 0; i < n; i++)
+			pq.push(batch.packet(i), batch.timestamp(i), batch.wireLength(i), ifIndex);
+	}
+
+	/**
+	 * Read up to max packets from a file into the packet queue of the
+	 * session. Packets rejected by the filter of the session are read but
+	 * not queued.
+	 *
+	 * @param	reader - the file reader of the session.
+	 * @param	max - the most packets to read.
+	 * @return	the number of packets queued, or -2 at the end of the file.
+	 */
+	private int deliver(jND_PcapReader reader, int max) {
+		jND_PacketQueue pq = session.packetQueue();
+		jND_BPFMachine filter = session.readerFilter();
+		int read = 0, n = 0;
+		while(read < max && reader.nextPacket()) {
+			read++;
+			if(filter != null && filter.run(reader.buffer(), reader.offset(),
+					reader.caplen(), reader.wireLength()) == 0)
+				continue;
+			pq.push(reader.toByteArray(), reader.timestamp(), reader.wireLength(),
+				session.ifIndex());
+			n++;
+		}
+		return read == 0 ? -2 : n;
+	}
+
+	/**
+	 * Read up to max packets from a file straight into free slots of an
+	 * arena, as captureDirect does for a live session. Packets longer than
+	 * a slot are truncated. Packets rejected by the filter of the session
+	 * take no slot.
+	 *
+	 * @param	reader - the file reader of the session.
+	 * @param	arena - the arena of the session.
+	 * @param	max - the most packets to read.
+	 * @return	the number of packets stored, 0 if no slot was free, or -2
+	 *			at the end of the file.
+	 */
+	private int deliver(jND_PcapReader reader, jND_PacketArena arena, int max)
+			throws InterruptedException {
+		int acquired = arena.acquire(max, 10);
+		if(acquired == 0) return 0;
+		ByteBuffer buf = arena.buffer();
+		int slotSize = arena.slotSize();
+		jND_BPFMachine filter = session.readerFilter();
+		int n = 0;
+		boolean more = true;
+		while(n < acquired && (more = reader.nextPacket())) {
+			ByteBuffer src = reader.buffer();
+			int off = reader.offset();
+			if(filter != null && filter.run(src, off, reader.caplen(),
+					reader.wireLength()) == 0)
+				continue;
+			int len = Math.min(reader.caplen(), slotSize);
+			int base = arena.slots()[n] * slotSize;
+			for(int i = 0; i < len; i++)
+				buf.put(base + i, src.get(off + i));
+			arena.lengths()[n] = len;
+			arena.wireLengths()[n] = reader.wireLength();
+			arena.timestamps()[n] = reader.timestamp();
+			n++;
+		}
+		arena.publish(n, acquired, session.ifIndex());
+		return n == 0 && !more ? -2 : n;
+	}
+
+	/**
+	 * Place each packet of a retired ring block in the packet queue of
+	 * the session, then hand the block back to the kernel.
+	 *
+	 * @param	block - the block just retired by the kernel.
+	 */
+	private void deliver(jND_MmapBlock block) {
+		jND_PacketQueue pq = session.packetQueue();
+		int ifIndex = session.ifIndex();
+		try {
+			while(block.nextPacket())
+				pq.push(block.toByteArray(), block.timestamp(), block.wireLength(), ifIndex);
+		} finally {
+			block.release();
+		}
+	}
 };
@@ -0,0 +1,135 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_CapturedPacket <br>
+ * Class to hold one captured packet together with what pcap knew about
+ * it: the time it was captured, the number of octets captured, the
+ * length of the packet on the wire and the NIC it arrived on.
+ * <br><br>
+ * A record is meant to be reused. Pass the same record to
+ * jND_PacketQueue.pop(jND_CapturedPacket) again and again and it is
+ * refilled each time, so consuming packets with their metadata costs no
+ * more objects than consuming bare byte arrays.
+ * <pre>
+ *		jND_CapturedPacket rec = new jND_CapturedPacket();
+ *		while(...) {
+ *			cap.packetQueue().pop(rec);
+ *			long t = rec.timestamp();
+ *			...
+ *		}
+ * </pre>
+ * A record may also be handed to jND_CaptureSession.dumpPacket, which
+ * writes it with its original timestamp and wire length.
+ * <br><br>
+ */
+public class jND_CapturedPacket {
+	private byte[] data;		// the packet
+	private int caplen;			// octets of data captured
+	private int wireLength;		// length of the packet on the wire
+	private long timestamp;		// capture time, in ns since the epoch
+	private int ifIndex;		// NIC the packet arrived on, -1 if unknown
+
+	/**
+	 * Construct an empty record, to be filled by pop.
+	 */
+	public jND_CapturedPacket() {
+		data = null;
+		caplen = 0;
+		wireLength = 0;
+		timestamp = 0;
+		ifIndex = -1;
+	}
+
+	/**
+	 * Construct a record for a packet.
+	 * @param	data - the packet.
+	 * @param	timestamp - capture time in nanoseconds since the epoch.
+	 * @param	wireLength - length of the packet on the wire.
+	 * @param	ifIndex - index of the NIC it arrived on, -1 if unknown.
+	 */
+	public jND_CapturedPacket(byte[] data, long timestamp, int wireLength, int ifIndex) {
+		set(data, timestamp, wireLength, ifIndex);
+	}
+
+	/**
+	 * Refill the record. The captured length is taken from data.
+	 * @param	data - the packet.
+	 * @param	timestamp - capture time in nanoseconds since the epoch.
+	 * @param	wireLength - length of the packet on the wire.
+	 * @param	ifIndex - index of the NIC it arrived on, -1 if unknown.
+	 */
+	public void set(byte[] data, long timestamp, int wireLength, int ifIndex) {
+		if(data == null)
+			throw new jND_Exception("jND_CapturedPacket.set : null packet");
+		this.data = data;
+		this.caplen = data.length;
+		this.wireLength = wireLength < caplen ? caplen : wireLength;
+		this.timestamp = timestamp;
+		this.ifIndex = ifIndex;
+	}
+
+	/**
+	 * Get the packet.
+	 * @return	the captured octets.
+	 */
+	public byte[] data() {
+		return data;
+	}
+
+	/**
+	 * Get the number of octets captured. This is less than wireLength()
+	 * when the packet was cut short by the snapshot length.
+	 * @return	the captured length.
+	 */
+	public int caplen() {
+		return caplen;
+	}
+
+	/**
+	 * Get the length of the packet as it appeared on the wire.
+	 * @return	the original length.
+	 */
+	public int wireLength() {
+		return wireLength;
+	}
+
+	/**
+	 * Get the time the packet was captured.
+	 * @return	the capture time in nanoseconds since the epoch.
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the index of the NIC the packet arrived on (see jND_NIC.index).
+	 * @return	the NIC index, -1 for packets read from a file.
+	 */
+	public int ifIndex() {
+		return ifIndex;
+	}
+
+	/**
+	 * Get the current time in the units used for timestamps.
+	 * @return	nanoseconds since the epoch, at millisecond precision.
+	 */
+	public static long now() {
+		return System.currentTimeMillis() * 1000000L;
+	}
+};
@@ -0,0 +1,264 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * jND_FanoutConsumer <br>
+ * Class of one reader of a jND_FanoutQueue. A consumer sees every packet
+ * pushed into the queue after it was created, whatever the other
+ * consumers do. Consumers are created by jND_FanoutQueue.consumer().
+ * <pre>
+ *     jND_CapturedPacket rec = new jND_CapturedPacket();
+ *     while(...) {
+ *         stats.pop(rec);
+ *         ...
+ *     }
+ * </pre>
+ * Normally one thread reads a consumer, but several threads may share
+ * one; they then split its packets between them, as with a
+ * jND_PacketQueue. A consumer that is no longer read should be closed, or
+ * it holds back the producer of a BLOCK queue and fills size() of any
+ * queue.
+ * <br><br>
+ */
+public class jND_FanoutConsumer {
+	private jND_FanoutQueue queue;
+	private AtomicLong cursor;			// sequence of the next packet to read
+	private AtomicLong consumed;		// packets read
+	private AtomicLong dropped;			// packets lost by being overtaken
+	private volatile long maxLag;		// largest lag seen at a pop
+	private volatile boolean closed;
+
+	/**
+	 * Construct a consumer. Only jND_FanoutQueue creates these.
+	 * @param		queue - the queue read.
+	 * @param		start - the sequence of the first packet to read.
+	 */
+	jND_FanoutConsumer(jND_FanoutQueue queue, long start) {
+		this.queue = queue;
+		cursor = new AtomicLong(start);
+		consumed = new AtomicLong(0);
+		dropped = new AtomicLong(0);
+		maxLag = 0;
+		closed = false;
+	}
+
+	/**
+	 * Get the next packet for this consumer. If it has read them all,
+	 * wait for a packet.
+	 * @return		the packet.
+	 */
+	public byte[] pop() throws jND_Exception {
+		byte[] pkt;
+		while((pkt = take(null)) == null)
+			queue.awaitNotEmpty(this);
+		return pkt;
+	}
+
+	/**
+	 * Get the next packet for this consumer together with its metadata.
+	 * If it has read them all, wait for a packet.
+	 * @param		rec - the record to fill. It may be reused from call
+	 *				to call.
+	 * @return		rec
+	 */
+	public jND_CapturedPacket pop(jND_CapturedPacket rec) throws jND_Exception {
+		if(rec == null)
+			throw new jND_Exception("jND_FanoutConsumer.pop : null record");
+		while(take(rec) == null)
+			queue.awaitNotEmpty(this);
+		return rec;
+	}
+
+	/**
+	 * Get the next packet for this consumer, if there is one. Never waits.
+	 * @return		the packet, or null if it has read them all.
+	 */
+	public byte[] tryPop() {
+		return take(null);
+	}
+
+	/**
+	 * Get the next packet for this consumer together with its metadata,
+	 * if there is one. Never waits.
+	 * @param		rec - the record to fill.
+	 * @return		true if rec was filled, false if it has read them all.
+	 */
+	public boolean tryPop(jND_CapturedPacket rec) {
+		if(rec == null)
+			throw new jND_Exception("jND_FanoutConsumer.tryPop : null record");
+		return take(rec) != null;
+	}
+
+	/**
+	 * Get the next packet for this consumer. If it has read them all,
+	 * wait up to a time limit for a packet.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		the packet, or null if none came in time.
+	 */
+	public byte[] poll(long timeout) throws jND_Exception {
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		byte[] pkt;
+		while((pkt = take(null)) == null) {
+			if(!queue.awaitNotEmpty(this, deadline)) return null;
+		}
+		return pkt;
+	}
+
+	/**
+	 * Get the next packet for this consumer together with its metadata.
+	 * If it has read them all, wait up to a time limit for a packet.
+	 * @param		rec - the record to fill.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		rec, or null if no packet came in time.
+	 */
+	public jND_CapturedPacket poll(jND_CapturedPacket rec, long timeout) throws jND_Exception {
+		if(rec == null)
+			throw new jND_Exception("jND_FanoutConsumer.poll : null record");
+		long deadline = System.nanoTime() + timeout * 1000000L;
+		while(take(rec) == null) {
+			if(!queue.awaitNotEmpty(this, deadline)) return null;
+		}
+		return rec;
+	}
+
+	/**
+	 * Move the packets this consumer has not read into a collection,
+	 * without waiting.
+	 * @param		c - the collection to add the packets (byte arrays) to.
+	 * @param		max - the most packets to move.
+	 * @return		the number of packets moved.
+	 */
+	public int drainTo(Collection c, int max) {
+		int n = 0;
+		byte[] pkt;
+		while(n < max && (pkt = take(null)) != null) {
+			c.add(pkt);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Stop reading. The consumer no longer holds back the producer, and
+	 * threads waiting in pop() get a jND_Exception.
+	 */
+	public void close() {
+		closed = true;
+		queue.remove(this);
+	}
+
+	/**
+	 * Determine if the consumer is closed.
+	 * @return		true once close() has been called.
+	 */
+	public boolean closed() {
+		return closed;
+	}
+
+	/**
+	 * Get the queue this consumer reads.
+	 * @return		the queue.
+	 */
+	public jND_FanoutQueue queue() {
+		return queue;
+	}
+
+	/**
+	 * Get the number of packets pushed that this consumer has not read.
+	 * @return		the lag, at most the capacity of the queue.
+	 */
+	public int size() {
+		long n = queue.sequence() - cursor.get();
+		int cap = queue.capacity();
+		return n < 0 ? 0 : n > cap ? cap : (int)n;
+	}
+
+	/**
+	 * Get the number of packets pushed that this consumer has not read.
+	 * The same as size().
+	 * @return		the lag.
+	 */
+	public int lag() {
+		return size();
+	}
+
+	/**
+	 * Get the largest lag this consumer has had when it read a packet.
+	 * @return		the largest lag.
+	 */
+	public long maxLag() {
+		return maxLag;
+	}
+
+	/**
+	 * Get the number of packets this consumer has read.
+	 * @return		the packet count.
+	 */
+	public long consumed() {
+		return consumed.get();
+	}
+
+	/**
+	 * Get the number of packets this consumer lost by falling a ring
+	 * behind a DROP_OLDEST queue.
+	 * @return		the count of lost packets.
+	 */
+	public long dropped() {
+		return dropped.get();
+	}
+
+	/**
+	 * Read the next packet without waiting.
+	 */
+	private byte[] take(jND_CapturedPacket rec) {
+		if(closed)
+			throw new jND_Exception("jND_FanoutConsumer.pop : consumer is closed");
+		return queue.take(this, rec);
+	}
+
+	/**
+	 * Get the sequence of the next packet to read.
+	 */
+	long cursor() {
+		return cursor.get();
+	}
+
+	/**
+	 * Move past the packet with sequence s, which was read with the given
+	 * lag.
+	 * @return		false if another thread moved first.
+	 */
+	boolean advance(long s, long lag) {
+		if(!cursor.compareAndSet(s, s + 1)) return false;
+		consumed.incrementAndGet();
+		if(lag > maxLag) maxLag = lag;
+		return true;
+	}
+
+	/**
+	 * Skip from sequence s to sequence to, losing the packets between.
+	 * @return		false if another thread moved first.
+	 */
+	boolean skip(long s, long to) {
+		if(!cursor.compareAndSet(s, to)) return false;
+		dropped.addAndGet(to - s);
+		return true;
+	}
+};
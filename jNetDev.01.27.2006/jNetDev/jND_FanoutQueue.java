@@ -0,0 +1,439 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * jND_FanoutQueue <br>
+ * Class to implement a packet queue that several consumers read
+ * independently. Popping from a jND_PacketQueue removes the packet, so
+ * two consumers of one session each see only part of the traffic. A
+ * fan-out queue instead gives every consumer every packet: each consumer
+ * (a jND_FanoutConsumer) has its own read sequence into one shared ring
+ * and reads at its own pace.
+ * <pre>
+ *     jND_FanoutQueue fq = new jND_FanoutQueue(65536, jND_PacketQueue.BLOCK);
+ *     cap.packetQueue(fq);
+ *     jND_FanoutConsumer stats = fq.consumer();
+ *     jND_FanoutConsumer dump = fq.consumer();
+ *     cap.start();
+ * </pre>
+ * A fan-out queue is a jND_PacketQueue, so the capture thread and the
+ * native layer push into it as into any other queue. Packets are popped
+ * from the consumers, not from the queue itself.
+ * <br><br>
+ * As with jND_PacketQueue, exactly one thread may push, and pushing and
+ * popping take no lock. The ring is full when the slowest consumer is a
+ * whole ring behind. The overflow policy then decides what happens:
+ * <UL>
+ * <LI>DROP_NEWEST - the new packet is discarded; no consumer sees it.</LI>
+ * <LI>DROP_OLDEST - the new packet overwrites the oldest one. Consumers
+ * that had not read it yet lose it and skip ahead; each counts its own
+ * losses (jND_FanoutConsumer.dropped). Fast consumers are never held back
+ * by a slow one.</LI>
+ * <LI>BLOCK - the pushing thread waits for the slowest consumer.</LI>
+ * </UL>
+ * Each consumer reports its lag, the number of packets pushed that it
+ * has not read, and the largest lag it has had.
+ * <br><br>
+ */
+public class jND_FanoutQueue extends jND_PacketQueue {
+	private AtomicReferenceArray ring;	// the slots
+	private AtomicLongArray published;	// sequence held by each slot, -1 while written
+	private AtomicLongArray stamps;		// capture time of each slot, ns
+	private AtomicIntegerArray wireLengths;	// wire length of each slot
+	private AtomicIntegerArray ifIndexes;	// NIC index of each slot
+	private int mask;					// capacity - 1
+	private int policy;					// overflow policy
+
+	private AtomicLong tail;			// sequence of the next packet to push
+	private long gate;					// slowest consumer seen by the producer
+	private volatile jND_FanoutConsumer[] consumers;
+
+	private AtomicLong droppedNewest;	// packets refused by a full ring
+	private AtomicLong droppedOldest;	// packets lost by lapped consumers
+
+	private jND_Mutex mutex;			// guards the consumer list
+	private jND_Mutex notEmpty;
+	private jND_Mutex notFull;
+	private AtomicInteger consumersWaiting;
+	private AtomicInteger producerWaiting;
+
+	/**
+	 * Construct an empty fan-out queue of DEFAULT_CAPACITY slots, which
+	 * discards new packets when the slowest consumer falls a ring behind.
+	 */
+	public jND_FanoutQueue() {
+		this(DEFAULT_CAPACITY, DROP_NEWEST);
+	}
+
+	/**
+	 * Construct an empty fan-out queue.
+	 * @param		capacity - the number of packets the ring can hold. This
+	 *				is rounded up to the next power of two.
+	 * @param		policy - what to do when the slowest consumer is a ring
+	 *				behind: one of DROP_NEWEST, DROP_OLDEST or BLOCK.
+	 */
+	public jND_FanoutQueue(int capacity, int policy) {
+		// The ring of the base class is not used
+		super(1, DROP_NEWEST);
+		if(capacity < 1 || capacity > (1 << 30))
+			throw new jND_Exception(
+				"jND_FanoutQueue.constructor : capacity out of range - " + capacity);
+		if(policy != DROP_NEWEST && policy != DROP_OLDEST && policy != BLOCK)
+			throw new jND_Exception(
+				"jND_FanoutQueue.constructor : unknown overflow policy - " + policy);
+
+		int size = 1;
+		while(size < capacity) size <<= 1;
+
+		ring = new AtomicReferenceArray(size);
+		published = new AtomicLongArray(size);
+		for(int i = 0; i < size; i++)
+			published.set(i, -1);
+		stamps = new AtomicLongArray(size);
+		wireLengths = new AtomicIntegerArray(size);
+		ifIndexes = new AtomicIntegerArray(size);
+		mask = size - 1;
+		this.policy = policy;
+		tail = new AtomicLong(0);
+		gate = 0;
+		consumers = new jND_FanoutConsumer[0];
+		droppedNewest = new AtomicLong(0);
+		droppedOldest = new AtomicLong(0);
+		mutex = new jND_Mutex();
+		notEmpty = new jND_Mutex();
+		notFull = new jND_Mutex();
+		consumersWaiting = new AtomicInteger(0);
+		producerWaiting = new AtomicInteger(0);
+	}
+
+	/**
+	 * Add a consumer. It sees every packet pushed from now on.
+	 * @return		the new consumer.
+	 */
+	public jND_FanoutConsumer consumer() {
+		synchronized(mutex) {
+			jND_FanoutConsumer c = new jND_FanoutConsumer(this, tail.get());
+			jND_FanoutConsumer[] a = new jND_FanoutConsumer[consumers.length + 1];
+			System.arraycopy(consumers, 0, a, 0, consumers.length);
+			a[consumers.length] = c;
+			consumers = a;
+			return c;
+		}
+	}
+
+	/**
+	 * Remove a consumer, so that it no longer holds back the producer,
+	 * and wake any thread parked on it. Called by jND_FanoutConsumer.close.
+	 */
+	void remove(jND_FanoutConsumer c) {
+		synchronized(mutex) {
+			int n = 0;
+			jND_FanoutConsumer[] a = new jND_FanoutConsumer[consumers.length];
+			for(int i = 0; i < consumers.length; i++)
+				if(consumers[i] != c) a[n++] = consumers[i];
+			if(n == consumers.length) return;
+			jND_FanoutConsumer[] b = new jND_FanoutConsumer[n];
+			System.arraycopy(a, 0, b, 0, n);
+			consumers = b;
+		}
+		wakeProducer();
+		synchronized(notEmpty) {
+			notEmpty.notifyAll();
+		}
+	}
+
+	/**
+	 * Get the consumers of the queue.
+	 * @return		a copy of the list of consumers.
+	 */
+	public jND_FanoutConsumer[] consumers() {
+		return consumers.clone();
+	}
+
+	/**
+	 * Add a packet and its metadata to the ring, for every consumer. Only
+	 * one thread may push into a given queue.
+	 * @param		pkt - a pointer to the packet to be added
+	 * @param		timestamp - capture time in nanoseconds since the epoch
+	 * @param		wireLength - length of the packet on the wire
+	 * @param		ifIndex - index of the NIC it arrived on, -1 if unknown
+	 */
+	public void push(byte[] pkt, long timestamp, int wireLength, int ifIndex) {
+		long t = tail.get();
+		if(policy != DROP_OLDEST && t - gate > mask) {
+			gate = slowest(t);
+			while(t - gate > mask) {
+				if(policy == DROP_NEWEST) {
+					droppedNewest.incrementAndGet();
+					return;
+				}
+				awaitNotFull(t);
+				gate = slowest(t);
+			}
+		}
+		int slot = (int)t & mask;
+		// The metadata is atomic too, so that a consumer that reads a value
+		// of this push also sees the -1 above when it checks the slot again
+		published.set(slot, -1);
+		stamps.lazySet(slot, timestamp);
+		wireLengths.lazySet(slot, wireLength);
+		ifIndexes.lazySet(slot, ifIndex);
+		ring.set(slot, pkt);
+		published.set(slot, t);
+		tail.set(t + 1);
+		if(consumersWaiting.get() != 0) {
+			synchronized(notEmpty) {
+				notEmpty.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public byte[] pop() throws jND_Exception {
+		throw new jND_Exception("jND_FanoutQueue.pop : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public jND_CapturedPacket pop(jND_CapturedPacket rec) throws jND_Exception {
+		throw new jND_Exception("jND_FanoutQueue.pop : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public byte[] tryPop() {
+		throw new jND_Exception("jND_FanoutQueue.tryPop : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public boolean tryPop(jND_CapturedPacket rec) {
+		throw new jND_Exception("jND_FanoutQueue.tryPop : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public byte[] poll(long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_FanoutQueue.poll : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public jND_CapturedPacket poll(jND_CapturedPacket rec, long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_FanoutQueue.poll : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Not supported: packets are popped from the consumers.
+	 */
+	public int drainTo(Collection c, int max) {
+		throw new jND_Exception("jND_FanoutQueue.drainTo : pop from a jND_FanoutConsumer");
+	}
+
+	/**
+	 * Get the lag of the slowest consumer.
+	 * @return		the most packets any consumer has yet to read.
+	 */
+	public int size() {
+		long t = tail.get();
+		long n = t - slowest(t);
+		return n > mask + 1 ? mask + 1 : (int)n;
+	}
+
+	/**
+	 * Get the number of packets the ring can hold.
+	 * @return		the capacity, always a power of two.
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Get the overflow policy of the queue.
+	 * @return		one of DROP_NEWEST, DROP_OLDEST or BLOCK.
+	 */
+	public int policy() {
+		return policy;
+	}
+
+	/**
+	 * Get the number of packets discarded because the slowest consumer
+	 * was a ring behind (DROP_NEWEST policy).
+	 * @return		the count of refused packets.
+	 */
+	public long droppedNewest() {
+		return droppedNewest.get();
+	}
+
+	/**
+	 * Get the number of packets consumers lost by being overtaken
+	 * (DROP_OLDEST policy), summed over all consumers.
+	 * @return		the count of lost packets.
+	 */
+	public long droppedOldest() {
+		return droppedOldest.get();
+	}
+
+	/**
+	 * Get the total number of packets this queue has discarded.
+	 * @return		droppedNewest() + droppedOldest()
+	 */
+	public long dropped() {
+		return droppedNewest.get() + droppedOldest.get();
+	}
+
+	/**
+	 * Get the sequence number of the next packet to be pushed, that is,
+	 * the number of packets pushed so far.
+	 * @return		the sequence number.
+	 */
+	public long sequence() {
+		return tail.get();
+	}
+
+	/**
+	 * Read the packet with sequence c for a consumer, without waiting.
+	 * @param		c - the consumer.
+	 * @param		rec - record to fill with the packet and its metadata,
+	 *				or null for the packet only.
+	 * @return		the packet, or null if the consumer has read them all.
+	 */
+	byte[] take(jND_FanoutConsumer c, jND_CapturedPacket rec) {
+		for(;;) {
+			long s = c.cursor();
+			long t = tail.get();
+			if(s >= t) return null;
+			if(t - s > mask + 1) {
+				// Overtaken: skip to the oldest packet still in the ring
+				long oldest = t - mask - 1;
+				if(c.skip(s, oldest))
+					droppedOldest.addAndGet(oldest - s);
+				continue;
+			}
+			int slot = (int)s & mask;
+			if(published.get(slot) != s) continue;
+			byte[] pkt = (byte[])ring.get(slot);
+			long ts = stamps.get(slot);
+			int wlen = wireLengths.get(slot);
+			int ifx = ifIndexes.get(slot);
+			if(published.get(slot) != s) continue;
+			if(!c.advance(s, t - s)) continue;
+			if(rec != null)
+				rec.set(pkt, ts, wlen, ifx);
+			if(producerWaiting.get() != 0)
+				wakeProducer();
+			return pkt;
+		}
+	}
+
+	/**
+	 * Park a consumer until there is a packet it has not read, or it is
+	 * closed.
+	 */
+	void awaitNotEmpty(jND_FanoutConsumer c) {
+		consumersWaiting.incrementAndGet();
+		try {
+			synchronized(notEmpty) {
+				while(c.cursor() >= tail.get() && !c.closed())
+					notEmpty.wait();
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_FanoutConsumer.pop Interrupted: " + ie.toString());
+		} finally {
+			consumersWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Park a consumer until there is a packet it has not read, it is
+	 * closed, or a deadline passes.
+	 * @param		deadline - System.nanoTime() at which to give up.
+	 * @return		false if the deadline passed first.
+	 */
+	boolean awaitNotEmpty(jND_FanoutConsumer c, long deadline) {
+		consumersWaiting.incrementAndGet();
+		try {
+			synchronized(notEmpty) {
+				while(c.cursor() >= tail.get() && !c.closed()) {
+					long left = deadline - System.nanoTime();
+					if(left <= 0) return false;
+					notEmpty.wait(left / 1000000L, (int)(left % 1000000L));
+				}
+			}
+			return true;
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_FanoutConsumer.poll Interrupted: " + ie.toString());
+		} finally {
+			consumersWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Find the read sequence of the slowest consumer.
+	 * @param		t - the sequence to report if there are no consumers.
+	 */
+	private long slowest(long t) {
+		jND_FanoutConsumer[] a = consumers;
+		long min = t;
+		for(int i = 0; i < a.length; i++) {
+			long s = a[i].cursor();
+			if(s < min) min = s;
+		}
+		return min;
+	}
+
+	/**
+	 * Park the producer until the slowest consumer has read the packet
+	 * in slot t (BLOCK policy).
+	 */
+	private void awaitNotFull(long t) {
+		producerWaiting.incrementAndGet();
+		try {
+			synchronized(notFull) {
+				while(t - slowest(t) > mask)
+					notFull.wait();
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_FanoutQueue.push Interrupted: " + ie.toString());
+		} finally {
+			producerWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Wake the producer if it is parked.
+	 */
+	private void wakeProducer() {
+		synchronized(notFull) {
+			notFull.notifyAll();
+		}
+	}
+};
@@ -0,0 +1,140 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import jNetDev.Headers.*;
+
+/**
+ * jND_FieldMutator <br>
+ * Class to vary one header field of a generated packet from packet to
+ * packet. A mutator sets its field to
+ * <pre>
+ *         start + (n % count) * step
+ * </pre>
+ * for the n'th packet, truncated to the width of the field, so a field
+ * may be stepped forever (count 0) or cycled over a range of values.
+ * Typical uses are an incrementing IP identification, advancing TCP
+ * sequence numbers, or sweeping ports and addresses.
+ * <br><br>
+ * Mutators act on the header objects of a jND_PacketBuilder before each
+ * packet is built, so lengths and checksums stay correct and no objects
+ * are allocated. See jND_TrafficGenerator.
+ * <br><br>
+ */
+public class jND_FieldMutator {
+	// Fields that may be mutated
+	public static final int IP_ID = 0;
+	public static final int IP_TTL = 1;
+	public static final int IP_SRC = 2;
+	public static final int IP_DST = 3;
+	public static final int SRC_PORT = 4;
+	public static final int DST_PORT = 5;
+	public static final int TCP_SEQ = 6;
+	public static final int TCP_ACK = 7;
+
+	private int field;
+	private long start;
+	private long step;
+	private long count;
+
+	/**
+	 * Construct a mutator that steps a field by 1 forever.
+	 * @param		field - the field to vary, e.g. IP_ID.
+	 * @param		start - the value for the first packet.
+	 */
+	public jND_FieldMutator(int field, long start) {
+		this(field, start, 1, 0);
+	}
+
+	/**
+	 * Construct a mutator.
+	 * @param		field - the field to vary, e.g. IP_ID.
+	 * @param		start - the value for the first packet.
+	 * @param		step - the amount added for each packet.
+	 * @param		count - the number of distinct values to cycle
+	 *				through, 0 to step forever.
+	 */
+	public jND_FieldMutator(int field, long start, long step, long count) {
+		if(field < IP_ID || field > TCP_ACK)
+			throw new jND_Exception("jND_FieldMutator.constructor : unknown field - " + field);
+		if(count < 0)
+			throw new jND_Exception("jND_FieldMutator.constructor : count must not be negative");
+		this.field = field;
+		this.start = start;
+		this.step = step;
+		this.count = count;
+	}
+
+	/**
+	 * Get the field this mutator varies.
+	 * @return		one of IP_ID, IP_TTL, IP_SRC, IP_DST, SRC_PORT,
+	 *				DST_PORT, TCP_SEQ or TCP_ACK.
+	 */
+	public int field() {
+		return field;
+	}
+
+	/**
+	 * Get the value the field takes for a given packet.
+	 * @param		n - the number of the packet, from 0.
+	 * @return		the untruncated value.
+	 */
+	public long value(long n) {
+		return start + (count == 0 ? n : n % count) * step;
+	}
+
+	/**
+	 * Set the field of the headers in a builder for a given packet.
+	 * Fields the builder does not have (for instance TCP_SEQ for a UDP
+	 * builder) are ignored.
+	 * @param		b - the builder whose headers are changed.
+	 * @param		n - the number of the packet, from 0.
+	 */
+	public void apply(jND_PacketBuilder b, long n) {
+		long v = value(n);
+		jND_IPv4 ip = b.ipv4();
+		jND_TCP tcp = b.tcp();
+		jND_UDP udp = b.udp();
+		switch(field) {
+		case IP_ID:
+			ip.fragmentID((int)v);
+			break;
+		case IP_TTL:
+			ip.ttl((int)v);
+			break;
+		case IP_SRC:
+			ip.srcAddress().address((int)v);
+			break;
+		case IP_DST:
+			ip.destAddress().address((int)v);
+			break;
+		case SRC_PORT:
+			if(tcp != null) tcp.sourcePort((int)v);
+			else if(udp != null) udp.sourcePort((int)v);
+			break;
+		case DST_PORT:
+			if(tcp != null) tcp.destPort((int)v);
+			else if(udp != null) udp.destPort((int)v);
+			break;
+		case TCP_SEQ:
+			if(tcp != null) tcp.sequenceNumber(v);
+			break;
+		case TCP_ACK:
+			if(tcp != null) tcp.ackNumber(v);
+			break;
+		}
+	}
+};
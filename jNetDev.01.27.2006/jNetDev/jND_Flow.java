@@ -0,0 +1,213 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import jNetDev.Headers.*;
+
+/**
+ * jND_Flow <br>
+ * Class to look at one flow of a jND_FlowTable: the packets of one IPv4
+ * connection, in both directions. The forward direction is from the
+ * initiator, the host that sent the first packet seen (or the first SYN,
+ * for TCP), to the responder.
+ * <br><br>
+ * A jND_Flow is a view of a record in the table, not a copy. It is valid
+ * until the table is next updated, expired or flushed; copy out anything
+ * that must be kept.
+ * <br><br>
+ */
+public class jND_Flow {
+	// TCP states
+	public static final int NONE = 0;			// not TCP, or nothing seen yet
+	public static final int SYN_SENT = 1;		// initiator sent a SYN
+	public static final int SYN_RECEIVED = 2;	// responder answered with SYN ACK
+	public static final int ESTABLISHED = 3;	// handshake done, or joined midway
+	public static final int FIN_WAIT = 4;		// one side sent a FIN
+	public static final int CLOSED = 5;			// both sides sent a FIN
+	public static final int RESET = 6;			// either side sent a RST
+
+	private static final String[] STATES = { "NONE", "SYN_SENT", "SYN_RECEIVED",
+		"ESTABLISHED", "FIN_WAIT", "CLOSED", "RESET" };
+
+	private jND_FlowTable table;
+	private int slot;
+
+	jND_Flow(jND_FlowTable table) {
+		this.table = table;
+	}
+
+	/**
+	 * Point the view at a record.
+	 */
+	void slot(int s) {
+		slot = s;
+	}
+
+	/**
+	 * Get the address of the initiator.
+	 * @return		the IPv4 address, as an int.
+	 */
+	public int srcAddress() {
+		return table.initiatorIsB(slot) ? table.addressB(slot) : table.addressA(slot);
+	}
+
+	/**
+	 * Get the address of the responder.
+	 * @return		the IPv4 address, as an int.
+	 */
+	public int destAddress() {
+		return table.initiatorIsB(slot) ? table.addressA(slot) : table.addressB(slot);
+	}
+
+	/**
+	 * Get the IP protocol of the flow.
+	 * @return		the protocol number, e.g. 6 for TCP.
+	 */
+	public int protocol() {
+		return table.protocol(slot);
+	}
+
+	/**
+	 * Get the port of the initiator.
+	 * @return		the port, or 0 if the protocol has none.
+	 */
+	public int sourcePort() {
+		return table.initiatorIsB(slot) ? table.portB(slot) : table.portA(slot);
+	}
+
+	/**
+	 * Get the port of the responder.
+	 * @return		the port, or 0 if the protocol has none.
+	 */
+	public int destPort() {
+		return table.initiatorIsB(slot) ? table.portA(slot) : table.portB(slot);
+	}
+
+	/**
+	 * Get the time of the first packet, or of the last active timeout.
+	 * @return		the time in nanoseconds since the epoch.
+	 */
+	public long firstSeen() {
+		return table.longAt(slot, jND_FlowTable.FIRST);
+	}
+
+	/**
+	 * Get the time of the latest packet.
+	 * @return		the time in nanoseconds since the epoch.
+	 */
+	public long lastSeen() {
+		return table.longAt(slot, jND_FlowTable.LAST);
+	}
+
+	/**
+	 * Get the number of packets sent by the initiator.
+	 * @return		the packet count.
+	 */
+	public long forwardPackets() {
+		return table.longAt(slot, table.initiatorIsB(slot)
+			? jND_FlowTable.PKT_BA : jND_FlowTable.PKT_AB);
+	}
+
+	/**
+	 * Get the number of packets sent by the responder.
+	 * @return		the packet count.
+	 */
+	public long reversePackets() {
+		return table.longAt(slot, table.initiatorIsB(slot)
+			? jND_FlowTable.PKT_AB : jND_FlowTable.PKT_BA);
+	}
+
+	/**
+	 * Get the number of octets sent by the initiator, counted by length
+	 * on the wire.
+	 * @return		the octet count.
+	 */
+	public long forwardOctets() {
+		return table.longAt(slot, table.initiatorIsB(slot)
+			? jND_FlowTable.OCT_BA : jND_FlowTable.OCT_AB);
+	}
+
+	/**
+	 * Get the number of octets sent by the responder.
+	 * @return		the octet count.
+	 */
+	public long reverseOctets() {
+		return table.longAt(slot, table.initiatorIsB(slot)
+			? jND_FlowTable.OCT_AB : jND_FlowTable.OCT_BA);
+	}
+
+	/**
+	 * Get the number of packets in both directions.
+	 * @return		the packet count.
+	 */
+	public long packets() {
+		return table.longAt(slot, jND_FlowTable.PKT_AB) + table.longAt(slot, jND_FlowTable.PKT_BA);
+	}
+
+	/**
+	 * Get the number of octets in both directions.
+	 * @return		the octet count.
+	 */
+	public long octets() {
+		return table.longAt(slot, jND_FlowTable.OCT_AB) + table.longAt(slot, jND_FlowTable.OCT_BA);
+	}
+
+	/**
+	 * Get the state of a TCP flow.
+	 * @return		NONE, SYN_SENT, SYN_RECEIVED, ESTABLISHED, FIN_WAIT,
+	 *				CLOSED or RESET.
+	 */
+	public int tcpState() {
+		return table.tcpState(slot);
+	}
+
+	/**
+	 * Get the TCP flags seen from the initiator, or-ed together.
+	 * @return		the flags, as in jND_TCPView.
+	 */
+	public int forwardFlags() {
+		return table.flags(slot, !table.initiatorIsB(slot));
+	}
+
+	/**
+	 * Get the TCP flags seen from the responder, or-ed together.
+	 * @return		the flags, as in jND_TCPView.
+	 */
+	public int reverseFlags() {
+		return table.flags(slot, table.initiatorIsB(slot));
+	}
+
+	/**
+	 * Get the name of a TCP state.
+	 * @param		state - the state.
+	 * @return		the name, e.g. "ESTABLISHED".
+	 */
+	public static String stateName(int state) {
+		return state >= 0 && state < STATES.length ? STATES[state] : "?" + state;
+	}
+
+	/**
+	 * Obtain the flow as a string, e.g. "6 10.0.0.1:1025 > 10.0.0.2:80".
+	 * @return		the protocol and endpoints.
+	 */
+	public String toString() {
+		jND_IPv4Address src = new jND_IPv4Address();
+		jND_IPv4Address dst = new jND_IPv4Address();
+		src.address(srcAddress());
+		dst.address(destAddress());
+		return protocol() + " " + src + ":" + sourcePort() + " > " + dst + ":" + destPort();
+	}
+};
@@ -0,0 +1,433 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * jND_FlowDispatcher <br>
+ * Class to spread the packets of a session over several workers, keeping
+ * each flow on one worker. Each packet pushed is hashed on its flow (see
+ * jND_FlowHash), which reads a few header fields and parses nothing else,
+ * and placed in the queue of the worker the hash picks. Both directions of
+ * a connection go to the same worker, so per-flow state, such as a
+ * jND_FlowTable, may be kept by each worker without locks.
+ * <pre>
+ *     jND_FlowDispatcher d = new jND_FlowDispatcher(4, 16384, jND_PacketQueue.DROP_NEWEST);
+ *     cap.packetQueue(d);
+ *     d.start(handlers);		// one jND_PacketHandler per worker
+ *     cap.start();
+ *     ...
+ *     cap.stop();
+ *     d.stop();
+ * </pre>
+ * A dispatcher is a jND_PacketQueue, so every capture path pushes into
+ * it. The worker queues may be read by threads of the user's own (see
+ * queue), or by threads the dispatcher starts to run a handler for each
+ * worker (see start).
+ * <br><br>
+ * Each worker queue has the capacity and overflow policy given to the
+ * constructor. A slow worker backs up only its own queue; what that costs
+ * depends on the policy. With BLOCK the pushing thread waits, and all
+ * workers wait with it. For each worker the dispatcher counts the packets
+ * sent to it, the deepest its queue has been, the pushes that found it
+ * full and, with BLOCK, the time the pushing thread waited for it.
+ * <br><br>
+ */
+public class jND_FlowDispatcher extends jND_PacketQueue {
+	// How long a worker thread waits for a packet before it checks for stop
+	private static final int POLL_MS = 100;
+
+	private jND_PacketQueue[] queues;
+	private AtomicLongArray dispatched;	// packets sent to each worker
+	private AtomicLongArray maxDepth;		// deepest each queue has been
+	private AtomicLongArray full;			// pushes that found each queue full
+	private AtomicLongArray blockedNs;	// time spent waiting on each queue
+
+	// Worker threads, when started by the dispatcher
+	private jND_Mutex mutex = new jND_Mutex();
+	private Thread[] threads = null;
+	private volatile boolean running = false;
+	private AtomicLongArray handled;
+	private AtomicLongArray errors;
+	private volatile RuntimeException lastError = null;
+
+	/**
+	 * Construct a dispatcher whose worker queues hold DEFAULT_CAPACITY
+	 * packets and discard new packets when full.
+	 * @param		workers - the number of workers.
+	 */
+	public jND_FlowDispatcher(int workers) {
+		this(workers, DEFAULT_CAPACITY, DROP_NEWEST);
+	}
+
+	/**
+	 * Construct a dispatcher.
+	 * @param		workers - the number of workers.
+	 * @param		capacity - the packets each worker queue can hold.
+	 * @param		policy - what a full worker queue does: DROP_NEWEST,
+	 *				DROP_OLDEST or BLOCK.
+	 */
+	public jND_FlowDispatcher(int workers, int capacity, int policy) {
+		// Nothing is queued here, so the ring of the base class is not used
+		super(1, DROP_NEWEST);
+		if(workers < 1)
+			throw new jND_Exception("jND_FlowDispatcher.constructor : workers must be positive - "
+				+ workers);
+		queues = new jND_PacketQueue[workers];
+		for(int i = 0; i < workers; i++)
+			queues[i] = new jND_PacketQueue(capacity, policy);
+		dispatched = new AtomicLongArray(workers);
+		maxDepth = new AtomicLongArray(workers);
+		full = new AtomicLongArray(workers);
+		blockedNs = new AtomicLongArray(workers);
+		handled = new AtomicLongArray(workers);
+		errors = new AtomicLongArray(workers);
+	}
+
+	/**
+	 * Send a packet to the queue of the worker for its flow. Only one
+	 * thread may push.
+	 * @param		pkt - a pointer to the packet
+	 * @param		timestamp - capture time in nanoseconds since the epoch
+	 * @param		wireLength - length of the packet on the wire
+	 * @param		ifIndex - index of the NIC it arrived on, -1 if unknown
+	 */
+	public void push(byte[] pkt, long timestamp, int wireLength, int ifIndex) {
+		int w = worker(pkt);
+		jND_PacketQueue q = queues[w];
+		// Only this thread writes the counters, so lazySet is enough
+		dispatched.lazySet(w, dispatched.get(w) + 1);
+		int depth = q.size();
+		if(depth >= q.capacity()) {
+			full.lazySet(w, full.get(w) + 1);
+			if(q.policy() == BLOCK) {
+				long t0 = System.nanoTime();
+				q.push(pkt, timestamp, wireLength, ifIndex);
+				blockedNs.lazySet(w, blockedNs.get(w) + System.nanoTime() - t0);
+				return;
+			}
+		}
+		q.push(pkt, timestamp, wireLength, ifIndex);
+		if(depth + 1 > maxDepth.get(w))
+			maxDepth.lazySet(w, Math.min(depth + 1, q.capacity()));
+	}
+
+	/**
+	 * Find the worker a packet goes to.
+	 * @param		pkt - the packet, starting with its Ethernet header.
+	 * @return		the index of the worker.
+	 */
+	public int worker(byte[] pkt) {
+		return jND_FlowHash.bucket(jND_FlowHash.hash(pkt, 0, pkt.length), queues.length);
+	}
+
+	/**
+	 * Get the number of workers.
+	 * @return		the worker count.
+	 */
+	public int workers() {
+		return queues.length;
+	}
+
+	/**
+	 * Get the queue of a worker, to read from a thread of the user's own.
+	 * Each queue should be read by one thread only, so that the packets
+	 * of a flow are handled in order.
+	 * @param		w - the index of the worker.
+	 * @return		the queue.
+	 */
+	public jND_PacketQueue queue(int w) {
+		return queues[w];
+	}
+
+	/**
+	 * Start one thread per worker, each handing the packets of its queue
+	 * to its own handler. A handler is only ever called from its worker's
+	 * thread, so it needs no locking for state of its own.
+	 * @param		h - the handlers, one per worker.
+	 */
+	public void start(jND_PacketHandler[] h) {
+		if(h == null || h.length != queues.length)
+			throw new jND_Exception("jND_FlowDispatcher.start : need one handler per worker");
+		for(int i = 0; i < h.length; i++)
+			if(h[i] == null)
+				throw new jND_Exception("jND_FlowDispatcher.start : handler " + i + " is null");
+		synchronized(mutex) {
+			if(threads != null)
+				throw new jND_Exception("jND_FlowDispatcher.start : already started");
+			Thread[] t = new Thread[queues.length];
+			for(int i = 0; i < t.length; i++) {
+				t[i] = new Thread(new Worker(i, h[i]), "jND_FlowDispatcher-" + i);
+				t[i].setDaemon(true);
+			}
+			running = true;
+			threads = t;
+			for(int i = 0; i < t.length; i++)
+				t[i].start();
+		}
+	}
+
+	/**
+	 * Stop the worker threads, once they have handled the packets already
+	 * queued. Returns when they have finished.
+	 */
+	public void stop() {
+		Thread[] t;
+		synchronized(mutex) {
+			t = threads;
+			threads = null;
+			running = false;
+		}
+		if(t == null)
+			return;
+		try {
+			for(int i = 0; i < t.length; i++)
+				t[i].join();
+		} catch(InterruptedException ie) {
+			Thread.currentThread().interrupt();
+			throw new jND_Exception("jND_FlowDispatcher.stop : interrupted");
+		}
+	}
+
+	/**
+	 * Find out whether the worker threads are running.
+	 * @return		true between start and stop.
+	 */
+	public boolean started() {
+		return running;
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public byte[] pop() throws jND_Exception {
+		throw new jND_Exception("jND_FlowDispatcher.pop : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public jND_CapturedPacket pop(jND_CapturedPacket rec) throws jND_Exception {
+		throw new jND_Exception("jND_FlowDispatcher.pop : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public byte[] tryPop() {
+		throw new jND_Exception("jND_FlowDispatcher.tryPop : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public boolean tryPop(jND_CapturedPacket rec) {
+		throw new jND_Exception("jND_FlowDispatcher.tryPop : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public byte[] poll(long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_FlowDispatcher.poll : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public jND_CapturedPacket poll(jND_CapturedPacket rec, long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_FlowDispatcher.poll : packets go to the worker queues");
+	}
+
+	/**
+	 * Not supported: packets go to the worker queues.
+	 */
+	public int drainTo(Collection c, int max) {
+		throw new jND_Exception("jND_FlowDispatcher.drainTo : packets go to the worker queues");
+	}
+
+	/**
+	 * Get the number of packets queued for all workers.
+	 * @return		the packet count.
+	 */
+	public int size() {
+		int n = 0;
+		for(int i = 0; i < queues.length; i++)
+			n += queues[i].size();
+		return n;
+	}
+
+	/**
+	 * Get the number of packets all worker queues can hold.
+	 * @return		the total capacity.
+	 */
+	public int capacity() {
+		return queues.length * queues[0].capacity();
+	}
+
+	/**
+	 * Get the overflow policy of the worker queues.
+	 * @return		DROP_NEWEST, DROP_OLDEST or BLOCK.
+	 */
+	public int policy() {
+		return queues[0].policy();
+	}
+
+	/**
+	 * Get the number of packets refused by full worker queues.
+	 * @return		the count of dropped packets.
+	 */
+	public long droppedNewest() {
+		long n = 0;
+		for(int i = 0; i < queues.length; i++)
+			n += queues[i].droppedNewest();
+		return n;
+	}
+
+	/**
+	 * Get the number of packets pushed out of full worker queues.
+	 * @return		the count of dropped packets.
+	 */
+	public long droppedOldest() {
+		long n = 0;
+		for(int i = 0; i < queues.length; i++)
+			n += queues[i].droppedOldest();
+		return n;
+	}
+
+	/**
+	 * Get the total number of packets the worker queues have discarded.
+	 * @return		the count of dropped packets.
+	 */
+	public long dropped() {
+		return droppedNewest() + droppedOldest();
+	}
+
+	/**
+	 * Get the number of packets sent to a worker.
+	 * @param		w - the index of the worker.
+	 * @return		the packet count, including any its queue dropped.
+	 */
+	public long dispatched(int w) {
+		return dispatched.get(w);
+	}
+
+	/**
+	 * Get the number of packets queued for a worker.
+	 * @param		w - the index of the worker.
+	 * @return		the depth of its queue.
+	 */
+	public int size(int w) {
+		return queues[w].size();
+	}
+
+	/**
+	 * Get the deepest the queue of a worker has been.
+	 * @param		w - the index of the worker.
+	 * @return		the largest depth seen by a push.
+	 */
+	public long maxDepth(int w) {
+		return maxDepth.get(w);
+	}
+
+	/**
+	 * Get the number of pushes that found the queue of a worker full.
+	 * @param		w - the index of the worker.
+	 * @return		the count; under BLOCK each such push waited.
+	 */
+	public long full(int w) {
+		return full.get(w);
+	}
+
+	/**
+	 * Get the time the pushing thread has waited for a worker, under the
+	 * BLOCK policy.
+	 * @param		w - the index of the worker.
+	 * @return		the time in nanoseconds.
+	 */
+	public long blocked(int w) {
+		return blockedNs.get(w);
+	}
+
+	/**
+	 * Get the number of packets discarded by the queue of a worker.
+	 * @param		w - the index of the worker.
+	 * @return		the count of dropped packets.
+	 */
+	public long dropped(int w) {
+		return queues[w].dropped();
+	}
+
+	/**
+	 * Get the number of packets a worker thread has handed to its handler.
+	 * @param		w - the index of the worker.
+	 * @return		the packet count, including those that threw.
+	 */
+	public long handled(int w) {
+		return handled.get(w);
+	}
+
+	/**
+	 * Get the number of packets for which the handler of a worker threw.
+	 * The worker goes on with the next packet.
+	 * @param		w - the index of the worker.
+	 * @return		the error count.
+	 */
+	public long errors(int w) {
+		return errors.get(w);
+	}
+
+	/**
+	 * Get the last exception thrown by any handler.
+	 * @return		the exception, or null if none.
+	 */
+	public RuntimeException lastError() {
+		return lastError;
+	}
+
+	/**
+	 * The thread of one worker.
+	 */
+	private class Worker implements Runnable {
+		private int w;
+		private jND_PacketHandler handler;
+
+		Worker(int w, jND_PacketHandler handler) {
+			this.w = w;
+			this.handler = handler;
+		}
+
+		public void run() {
+			jND_PacketQueue q = queues[w];
+			jND_CapturedPacket rec = new jND_CapturedPacket();
+			// After stop, finish what is queued
+			while(running || q.size() > 0) {
+				if(q.poll(rec, POLL_MS) == null)
+					continue;
+				try {
+					handler.handle(rec);
+				} catch(RuntimeException re) {
+					errors.incrementAndGet(w);
+					lastError = re;
+				} finally {
+					handled.incrementAndGet(w);
+				}
+			}
+		}
+	};
+};
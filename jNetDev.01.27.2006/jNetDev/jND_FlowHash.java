@@ -0,0 +1,143 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_FlowHash <br>
+ * Class of static methods to hash a packet by its flow: the IPv4 source
+ * and destination addresses, the protocol and, for TCP and UDP, the
+ * ports. The hash is symmetric, so both directions of a connection have
+ * the same hash and land in the same bucket. It is used to spread packets
+ * over workers while keeping each flow on one worker.
+ * <br><br>
+ * Packets are read as Ethernet II frames, with or without one 802.1Q VLAN
+ * tag. A packet that is not IPv4 hashes on its Ethernet type alone; an
+ * IP fragment other than the first hashes without ports, as do all
+ * fragments of a datagram.
+ * <br><br>
+ */
+public class jND_FlowHash {
+	private static final int T_IP = 0x0800;
+	private static final int T_VLAN = 0x8100;
+
+	/**
+	 * Hash the flow of a packet in a byte array.
+	 * @param		pkt - the array holding the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		len - the captured length of the packet.
+	 * @return		the flow hash.
+	 */
+	public static int hash(byte[] pkt, int off, int len) {
+		return hash(pkt, null, off, len);
+	}
+
+	/**
+	 * Hash the flow of a packet in a buffer. The position and limit of the
+	 * buffer are left alone.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		len - the captured length of the packet.
+	 * @return		the flow hash.
+	 */
+	public static int hash(ByteBuffer buf, int off, int len) {
+		return hash(null, buf, off, len);
+	}
+
+	/**
+	 * Hash a flow given its 5-tuple. Swapping the source and destination
+	 * gives the same hash.
+	 * @param		srcIP - the source address.
+	 * @param		dstIP - the destination address.
+	 * @param		proto - the IP protocol.
+	 * @param		srcPort - the source port, 0 if none.
+	 * @param		dstPort - the destination port, 0 if none.
+	 * @return		the flow hash.
+	 */
+	public static int hash(int srcIP, int dstIP, int proto, int srcPort, int dstPort) {
+		long a = ((srcIP & 0xffffffffL) << 16) | srcPort;
+		long b = ((dstIP & 0xffffffffL) << 16) | dstPort;
+		long lo = Math.min(a, b);
+		long hi = Math.max(a, b);
+		long h = lo * 0x9e3779b97f4a7c15L;
+		h ^= (hi + proto) * 0xc2b2ae3d27d4eb4fL;
+		h ^= h >>> 29;
+		h *= 0x94d049bb133111ebL;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * Map a hash to one of n buckets, evenly.
+	 * @param		hash - a flow hash.
+	 * @param		n - the number of buckets.
+	 * @return		a bucket from 0 to n - 1.
+	 */
+	public static int bucket(int hash, int n) {
+		return (int)(((hash & 0xffffffffL) * n) >>> 32);
+	}
+
+	/**
+	 * Hash a packet held in either an array or a buffer.
+	 */
+	private static int hash(byte[] a, ByteBuffer b, int off, int len) {
+		if(len < 14) return 0;
+		int type = u16(a, b, off + 12);
+		int ip = off + 14;
+		if(type == T_VLAN && len >= 18) {
+			type = u16(a, b, off + 16);
+			ip = off + 18;
+		}
+		int end = off + len;
+		if(type != T_IP || end - ip < 20 || (u8(a, b, ip) & 0xf0) != 0x40)
+			return mix(type);
+
+		int ihl = (u8(a, b, ip) & 0x0f) * 4;
+		int proto = u8(a, b, ip + 9);
+		int src = (u16(a, b, ip + 12) << 16) | u16(a, b, ip + 14);
+		int dst = (u16(a, b, ip + 16) << 16) | u16(a, b, ip + 18);
+		int sport = 0;
+		int dport = 0;
+		boolean fragment = (u16(a, b, ip + 6) & 0x3fff) != 0;
+		if(!fragment && (proto == 6 || proto == 17) && end - ip >= ihl + 4) {
+			sport = u16(a, b, ip + ihl);
+			dport = u16(a, b, ip + ihl + 2);
+		}
+		return hash(src, dst, proto, sport, dport);
+	}
+
+	/**
+	 * Scramble a single value.
+	 */
+	private static int mix(int v) {
+		long h = (v & 0xffffffffL) * 0x9e3779b97f4a7c15L;
+		return (int)(h ^ (h >>> 32));
+	}
+
+	/**
+	 * Read an unsigned octet.
+	 */
+	private static int u8(byte[] a, ByteBuffer b, int i) {
+		return (a != null ? a[i] : b.get(i)) & 0xff;
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	private static int u16(byte[] a, ByteBuffer b, int i) {
+		return (u8(a, b, i) << 8) | u8(a, b, i + 1);
+	}
+};
@@ -0,0 +1,42 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_FlowListener <br>
+ * Interface of code told when a jND_FlowTable expires a flow, to report or
+ * export it. See jND_FlowTable.listener.
+ * <pre>
+ *     table.listener(new jND_FlowListener() {
+ *         public void expired(jND_Flow flow, int reason) {
+ *             System.out.print(flow + " " + flow.packets() + "\n");
+ *         }
+ *     });
+ * </pre>
+ * <br>
+ */
+public interface jND_FlowListener {
+	/**
+	 * Handle a flow leaving the table.
+	 * @param		flow - the flow. It is only valid during the call; copy
+	 *				out anything that must be kept. The table must not be
+	 *				updated from within the call.
+	 * @param		reason - why the flow expired: jND_FlowTable.IDLE,
+	 *				ACTIVE, FINISHED, EVICTED or FLUSHED.
+	 */
+	public void expired(jND_Flow flow, int reason);
+};
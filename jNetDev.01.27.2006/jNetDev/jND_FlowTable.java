@@ -0,0 +1,741 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * jND_FlowTable <br>
+ * Class to track the flows of IPv4 traffic: for each connection, keyed by
+ * protocol, addresses and ports, the packets and octets sent each way,
+ * the times of the first and latest packets and, for TCP, the flags seen
+ * and the state of the connection.
+ * <pre>
+ *     jND_FlowTable flows = new jND_FlowTable(1000000);
+ *     flows.listener(exporter);
+ *     while(reader.nextPacket())
+ *         flows.update(reader.buffer(), reader.offset(), reader.caplen(),
+ *             reader.wireLength(), reader.timestamp());
+ *     flows.flush();
+ * </pre>
+ * Both directions of a connection are one flow. A flow expires, and the
+ * listener is told, when:
+ * <ul>
+ * <li>no packet has been seen for the idle timeout (reason IDLE);</li>
+ * <li>it has been open for the active timeout (ACTIVE). It is reported
+ *	and goes on with fresh counters, so long connections are reported
+ *	in parts, as NetFlow does;</li>
+ * <li>TCP closed or reset it and the closed timeout has passed
+ *	(FINISHED), or a new SYN reuses its ports;</li>
+ * <li>the table is full and room is needed (EVICTED): the flow idle
+ *	longest goes first;</li>
+ * <li>flush() is called (FLUSHED).</li>
+ * </ul>
+ * Time is the time of the packets, so a trace file is timed as it was
+ * captured. update expires flows before it counts each packet; expire
+ * may be called when no packets arrive.
+ * <br><br>
+ * The flows are kept in one ByteBuffer of fixed size records, on the heap
+ * or outside it, and found by open addressing with linear probing, so the
+ * table makes no objects per flow and puts no load on the garbage
+ * collector however many flows it holds. Lists threaded through the
+ * records, ordered by time, make each expiry cost the same however large
+ * the table.
+ * <br><br>
+ * A table is not thread safe. To count on several threads, give each its
+ * own table and send each flow to one thread, e.g. with jND_FlowHash.
+ * <br><br>
+ */
+public class jND_FlowTable {
+	// Reasons a flow expires
+	public static final int IDLE = 1;
+	public static final int ACTIVE = 2;
+	public static final int FINISHED = 3;
+	public static final int EVICTED = 4;
+	public static final int FLUSHED = 5;
+
+	// Default timeouts, in msec
+	public static final int DEFAULT_IDLE_TIMEOUT = 15000;
+	public static final int DEFAULT_ACTIVE_TIMEOUT = 1800000;
+	public static final int DEFAULT_CLOSED_TIMEOUT = 1000;
+
+	// Record layout. Endpoint A is the lower of (address, port), so both
+	// directions of a connection have the same key.
+	static final int K1 = 0;			// address A << 32 | address B
+	static final int K2 = 8;			// protocol << 32 | port A << 16 | port B
+	static final int FIRST = 16;		// time of the first packet, ns
+	static final int LAST = 24;			// time of the latest packet, ns
+	static final int PKT_AB = 32;		// packets from A to B
+	static final int PKT_BA = 40;		// packets from B to A
+	static final int OCT_AB = 48;		// octets from A to B
+	static final int OCT_BA = 56;		// octets from B to A
+	static final int STATE = 64;		// flag bits, TCP state and TCP flags
+	static final int PREV = 68;			// previous on the open or closed list
+	static final int NEXT = 72;			// next on the open or closed list
+	static final int APREV = 76;		// previous on the age list
+	static final int ANEXT = 80;		// next on the age list
+	static final int HASH = 84;			// flow hash
+	public static final int RECORD_SIZE = 88;
+
+	// Bits of STATE
+	private static final int LIVE = 0x1;		// the record holds a flow
+	private static final int INIT_B = 0x2;		// B is the initiator
+	private static final int ON_CLOSED = 0x4;	// on the closed list
+	private static final int TCP_SHIFT = 8;		// TCP state, 4 bits
+	private static final int AB_SHIFT = 16;		// TCP flags from A
+	private static final int BA_SHIFT = 24;		// TCP flags from B
+
+	// Lists: open flows and closed flows by time of the latest packet,
+	// all flows by time of the first
+	private static final int OPEN = 0, CLOSED = 1, AGE = 2;
+	private static final int NIL = -1;
+
+	// Largest table: the records must fit one ByteBuffer
+	private static final int MAX_SLOTS = 1 << 24;
+	public static final int MAX_FLOWS = MAX_SLOTS / 4 * 3;
+
+	private static final int P_TCP = 6, P_UDP = 17;
+	private static final int FIN = 0x01, SYN = 0x02, RST = 0x04, ACK = 0x10;
+
+	private ByteBuffer records;
+	private int mask;					// slots - 1
+	private int maxFlows;
+	private int size = 0;
+	private int[] heads = { NIL, NIL, NIL };
+	private int[] tails = { NIL, NIL, NIL };
+	private long idleNs;
+	private long activeNs;
+	private long closedNs;
+	private jND_FlowListener listener = null;
+	private jND_Flow view;				// returned by update and lookup
+	private jND_Flow expiring;			// handed to the listener
+	private long created = 0;
+	private long expired = 0;
+	private long evicted = 0;
+
+	// The packet being counted
+	private int pSrc, pDst, pProto, pSport, pDport, pFlags;
+
+	/**
+	 * Construct a table on the heap.
+	 * @param		maxFlows - the most flows to hold at once.
+	 */
+	public jND_FlowTable(int maxFlows) {
+		this(maxFlows, false);
+	}
+
+	/**
+	 * Construct a table.
+	 * @param		maxFlows - the most flows to hold at once, up to
+	 *				MAX_FLOWS. The table takes about RECORD_SIZE * 4 / 3
+	 *				to 8 / 3 octets per flow.
+	 * @param		direct - true to keep the records outside the Java heap.
+	 */
+	public jND_FlowTable(int maxFlows, boolean direct) {
+		if(maxFlows < 1 || maxFlows > MAX_FLOWS)
+			throw new jND_Exception("jND_FlowTable.constructor : maxFlows must be from 1 to "
+				+ MAX_FLOWS + " - " + maxFlows);
+		// At most three quarters full, so probes stay short
+		int slots = 4;
+		while(slots / 4 * 3 < maxFlows)
+			slots <<= 1;
+		try {
+			records = direct ? ByteBuffer.allocateDirect(slots * RECORD_SIZE)
+				: ByteBuffer.allocate(slots * RECORD_SIZE);
+		} catch(OutOfMemoryError e) {
+			throw new jND_Exception("jND_FlowTable.constructor : cannot allocate "
+				+ slots + " records");
+		}
+		records.order(ByteOrder.nativeOrder());
+		mask = slots - 1;
+		this.maxFlows = maxFlows;
+		idleNs = DEFAULT_IDLE_TIMEOUT * 1000000L;
+		activeNs = DEFAULT_ACTIVE_TIMEOUT * 1000000L;
+		closedNs = DEFAULT_CLOSED_TIMEOUT * 1000000L;
+		view = new jND_Flow(this);
+		expiring = new jND_Flow(this);
+	}
+
+	/**
+	 * Set the idle timeout.
+	 * @param		ms - msec without packets before a flow expires; 0
+	 *				for never.
+	 */
+	public void idleTimeout(int ms) {
+		idleNs = ms * 1000000L;
+	}
+
+	/**
+	 * Get the idle timeout.
+	 * @return		the timeout in msec.
+	 */
+	public int idleTimeout() {
+		return (int)(idleNs / 1000000L);
+	}
+
+	/**
+	 * Set the active timeout.
+	 * @param		ms - msec after which an open flow is reported and its
+	 *				counters restarted; 0 for never.
+	 */
+	public void activeTimeout(int ms) {
+		activeNs = ms * 1000000L;
+	}
+
+	/**
+	 * Get the active timeout.
+	 * @return		the timeout in msec.
+	 */
+	public int activeTimeout() {
+		return (int)(activeNs / 1000000L);
+	}
+
+	/**
+	 * Set the closed timeout.
+	 * @param		ms - msec a closed or reset TCP flow is kept, to count
+	 *				the last acknowledgements and retransmissions; 0 to
+	 *				expire it at the next update.
+	 */
+	public void closedTimeout(int ms) {
+		closedNs = ms * 1000000L;
+	}
+
+	/**
+	 * Get the closed timeout.
+	 * @return		the timeout in msec.
+	 */
+	public int closedTimeout() {
+		return (int)(closedNs / 1000000L);
+	}
+
+	/**
+	 * Set the code told when flows expire.
+	 * @param		l - the listener, or null for none.
+	 */
+	public void listener(jND_FlowListener l) {
+		listener = l;
+	}
+
+	/**
+	 * Get the code told when flows expire.
+	 * @return		the listener, or null.
+	 */
+	public jND_FlowListener listener() {
+		return listener;
+	}
+
+	/**
+	 * Get the number of flows in the table.
+	 * @return		the flow count.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Get the most flows the table holds.
+	 * @return		the maxFlows given to the constructor.
+	 */
+	public int maxFlows() {
+		return maxFlows;
+	}
+
+	/**
+	 * Get the number of flows created since the table was made.
+	 * @return		the count.
+	 */
+	public long created() {
+		return created;
+	}
+
+	/**
+	 * Get the number of flows that have left the table, for any reason.
+	 * Active timeouts are not counted; the flow stays.
+	 * @return		the count.
+	 */
+	public long expired() {
+		return expired;
+	}
+
+	/**
+	 * Get the number of flows removed to make room.
+	 * @return		the count.
+	 */
+	public long evicted() {
+		return evicted;
+	}
+
+	/**
+	 * Count a packet in a byte array.
+	 * @param		pkt - the array holding the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @param		timestamp - the capture time, in nanoseconds since the
+	 *				epoch.
+	 * @return		the flow of the packet, or null if it is not IPv4.
+	 */
+	public jND_Flow update(byte[] pkt, int off, int caplen, int wireLength, long timestamp) {
+		return update(pkt, null, off, caplen, wireLength, timestamp);
+	}
+
+	/**
+	 * Count a packet in a buffer. The position and limit of the buffer are
+	 * left alone.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		caplen - the number of octets captured.
+	 * @param		wireLength - the length of the packet on the wire.
+	 * @param		timestamp - the capture time, in nanoseconds since the
+	 *				epoch.
+	 * @return		the flow of the packet, or null if it is not IPv4.
+	 */
+	public jND_Flow update(ByteBuffer buf, int off, int caplen, int wireLength, long timestamp) {
+		return update(null, buf, off, caplen, wireLength, timestamp);
+	}
+
+	/**
+	 * Count a captured packet.
+	 * @param		pkt - the packet.
+	 * @return		the flow of the packet, or null if it is not IPv4.
+	 */
+	public jND_Flow update(jND_CapturedPacket pkt) {
+		return update(pkt.data(), null, 0, pkt.caplen(), pkt.wireLength(), pkt.timestamp());
+	}
+
+	/**
+	 * Find a flow.
+	 * @param		srcIP - the address of either end.
+	 * @param		dstIP - the address of the other end.
+	 * @param		proto - the IP protocol.
+	 * @param		srcPort - the port at srcIP, 0 if none.
+	 * @param		dstPort - the port at dstIP, 0 if none.
+	 * @return		the flow, or null if it is not in the table.
+	 */
+	public jND_Flow lookup(int srcIP, int dstIP, int proto, int srcPort, int dstPort) {
+		pSrc = srcIP;
+		pDst = dstIP;
+		pProto = proto;
+		pSport = srcPort;
+		pDport = dstPort;
+		int s = find(jND_FlowHash.hash(srcIP, dstIP, proto, srcPort, dstPort));
+		if(s < 0)
+			return null;
+		view.slot(s);
+		return view;
+	}
+
+	/**
+	 * Expire the flows whose time is up.
+	 * @param		now - the time, in nanoseconds since the epoch.
+	 * @return		the number of flows reported.
+	 */
+	public int expire(long now) {
+		int n = 0;
+		while(heads[CLOSED] != NIL && now - longAt(heads[CLOSED], LAST) >= closedNs) {
+			remove(heads[CLOSED], FINISHED);
+			n++;
+		}
+		if(idleNs > 0) {
+			while(heads[OPEN] != NIL && now - longAt(heads[OPEN], LAST) >= idleNs) {
+				remove(heads[OPEN], IDLE);
+				n++;
+			}
+		}
+		if(activeNs > 0) {
+			while(heads[AGE] != NIL && now - longAt(heads[AGE], FIRST) >= activeNs) {
+				int s = heads[AGE];
+				report(s, ACTIVE);
+				int at = s * RECORD_SIZE;
+				records.putLong(at + FIRST, now);
+				records.putLong(at + PKT_AB, 0);
+				records.putLong(at + PKT_BA, 0);
+				records.putLong(at + OCT_AB, 0);
+				records.putLong(at + OCT_BA, 0);
+				unlink(AGE, s);
+				append(AGE, s);
+				n++;
+			}
+		}
+		return n;
+	}
+
+	/**
+	 * Expire every flow, oldest first, e.g. at the end of a trace.
+	 * @return		the number of flows reported.
+	 */
+	public int flush() {
+		int n = 0;
+		while(heads[AGE] != NIL) {
+			remove(heads[AGE], FLUSHED);
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Count a packet. Exactly one of a and b is set.
+	 */
+	private jND_Flow update(byte[] a, ByteBuffer b, int off, int caplen, int wireLength,
+			long timestamp) {
+		expire(timestamp);
+		if(!parse(a, b, off, caplen))
+			return null;
+		int h = jND_FlowHash.hash(pSrc, pDst, pProto, pSport, pDport);
+		int s = find(h);
+		if(s >= 0 && pProto == P_TCP && (pFlags & (SYN | ACK)) == SYN) {
+			// A new connection on the ports of one that has ended
+			int tcp = tcpState(s);
+			if(tcp == jND_Flow.CLOSED || tcp == jND_Flow.RESET) {
+				remove(s, FINISHED);
+				s = find(h);
+			}
+		}
+		if(s < 0) {
+			if(size >= maxFlows) {
+				evict();
+				s = find(h);
+			}
+			s = create(~s, h, timestamp);
+		}
+
+		int at = s * RECORD_SIZE;
+		boolean fromA = fromA();
+		records.putLong(at + (fromA ? PKT_AB : PKT_BA),
+			records.getLong(at + (fromA ? PKT_AB : PKT_BA)) + 1);
+		records.putLong(at + (fromA ? OCT_AB : OCT_BA),
+			records.getLong(at + (fromA ? OCT_AB : OCT_BA)) + wireLength);
+		if(timestamp > records.getLong(at + LAST))
+			records.putLong(at + LAST, timestamp);
+		if(pProto == P_TCP)
+			track(s, fromA);
+
+		// Move the flow to the end of its list, now that it is the latest
+		int list = (records.getInt(at + STATE) & ON_CLOSED) != 0 ? CLOSED : OPEN;
+		unlink(list, s);
+		int tcp = tcpState(s);
+		if(tcp == jND_Flow.CLOSED || tcp == jND_Flow.RESET) {
+			records.putInt(at + STATE, records.getInt(at + STATE) | ON_CLOSED);
+			list = CLOSED;
+		}
+		append(list, s);
+
+		view.slot(s);
+		return view;
+	}
+
+	/**
+	 * Follow the TCP state of a flow through the flags of a packet.
+	 */
+	private void track(int s, boolean fromA) {
+		int at = s * RECORD_SIZE;
+		int st = records.getInt(at + STATE);
+		st |= pFlags << (fromA ? AB_SHIFT : BA_SHIFT);
+		boolean forward = fromA != ((st & INIT_B) != 0);
+		int tcp = (st >> TCP_SHIFT) & 0xf;
+		int finAB = (st >> AB_SHIFT) & FIN;
+		int finBA = (st >> BA_SHIFT) & FIN;
+		if(tcp == jND_Flow.RESET || tcp == jND_Flow.CLOSED) {
+			// Ended; only a new SYN starts a new flow
+		} else if((pFlags & RST) != 0) {
+			tcp = jND_Flow.RESET;
+		} else if(finAB != 0 && finBA != 0) {
+			tcp = jND_Flow.CLOSED;
+		} else if(finAB != 0 || finBA != 0) {
+			tcp = jND_Flow.FIN_WAIT;
+		} else {
+			boolean syn = (pFlags & SYN) != 0, ack = (pFlags & ACK) != 0;
+			switch(tcp) {
+			case jND_Flow.NONE:
+				tcp = syn ? (ack ? jND_Flow.SYN_RECEIVED : jND_Flow.SYN_SENT)
+					: jND_Flow.ESTABLISHED;
+				break;
+			case jND_Flow.SYN_SENT:
+				if(!forward && syn && ack)
+					tcp = jND_Flow.SYN_RECEIVED;
+				break;
+			case jND_Flow.SYN_RECEIVED:
+				if(forward && ack && !syn)
+					tcp = jND_Flow.ESTABLISHED;
+				break;
+			}
+		}
+		st = (st & ~(0xf << TCP_SHIFT)) | (tcp << TCP_SHIFT);
+		records.putInt(at + STATE, st);
+	}
+
+	/**
+	 * Does the packet go from endpoint A to endpoint B?
+	 */
+	private boolean fromA() {
+		int c = compareUnsigned(pSrc, pDst);
+		return c < 0 || c == 0 && pSport <= pDport;
+	}
+
+	/**
+	 * Find the flow of the packet being counted.
+	 * @return		its slot, or ~slot of the empty slot where it belongs.
+	 */
+	private int find(int h) {
+		long k1, k2;
+		if(fromA()) {
+			k1 = (pSrc & 0xffffffffL) << 32 | (pDst & 0xffffffffL);
+			k2 = (long)pProto << 32 | (long)pSport << 16 | pDport;
+		} else {
+			k1 = (pDst & 0xffffffffL) << 32 | (pSrc & 0xffffffffL);
+			k2 = (long)pProto << 32 | (long)pDport << 16 | pSport;
+		}
+		int i = h & mask;
+		for(;;) {
+			int at = i * RECORD_SIZE;
+			if((records.getInt(at + STATE) & LIVE) == 0)
+				return ~i;
+			if(records.getLong(at + K1) == k1 && records.getLong(at + K2) == k2)
+				return i;
+			i = (i + 1) & mask;
+		}
+	}
+
+	/**
+	 * Start a flow for the packet being counted in an empty slot.
+	 */
+	private int create(int s, int h, long timestamp) {
+		int at = s * RECORD_SIZE;
+		boolean fromA = fromA();
+		if(fromA) {
+			records.putLong(at + K1, (pSrc & 0xffffffffL) << 32 | (pDst & 0xffffffffL));
+			records.putLong(at + K2, (long)pProto << 32 | (long)pSport << 16 | pDport);
+		} else {
+			records.putLong(at + K1, (pDst & 0xffffffffL) << 32 | (pSrc & 0xffffffffL));
+			records.putLong(at + K2, (long)pProto << 32 | (long)pDport << 16 | pSport);
+		}
+		records.putLong(at + FIRST, timestamp);
+		records.putLong(at + LAST, timestamp);
+		records.putLong(at + PKT_AB, 0);
+		records.putLong(at + PKT_BA, 0);
+		records.putLong(at + OCT_AB, 0);
+		records.putLong(at + OCT_BA, 0);
+		records.putInt(at + HASH, h);
+
+		// The sender is the initiator, unless it is answering a SYN
+		boolean initiatorA = fromA;
+		if(pProto == P_TCP && (pFlags & (SYN | ACK)) == (SYN | ACK))
+			initiatorA = !fromA;
+		records.putInt(at + STATE, LIVE | (initiatorA ? 0 : INIT_B));
+		append(OPEN, s);
+		append(AGE, s);
+		size++;
+		created++;
+		return s;
+	}
+
+	/**
+	 * Make room for a flow: drop a closed flow if there is one, else the
+	 * flow idle longest.
+	 */
+	private void evict() {
+		evicted++;
+		remove(heads[CLOSED] != NIL ? heads[CLOSED] : heads[OPEN], EVICTED);
+	}
+
+	/**
+	 * Tell the listener a flow is expiring.
+	 */
+	private void report(int s, int reason) {
+		if(listener != null) {
+			expiring.slot(s);
+			listener.expired(expiring, reason);
+		}
+	}
+
+	/**
+	 * Report a flow and take it out of the table. Later records of the
+	 * probe run are moved back to fill the hole, so no deleted markers
+	 * are left to lengthen probes.
+	 */
+	private void remove(int s, int reason) {
+		report(s, reason);
+		int at = s * RECORD_SIZE;
+		unlink((records.getInt(at + STATE) & ON_CLOSED) != 0 ? CLOSED : OPEN, s);
+		unlink(AGE, s);
+		size--;
+		expired++;
+
+		int hole = s;
+		int j = s;
+		for(;;) {
+			j = (j + 1) & mask;
+			int jat = j * RECORD_SIZE;
+			if((records.getInt(jat + STATE) & LIVE) == 0)
+				break;
+			// The record at j may fill the hole if the hole lies between
+			// its home slot and j
+			int home = records.getInt(jat + HASH) & mask;
+			if(((j - home) & mask) >= ((j - hole) & mask)) {
+				move(j, hole);
+				hole = j;
+			}
+		}
+		records.putInt(hole * RECORD_SIZE + STATE, 0);
+	}
+
+	/**
+	 * Move a record and repoint the lists at its new slot.
+	 */
+	private void move(int from, int to) {
+		int src = from * RECORD_SIZE;
+		int dst = to * RECORD_SIZE;
+		for(int i = 0; i < RECORD_SIZE; i += 4)
+			records.putInt(dst + i, records.getInt(src + i));
+		relink((records.getInt(dst + STATE) & ON_CLOSED) != 0 ? CLOSED : OPEN, to);
+		relink(AGE, to);
+	}
+
+	private void relink(int list, int s) {
+		int at = s * RECORD_SIZE;
+		int prev = records.getInt(at + (list == AGE ? APREV : PREV));
+		int next = records.getInt(at + (list == AGE ? ANEXT : NEXT));
+		if(prev == NIL)
+			heads[list] = s;
+		else
+			records.putInt(prev * RECORD_SIZE + (list == AGE ? ANEXT : NEXT), s);
+		if(next == NIL)
+			tails[list] = s;
+		else
+			records.putInt(next * RECORD_SIZE + (list == AGE ? APREV : PREV), s);
+	}
+
+	private void append(int list, int s) {
+		int at = s * RECORD_SIZE;
+		int prevOff = list == AGE ? APREV : PREV;
+		int nextOff = list == AGE ? ANEXT : NEXT;
+		records.putInt(at + prevOff, tails[list]);
+		records.putInt(at + nextOff, NIL);
+		if(tails[list] == NIL)
+			heads[list] = s;
+		else
+			records.putInt(tails[list] * RECORD_SIZE + nextOff, s);
+		tails[list] = s;
+	}
+
+	private void unlink(int list, int s) {
+		int at = s * RECORD_SIZE;
+		int prevOff = list == AGE ? APREV : PREV;
+		int nextOff = list == AGE ? ANEXT : NEXT;
+		int prev = records.getInt(at + prevOff);
+		int next = records.getInt(at + nextOff);
+		if(prev == NIL)
+			heads[list] = next;
+		else
+			records.putInt(prev * RECORD_SIZE + nextOff, next);
+		if(next == NIL)
+			tails[list] = prev;
+		else
+			records.putInt(next * RECORD_SIZE + prevOff, prev);
+	}
+
+	/**
+	 * Read the addresses, protocol, ports and TCP flags of an Ethernet II
+	 * frame, with or without one 802.1Q tag.
+	 * @return		false if the packet is not IPv4.
+	 */
+	private boolean parse(byte[] a, ByteBuffer b, int off, int len) {
+		int end = off + len;
+		if(len < 14)
+			return false;
+		int ip = off + 14;
+		int type = u16(a, b, off + 12);
+		if(type == 0x8100 && len >= 18) {
+			type = u16(a, b, off + 16);
+			ip += 4;
+		}
+		if(type != 0x0800 || end - ip < 20 || (u8(a, b, ip) & 0xf0) != 0x40)
+			return false;
+		int ihl = (u8(a, b, ip) & 0x0f) * 4;
+		pProto = u8(a, b, ip + 9);
+		pSrc = (u16(a, b, ip + 12) << 16) | u16(a, b, ip + 14);
+		pDst = (u16(a, b, ip + 16) << 16) | u16(a, b, ip + 18);
+		pSport = 0;
+		pDport = 0;
+		pFlags = 0;
+		// All fragments of a datagram count without ports, as jND_FlowHash
+		// hashes them
+		boolean fragment = (u16(a, b, ip + 6) & 0x3fff) != 0;
+		if(!fragment && (pProto == P_TCP || pProto == P_UDP) && end - ip >= ihl + 4) {
+			pSport = u16(a, b, ip + ihl);
+			pDport = u16(a, b, ip + ihl + 2);
+			if(pProto == P_TCP && end - ip >= ihl + 14)
+				pFlags = u8(a, b, ip + ihl + 13);
+		}
+		return true;
+	}
+
+	private static int compareUnsigned(int x, int y) {
+		return Integer.compare(x ^ Integer.MIN_VALUE, y ^ Integer.MIN_VALUE);
+	}
+
+	/**
+	 * Read an unsigned octet.
+	 */
+	private static int u8(byte[] a, ByteBuffer b, int i) {
+		return (a != null ? a[i] : b.get(i)) & 0xff;
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	private static int u16(byte[] a, ByteBuffer b, int i) {
+		return (u8(a, b, i) << 8) | u8(a, b, i + 1);
+	}
+
+	// Record fields, for jND_Flow
+	long longAt(int s, int field) {
+		return records.getLong(s * RECORD_SIZE + field);
+	}
+
+	boolean initiatorIsB(int s) {
+		return (records.getInt(s * RECORD_SIZE + STATE) & INIT_B) != 0;
+	}
+
+	int addressA(int s) {
+		return (int)(records.getLong(s * RECORD_SIZE + K1) >>> 32);
+	}
+
+	int addressB(int s) {
+		return (int)records.getLong(s * RECORD_SIZE + K1);
+	}
+
+	int protocol(int s) {
+		return (int)(records.getLong(s * RECORD_SIZE + K2) >>> 32);
+	}
+
+	int portA(int s) {
+		return (int)(records.getLong(s * RECORD_SIZE + K2) >>> 16) & 0xffff;
+	}
+
+	int portB(int s) {
+		return (int)records.getLong(s * RECORD_SIZE + K2) & 0xffff;
+	}
+
+	int tcpState(int s) {
+		return (records.getInt(s * RECORD_SIZE + STATE) >> TCP_SHIFT) & 0xf;
+	}
+
+	int flags(int s, boolean fromA) {
+		return (records.getInt(s * RECORD_SIZE + STATE) >>> (fromA ? AB_SHIFT : BA_SHIFT)) & 0xff;
+	}
+};
@@ -0,0 +1,226 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.Collection;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * jND_HandlerQueue <br>
+ * Class to hand packets to a jND_PacketHandler as they are pushed, in
+ * place of queueing them. It is installed as the packet queue of a
+ * session by jND_CaptureSession.handler, so that every capture path,
+ * native or Java, delivers straight to the handler.
+ * <br><br>
+ * Without an executor the handler runs on the capture thread, with one
+ * reused record; this has the lowest latency, but the session captures
+ * nothing while the handler runs. With an executor each packet gets its
+ * own record and is handed to the executor as a task; packets the
+ * executor rejects are counted as dropped.
+ * <br><br>
+ * A handler that throws does not stop the capture. The exception is
+ * counted and kept (see errors and lastError).
+ * <br><br>
+ */
+public class jND_HandlerQueue extends jND_PacketQueue {
+	private jND_PacketHandler handler;
+	private Executor executor;
+	private jND_CapturedPacket rec;		// reused on the capture thread
+	private AtomicLong handled;
+	private AtomicLong errors;
+	private AtomicLong rejected;
+	private volatile RuntimeException lastError;
+
+	/**
+	 * Construct a queue that runs a handler on the pushing thread.
+	 * @param		handler - the handler.
+	 */
+	public jND_HandlerQueue(jND_PacketHandler handler) {
+		this(handler, null);
+	}
+
+	/**
+	 * Construct a queue that runs a handler through an executor.
+	 * @param		handler - the handler.
+	 * @param		executor - runs the handler for each packet, or null to
+	 *				run it on the pushing thread.
+	 */
+	public jND_HandlerQueue(jND_PacketHandler handler, Executor executor) {
+		// Nothing is queued, so the ring of the base class is not used
+		super(1, DROP_NEWEST);
+		if(handler == null)
+			throw new jND_Exception("jND_HandlerQueue.constructor : handler must not be null");
+		this.handler = handler;
+		this.executor = executor;
+		rec = new jND_CapturedPacket();
+		handled = new AtomicLong(0);
+		errors = new AtomicLong(0);
+		rejected = new AtomicLong(0);
+	}
+
+	/**
+	 * Hand a packet to the handler.
+	 * @param		pkt - a pointer to the packet
+	 * @param		timestamp - capture time in nanoseconds since the epoch
+	 * @param		wireLength - length of the packet on the wire
+	 * @param		ifIndex - index of the NIC it arrived on, -1 if unknown
+	 */
+	public void push(byte[] pkt, long timestamp, int wireLength, int ifIndex) {
+		if(executor == null) {
+			rec.set(pkt, timestamp, wireLength, ifIndex);
+			run(rec);
+			return;
+		}
+		final jND_CapturedPacket r = new jND_CapturedPacket(pkt, timestamp, wireLength, ifIndex);
+		try {
+			executor.execute(new Runnable() {
+				public void run() {
+					jND_HandlerQueue.this.run(r);
+				}
+			});
+		} catch(RuntimeException re) {
+			rejected.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public byte[] pop() throws jND_Exception {
+		throw new jND_Exception("jND_HandlerQueue.pop : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public jND_CapturedPacket pop(jND_CapturedPacket rec) throws jND_Exception {
+		throw new jND_Exception("jND_HandlerQueue.pop : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public byte[] tryPop() {
+		throw new jND_Exception("jND_HandlerQueue.tryPop : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public boolean tryPop(jND_CapturedPacket rec) {
+		throw new jND_Exception("jND_HandlerQueue.tryPop : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public byte[] poll(long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_HandlerQueue.poll : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public jND_CapturedPacket poll(jND_CapturedPacket rec, long timeout) throws jND_Exception {
+		throw new jND_Exception("jND_HandlerQueue.poll : packets go to the handler");
+	}
+
+	/**
+	 * Not supported: packets go to the handler.
+	 */
+	public int drainTo(Collection c, int max) {
+		throw new jND_Exception("jND_HandlerQueue.drainTo : packets go to the handler");
+	}
+
+	/**
+	 * Get the size of the queue, which is always empty.
+	 * @return		0
+	 */
+	public int size() {
+		return 0;
+	}
+
+	/**
+	 * Get the handler.
+	 * @return		the handler.
+	 */
+	public jND_PacketHandler handler() {
+		return handler;
+	}
+
+	/**
+	 * Get the executor the handler runs on.
+	 * @return		the executor, or null for the pushing thread.
+	 */
+	public Executor executor() {
+		return executor;
+	}
+
+	/**
+	 * Get the number of packets the handler has returned from.
+	 * @return		the packet count, including those that threw.
+	 */
+	public long handled() {
+		return handled.get();
+	}
+
+	/**
+	 * Get the number of packets for which the handler threw.
+	 * @return		the error count.
+	 */
+	public long errors() {
+		return errors.get();
+	}
+
+	/**
+	 * Get the last exception thrown by the handler.
+	 * @return		the exception, or null if none.
+	 */
+	public RuntimeException lastError() {
+		return lastError;
+	}
+
+	/**
+	 * Get the number of packets the executor would not take.
+	 * @return		the count of dropped packets.
+	 */
+	public long droppedNewest() {
+		return rejected.get();
+	}
+
+	/**
+	 * Get the total number of packets this queue has discarded.
+	 * @return		the count of dropped packets.
+	 */
+	public long dropped() {
+		return rejected.get();
+	}
+
+	/**
+	 * Run the handler on one packet.
+	 */
+	private void run(jND_CapturedPacket r) {
+		try {
+			handler.handle(r);
+		} catch(RuntimeException re) {
+			errors.incrementAndGet();
+			lastError = re;
+		} finally {
+			handled.incrementAndGet();
+		}
+	}
+};
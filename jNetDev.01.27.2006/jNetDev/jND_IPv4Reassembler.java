@@ -0,0 +1,705 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+/**
+ * jND_IPv4Reassembler <br>
+ * Class to put fragmented IPv4 datagrams back together. Hand it every
+ * packet; fragments are kept until their datagram is whole, which is
+ * then given back as one contiguous IPv4 datagram, header and all.
+ * <pre>
+ *     jND_IPv4Reassembler frags = new jND_IPv4Reassembler();
+ *     while(reader.nextPacket()) {
+ *         switch(frags.add(reader.buffer(), reader.offset(), reader.caplen(),
+ *                 reader.timestamp())) {
+ *         case jND_IPv4Reassembler.WHOLE:		// not a fragment
+ *             analyse(the packet as read);
+ *             break;
+ *         case jND_IPv4Reassembler.COMPLETE:	// the last missing fragment
+ *             analyse(frags.datagram(), frags.datagramOffset(),
+ *                 frags.datagramLength());
+ *             break;
+ *         }
+ *     }
+ * </pre>
+ * Fragments are matched by source, destination, protocol and
+ * identification. Each datagram keeps the list of holes still to be
+ * filled (RFC 815), and the data of each fragment is copied once,
+ * straight to its place in the datagram. A datagram starts in a buffer
+ * of SMALL_BUFFER octets and moves, at most once, to one of
+ * LARGE_BUFFER octets if it turns out to be bigger. Buffers are reused.
+ * <br><br>
+ * Fragments that overlap data already received are handled by the
+ * overlap() policy: the data received first is kept (OVERLAP_FIRST), the
+ * data received last is kept (OVERLAP_LAST), or the whole datagram is
+ * dropped (OVERLAP_DROP), as current Linux kernels do. A fragment that
+ * brings no new data is a duplicate, and is ignored except under
+ * OVERLAP_LAST.
+ * <br><br>
+ * A datagram is dropped as incomplete if it is not whole timeout()
+ * milliseconds after its first fragment. Time is the time of the
+ * packets, so a trace file is timed as it was captured; add expires
+ * datagrams before it handles each packet, and expire may be called when
+ * no packets arrive. If the buffers of the datagrams in progress would
+ * need more than maxMemory() octets, the oldest datagrams are evicted.
+ * <br><br>
+ * A reassembler is not thread safe. To reassemble on several threads,
+ * send all fragments of a datagram to the same thread, e.g. with
+ * jND_FlowHash, which hashes fragments without ports.
+ * <br><br>
+ */
+public class jND_IPv4Reassembler {
+	// Results of add
+	public static final int WHOLE = 0;		// not a fragment, or not IPv4
+	public static final int HELD = 1;		// kept until the datagram is whole
+	public static final int COMPLETE = 2;	// the datagram is whole; see datagram()
+	public static final int DROPPED = 3;	// not used, or its datagram dropped
+
+	// Overlap policies
+	public static final int OVERLAP_FIRST = 0;
+	public static final int OVERLAP_LAST = 1;
+	public static final int OVERLAP_DROP = 2;
+
+	// Defaults
+	public static final long DEFAULT_TIMEOUT = 30000;
+	public static final int DEFAULT_MAX_MEMORY = 4 << 20;
+
+	// Most holes a datagram may have. Fragments start and, but for the
+	// last, end on 8 octet boundaries, so holes and data alternate in runs
+	// of at least 8 octets and no datagram of 65535 octets has more.
+	public static final int MAX_HOLES = 65536 / 16;
+
+	// Buffer sizes. The payload starts HEADROOM octets in, and the header
+	// of the first fragment is put just before it.
+	static final int HEADROOM = 60;
+	public static final int SMALL_BUFFER = 8192;
+	public static final int LARGE_BUFFER = HEADROOM + 65535;
+
+	private static final int MAX_DATAGRAM = 65535;
+	private static final int INFINITY = Integer.MAX_VALUE;
+
+	// A datagram being reassembled
+	private static class Datagram {
+		Key key;
+		byte[] buf;
+		long created;			// time of the first fragment, ns
+		int hdrLen = 0;			// length of the header, once fragment 0 is in
+		int total = -1;			// length of the payload, once the last fragment is in
+		int maxEnd = 0;			// end of the furthest fragment
+		int[] holes = new int[8];	// first and last octet of each hole
+		int holeCount;
+	};
+
+	// Source and destination, protocol and identification
+	private static class Key {
+		long k1;
+		int k2;
+
+		public int hashCode() {
+			long h = (k1 ^ (k1 >>> 29) ^ k2) * 0x9e3779b97f4a7c15L;
+			return (int)(h ^ (h >>> 32));
+		}
+
+		public boolean equals(Object o) {
+			if(!(o instanceof Key))
+				return false;
+			Key k = (Key)o;
+			return k.k1 == k1 && k.k2 == k2;
+		}
+	};
+
+	private LinkedHashMap datagrams = new LinkedHashMap();	// oldest first
+	private Key probe = new Key();
+	private ArrayList smallPool = new ArrayList();
+	private ArrayList largePool = new ArrayList();
+	private int[] scratch = new int[2 * MAX_HOLES + 4];
+	private Datagram done = null;			// the datagram last completed
+	private int doneOffset;
+	private int doneLength;
+	private ByteBuffer srcBuffer = null;	// the caller's buffer
+	private ByteBuffer srcView = null;		// and a duplicate of it to copy from
+
+	private long timeoutNs = DEFAULT_TIMEOUT * 1000000;
+	private int maxMemory = DEFAULT_MAX_MEMORY;
+	private int policy = OVERLAP_DROP;
+	private long memory = 0;
+
+	private long fragments = 0;
+	private long completed = 0;
+	private long incomplete = 0;
+	private long evicted = 0;
+	private long overlaps = 0;
+	private long duplicates = 0;
+	private long invalid = 0;
+
+	/**
+	 * Construct a reassembler with the default timeout, memory limit and
+	 * overlap policy.
+	 */
+	public jND_IPv4Reassembler() {
+	}
+
+	/**
+	 * Handle an Ethernet frame.
+	 * @param		pkt - the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		caplen - the number of octets captured.
+	 * @param		timestamp - the capture time, in nanoseconds since the
+	 *				epoch.
+	 * @return		WHOLE, HELD, COMPLETE or DROPPED.
+	 */
+	public int add(byte[] pkt, int off, int caplen, long timestamp) {
+		return add(pkt, null, off, caplen, timestamp);
+	}
+
+	/**
+	 * Handle an Ethernet frame in a buffer. The position and limit of the
+	 * buffer are left alone.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		off - where the Ethernet header starts.
+	 * @param		caplen - the number of octets captured.
+	 * @param		timestamp - the capture time, in nanoseconds since the
+	 *				epoch.
+	 * @return		WHOLE, HELD, COMPLETE or DROPPED.
+	 */
+	public int add(ByteBuffer buf, int off, int caplen, long timestamp) {
+		return add(null, buf, off, caplen, timestamp);
+	}
+
+	/**
+	 * Handle a captured Ethernet frame.
+	 * @param		pkt - the packet.
+	 * @return		WHOLE, HELD, COMPLETE or DROPPED.
+	 */
+	public int add(jND_CapturedPacket pkt) {
+		return add(pkt.data(), null, 0, pkt.caplen(), pkt.timestamp());
+	}
+
+	/**
+	 * Handle an IPv4 packet with no link layer header.
+	 * @param		pkt - the packet.
+	 * @param		off - where the IPv4 header starts.
+	 * @param		len - the number of octets captured.
+	 * @param		timestamp - the capture time, in nanoseconds since the
+	 *				epoch.
+	 * @return		WHOLE, HELD, COMPLETE or DROPPED.
+	 */
+	public int addIP(byte[] pkt, int off, int len, long timestamp) {
+		release();
+		expire(timestamp);
+		return fragment(pkt, null, off, len, timestamp);
+	}
+
+	/**
+	 * Get the buffer holding the datagram that add last reported COMPLETE.
+	 * It is valid until the next call to add, expire or flush.
+	 * @return		the buffer, or null if the last add did not complete a
+	 *				datagram.
+	 */
+	public byte[] datagram() {
+		return done == null ? null : done.buf;
+	}
+
+	/**
+	 * Get where the datagram starts in datagram().
+	 * @return		the offset of its IPv4 header.
+	 */
+	public int datagramOffset() {
+		return done == null ? 0 : doneOffset;
+	}
+
+	/**
+	 * Get the length of the datagram, header included.
+	 * @return		the length in octets.
+	 */
+	public int datagramLength() {
+		return done == null ? 0 : doneLength;
+	}
+
+	/**
+	 * Copy out the datagram that add last reported COMPLETE.
+	 * @return		a new byte array holding the datagram, or null.
+	 */
+	public byte[] copyDatagram() {
+		if(done == null)
+			return null;
+		byte[] d = new byte[doneLength];
+		System.arraycopy(done.buf, doneOffset, d, 0, doneLength);
+		return d;
+	}
+
+	/**
+	 * Drop the datagrams whose first fragment came timeout() or more
+	 * before a time.
+	 * @param		now - the time, in nanoseconds since the epoch.
+	 * @return		the number of datagrams dropped.
+	 */
+	public int expire(long now) {
+		release();
+		int n = 0;
+		Iterator it = datagrams.values().iterator();
+		while(it.hasNext()) {
+			Datagram dg = (Datagram)it.next();
+			if(now - dg.created < timeoutNs)
+				break;
+			it.remove();
+			free(dg);
+			incomplete++;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Drop every datagram in progress. They count as incomplete.
+	 */
+	public void flush() {
+		release();
+		Iterator it = datagrams.values().iterator();
+		while(it.hasNext()) {
+			free((Datagram)it.next());
+			incomplete++;
+		}
+		datagrams.clear();
+	}
+
+	/**
+	 * Get how long a datagram may take to arrive.
+	 * @return		the time in milliseconds.
+	 */
+	public long timeout() {
+		return timeoutNs / 1000000;
+	}
+
+	/**
+	 * Set how long a datagram may take to arrive, from its first fragment.
+	 * @param		ms - the time in milliseconds.
+	 */
+	public void timeout(long ms) {
+		if(ms < 1)
+			throw new jND_Exception("jND_IPv4Reassembler.timeout : time must be positive - " + ms);
+		timeoutNs = ms * 1000000;
+	}
+
+	/**
+	 * Get the most octets of buffer the datagrams in progress may use.
+	 * @return		the limit.
+	 */
+	public int maxMemory() {
+		return maxMemory;
+	}
+
+	/**
+	 * Set the most octets of buffer the datagrams in progress may use.
+	 * Datagrams are evicted, oldest first, when more is needed.
+	 * @param		n - the limit, at least LARGE_BUFFER.
+	 */
+	public void maxMemory(int n) {
+		if(n < LARGE_BUFFER)
+			throw new jND_Exception("jND_IPv4Reassembler.maxMemory : limit must be at least "
+				+ LARGE_BUFFER + " - " + n);
+		maxMemory = n;
+		trimPools();
+	}
+
+	/**
+	 * Get the overlap policy.
+	 * @return		OVERLAP_FIRST, OVERLAP_LAST or OVERLAP_DROP.
+	 */
+	public int overlap() {
+		return policy;
+	}
+
+	/**
+	 * Set the overlap policy. It applies to fragments added from now on.
+	 * @param		p - OVERLAP_FIRST, OVERLAP_LAST or OVERLAP_DROP.
+	 */
+	public void overlap(int p) {
+		if(p < OVERLAP_FIRST || p > OVERLAP_DROP)
+			throw new jND_Exception("jND_IPv4Reassembler.overlap : unknown policy - " + p);
+		policy = p;
+	}
+
+	/**
+	 * Get the number of datagrams in progress.
+	 * @return		the datagram count.
+	 */
+	public int pending() {
+		return datagrams.size();
+	}
+
+	/**
+	 * Get the octets of buffer held by the datagrams in progress.
+	 * @return		the octet count.
+	 */
+	public long memory() {
+		return memory;
+	}
+
+	/**
+	 * Get the number of fragments handled.
+	 * @return		the fragment count.
+	 */
+	public long fragments() {
+		return fragments;
+	}
+
+	/**
+	 * Get the number of datagrams put back together.
+	 * @return		the datagram count.
+	 */
+	public long completed() {
+		return completed;
+	}
+
+	/**
+	 * Get the number of datagrams dropped because they were not whole in
+	 * time, or were flushed.
+	 * @return		the datagram count.
+	 */
+	public long incomplete() {
+		return incomplete;
+	}
+
+	/**
+	 * Get the number of datagrams dropped to stay within maxMemory().
+	 * @return		the datagram count.
+	 */
+	public long evicted() {
+		return evicted;
+	}
+
+	/**
+	 * Get the number of fragments that overlapped data already received,
+	 * whatever the policy did with them.
+	 * @return		the fragment count.
+	 */
+	public long overlaps() {
+		return overlaps;
+	}
+
+	/**
+	 * Get the number of fragments that brought no new data.
+	 * @return		the fragment count.
+	 */
+	public long duplicates() {
+		return duplicates;
+	}
+
+	/**
+	 * Get the number of fragments that could not be used: cut short by the
+	 * capture, misaligned, or beyond the largest datagram or the end of
+	 * their datagram. The datagram of such a fragment is dropped with it.
+	 * Fragments are never dropped for the number of holes they leave: any
+	 * datagram built of aligned fragments fits in MAX_HOLES.
+	 * @return		the fragment count.
+	 */
+	public long invalid() {
+		return invalid;
+	}
+
+	// ================= reassembly ====================
+
+	private int add(byte[] a, ByteBuffer b, int off, int len, long timestamp) {
+		release();
+		expire(timestamp);
+		if(len < 14)
+			return WHOLE;
+		int ip = off + 14;
+		int type = u16(a, b, off + 12);
+		if(type == 0x8100 && len >= 18) {
+			type = u16(a, b, off + 16);
+			ip += 4;
+		}
+		if(type != 0x0800)
+			return WHOLE;
+		return fragment(a, b, ip, off + len - ip, timestamp);
+	}
+
+	// Handle an IPv4 packet at ip, with len octets captured
+	private int fragment(byte[] a, ByteBuffer b, int ip, int len, long timestamp) {
+		if(len < 20 || (u8(a, b, ip) & 0xf0) != 0x40)
+			return WHOLE;
+		int frag = u16(a, b, ip + 6);
+		boolean mf = (frag & 0x2000) != 0;
+		int first = (frag & 0x1fff) * 8;
+		if(first == 0 && !mf)
+			return WHOLE;
+		fragments++;
+
+		int ihl = (u8(a, b, ip) & 0x0f) * 4;
+		int dataLen = u16(a, b, ip + 2) - ihl;
+		int last = first + dataLen - 1;
+		probe.k1 = (long)u16(a, b, ip + 12) << 48 | (long)u16(a, b, ip + 14) << 32
+			| (long)u16(a, b, ip + 16) << 16 | u16(a, b, ip + 18);
+		probe.k2 = u8(a, b, ip + 9) << 16 | u16(a, b, ip + 4);
+		Datagram dg = (Datagram)datagrams.get(probe);
+
+		// A fragment that cannot be used spoils its datagram
+		if(ihl < 20 || dataLen < 1 || ihl + dataLen > len
+				|| (mf && (dataLen & 7) != 0) || ihl + last + 1 > MAX_DATAGRAM
+				|| (dg != null && dg.total >= 0 && last >= dg.total)
+				|| (dg != null && !mf && (dg.total >= 0 ? last + 1 != dg.total : dg.maxEnd > last + 1))) {
+			invalid++;
+			if(dg != null)
+				discard(dg);
+			return DROPPED;
+		}
+
+		if(dg == null) {
+			dg = create(timestamp);
+			if(dg == null)
+				return DROPPED;
+		}
+		if(HEADROOM + last + 1 > dg.buf.length && !grow(dg))
+			return DROPPED;
+
+		// Fill the holes the fragment covers
+		int[] h = dg.holes;
+		int n = 0;
+		boolean touched = false;
+		boolean inside = false;
+		int src = ip + ihl;
+		for(int i = 0; i < 2 * dg.holeCount; i += 2) {
+			int hf = h[i], hl = h[i + 1];
+			if(first > hl || last < hf) {
+				n = hole(n, hf, hl);
+				continue;
+			}
+			touched = true;
+			if(first >= hf && last <= hl)
+				inside = true;
+			if(policy == OVERLAP_FIRST) {
+				int cf = Math.max(first, hf), cl = Math.min(last, hl);
+				copy(a, b, src + cf - first, dg.buf, HEADROOM + cf, cl - cf + 1);
+			}
+			if(first > hf)
+				n = hole(n, hf, first - 1);
+			if(last < hl && mf)
+				n = hole(n, last + 1, hl);
+		}
+		if(!touched) {
+			duplicates++;
+			if(policy != OVERLAP_LAST)
+				return HELD;
+		} else if(!inside) {
+			overlaps++;
+			if(policy == OVERLAP_DROP) {
+				discard(dg);
+				return DROPPED;
+			}
+		}
+		// Cannot happen with aligned fragments, but keeps scratch in bounds
+		if(n > 2 * MAX_HOLES) {
+			invalid++;
+			discard(dg);
+			return DROPPED;
+		}
+		if(policy != OVERLAP_FIRST)
+			copy(a, b, src, dg.buf, HEADROOM + first, dataLen);
+		if(first == 0 && (dg.hdrLen == 0 || policy == OVERLAP_LAST)) {
+			copy(a, b, ip, dg.buf, HEADROOM - ihl, ihl);
+			dg.hdrLen = ihl;
+		}
+
+		// Keep the new hole list, cut at the end of the datagram if known
+		if(!mf)
+			dg.total = last + 1;
+		if(h.length < n)
+			dg.holes = h = new int[Math.max(n, 2 * h.length)];
+		int m = 0;
+		for(int i = 0; i < n; i += 2) {
+			int hf = scratch[i], hl = scratch[i + 1];
+			if(dg.total >= 0) {
+				if(hf >= dg.total)
+					continue;
+				hl = Math.min(hl, dg.total - 1);
+			}
+			h[m++] = hf;
+			h[m++] = hl;
+		}
+		dg.holeCount = m / 2;
+		dg.maxEnd = Math.max(dg.maxEnd, last + 1);
+		if(dg.holeCount > 0)
+			return HELD;
+		return finish(dg) ? COMPLETE : DROPPED;
+	}
+
+	// Add a hole to the new list in scratch
+	private int hole(int n, int first, int last) {
+		if(n < scratch.length) {
+			scratch[n] = first;
+			scratch[n + 1] = last;
+		}
+		return n + 2;
+	}
+
+	// Fix the header of a whole datagram and hand it out
+	private boolean finish(Datagram dg) {
+		datagrams.remove(dg.key);
+		int len = dg.hdrLen + dg.total;
+		if(len > MAX_DATAGRAM) {
+			invalid++;
+			free(dg);
+			return false;
+		}
+		byte[] d = dg.buf;
+		int at = HEADROOM - dg.hdrLen;
+		d[at + 2] = (byte)(len >> 8);
+		d[at + 3] = (byte)len;
+		d[at + 6] &= 0x40;				// keep don't fragment
+		d[at + 7] = 0;
+		d[at + 10] = 0;
+		d[at + 11] = 0;
+		int sum = 0;
+		for(int i = 0; i < dg.hdrLen; i += 2)
+			sum += (d[at + i] & 0xff) << 8 | (d[at + i + 1] & 0xff);
+		while((sum >>> 16) != 0)
+			sum = (sum & 0xffff) + (sum >>> 16);
+		sum = ~sum;
+		d[at + 10] = (byte)(sum >> 8);
+		d[at + 11] = (byte)sum;
+		done = dg;
+		doneOffset = at;
+		doneLength = len;
+		completed++;
+		return true;
+	}
+
+	// Start a datagram, making room for it
+	private Datagram create(long timestamp) {
+		while(memory + SMALL_BUFFER > maxMemory && evictOldest(null))
+			;
+		Datagram dg = new Datagram();
+		dg.key = new Key();
+		dg.key.k1 = probe.k1;
+		dg.key.k2 = probe.k2;
+		dg.created = timestamp;
+		dg.buf = take(smallPool, SMALL_BUFFER);
+		dg.holes[0] = 0;
+		dg.holes[1] = INFINITY;
+		dg.holeCount = 1;
+		datagrams.put(dg.key, dg);
+		return dg;
+	}
+
+	// Move a datagram to a large buffer, copying what it has so far
+	private boolean grow(Datagram dg) {
+		while(memory - dg.buf.length + LARGE_BUFFER > maxMemory && evictOldest(dg))
+			;
+		if(memory - dg.buf.length + LARGE_BUFFER > maxMemory) {
+			evicted++;
+			discard(dg);
+			return false;
+		}
+		byte[] big = take(largePool, LARGE_BUFFER);
+		System.arraycopy(dg.buf, 0, big, 0, HEADROOM + dg.maxEnd);
+		give(dg.buf);
+		dg.buf = big;
+		return true;
+	}
+
+	// Evict the oldest datagram other than keep
+	private boolean evictOldest(Datagram keep) {
+		Iterator it = datagrams.values().iterator();
+		while(it.hasNext()) {
+			Datagram dg = (Datagram)it.next();
+			if(dg == keep)
+				continue;
+			it.remove();
+			free(dg);
+			evicted++;
+			return true;
+		}
+		return false;
+	}
+
+	private void discard(Datagram dg) {
+		datagrams.remove(dg.key);
+		free(dg);
+	}
+
+	private void free(Datagram dg) {
+		if(dg.buf != null) {
+			give(dg.buf);
+			dg.buf = null;
+		}
+	}
+
+	// Hand the buffer of the datagram last completed back to its pool
+	private void release() {
+		if(done != null) {
+			free(done);
+			done = null;
+		}
+	}
+
+	private byte[] take(ArrayList pool, int size) {
+		memory += size;
+		if(pool.isEmpty())
+			return new byte[size];
+		return (byte[])pool.remove(pool.size() - 1);
+	}
+
+	private void give(byte[] buf) {
+		memory -= buf.length;
+		ArrayList pool = buf.length == SMALL_BUFFER ? smallPool : largePool;
+		// Keep no more spare buffers than the limit could use
+		if((long)(pool.size() + 1) * buf.length <= maxMemory)
+			pool.add(buf);
+	}
+
+	private void trimPools() {
+		while((long)smallPool.size() * SMALL_BUFFER > maxMemory)
+			smallPool.remove(smallPool.size() - 1);
+		while((long)largePool.size() * LARGE_BUFFER > maxMemory)
+			largePool.remove(largePool.size() - 1);
+	}
+
+	// Copy n octets of the packet to a datagram buffer
+	private void copy(byte[] a, ByteBuffer b, int src, byte[] dst, int at, int n) {
+		if(a != null) {
+			System.arraycopy(a, src, dst, at, n);
+			return;
+		}
+		if(b != srcBuffer) {
+			srcBuffer = b;
+			srcView = b.duplicate();
+		}
+		srcView.limit(srcView.capacity());
+		srcView.position(src);
+		srcView.get(dst, at, n);
+	}
+
+	/**
+	 * Read an unsigned octet.
+	 */
+	private static int u8(byte[] a, ByteBuffer b, int i) {
+		return (a != null ? a[i] : b.get(i)) & 0xff;
+	}
+
+	/**
+	 * Read an unsigned 16 bit field in network order.
+	 */
+	private static int u16(byte[] a, ByteBuffer b, int i) {
+		return (u8(a, b, i) << 8) | u8(a, b, i + 1);
+	}
+};
@@ -0,0 +1,205 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * jND_MmapBlock <br>
+ * Class to read one retired block of a jND_MmapRing in place. A block
+ * holds a run of packets, each preceded by a kernel header:
+ * <pre>
+ *  +------------+----------+--------+----------+--------+--   --+
+ *  | block desc | tpacket3 | packet | tpacket3 | packet |  ...  |
+ *  +------------+----------+--------+----------+--------+--   --+
+ * </pre>
+ * The block is a cursor over its packets. nextPacket() steps to the next
+ * packet; the accessors then describe that packet and packet() is a view
+ * of its octets in the ring. Nothing is copied or allocated.
+ * <br><br>
+ * When done with the block, call release() to hand it back to the
+ * kernel. The block and every view obtained from it must not be used
+ * after that.
+ * <br><br>
+ */
+public class jND_MmapBlock {
+	// struct tpacket_block_desc (linux/if_packet.h)
+	private static final int BD_NUM_PKTS = 12;
+	private static final int BD_OFFSET_TO_FIRST = 16;
+	private static final int BD_SEQ_NUM = 24;
+
+	// struct tpacket3_hdr
+	private static final int TP_NEXT_OFFSET = 0;
+	private static final int TP_SEC = 4;
+	private static final int TP_NSEC = 8;
+	private static final int TP_SNAPLEN = 12;
+	private static final int TP_LEN = 16;
+	private static final int TP_MAC = 24;
+
+	private jND_MmapRing ring;
+	private int index;			// block number in the ring
+	private ByteBuffer hdr;		// the ring, native order, for kernel headers
+	private ByteBuffer view;	// the ring, network order, for packets
+	private int base;			// offset of the block in the ring
+
+	private int count;			// packets in the block
+	private int seen;			// packets stepped over so far
+	private int frame;			// offset of the current tpacket3_hdr, or 0
+	private int offset;			// offset of the current packet in the ring
+	private int caplen;
+	private int wireLength;
+	private long timestamp;
+
+	/**
+	 * Construct the view of a block. Only jND_MmapRing does this.
+	 */
+	jND_MmapBlock(jND_MmapRing ring, int index, ByteBuffer map, int base) {
+		this.ring = ring;
+		this.index = index;
+		this.hdr = map.duplicate().order(ByteOrder.nativeOrder());
+		this.view = map.duplicate().order(ByteOrder.BIG_ENDIAN);
+		this.base = base;
+	}
+
+	/**
+	 * Prepare for reading after the kernel has retired the block.
+	 */
+	void reset() {
+		count = hdr.getInt(base + BD_NUM_PKTS);
+		seen = 0;
+		frame = 0;
+	}
+
+	/**
+	 * Get the number of the block in its ring.
+	 * @return	the block number.
+	 */
+	public int index() {
+		return index;
+	}
+
+	/**
+	 * Get the kernel's sequence number for the block. It increases by one
+	 * for each block retired, so a gap means the reader fell behind.
+	 * @return	the sequence number.
+	 */
+	public long sequence() {
+		return hdr.getLong(base + BD_SEQ_NUM);
+	}
+
+	/**
+	 * Get the number of packets in the block.
+	 * @return	the packet count.
+	 */
+	public int packetCount() {
+		return count;
+	}
+
+	/**
+	 * Step to the first packet of the block again.
+	 */
+	public void rewind() {
+		seen = 0;
+		frame = 0;
+	}
+
+	/**
+	 * Step to the next packet.
+	 * @return	true if there is one, false when the block is exhausted.
+	 */
+	public boolean nextPacket() {
+		if(seen >= count)
+			return false;
+		if(seen == 0)
+			frame = base + hdr.getInt(base + BD_OFFSET_TO_FIRST);
+		else
+			frame += hdr.getInt(frame + TP_NEXT_OFFSET);
+		seen++;
+
+		caplen = hdr.getInt(frame + TP_SNAPLEN);
+		wireLength = hdr.getInt(frame + TP_LEN);
+		timestamp = (hdr.getInt(frame + TP_SEC) & 0xffffffffL) * 1000000000L
+				+ (hdr.getInt(frame + TP_NSEC) & 0xffffffffL);
+		offset = frame + (hdr.getShort(frame + TP_MAC) & 0xffff);
+		return true;
+	}
+
+	/**
+	 * Get the current packet, in place. The buffer is positioned at the
+	 * first octet of the packet, with its limit just after the last; its
+	 * byte order is big endian (network order). The same buffer is
+	 * returned for every packet of the block.
+	 * @return	a view of the packet.
+	 */
+	public ByteBuffer packet() {
+		view.clear();
+		view.position(offset);
+		view.limit(offset + caplen);
+		return view;
+	}
+
+	/**
+	 * Get the offset of the current packet in jND_MmapRing.buffer().
+	 * @return	the offset of the first octet of the packet.
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Get the number of octets captured of the current packet.
+	 * @return	the captured length.
+	 */
+	public int caplen() {
+		return caplen;
+	}
+
+	/**
+	 * Get the length of the current packet as it appeared on the wire.
+	 * @return	the original length.
+	 */
+	public int wireLength() {
+		return wireLength;
+	}
+
+	/**
+	 * Get the time the current packet was captured.
+	 * @return	the capture time in nanoseconds since the epoch.
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Copy the current packet out of the ring.
+	 * @return	a new byte array containing the packet.
+	 */
+	public byte[] toByteArray() {
+		byte[] pkt = new byte[caplen];
+		packet().get(pkt);
+		return pkt;
+	}
+
+	/**
+	 * Hand the block back to the kernel.
+	 */
+	public void release() {
+		count = 0;
+		seen = 0;
+		ring.release(index);
+	}
+};
@@ -0,0 +1,423 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import jNetDev.Headers.*;
+
+/**
+ * jND_MmapRing <br>
+ * Class to implement a Linux PACKET_MMAP receive ring (TPACKET_V3). The
+ * kernel writes packets straight into a memory region shared with the
+ * JVM, one block of many packets at a time, and hands each block over
+ * once it is full or its timeout has passed. A block is read in place
+ * through a jND_MmapBlock and then released back to the kernel. No
+ * system call and no copy is made per packet.
+ * <br><br>
+ * A ring can be read directly:
+ * <pre>
+ *		jND_MmapRing ring = new jND_MmapRing("eth1", true);
+ *		while(...) {
+ *			jND_MmapBlock b = ring.next(100);
+ *			if(b == null) continue;		// timeout
+ *			while(b.nextPacket()) {
+ *				ByteBuffer pkt = b.packet();
+ *				...
+ *			}
+ *			b.release();
+ *		}
+ *		ring.close();
+ * </pre>
+ * or handed to a jND_CaptureSession (jND_MMAP mode), whose capture thread
+ * then places the packets in the session's packet queue.
+ * <br><br>
+ * This requires Linux and the CAP_NET_RAW capability (or root). The ring
+ * works on any interface, including loopback ("lo") and veth pairs.
+ * <br><br>
+ */
+public class jND_MmapRing {
+	// Defaults: 64 blocks of 1MB, retired after 100 msec at the latest
+	public static final int DEFAULT_BLOCK_SIZE = 1 << 20;
+	public static final int DEFAULT_BLOCK_COUNT = 64;
+	public static final int DEFAULT_BLOCK_TIMEOUT = 100;
+
+	// Frame size given to the kernel. TPACKET_V3 packs packets of any
+	// length into a block, but the frame size must still be given.
+	private static final int FRAME_SIZE = 2048;
+
+	private static final byte[] NULLPTR = { 0, 0, 0, 0, 0, 0, 0, 0 };
+
+	private volatile byte[] ring;		// native ring descriptor
+	private String ifName;				// interface the ring is bound to
+	private int ifIndex;				// jND_NIC index, -1 if not known
+	private int blockSize;
+	private int blockCount;
+	private ByteBuffer map;				// the whole ring, native order
+	private jND_MmapBlock[] blocks;		// one view per block
+	private long packets;				// kernel counters, accumulated
+	private long drops;
+	private long freezes;
+	private String ringError = null;
+	private jND_Mutex mutex;
+
+	// ========== B E G I N    N A T I V E    M E T H O D S ==========
+
+	/**
+	 * Private method to open a PF_PACKET socket, set up a TPACKET_V3
+	 * receive ring on it, map the ring and bind to an interface.
+	 * @return a reply holding the ring descriptor, or an error message.
+	 */
+	private static native byte[] openRing(String ifname, int blockSize,
+			int blockCount, int frameSize, int blockTimeout, boolean promisc);
+
+	/**
+	 * Private method to wrap the mapped ring in a direct ByteBuffer.
+	 */
+	private static native ByteBuffer ringBuffer(byte[] ring);
+
+	/**
+	 * Private method to wait for the kernel to retire the next block.
+	 * @return the block number, -1 on timeout, -2 on error or
+	 *			-3 for a bad ring.
+	 */
+	private static native int nextBlock(byte[] ring, int timeoutMs);
+
+	/**
+	 * Private method to hand a block back to the kernel.
+	 */
+	private static native void releaseBlock(byte[] ring, int block);
+
+	/**
+	 * Private method to attach a compiled filter to the socket.
+	 * @return null on success, otherwise an error message.
+	 */
+	private static native String attachProgram(byte[] ring, int[] insns);
+
+	/**
+	 * Private method to read (and reset) the kernel's ring counters.
+	 * @return { packets, drops, queue freezes }
+	 */
+	private static native long[] ringStats(byte[] ring);
+
+	/**
+	 * Private method to unmap the ring and close the socket.
+	 */
+	private static native void closeRing(byte[] ring);
+
+	// ==========   E N D    N A T I V E    M E T H O D S   ==========
+
+	/**
+	 * Open a ring with the default geometry on a NIC.
+	 * @param	nic - the NIC to capture from.
+	 * @param	promisc - true to put the NIC in promiscuous mode.
+	 */
+	public jND_MmapRing(jND_NIC nic, boolean promisc) {
+		this(nic, promisc, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT, DEFAULT_BLOCK_TIMEOUT);
+	}
+
+	/**
+	 * Open a ring on a NIC.
+	 * @param	nic - the NIC to capture from.
+	 * @param	promisc - true to put the NIC in promiscuous mode.
+	 * @param	blockSize - octets per block; a power of two, and a
+	 *			multiple of the page size.
+	 * @param	blockCount - the number of blocks.
+	 * @param	blockTimeout - msec after which the kernel retires a
+	 *			block that is not yet full.
+	 */
+	public jND_MmapRing(jND_NIC nic, boolean promisc, int blockSize,
+			int blockCount, int blockTimeout) {
+		this(nic.name(), nic.index(), promisc, blockSize, blockCount, blockTimeout);
+	}
+
+	/**
+	 * Open a ring with the default geometry on an interface given by
+	 * its operating system name, such as "lo" or one end of a veth pair.
+	 * @param	ifName - the interface to capture from.
+	 * @param	promisc - true to put the interface in promiscuous mode.
+	 */
+	public jND_MmapRing(String ifName, boolean promisc) {
+		this(ifName, -1, promisc, DEFAULT_BLOCK_SIZE, DEFAULT_BLOCK_COUNT, DEFAULT_BLOCK_TIMEOUT);
+	}
+
+	/**
+	 * Open a ring on an interface given by its operating system name.
+	 * @param	ifName - the interface to capture from.
+	 * @param	promisc - true to put the interface in promiscuous mode.
+	 * @param	blockSize - octets per block; a power of two, and a
+	 *			multiple of the page size.
+	 * @param	blockCount - the number of blocks.
+	 * @param	blockTimeout - msec after which the kernel retires a
+	 *			block that is not yet full.
+	 */
+	public jND_MmapRing(String ifName, boolean promisc, int blockSize,
+			int blockCount, int blockTimeout) {
+		this(ifName, -1, promisc, blockSize, blockCount, blockTimeout);
+	}
+
+	private jND_MmapRing(String ifName, int ifIndex, boolean promisc,
+			int blockSize, int blockCount, int blockTimeout) {
+		try {
+			jND_NICList.setup();	// Load the native library
+			if(blockSize < FRAME_SIZE || (blockSize & (blockSize - 1)) != 0)
+				throw new jND_Exception(
+					"jND_MmapRing.constructor : block size must be a power of two >= "
+					+ FRAME_SIZE + " - " + blockSize);
+			if(blockCount < 1 || (long)blockSize * blockCount > Integer.MAX_VALUE)
+				throw new jND_Exception(
+					"jND_MmapRing.constructor : block count out of range - " + blockCount);
+			if(blockTimeout < 0)
+				throw new jND_Exception(
+					"jND_MmapRing.constructor : block timeout must not be negative - " + blockTimeout);
+
+			this.ifName = ifName;
+			this.ifIndex = ifIndex;
+			this.blockSize = blockSize;
+			this.blockCount = blockCount;
+			mutex = new jND_Mutex();
+
+			ring = parseReply(openRing(ifName, blockSize, blockCount, FRAME_SIZE,
+					blockTimeout, promisc));
+			if(ring == NULLPTR)
+				throw new jND_Exception("jND_MmapRing.constructor : " + ringError);
+
+			map = ringBuffer(ring).order(ByteOrder.nativeOrder());
+			blocks = new jND_MmapBlock[blockCount];
+			for(int i = 0; i < blockCount; i++)
+				blocks[i] = new jND_MmapBlock(this, i, map, i * blockSize);
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_MmapRing.constructor : " + e.toString());
+		}
+	}
+
+	/**
+	 * Private method to parse the reply from a native method.
+	 */
+	private byte[] parseReply(byte[] reply) {
+		if(reply == null || reply.length < 1) {
+			ringError = "Cannot parse reply from native method.";
+			return NULLPTR;
+		}
+		int size = ((int)reply[0]) & 0xff;
+		if(size == 0) {
+			ringError = new String(reply, 1, reply.length - 1);
+			return NULLPTR;
+		}
+		byte[] ptr = new byte[size];
+		for(int i = 0; i < size; i++)
+			ptr[i] = reply[1 + i];
+		return ptr;
+	}
+
+	/**
+	 * Get the next block of packets from the kernel. Blocks come in
+	 * order and each must be released before the kernel can reuse it.
+	 * Only one thread may read a given ring.
+	 * @param	timeoutMs - the longest to wait for a block, in msec.
+	 * @return	the block, or null if none was retired in time.
+	 */
+	public jND_MmapBlock next(int timeoutMs) throws jND_Exception {
+		int b = poll(timeoutMs);
+		if(b == -1)
+			return null;
+		if(b < 0)
+			throw new jND_Exception("jND_MmapRing.next : " +
+				(b == -3 ? "ring is closed" : "error waiting for block"));
+		return blocks[b];
+	}
+
+	/**
+	 * Wait for the next block. Used by the capture thread, which wants
+	 * the result flag rather than an exception.
+	 * @return	the block number, -1 on timeout, -2 on error or -3 for
+	 *			a closed ring.
+	 */
+	int poll(int timeoutMs) {
+		// Not under the mutex: this may wait, and blocks must still be
+		// released meanwhile. Only one thread may read a ring.
+		byte[] r = ring;
+		if(r == NULLPTR)
+			return -3;
+		int b = nextBlock(r, timeoutMs);
+		if(b >= 0)
+			blocks[b].reset();
+		return b;
+	}
+
+	/**
+	 * Get a block by number, as returned by poll.
+	 */
+	jND_MmapBlock block(int b) {
+		return blocks[b];
+	}
+
+	/**
+	 * Hand a block back to the kernel. Called by jND_MmapBlock.release.
+	 */
+	void release(int b) {
+		synchronized(mutex) {
+			if(ring != NULLPTR)
+				releaseBlock(ring, b);
+		}
+	}
+
+	/**
+	 * Set a filter for the ring. The filter runs in the kernel, so
+	 * packets it rejects never reach the ring. It is OK to set the
+	 * filter while packets are being read.
+	 * @param	filterStr - the filter, using the syntax for tcpdump.
+	 * @param	optimize - should the filter be optimized or not?
+	 * @param	netmask - the netmask used by the filter, if needed.
+	 */
+	public void filter(String filterStr, boolean optimize, jND_IPv4Address netmask) {
+		filter(filterStr, optimize, netmask.toByte4().toInt());
+	}
+
+	/**
+	 * Set a filter for the ring, with the netmask as an int.
+	 */
+	void filter(String filterStr, boolean optimize, int netmask) {
+		filter(jND_BPFProgram.compile(filterStr, optimize, netmask));
+	}
+
+	/**
+	 * Set a compiled filter for the ring. The program must have been
+	 * compiled for Ethernet packets.
+	 * @param	prog - the program, as from jND_BPFProgram.compile.
+	 */
+	public void filter(jND_BPFProgram prog) {
+		String err;
+		synchronized(mutex) {
+			if(ring == NULLPTR)
+				throw new jND_Exception("jND_MmapRing.filter : ring is closed");
+			err = attachProgram(ring, prog.instructions());
+		}
+		if(err != null)
+			throw new jND_Exception(err);
+	}
+
+	/**
+	 * Get the number of packets the kernel has passed to the ring.
+	 * @return	the packet count since the ring was opened.
+	 */
+	public long packets() {
+		updateStats();
+		return packets;
+	}
+
+	/**
+	 * Get the number of packets the kernel dropped because the ring
+	 * was full.
+	 * @return	the drop count since the ring was opened.
+	 */
+	public long drops() {
+		updateStats();
+		return drops;
+	}
+
+	/**
+	 * Get the number of times the ring filled up and the kernel had to
+	 * wait for a block to be released.
+	 * @return	the freeze count since the ring was opened.
+	 */
+	public long freezes() {
+		updateStats();
+		return freezes;
+	}
+
+	// The kernel resets its counters when read; keep running totals
+	private void updateStats() {
+		synchronized(mutex) {
+			if(ring != NULLPTR)
+				updateStatsLocked();
+		}
+	}
+
+	/**
+	 * Get the name of the interface the ring is bound to.
+	 * @return	the interface name.
+	 */
+	public String ifName() {
+		return ifName;
+	}
+
+	/**
+	 * Get the jND_NIC index of the interface, if the ring was opened
+	 * from a jND_NIC.
+	 * @return	the NIC index, -1 if the ring was opened by name.
+	 */
+	public int ifIndex() {
+		return ifIndex;
+	}
+
+	/**
+	 * Get the size of each block.
+	 * @return	octets per block.
+	 */
+	public int blockSize() {
+		return blockSize;
+	}
+
+	/**
+	 * Get the number of blocks.
+	 * @return	the block count.
+	 */
+	public int blockCount() {
+		return blockCount;
+	}
+
+	/**
+	 * Get the mapped ring as a whole, in native byte order. Block b
+	 * starts at offset b * blockSize().
+	 * @return	the ring buffer.
+	 */
+	public ByteBuffer buffer() {
+		return map;
+	}
+
+	/**
+	 * Close the ring. Blocks must not be read after this, and no thread
+	 * may be waiting in next() when it is called.
+	 */
+	public void close() {
+		synchronized(mutex) {
+			if(ring == NULLPTR)
+				return;
+			updateStatsLocked();
+			closeRing(ring);
+			ring = NULLPTR;
+		}
+	}
+
+	// Called with the mutex held and the ring open
+	private void updateStatsLocked() {
+		long[] st = ringStats(ring);
+		packets += st[0];
+		drops += st[1];
+		freezes += st[2];
+	}
+
+	/**
+	 * Find out whether the ring has been closed.
+	 * @return	true if close() has been called.
+	 */
+	public boolean closed() {
+		return ring == NULLPTR;
+	}
+};
@@ -16,6 +16,7 @@
 ****************************************************************************/
 package jNetDev;
 import jNetDev.Headers.*;
+import java.nio.ByteBuffer;
 
 /**
  * jND_NIC <br>
@@ -118,6 +119,14 @@ public class jND_NIC extends jND_NICList {
 		return nicName(v_devNo);
 	}
 	
+	/**
+	 * Get the NIC's device number, its index in jND_NICList.
+	 * @return		The index, -1 for a NIC built by the default constructor.
+	 */
+	public int index() {
+		return v_devNo;
+	}
+	
 	/**
 	 * Get the NIC's human readable description.
 	 * @return		A String containing the description.
@@ -210,6 +219,110 @@ public class jND_NIC extends jND_NICList {
 		}
 		return; // All is OK
 	}
+
+	/**
+	 * Injects a batch of packets via this NIC with a single native call.
+	 * On Linux the whole batch goes to the kernel with sendmmsg; elsewhere
+	 * the packets are written one at a time. Nothing is allocated unless
+	 * an error occurs.
+	 * <br><br>
+	 * If the OS stops accepting packets part way through the batch, the
+	 * number sent so far is returned and the rest may be retried. An
+	 * exception is thrown only if not even the first packet could be sent.
+	 *
+	 * @param	frames - the packets to inject.
+	 * @param	first - the index in frames of the first packet to send.
+	 * @param	count - the number of packets.
+	 * @return	the number of packets sent.
+	 */
+	public int injectBatch(byte[][] frames, int first, int count) {
+		checkOpen("injectBatch");
+		if(first < 0 || count < 0 || first > frames.length - count)
+			throw new jND_Exception("jND_NIC.injectBatch: packets out of range - "
+				+ first + ", " + count);
+		for(int i = first; i < first + count; i++)
+			if(frames[i] == null)
+				throw new jND_Exception("jND_NIC.injectBatch: null frame - " + i);
+		return injectResult(nic_injectFrames(v_adapter, v_devNo, frames, first, count));
+	}
+
+	/**
+	 * Injects a batch of packets held back to back in one array, as
+	 * injectBatch(byte[][], int, int) does.
+	 *
+	 * @param	data - the buffer holding the packets.
+	 * @param	offsets - where each packet starts in data.
+	 * @param	lengths - the length of each packet.
+	 * @param	count - the number of packets.
+	 * @return	the number of packets sent.
+	 */
+	public int injectBatch(byte[] data, int[] offsets, int[] lengths, int count) {
+		checkOpen("injectBatch");
+		checkIndex(data.length, offsets, lengths, count);
+		return injectResult(nic_injectBatch(v_adapter, v_devNo, data, offsets, lengths, count));
+	}
+
+	/**
+	 * Injects a batch of packets held in a ByteBuffer, as
+	 * injectBatch(byte[][], int, int) does. A direct buffer (for instance the
+	 * buffer of a jND_PacketArena) is sent without being copied; a heap
+	 * buffer must be backed by an accessible array.
+	 *
+	 * @param	buf - the buffer holding the packets.
+	 * @param	offsets - where each packet starts in buf.
+	 * @param	lengths - the length of each packet.
+	 * @param	count - the number of packets.
+	 * @return	the number of packets sent.
+	 */
+	public int injectBatch(ByteBuffer buf, int[] offsets, int[] lengths, int count) {
+		checkOpen("injectBatch");
+		checkIndex(buf.capacity(), offsets, lengths, count);
+		if(buf.isDirect())
+			return injectResult(nic_injectDirect(v_adapter, v_devNo, buf, offsets, lengths, count));
+		if(!buf.hasArray() || buf.arrayOffset() != 0)
+			throw new jND_Exception("jND_NIC.injectBatch: buffer has no accessible array");
+		return injectResult(nic_injectBatch(v_adapter, v_devNo, buf.array(), offsets, lengths, count));
+	}
+
+	/**
+	 * Injects every packet of a batch, for instance one filled by a
+	 * jND_CaptureSession, as injectBatch(byte[][], int, int) does.
+	 *
+	 * @param	batch - the packets to inject.
+	 * @return	the number of packets sent.
+	 */
+	public int injectBatch(jND_PacketBatch batch) {
+		return injectBatch(batch.data(), batch.offsets(), batch.lengths(), batch.count());
+	}
+
+	/**
+	 * Throw if the NIC has not been opened for injection.
+	 */
+	private void checkOpen(String method) {
+		if(v_adapter == null)
+			throw new jND_Exception("jND_NIC." + method + ": NIC is not open");
+	}
+
+	/**
+	 * Check a packet index against the buffer it describes, so the
+	 * native layer never reads outside the buffer.
+	 */
+	private static void checkIndex(int size, int[] offsets, int[] lengths, int count) {
+		if(count < 0 || count > offsets.length || count > lengths.length)
+			throw new jND_Exception("jND_NIC.injectBatch: count out of range - " + count);
+		for(int i = 0; i < count; i++)
+			if(offsets[i] < 0 || lengths[i] < 0 || offsets[i] > size - lengths[i])
+				throw new jND_Exception("jND_NIC.injectBatch: packet " + i + " lies outside the buffer");
+	}
+
+	/**
+	 * Turn the result of a batched native send into a packet count.
+	 */
+	private static int injectResult(int n) {
+		if(n < 0)
+			throw new jND_Exception("jND_NIC.injectBatch: send failed, error " + (-n));
+		return n;
+	}
 	
 	/**
 	 * Private native method to open a NIC via the OS.
@@ -235,5 +348,34 @@ public class jND_NIC extends jND_NICList {
 	 * @author Pete Lutz
 	 */
 	private static native byte[] nic_inject(byte[] packet, byte[] adapter, int nicno);
+
+	/**
+	 * Private native method to inject a batch of packets via the OS.
+	 * @param adapter - the adapter to use, previously returned
+	 * from open.
+	 * @param nicno - the device number of the NIC.
+	 * @param frames - the packets to inject.
+	 * @param first - the index in frames of the first packet.
+	 * @param count - the number of packets.
+	 * @return the number of packets sent, or -errno if none could be.
+	 */
+	private static native int nic_injectFrames(byte[] adapter, int nicno,
+			byte[][] frames, int first, int count);
+
+	/**
+	 * Private native method to inject a batch of packets held back to
+	 * back in one array.
+	 * @return the number of packets sent, or -errno if none could be.
+	 */
+	private static native int nic_injectBatch(byte[] adapter, int nicno,
+			byte[] data, int[] offsets, int[] lengths, int count);
+
+	/**
+	 * Private native method to inject a batch of packets held in a
+	 * direct buffer.
+	 * @return the number of packets sent, or -errno if none could be.
+	 */
+	private static native int nic_injectDirect(byte[] adapter, int nicno,
+			ByteBuffer buf, int[] offsets, int[] lengths, int count);
 };
 
@@ -0,0 +1,259 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_PacketArena <br>
+ * Class to implement a large direct ByteBuffer, divided into fixed size
+ * slots, that the native capture code writes packets into directly.
+ * A capture session using an arena (see jND_CaptureSession.arena) copies
+ * each packet exactly once, from pcap into a slot. Nothing is allocated
+ * per packet.
+ * <br><br>
+ * Each slot has a jND_PacketHandle. Consumers obtain the handle of each
+ * captured packet, in order, with next() or tryNext(), read the packet
+ * through the handle, then call release() on the handle to hand the slot
+ * back. A slot that is never released is never reused: when every slot
+ * is held, the capture thread waits and the kernel drops packets instead.
+ * <pre>
+ *		jND_PacketArena arena = new jND_PacketArena(4096, 2048);
+ *		cap.arena(arena);
+ *		cap.start();
+ *		while(...) {
+ *			jND_PacketHandle h = arena.next();
+ *			ByteBuffer pkt = h.buffer();
+ *			...
+ *			h.release();
+ *		}
+ * </pre>
+ * Packets longer than the slot size are truncated to the slot size.
+ * <br><br>
+ */
+public class jND_PacketArena {
+	private ByteBuffer buf;				// the arena
+	private int slotSize;				// octets per slot
+	private jND_PacketHandle[] handles;	// one per slot
+
+	// Free slots, as a stack
+	private jND_Mutex freeLock;
+	private int[] free;
+	private int freeCount;
+	private boolean producerWaiting;
+
+	// Captured slots waiting for a consumer, as a ring. It can never
+	// overflow: it has room for every slot.
+	private jND_Mutex readyLock;
+	private int[] ready;
+	private long readyHead;
+	private long readyTail;
+
+	// Scratch index used by the capture thread
+	private int[] slots;
+	private int[] lengths;
+	private int[] wireLengths;
+	private long[] timestamps;
+
+	/**
+	 * Construct an arena.
+	 * @param	slotCount - the number of packets the arena can hold.
+	 * @param	slotSize - the octets per packet. This should be at least
+	 *			the snapshot length of the session.
+	 */
+	public jND_PacketArena(int slotCount, int slotSize) {
+		if(slotCount < 1)
+			throw new jND_Exception(
+				"jND_PacketArena.constructor : slotCount must be positive - " + slotCount);
+		if(slotSize < 1)
+			throw new jND_Exception(
+				"jND_PacketArena.constructor : slotSize must be positive - " + slotSize);
+		if((long)slotCount * slotSize > Integer.MAX_VALUE)
+			throw new jND_Exception(
+				"jND_PacketArena.constructor : arena too large - " + slotCount + " x " + slotSize);
+
+		this.slotSize = slotSize;
+		buf = ByteBuffer.allocateDirect(slotCount * slotSize);
+		handles = new jND_PacketHandle[slotCount];
+		for(int i = 0; i < slotCount; i++) {
+			buf.limit((i + 1) * slotSize);
+			buf.position(i * slotSize);
+			handles[i] = new jND_PacketHandle(this, i, buf.slice());
+		}
+		buf.clear();
+
+		freeLock = new jND_Mutex();
+		free = new int[slotCount];
+		for(int i = 0; i < slotCount; i++)
+			free[i] = slotCount - 1 - i;	// hand out slot 0 first
+		freeCount = slotCount;
+		producerWaiting = false;
+
+		readyLock = new jND_Mutex();
+		ready = new int[slotCount];
+		readyHead = 0;
+		readyTail = 0;
+
+		slots = new int[slotCount];
+		lengths = new int[slotCount];
+		wireLengths = new int[slotCount];
+		timestamps = new long[slotCount];
+	}
+
+	/**
+	 * Get the direct buffer holding all slots. Slot i starts at offset
+	 * i * slotSize().
+	 * @return	the arena's buffer.
+	 */
+	public ByteBuffer buffer() {
+		return buf;
+	}
+
+	/**
+	 * Get the number of slots.
+	 * @return	the packet capacity of the arena.
+	 */
+	public int slotCount() {
+		return handles.length;
+	}
+
+	/**
+	 * Get the size of each slot.
+	 * @return	the octets per slot.
+	 */
+	public int slotSize() {
+		return slotSize;
+	}
+
+	/**
+	 * Get the number of slots free for capture.
+	 * @return	the free slot count.
+	 */
+	public int freeSlots() {
+		synchronized(freeLock) {
+			return freeCount;
+		}
+	}
+
+	/**
+	 * Get the number of captured packets waiting for a consumer.
+	 * @return	the ready packet count.
+	 */
+	public int size() {
+		synchronized(readyLock) {
+			return (int)(readyTail - readyHead);
+		}
+	}
+
+	/**
+	 * Get the handle of the next captured packet. If there is none,
+	 * wait for one.
+	 * @return	the handle, which must later be released.
+	 */
+	public jND_PacketHandle next() throws jND_Exception {
+		try {
+			synchronized(readyLock) {
+				while(readyHead == readyTail)
+					readyLock.wait();
+				return take();
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_PacketArena.next Interrupted: " + ie.toString());
+		}
+	}
+
+	/**
+	 * Get the handle of the next captured packet without waiting.
+	 * @return	the handle, which must later be released, or null if
+	 *			no packet is waiting.
+	 */
+	public jND_PacketHandle tryNext() {
+		synchronized(readyLock) {
+			if(readyHead == readyTail)
+				return null;
+			return take();
+		}
+	}
+
+	// Called with readyLock held and the ring not empty
+	private jND_PacketHandle take() {
+		jND_PacketHandle h = handles[ready[(int)(readyHead++ % ready.length)]];
+		h.hold();
+		return h;
+	}
+
+	/**
+	 * Return a slot to the free stack. Called by jND_PacketHandle.release.
+	 */
+	void free(int slot) {
+		synchronized(freeLock) {
+			free[freeCount++] = slot;
+			if(producerWaiting)
+				freeLock.notifyAll();
+		}
+	}
+
+	// ========== Used by the capture thread ==========
+
+	/**
+	 * Take up to max free slots into the scratch index, waiting at most
+	 * waitMs for one to become free.
+	 * @return	the number of slots taken, possibly 0.
+	 */
+	int acquire(int max, int waitMs) throws InterruptedException {
+		synchronized(freeLock) {
+			if(freeCount == 0 && waitMs > 0) {
+				producerWaiting = true;
+				try {
+					freeLock.wait(waitMs);
+				} finally {
+					producerWaiting = false;
+				}
+			}
+			int n = Math.min(max, freeCount);
+			for(int i = 0; i < n; i++)
+				slots[i] = free[--freeCount];
+			return n;
+		}
+	}
+
+	/**
+	 * Publish the first n slots of the scratch index, which the native
+	 * layer has filled, and give the rest of the acquired slots back.
+	 */
+	void publish(int n, int acquired, int ifIndex) {
+		for(int i = 0; i < n; i++)
+			handles[slots[i]].fill(lengths[i], wireLengths[i], timestamps[i], ifIndex);
+		if(n > 0) {
+			synchronized(readyLock) {
+				for(int i = 0; i < n; i++)
+					ready[(int)(readyTail++ % ready.length)] = slots[i];
+				readyLock.notifyAll();
+			}
+		}
+		if(acquired > n) {
+			synchronized(freeLock) {
+				for(int i = acquired - 1; i >= n; i--)
+					free[freeCount++] = slots[i];
+			}
+		}
+	}
+
+	int[] slots() { return slots; }
+	int[] lengths() { return lengths; }
+	int[] wireLengths() { return wireLengths; }
+	long[] timestamps() { return timestamps; }
+};
@@ -0,0 +1,155 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_PacketBatch <br>
+ * Class to hold a batch of packets captured with a single call into the
+ * native layer. All packets of the batch are stored back to back in one
+ * byte array, which is reused from batch to batch. An index gives the
+ * offset, length and capture time of each packet.
+ * <pre>
+ *   data:    +----------+------+----------------+--   --+
+ *            | packet 0 | pkt 1|    packet 2    |  ...  |
+ *            +----------+------+----------------+--   --+
+ *   index:   offset(i), length(i), wireLength(i), timestamp(i)
+ *            for 0 &lt;= i &lt; count()
+ * </pre>
+ * The contents of a batch are only valid until the batch is refilled.
+ * A packet that must be kept longer should be copied out with
+ * packet(i).
+ * <br><br>
+ * It is NOT normally necessary for users of the jNetDev package to create
+ * batches. A jND_CaptureSession creates one when batch capture is enabled
+ * (see jND_CaptureSession.batchSize).
+ * <br><br>
+ */
+public class jND_PacketBatch {
+	private byte[] data;		// the packets, back to back
+	private int[] offsets;		// where each packet starts in data
+	private int[] lengths;		// captured length of each packet
+	private int[] wireLengths;	// length of each packet on the wire
+	private long[] timestamps;	// capture time of each packet, in ns since the epoch
+	private int count;			// number of packets in the batch
+
+	/**
+	 * Construct an empty batch.
+	 * @param	maxPackets - the most packets a batch may hold.
+	 * @param	bufferSize - the number of octets available for packet data.
+	 */
+	public jND_PacketBatch(int maxPackets, int bufferSize) {
+		if(maxPackets < 1)
+			throw new jND_Exception(
+				"jND_PacketBatch.constructor : maxPackets must be positive - " + maxPackets);
+		if(bufferSize < 1)
+			throw new jND_Exception(
+				"jND_PacketBatch.constructor : bufferSize must be positive - " + bufferSize);
+		data = new byte[bufferSize];
+		offsets = new int[maxPackets];
+		lengths = new int[maxPackets];
+		wireLengths = new int[maxPackets];
+		timestamps = new long[maxPackets];
+		count = 0;
+	}
+
+	/**
+	 * Get the number of packets in the batch.
+	 * @return	the packet count.
+	 */
+	public int count() {
+		return count;
+	}
+
+	/**
+	 * Set the number of packets in the batch. Used after the native layer
+	 * has filled the batch.
+	 * @param	n - the new packet count.
+	 */
+	void count(int n) {
+		count = n;
+	}
+
+	/**
+	 * Get the most packets this batch may hold.
+	 * @return	the maximum packet count.
+	 */
+	public int capacity() {
+		return offsets.length;
+	}
+
+	/**
+	 * Get the shared buffer holding all packets of the batch.
+	 * @return	the packet data.
+	 */
+	public byte[] data() {
+		return data;
+	}
+
+	/**
+	 * Get the offset of a packet within data().
+	 * @param	i - the index of the packet in the batch.
+	 * @return	the offset of the first octet of the packet.
+	 */
+	public int offset(int i) {
+		return offsets[i];
+	}
+
+	/**
+	 * Get the captured length of a packet.
+	 * @param	i - the index of the packet in the batch.
+	 * @return	the number of octets captured.
+	 */
+	public int length(int i) {
+		return lengths[i];
+	}
+
+	/**
+	 * Get the length a packet had on the wire. This exceeds length(i)
+	 * when the packet was cut short by the snapshot length.
+	 * @param	i - the index of the packet in the batch.
+	 * @return	the original length of the packet.
+	 */
+	public int wireLength(int i) {
+		return wireLengths[i];
+	}
+
+	/**
+	 * Get the time a packet was captured.
+	 * @param	i - the index of the packet in the batch.
+	 * @return	the capture time in nanoseconds since the epoch.
+	 */
+	public long timestamp(int i) {
+		return timestamps[i];
+	}
+
+	/**
+	 * Copy a packet out of the batch.
+	 * @param	i - the index of the packet in the batch.
+	 * @return	a new byte array containing the packet.
+	 */
+	public byte[] packet(int i) {
+		byte[] pkt = new byte[lengths[i]];
+		System.arraycopy(data, offsets[i], pkt, 0, lengths[i]);
+		return pkt;
+	}
+
+	// Raw index arrays, handed to the native layer to fill
+	int[] offsets() { return offsets; }
+	int[] lengths() { return lengths; }
+	int[] wireLengths() { return wireLengths; }
+	long[] timestamps() { return timestamps; }
+};
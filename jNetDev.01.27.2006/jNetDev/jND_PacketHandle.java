@@ -0,0 +1,155 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_PacketHandle <br>
+ * Class to give access to one packet held in a slot of a jND_PacketArena.
+ * The packet is not copied out of the arena; buffer() is a view of the
+ * slot itself. When finished with the packet, call release() to hand the
+ * slot back to the arena for reuse. After release() the handle and its
+ * buffer must not be used again.
+ * <br><br>
+ * Handles are created once, with the arena, one per slot. Nothing is
+ * allocated as packets pass through.
+ * <br><br>
+ */
+public class jND_PacketHandle {
+	private jND_PacketArena arena;	// owner of the slot
+	private int slot;				// slot number in the arena
+	private ByteBuffer view;		// the slot, limited to the packet
+	private int length;				// octets captured
+	private int wireLength;			// length on the wire
+	private long timestamp;			// capture time, ns since the epoch
+	private int ifIndex;			// NIC index, -1 if unknown
+	private boolean held;			// true while out with a consumer
+
+	/**
+	 * Construct the handle of a slot. Only jND_PacketArena does this.
+	 */
+	jND_PacketHandle(jND_PacketArena arena, int slot, ByteBuffer view) {
+		this.arena = arena;
+		this.slot = slot;
+		this.view = view;
+		held = false;
+	}
+
+	/**
+	 * Record what the native layer wrote into the slot.
+	 */
+	void fill(int length, int wireLength, long timestamp, int ifIndex) {
+		this.length = length;
+		this.wireLength = wireLength;
+		this.timestamp = timestamp;
+		this.ifIndex = ifIndex;
+	}
+
+	/**
+	 * Mark the handle as given to a consumer and reset its view.
+	 */
+	void hold() {
+		synchronized(this) {
+			held = true;
+		}
+		view.clear();
+		view.limit(length);
+	}
+
+	/**
+	 * Get the packet. The buffer is a view of the arena from position 0
+	 * to limit length(); its byte order is big endian (network order).
+	 * @return	a buffer over the packet.
+	 */
+	public ByteBuffer buffer() {
+		return view;
+	}
+
+	/**
+	 * Get the slot number of the packet in its arena.
+	 * @return	the slot number.
+	 */
+	public int slot() {
+		return slot;
+	}
+
+	/**
+	 * Get the offset of the packet in the arena's buffer, for consumers
+	 * that prefer to read jND_PacketArena.buffer() directly.
+	 * @return	the offset of the first octet of the packet.
+	 */
+	public int offset() {
+		return slot * arena.slotSize();
+	}
+
+	/**
+	 * Get the number of octets captured.
+	 * @return	the captured length.
+	 */
+	public int length() {
+		return length;
+	}
+
+	/**
+	 * Get the length of the packet as it appeared on the wire.
+	 * @return	the original length.
+	 */
+	public int wireLength() {
+		return wireLength;
+	}
+
+	/**
+	 * Get the time the packet was captured.
+	 * @return	the capture time in nanoseconds since the epoch.
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the index of the NIC the packet arrived on.
+	 * @return	the NIC index, -1 for packets read from a file.
+	 */
+	public int ifIndex() {
+		return ifIndex;
+	}
+
+	/**
+	 * Copy the packet out of the arena, for a packet that must outlive
+	 * the handle.
+	 * @return	a new byte array containing the packet.
+	 */
+	public byte[] toByteArray() {
+		byte[] pkt = new byte[length];
+		ByteBuffer b = view.duplicate();
+		b.clear();
+		b.get(pkt, 0, length);
+		return pkt;
+	}
+
+	/**
+	 * Hand the slot back to the arena.
+	 */
+	public void release() {
+		synchronized(this) {
+			if(!held)
+				throw new jND_Exception("jND_PacketHandle.release : handle not held - slot " + slot);
+			held = false;
+		}
+		arena.free(slot);
+	}
+};
@@ -0,0 +1,43 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_PacketHandler <br>
+ * Interface of code that is handed each packet a jND_CaptureSession
+ * captures, instead of reading them from the packet queue. See
+ * jND_CaptureSession.handler.
+ * <pre>
+ *     cap.handler(new jND_PacketHandler() {
+ *         public void handle(jND_CapturedPacket pkt) {
+ *             ...
+ *         }
+ *     });
+ *     cap.start();
+ * </pre>
+ * <br>
+ */
+public interface jND_PacketHandler {
+	/**
+	 * Handle one captured packet.
+	 * @param		pkt - the packet and its metadata. When the handler runs
+	 *				on the capture thread the record is reused for the next
+	 *				packet, so it is only valid during the call; the packet
+	 *				array itself may be kept.
+	 */
+	public void handle(jND_CapturedPacket pkt);
+};
@@ -15,66 +15,442 @@
 **
 ****************************************************************************/
 package jNetDev;
-import java.util.Vector;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
 /**
  * jND_PacketQueue <br>
- * Class to implement a queue of packets to hold packets captured by 
+ * Class to implement a queue of packets to hold packets captured by
  * the thread of a jND_CaptureSession, until retrieved by the user.
- * This is actually a queue of byte arrays. 
+ * This is actually a queue of byte arrays.
+ * <br><br>
+ * The queue is a bounded ring whose size is a power of two, fixed when
+ * the queue is constructed. Exactly one thread (normally the capture
+ * thread of the session) may push packets. Pushing and popping do not
+ * take a lock; a lock is only taken to park a consumer that finds the
+ * queue empty, or a producer that finds it full under the BLOCK policy.
+ * <br><br>
+ * When the ring is full, the overflow policy decides what happens:
+ * <UL>
+ * <LI>DROP_NEWEST - the packet being pushed is discarded (the default).</LI>
+ * <LI>DROP_OLDEST - the packet at the FRONT of the queue is discarded to
+ * make room.</LI>
+ * <LI>BLOCK - the pushing thread waits until a consumer makes room. While
+ * it waits the capture thread does not read from pcap, so packets are
+ * dropped by the kernel instead. A session using a BLOCK queue must be
+ * drained for stop() to take effect.</LI>
+ * </UL>
+ * The number of packets discarded under each policy is counted and may be
+ * read with droppedNewest(), droppedOldest() and dropped().
+ * <br><br>
+ * Along with each packet the queue keeps its capture time, its length on
+ * the wire and the index of the NIC it arrived on. pop() returns only the
+ * packet; pop(jND_CapturedPacket) fills a reusable record with the packet
+ * and its metadata. The metadata is held in primitive arrays beside the
+ * ring, so keeping it costs no objects.
+ * <br><br>
+ * pop() waits as long as it takes for a packet. poll(timeout) waits up to
+ * a time limit, tryPop() does not wait at all, and drainTo() takes all
+ * the packets that are queued. A consumer parked in pop() or poll() is
+ * woken the moment a packet is pushed.
  * <br><br>
  * @author	Pete Lutz
  */
 
 public class jND_PacketQueue {
-	private jND_Mutex mutex;
-	private java.util.Vector queue;
+	// Overflow policies
+	public static final int DROP_NEWEST = 0;
+	public static final int DROP_OLDEST = 1;
+	public static final int BLOCK = 2;
+
+	// Number of slots in a queue built by the default constructor
+	public static final int DEFAULT_CAPACITY = 16384;
+
+	private AtomicReferenceArray ring;	// the slots
+	private long[] stamps;				// capture time of each slot, ns
+	private int[] wireLengths;			// wire length of each slot
+	private int[] ifIndexes;			// NIC index of each slot
+	private int mask;					// capacity - 1
+	private int policy;					// overflow policy
+
+	private AtomicLong head;			// sequence of the next packet to pop
+	private AtomicLong tail;			// sequence of the next packet to push
+
+	private AtomicLong droppedNewest;	// packets refused by a full queue
+	private AtomicLong droppedOldest;	// packets pushed out of a full queue
+
+	// Parking for consumers that find the queue empty and for a producer
+	// that finds it full (BLOCK policy). The counts let the other side
+	// skip the lock entirely when nobody is parked.
+	private jND_Mutex notEmpty;
+	private jND_Mutex notFull;
+	private AtomicInteger consumersWaiting;
+	private AtomicInteger producerWaiting;
 
 	/**
-	 * Construct an empty packet queue.
+	 * Construct an empty packet queue of DEFAULT_CAPACITY slots, which
+	 * discards new packets when full.
 	 * @author	Pete Lutz
 	 */
 	public jND_PacketQueue() {
-		queue = new Vector();
-		mutex = new jND_Mutex();
+		this(DEFAULT_CAPACITY, DROP_NEWEST);
+	}
+
+	/**
+	 * Construct an empty packet queue.
+	 * @param		capacity - the number of packets the queue can hold. This is
+	 *				rounded up to the next power of two.
+	 * @param		policy - what to do when the queue is full: one of
+	 *				DROP_NEWEST, DROP_OLDEST or BLOCK.
+	 */
+	public jND_PacketQueue(int capacity, int policy) {
+		if(capacity < 1 || capacity > (1 << 30))
+			throw new jND_Exception(
+				"jND_PacketQueue.constructor : capacity out of range - " + capacity);
+		if(policy != DROP_NEWEST && policy != DROP_OLDEST && policy != BLOCK)
+			throw new jND_Exception(
+				"jND_PacketQueue.constructor : unknown overflow policy - " + policy);
+
+		int size = 1;
+		while(size < capacity) size <<= 1;
+
+		ring = new AtomicReferenceArray(size);
+		stamps = new long[size];
+		wireLengths = new int[size];
+		ifIndexes = new int[size];
+		mask = size - 1;
+		this.policy = policy;
+		head = new AtomicLong(0);
+		tail = new AtomicLong(0);
+		droppedNewest = new AtomicLong(0);
+		droppedOldest = new AtomicLong(0);
+		notEmpty = new jND_Mutex();
+		notFull = new jND_Mutex();
+		consumersWaiting = new AtomicInteger(0);
+		producerWaiting = new AtomicInteger(0);
 	}
 
 	/**
-	 * Add a packet pointer to the BACK of the queue.
+	 * Add a packet pointer to the BACK of the queue. Only one thread may
+	 * push into a given queue.
 	 * @param		pkt - a pointer to the packet to be added
 	 * @author	Pete Lutz
 	 */
 	public void push(byte[] pkt) {
-		synchronized(mutex) {
-			queue.add(pkt);
-			mutex.notify();
-		}
+		push(pkt, jND_CapturedPacket.now(), pkt.length, -1);
+	}
+
+	/**
+	 * Add a packet and its metadata to the BACK of the queue. Only one
+	 * thread may push into a given queue.
+	 * @param		pkt - a pointer to the packet to be added
+	 * @param		timestamp - capture time in nanoseconds since the epoch
+	 * @param		wireLength - length of the packet on the wire
+	 * @param		ifIndex - index of the NIC it arrived on, -1 if unknown
+	 */
+	public void push(byte[] pkt, long timestamp, int wireLength, int ifIndex) {
+		long t = tail.get();
+		if(!reserve(t)) return;
+		int slot = (int)t & mask;
+		stamps[slot] = timestamp;
+		wireLengths[slot] = wireLength;
+		ifIndexes[slot] = ifIndex;
+		ring.lazySet(slot, pkt);
+		publish(t);
 	}
 
 	/**
 	 * Get the packet at the FRONT of the queue, and delete it
-	 * from the queue..
+	 * from the queue. If the queue is empty, wait for a packet.
 	 * @author	Pete Lutz
 	 */
 	public byte[] pop() throws jND_Exception {
 		byte[] pkt;
-		synchronized(mutex) {
-			while(queue.size() == 0)
-				try {
-					mutex.wait();
-				} catch(InterruptedException ie) { 
-					throw new jND_Exception("jND_PacketQueue.pop Interrupted: " + ie.toString());
-				}
-			pkt = (byte[])queue.get(0);
-			queue.remove(0);
+		while((pkt = take(null)) == null)
+			awaitNotEmpty();
+		return pkt;
+	}
+
+	/**
+	 * Get the packet at the FRONT of the queue together with its
+	 * metadata, and delete it from the queue. If the queue is empty,
+	 * wait for a packet.
+	 * @param		rec - the record to fill. It may be reused from call
+	 *				to call.
+	 * @return		rec
+	 */
+	public jND_CapturedPacket pop(jND_CapturedPacket rec) throws jND_Exception {
+		if(rec == null)
+			throw new jND_Exception("jND_PacketQueue.pop : null record");
+		while(take(rec) == null)
+			awaitNotEmpty();
+		return rec;
+	}
+
+	/**
+	 * Get the packet at the FRONT of the queue, and delete it from the
+	 * queue, if there is one. Never waits.
+	 * @return		the packet, or null if the queue is empty.
+	 */
+	public byte[] tryPop() {
+		return take(null);
+	}
+
+	/**
+	 * Get the packet at the FRONT of the queue together with its
+	 * metadata, and delete it from the queue, if there is one. Never
+	 * waits.
+	 * @param		rec - the record to fill.
+	 * @return		true if rec was filled, false if the queue is empty.
+	 */
+	public boolean tryPop(jND_CapturedPacket rec) {
+		if(rec == null)
+			throw new jND_Exception("jND_PacketQueue.tryPop : null record");
+		return take(rec) != null;
+	}
+
+	/**
+	 * Get the packet at the FRONT of the queue, and delete it from the
+	 * queue. If the queue is empty, wait up to a time limit for a packet.
+	 * The waiting thread is woken as soon as a packet is pushed.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		the packet, or null if none came in time.
+	 */
+	public byte[] poll(long timeout) throws jND_Exception {
+		long deadline = deadline(timeout);
+		byte[] pkt;
+		while((pkt = take(null)) == null) {
+			if(!awaitNotEmpty(deadline)) return null;
 		}
 		return pkt;
 	}
 
+	/**
+	 * Get the packet at the FRONT of the queue together with its
+	 * metadata, and delete it from the queue. If the queue is empty, wait
+	 * up to a time limit for a packet.
+	 * @param		rec - the record to fill.
+	 * @param		timeout - the most milliseconds to wait.
+	 * @return		rec, or null if no packet came in time.
+	 */
+	public jND_CapturedPacket poll(jND_CapturedPacket rec, long timeout) throws jND_Exception {
+		if(rec == null)
+			throw new jND_Exception("jND_PacketQueue.poll : null record");
+		long deadline = deadline(timeout);
+		while(take(rec) == null) {
+			if(!awaitNotEmpty(deadline)) return null;
+		}
+		return rec;
+	}
+
+	/**
+	 * Move the packets at the FRONT of the queue into a collection,
+	 * without waiting.
+	 * @param		c - the collection to add the packets (byte arrays) to.
+	 * @param		max - the most packets to move.
+	 * @return		the number of packets moved.
+	 */
+	public int drainTo(Collection c, int max) {
+		int n = 0;
+		byte[] pkt;
+		while(n < max && (pkt = take(null)) != null) {
+			c.add(pkt);
+			n++;
+		}
+		return n;
+	}
+
 	/**
 	 * Get the size of the queue..
 	 * @author	Pete Lutz
 	 */
 	public int size() {
-		return queue.size();
+		long n = tail.get() - head.get();
+		return n < 0 ? 0 : (int)n;
+	}
+
+	/**
+	 * Get the number of packets the queue can hold.
+	 * @return		the capacity, always a power of two.
+	 */
+	public int capacity() {
+		return mask + 1;
+	}
+
+	/**
+	 * Get the overflow policy of the queue.
+	 * @return		one of DROP_NEWEST, DROP_OLDEST or BLOCK.
+	 */
+	public int policy() {
+		return policy;
+	}
+
+	/**
+	 * Get the number of packets discarded because they arrived while
+	 * the queue was full (DROP_NEWEST policy).
+	 * @return		the count of refused packets.
+	 */
+	public long droppedNewest() {
+		return droppedNewest.get();
+	}
+
+	/**
+	 * Get the number of packets discarded from the front of the queue to
+	 * make room for new ones (DROP_OLDEST policy).
+	 * @return		the count of displaced packets.
+	 */
+	public long droppedOldest() {
+		return droppedOldest.get();
+	}
+
+	/**
+	 * Get the total number of packets this queue has discarded.
+	 * @return		droppedNewest() + droppedOldest()
+	 */
+	public long dropped() {
+		return droppedNewest.get() + droppedOldest.get();
+	}
+
+	/**
+	 * Make room for the packet with sequence t, applying the overflow
+	 * policy if the ring is full.
+	 * @return		true if slot t may be written, false if the packet
+	 *				is to be discarded.
+	 */
+	private boolean reserve(long t) {
+		while(t - head.get() > mask) {
+			if(policy == DROP_NEWEST) {
+				droppedNewest.incrementAndGet();
+				return false;
+			}
+			if(policy == DROP_OLDEST) {
+				long h = head.get();
+				if(t - h > mask && head.compareAndSet(h, h + 1)) {
+					ring.lazySet((int)h & mask, null);
+					droppedOldest.incrementAndGet();
+				}
+				continue;
+			}
+			awaitNotFull(t);
+		}
+		return true;
+	}
+
+	/**
+	 * Make the packet with sequence t visible to consumers and wake any
+	 * that are parked.
+	 */
+	private void publish(long t) {
+		tail.set(t + 1);
+		if(consumersWaiting.get() != 0) {
+			synchronized(notEmpty) {
+				notEmpty.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Remove the packet at the front of the queue without waiting.
+	 * Consumers race on the head with a compare-and-set, so several
+	 * threads may pop from the same queue. The metadata is read before
+	 * the compare-and-set; if the producer reused the slot meanwhile the
+	 * compare-and-set fails and the read is retried.
+	 * @param		rec - record to fill with the packet and its
+	 *				metadata, or null for the packet only.
+	 * @return		the packet, or null if the queue is empty.
+	 */
+	private byte[] take(jND_CapturedPacket rec) {
+		for(;;) {
+			long h = head.get();
+			if(h >= tail.get()) return null;
+			int slot = (int)h & mask;
+			byte[] pkt = (byte[])ring.get(slot);
+			long ts = stamps[slot];
+			int wlen = wireLengths[slot];
+			int ifx = ifIndexes[slot];
+			if(head.compareAndSet(h, h + 1)) {
+				if(rec != null)
+					rec.set(pkt, ts, wlen, ifx);
+				// Clear the slot unless the producer has already reused it
+				ring.compareAndSet(slot, pkt, null);
+				if(producerWaiting.get() != 0) {
+					synchronized(notFull) {
+						notFull.notifyAll();
+					}
+				}
+				return pkt;
+			}
+		}
+	}
+
+	/**
+	 * Get the System.nanoTime() at which a wait of some milliseconds ends.
+	 * Waits too long to count in nanoseconds are cut to about 146 years;
+	 * awaitNotEmpty only compares times by their difference, so the sum
+	 * may wrap.
+	 */
+	private static long deadline(long timeout) {
+		long ns = timeout <= 0 ? 0
+			: timeout >= Long.MAX_VALUE / 2000000L ? Long.MAX_VALUE / 2 : timeout * 1000000L;
+		return System.nanoTime() + ns;
+	}
+
+	/**
+	 * Park the calling consumer until the queue is not empty or a
+	 * deadline passes.
+	 * @param		deadline - System.nanoTime() at which to give up.
+	 * @return		false if the deadline passed with the queue empty.
+	 */
+	private boolean awaitNotEmpty(long deadline) {
+		consumersWaiting.incrementAndGet();
+		try {
+			synchronized(notEmpty) {
+				while(head.get() >= tail.get()) {
+					long left = deadline - System.nanoTime();
+					if(left <= 0) return false;
+					notEmpty.wait(left / 1000000L, (int)(left % 1000000L));
+				}
+			}
+			return true;
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_PacketQueue.poll Interrupted: " + ie.toString());
+		} finally {
+			consumersWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Park the calling consumer until the queue is not empty.
+	 */
+	private void awaitNotEmpty() {
+		consumersWaiting.incrementAndGet();
+		try {
+			synchronized(notEmpty) {
+				while(head.get() >= tail.get())
+					notEmpty.wait();
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_PacketQueue.pop Interrupted: " + ie.toString());
+		} finally {
+			consumersWaiting.decrementAndGet();
+		}
+	}
+
+	/**
+	 * Park the producer until slot t is free (BLOCK policy).
+	 */
+	private void awaitNotFull(long t) {
+		producerWaiting.incrementAndGet();
+		try {
+			synchronized(notFull) {
+				while(t - head.get() > mask)
+					notFull.wait();
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_PacketQueue.push Interrupted: " + ie.toString());
+		} finally {
+			producerWaiting.decrementAndGet();
+		}
 	}
 };
@@ -0,0 +1,312 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.ArrayList;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * jND_ParallelTrace <br>
+ * Class to process a pcap or pcapng file on several cores at once. Where
+ * an offline jND_CaptureSession replays a file through one thread and
+ * one queue, a parallel trace cuts the file into chunks and hands them to
+ * the workers of a ForkJoinPool, which decode the packets with the header
+ * views and pass them to a jND_TraceReducer.
+ * <pre>
+ *     jND_ParallelTrace t = new jND_ParallelTrace("big.pcap");
+ *     long[] n = (long[])t.run(countTCP);
+ * </pre>
+ * When the trace is opened its records are indexed: one pass over the
+ * record headers finds the record boundaries at which the file is cut
+ * into chunks of about equal size, several per worker so that the
+ * workers stay busy to the end.
+ * <br><br>
+ * In chunk mode (the default) each chunk is a piece: it gets its own
+ * result, and the results are merged in file order. A flow is then split
+ * across pieces. With flowPartition set, there is instead one piece per
+ * worker, and a packet belongs to the piece chosen by its flow hash (see
+ * jND_FlowHash). Each piece reads the whole file in order and decodes
+ * only its own packets, so all packets of a connection reach the same
+ * result, in order, and per-connection state may be kept in the result.
+ * Reading the file once per worker costs more than chunk mode, but the
+ * reads are of a mapped file that stays in the page cache.
+ * <br><br>
+ * With a filter set, each piece runs the program on its own
+ * jND_BPFMachine and skips the packets it rejects before they are
+ * decoded. Skipped packets keep their index numbers.
+ * <br><br>
+ */
+public class jND_ParallelTrace {
+	// Chunks per worker, to balance uneven chunks
+	public static final int CHUNKS_PER_WORKER = 4;
+
+	// Smallest chunk worth a task, in octets
+	public static final int MIN_CHUNK = 1 << 20;
+
+	private String fileName;
+	private ForkJoinPool pool;
+	private boolean flowPartition;
+	private jND_BPFProgram filter;
+
+	// The index: chunk i starts where marks[i] will read next, ends at
+	// ends[i], and its packets are numbered from firsts[i].
+	private jND_PcapReader[] marks;
+	private long[] ends;
+	private long[] firsts;
+	private long packets;
+
+	/**
+	 * Open and index a capture file, to be processed on the common
+	 * ForkJoinPool.
+	 * @param		fname - the name of the pcap or pcapng file.
+	 */
+	public jND_ParallelTrace(String fname) {
+		this(fname, ForkJoinPool.commonPool());
+	}
+
+	/**
+	 * Open and index a capture file.
+	 * @param		fname - the name of the pcap or pcapng file.
+	 * @param		pool - the pool whose workers process the file.
+	 */
+	public jND_ParallelTrace(String fname, ForkJoinPool pool) {
+		if(pool == null)
+			throw new jND_Exception("jND_ParallelTrace.constructor : pool must not be null");
+		fileName = fname;
+		this.pool = pool;
+		flowPartition = false;
+		filter = null;
+		index();
+	}
+
+	/**
+	 * Choose how the trace is cut into pieces.
+	 * @param		on - true for one piece per worker, chosen by flow
+	 *				hash; false for one piece per chunk.
+	 */
+	public void flowPartition(boolean on) {
+		flowPartition = on;
+	}
+
+	/**
+	 * Find out how the trace is cut into pieces.
+	 * @return		true if pieces are chosen by flow hash.
+	 */
+	public boolean flowPartition() {
+		return flowPartition;
+	}
+
+	/**
+	 * Set a filter for the packets passed to the reducer.
+	 * @param		prog - the program, compiled for the link type of the
+	 *				file, or null to pass all packets.
+	 */
+	public void filter(jND_BPFProgram prog) {
+		filter = prog;
+	}
+
+	/**
+	 * Get the filter for the packets passed to the reducer.
+	 * @return		the program, or null if all packets are passed.
+	 */
+	public jND_BPFProgram filter() {
+		return filter;
+	}
+
+	/**
+	 * Get the number of chunks the file was cut into.
+	 * @return		the chunk count.
+	 */
+	public int chunks() {
+		return marks.length;
+	}
+
+	/**
+	 * Get the number of packets in the file.
+	 * @return		the packet count.
+	 */
+	public long packets() {
+		return packets;
+	}
+
+	/**
+	 * Get the name of the file.
+	 * @return		the file name given to the constructor.
+	 */
+	public String fileName() {
+		return fileName;
+	}
+
+	/**
+	 * Process the file. This may be called more than once, with the same
+	 * or different reducers.
+	 * @param		r - the code to run on each packet and to merge results.
+	 * @return		the merged result of all pieces.
+	 */
+	public Object run(jND_TraceReducer r) {
+		if(r == null)
+			throw new jND_Exception("jND_ParallelTrace.run : reducer must not be null");
+		int pieces = flowPartition ? pool.getParallelism() : marks.length;
+		try {
+			return pool.invoke(new Piece(r, filter, 0, pieces, flowPartition ? pieces : 0));
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_ParallelTrace.run : " + e.toString());
+		}
+	}
+
+	/**
+	 * Process one chunk, or the packets of one flow bucket in one chunk.
+	 * @param		r - the reducer.
+	 * @param		result - the result of the piece.
+	 * @param		chunk - the chunk to read.
+	 * @param		bucket - the flow bucket to keep, -1 for all packets.
+	 * @param		buckets - the number of flow buckets.
+	 * @param		pkt - the record to decode into.
+	 * @param		m - the filter of the piece, or null.
+	 * @return		the updated result.
+	 */
+	private Object chunk(jND_TraceReducer r, Object result, int chunk,
+			int bucket, int buckets, jND_TracePacket pkt, jND_BPFMachine m) {
+		jND_PcapReader in = new jND_PcapReader(marks[chunk], ends[chunk]);
+		try {
+			long n = firsts[chunk];
+			while(in.nextPacket()) {
+				if(bucket >= 0) {
+					int h = jND_FlowHash.hash(in.buffer(), in.offset(), in.caplen());
+					if(jND_FlowHash.bucket(h, buckets) != bucket
+							|| m != null && m.run(in.buffer(), in.offset(),
+								in.caplen(), in.wireLength()) == 0) {
+						n++;
+						continue;
+					}
+					pkt.load(in, n++);
+					pkt.flowHash(h);
+				}
+				else {
+					if(m != null && m.run(in.buffer(), in.offset(),
+							in.caplen(), in.wireLength()) == 0) {
+						n++;
+						continue;
+					}
+					pkt.load(in, n++);
+				}
+				result = r.packet(result, pkt);
+			}
+			return result;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Read the record headers of the file and cut it into chunks at
+	 * record boundaries.
+	 */
+	private void index() {
+		jND_PcapReader scan = new jND_PcapReader(fileName);
+		try {
+			long target = scan.fileSize() / ((long)pool.getParallelism() * CHUNKS_PER_WORKER);
+			if(target < MIN_CHUNK) target = MIN_CHUNK;
+
+			ArrayList mk = new ArrayList();
+			ArrayList ed = new ArrayList();
+			ArrayList fs = new ArrayList();
+			long start = scan.position();
+			long first = 0;
+			mk.add(mark(scan));
+			while(scan.nextPacket()) {
+				if(scan.position() - start >= target) {
+					ed.add(Long.valueOf(scan.position()));
+					fs.add(Long.valueOf(first));
+					first = scan.packets();
+					start = scan.position();
+					mk.add(mark(scan));
+				}
+			}
+			ed.add(Long.valueOf(scan.fileSize()));
+			fs.add(Long.valueOf(first));
+
+			packets = scan.packets();
+			int n = mk.size();
+			marks = new jND_PcapReader[n];
+			ends = new long[n];
+			firsts = new long[n];
+			for(int i = 0; i < n; i++) {
+				marks[i] = (jND_PcapReader)mk.get(i);
+				ends[i] = ((Long)ed.get(i)).longValue();
+				firsts[i] = ((Long)fs.get(i)).longValue();
+			}
+		} finally {
+			scan.close();
+		}
+	}
+
+	/**
+	 * Take a copy of the state of a reader at a chunk boundary. The copy
+	 * is closed; it only serves to start the readers of the chunk.
+	 */
+	private static jND_PcapReader mark(jND_PcapReader scan) {
+		jND_PcapReader m = new jND_PcapReader(scan, scan.fileSize());
+		m.close();
+		return m;
+	}
+
+	/**
+	 * A range of pieces, split in two until one piece is left.
+	 */
+	private class Piece extends RecursiveTask<Object> {
+		private static final long serialVersionUID = 1L;
+
+		private jND_TraceReducer r;
+		private jND_BPFProgram prog;	// filter, or null
+		private int lo;				// first piece
+		private int hi;				// one past the last piece
+		private int buckets;		// flow buckets, 0 for chunk mode
+
+		Piece(jND_TraceReducer r, jND_BPFProgram prog, int lo, int hi, int buckets) {
+			this.r = r;
+			this.prog = prog;
+			this.lo = lo;
+			this.hi = hi;
+			this.buckets = buckets;
+		}
+
+		protected Object compute() {
+			if(hi - lo > 1) {
+				int mid = (lo + hi) >>> 1;
+				Piece first = new Piece(r, prog, lo, mid, buckets);
+				Piece second = new Piece(r, prog, mid, hi, buckets);
+				second.fork();
+				Object a = first.compute();
+				Object b = second.join();
+				return r.merge(a, b);
+			}
+			Object result = r.start();
+			jND_TracePacket pkt = new jND_TracePacket();
+			if(lo == hi) return result;
+			// A machine is not thread safe, so each piece has its own
+			jND_BPFMachine m = prog != null ? new jND_BPFMachine(prog) : null;
+			if(buckets == 0)
+				return chunk(r, result, lo, -1, 0, pkt, m);
+			for(int c = 0; c < marks.length; c++)
+				result = chunk(r, result, c, lo, buckets, pkt, m);
+			return result;
+		}
+	};
+};
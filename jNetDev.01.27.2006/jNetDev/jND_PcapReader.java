@@ -0,0 +1,595 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+
+/**
+ * jND_PcapReader <br>
+ * Class to read saved packets from a pcap or pcapng file without libpcap.
+ * The format and byte order of the file are detected from its first
+ * octets. pcap files with microsecond and nanosecond timestamps are read,
+ * as are pcapng files with any number of sections and interfaces
+ * (Enhanced, Simple and obsolete Packet blocks carry packets; all other
+ * blocks are skipped).
+ * <br><br>
+ * The file is read through a window that is either memory mapped (the
+ * default) or filled by large reads, so files much larger than memory
+ * may be read. Packets are not copied: after nextPacket() returns true,
+ * the packet is the caplen() octets of buffer() starting at offset().
+ * <pre>
+ *     jND_PcapReader r = new jND_PcapReader("trace.pcapng");
+ *     while(r.nextPacket()) {
+ *         view.bind(r.buffer(), r.offset(), r.caplen());
+ *         ...
+ *     }
+ *     r.close();
+ * </pre>
+ * The buffer and offset are only valid until the next call to
+ * nextPacket(), as the window may move. Copy the packet with
+ * toByteArray() to keep it longer.
+ * <br><br>
+ * A reader may also be the source of a jND_CaptureSession (see
+ * jND_CaptureSession(jND_PcapReader)), which then behaves like an
+ * offline session but never enters the native layer.
+ * <br><br>
+ * A reader is not safe for use by several threads at once.
+ * <br><br>
+ */
+public class jND_PcapReader {
+	// Link type of Ethernet captures
+	public static final int LINKTYPE_ETHERNET = 1;
+
+	// Default size of the window onto the file
+	public static final int DEFAULT_WINDOW = 1 << 26;
+
+	// Largest packet accepted in a pcap record
+	private static final int MAX_PACKET = 1 << 18;
+
+	// Magic numbers, as read big-endian
+	private static final int PCAP_US = 0xa1b2c3d4;
+	private static final int PCAP_US_SWAPPED = 0xd4c3b2a1;
+	private static final int PCAP_NS = 0xa1b23c4d;
+	private static final int PCAP_NS_SWAPPED = 0x4d3cb2a1;
+	private static final int NG_SECTION = 0x0a0d0d0a;
+	private static final int NG_BYTE_ORDER = 0x1a2b3c4d;
+	private static final int NG_BYTE_ORDER_SWAPPED = 0x4d3c2b1a;
+
+	// pcapng block types
+	private static final int NG_INTERFACE = 1;
+	private static final int NG_PACKET = 2;
+	private static final int NG_SIMPLE_PACKET = 3;
+	private static final int NG_ENHANCED_PACKET = 6;
+
+	private String fileName;
+	private RandomAccessFile file;
+	private FileChannel channel;
+	private long fileSize;
+	private long limit;					// reading stops at this file position
+	private boolean mapped;				// map the window, or read into it
+	private int windowSize;
+
+	private ByteBuffer window;			// the part of the file in view
+	private long windowStart;			// file position of window[0]
+	private int windowLimit;			// valid octets in the window
+	private long pos;					// file position of the next record
+
+	private boolean ng;					// pcapng rather than pcap
+	private ByteOrder order;			// byte order of the file (section)
+	private long tsUnit;				// pcap: ns per fraction tick
+	private int pcapLinkType;
+	private int pcapSnapLen;
+
+	// pcapng interfaces of the current section
+	private int ifCount;
+	private int[] ifLinkTypes;
+	private int[] ifTsDigits;			// decimal resolution 10^-n, or -1
+	private int[] ifTsShift;			// binary resolution 2^-n, or -1
+
+	// The current packet
+	private int pktOffset;
+	private int pktCaplen;
+	private int pktWireLength;
+	private long pktTimestamp;
+	private int pktIfIndex;
+	private int pktLinkType;
+	private long packets;
+
+	/**
+	 * Open a capture file for reading through a memory mapped window.
+	 * @param		fname - the name of the pcap or pcapng file.
+	 */
+	public jND_PcapReader(String fname) {
+		this(fname, true, DEFAULT_WINDOW);
+	}
+
+	/**
+	 * Open a capture file for reading.
+	 * @param		fname - the name of the pcap or pcapng file.
+	 * @param		mapped - true to memory map the file, false to read it
+	 *				in chunks of windowSize octets.
+	 * @param		windowSize - how much of the file is in view at once.
+	 *				It grows if a single record is larger.
+	 */
+	public jND_PcapReader(String fname, boolean mapped, int windowSize) {
+		try {
+			if(windowSize < 4096)
+				throw new jND_Exception("jND_PcapReader.constructor : window too small - " + windowSize);
+			fileName = fname;
+			this.mapped = mapped;
+			this.windowSize = windowSize;
+			file = new RandomAccessFile(fname, "r");
+			channel = file.getChannel();
+			fileSize = channel.size();
+			limit = fileSize;
+			ifLinkTypes = new int[4];
+			ifTsDigits = new int[4];
+			ifTsShift = new int[4];
+			rewind();
+		} catch(jND_Exception nde) {
+			close();
+			throw nde;
+		} catch(Exception e) {
+			close();
+			throw new jND_Exception("jND_PcapReader.constructor : " + e.toString());
+		}
+	}
+
+	/**
+	 * Open a second reader on the file of another, starting where the
+	 * other will read next and stopping at a given file position. Used
+	 * by jND_ParallelTrace to read a file in pieces.
+	 * @param		from - the reader whose file and position to take.
+	 * @param		end - the file position to stop at; a record must end
+	 *				at or before it to be read.
+	 */
+	jND_PcapReader(jND_PcapReader from, long end) {
+		try {
+			fileName = from.fileName;
+			mapped = from.mapped;
+			windowSize = from.windowSize;
+			file = new RandomAccessFile(fileName, "r");
+			channel = file.getChannel();
+			fileSize = channel.size();
+			limit = Math.min(end, fileSize);
+			pos = from.pos;
+			ng = from.ng;
+			order = from.order;
+			tsUnit = from.tsUnit;
+			pcapLinkType = from.pcapLinkType;
+			pcapSnapLen = from.pcapSnapLen;
+			ifCount = from.ifCount;
+			ifLinkTypes = from.ifLinkTypes.clone();
+			ifTsDigits = from.ifTsDigits.clone();
+			ifTsShift = from.ifTsShift.clone();
+		} catch(Exception e) {
+			close();
+			throw new jND_Exception("jND_PcapReader.constructor : " + e.toString());
+		}
+	}
+
+	/**
+	 * Go back to the first packet of the file.
+	 */
+	public void rewind() {
+		window = null;
+		windowStart = 0;
+		windowLimit = 0;
+		ifCount = 0;
+		packets = 0;
+		pktCaplen = 0;
+
+		order = ByteOrder.BIG_ENDIAN;
+		int off = ensure(0, 24);
+		if(off < 0)
+			throw new jND_Exception("jND_PcapReader : " + fileName + " is too short for a capture file");
+		int magic = window.getInt(off);
+		ng = false;
+		tsUnit = 1000;
+		if(magic == PCAP_US || magic == PCAP_NS)
+			order = ByteOrder.BIG_ENDIAN;
+		else if(magic == PCAP_US_SWAPPED || magic == PCAP_NS_SWAPPED)
+			order = ByteOrder.LITTLE_ENDIAN;
+		else if(magic == NG_SECTION)
+			ng = true;
+		else
+			throw new jND_Exception("jND_PcapReader : " + fileName + " is not a pcap or pcapng file");
+
+		if(ng) {
+			pos = 0;			// the section header is read as a block
+		}
+		else {
+			window.order(order);
+			if(magic == PCAP_NS || magic == PCAP_NS_SWAPPED)
+				tsUnit = 1;
+			pcapSnapLen = window.getInt(off + 16);
+			pcapLinkType = window.getInt(off + 20);
+			pos = 24;
+		}
+	}
+
+	/**
+	 * Advance to the next packet of the file.
+	 * @return		true if there is a packet, false at the end of the file.
+	 *				A record cut short by the end of the file counts as the
+	 *				end of the file.
+	 */
+	public boolean nextPacket() {
+		try {
+			return ng ? nextBlock() : nextRecord();
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapReader.nextPacket : " + e.toString());
+		}
+	}
+
+	/**
+	 * Get the buffer holding the current packet.
+	 * @return		the window onto the file.
+	 */
+	public ByteBuffer buffer() {
+		return window;
+	}
+
+	/**
+	 * Get where the current packet starts in buffer().
+	 * @return		the offset of the first octet of the packet.
+	 */
+	public int offset() {
+		return pktOffset;
+	}
+
+	/**
+	 * Get the captured length of the current packet.
+	 * @return		the number of octets in the file.
+	 */
+	public int caplen() {
+		return pktCaplen;
+	}
+
+	/**
+	 * Get the length the current packet had on the wire.
+	 * @return		the original length of the packet.
+	 */
+	public int wireLength() {
+		return pktWireLength;
+	}
+
+	/**
+	 * Get the time the current packet was captured.
+	 * @return		nanoseconds since the epoch, 0 if the file does not
+	 *				record it (pcapng Simple Packet blocks).
+	 */
+	public long timestamp() {
+		return pktTimestamp;
+	}
+
+	/**
+	 * Get the interface the current packet was captured on.
+	 * @return		the pcapng interface id, 0 for a pcap file.
+	 */
+	public int ifIndex() {
+		return pktIfIndex;
+	}
+
+	/**
+	 * Get the link type of the current packet, e.g. LINKTYPE_ETHERNET.
+	 * @return		the link type of its file or interface.
+	 */
+	public int linkType() {
+		return pktLinkType;
+	}
+
+	/**
+	 * Get the number of packets read since the file was opened or
+	 * rewound.
+	 * @return		the packet count.
+	 */
+	public long packets() {
+		return packets;
+	}
+
+	/**
+	 * Get the file position of the next record, that is, of the octet
+	 * after the current packet's record.
+	 * @return		the offset in the file.
+	 */
+	public long position() {
+		return pos;
+	}
+
+	/**
+	 * Get the size of the file.
+	 * @return		the file size in octets.
+	 */
+	public long fileSize() {
+		return fileSize;
+	}
+
+	/**
+	 * Determine if the file is in pcapng format.
+	 * @return		true for pcapng, false for pcap.
+	 */
+	public boolean pcapng() {
+		return ng;
+	}
+
+	/**
+	 * Get the name of the file.
+	 * @return		the file name given to the constructor.
+	 */
+	public String fileName() {
+		return fileName;
+	}
+
+	/**
+	 * Copy the current packet out of the file.
+	 * @return		a new byte array containing the packet.
+	 */
+	public byte[] toByteArray() {
+		byte[] pkt = new byte[pktCaplen];
+		copy(pkt, 0);
+		return pkt;
+	}
+
+	/**
+	 * Copy the current packet into an array.
+	 * @param		dst - the array to copy into.
+	 * @param		dstOffset - where the packet goes in dst.
+	 */
+	public void copy(byte[] dst, int dstOffset) {
+		if(window.hasArray()) {
+			System.arraycopy(window.array(), window.arrayOffset() + pktOffset,
+				dst, dstOffset, pktCaplen);
+		}
+		else {
+			for(int i = 0; i < pktCaplen; i++)
+				dst[dstOffset + i] = window.get(pktOffset + i);
+		}
+	}
+
+	/**
+	 * Close the file. A mapped window is released when it is garbage
+	 * collected.
+	 */
+	public void close() {
+		try {
+			if(file != null) file.close();
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapReader.close : " + e.toString());
+		} finally {
+			file = null;
+			channel = null;
+			window = null;
+		}
+	}
+
+	/**
+	 * Determine if the reader is closed.
+	 * @return		true once close() has been called.
+	 */
+	public boolean closed() {
+		return file == null;
+	}
+
+	/**
+	 * Read the next record of a pcap file.
+	 */
+	private boolean nextRecord() {
+		int off = ensure(pos, 16);
+		if(off < 0) return false;
+		int caplen = window.getInt(off + 8);
+		if(caplen < 0 || caplen > Math.max(pcapSnapLen, MAX_PACKET))
+			throw new jND_Exception("jND_PcapReader : bad record length " + caplen
+				+ " at offset " + pos + " of " + fileName);
+		off = ensure(pos, 16 + caplen);
+		if(off < 0) return false;
+		long secs = window.getInt(off) & 0xffffffffL;
+		long frac = window.getInt(off + 4) & 0xffffffffL;
+		pktTimestamp = secs * 1000000000L + frac * tsUnit;
+		pktCaplen = caplen;
+		pktWireLength = window.getInt(off + 12);
+		pktOffset = off + 16;
+		pktIfIndex = 0;
+		pktLinkType = pcapLinkType;
+		pos += 16 + caplen;
+		packets++;
+		return true;
+	}
+
+	/**
+	 * Read pcapng blocks up to and including the next one holding a packet.
+	 */
+	private boolean nextBlock() {
+		for(;;) {
+			int off = ensure(pos, 12);
+			if(off < 0) return false;
+			int type = window.getInt(off);
+			if(type == NG_SECTION) {
+				int bom = window.order(ByteOrder.BIG_ENDIAN).getInt(off + 8);
+				if(bom == NG_BYTE_ORDER)
+					order = ByteOrder.BIG_ENDIAN;
+				else if(bom == NG_BYTE_ORDER_SWAPPED)
+					order = ByteOrder.LITTLE_ENDIAN;
+				else
+					throw new jND_Exception("jND_PcapReader : bad section header at offset "
+						+ pos + " of " + fileName);
+				window.order(order);
+				ifCount = 0;
+			}
+			int blen = window.getInt(off + 4);
+			if(blen < 12 || (blen & 3) != 0)
+				throw new jND_Exception("jND_PcapReader : bad block length " + blen
+					+ " at offset " + pos + " of " + fileName);
+			off = ensure(pos, blen);
+			if(off < 0) return false;
+			long start = pos;
+			pos += blen;
+
+			switch(type) {
+			case NG_INTERFACE:
+				addInterface(off, blen);
+				break;
+			case NG_ENHANCED_PACKET:
+				if(blen < 32) break;
+				packet(off, window.getInt(off + 8), blen - 32);
+				return true;
+			case NG_PACKET:
+				if(blen < 32) break;
+				packet(off, window.getShort(off + 8) & 0xffff, blen - 32);
+				return true;
+			case NG_SIMPLE_PACKET:
+				if(blen < 16) break;
+				pktWireLength = window.getInt(off + 8);
+				pktCaplen = Math.min(pktWireLength, blen - 16);
+				pktOffset = off + 12;
+				pktTimestamp = 0;
+				pktIfIndex = 0;
+				pktLinkType = ifCount > 0 ? ifLinkTypes[0] : LINKTYPE_ETHERNET;
+				packets++;
+				return true;
+			}
+		}
+	}
+
+	/**
+	 * Take the packet of an Enhanced or obsolete Packet block.
+	 * @param		off - where the block starts in the window.
+	 * @param		ifId - the interface id of the block.
+	 * @param		room - the most octets of packet data the block holds.
+	 */
+	private void packet(int off, int ifId, int room) {
+		long ticks = ((window.getInt(off + 12) & 0xffffffffL) << 32)
+			| (window.getInt(off + 16) & 0xffffffffL);
+		int caplen = window.getInt(off + 20);
+		if(caplen < 0 || caplen > room)
+			throw new jND_Exception("jND_PcapReader : bad packet length " + caplen
+				+ " in " + fileName);
+		pktCaplen = caplen;
+		pktWireLength = window.getInt(off + 24);
+		pktOffset = off + 28;
+		pktIfIndex = ifId;
+		if(ifId >= 0 && ifId < ifCount) {
+			pktLinkType = ifLinkTypes[ifId];
+			pktTimestamp = toNanos(ticks, ifTsDigits[ifId], ifTsShift[ifId]);
+		}
+		else {
+			pktLinkType = LINKTYPE_ETHERNET;
+			pktTimestamp = ticks * 1000;
+		}
+		packets++;
+	}
+
+	/**
+	 * Record an Interface Description block: its link type and timestamp
+	 * resolution (option if_tsresol, microseconds by default).
+	 */
+	private void addInterface(int off, int blen) {
+		if(ifCount == ifLinkTypes.length) {
+			int[] a = new int[ifCount * 2];
+			System.arraycopy(ifLinkTypes, 0, a, 0, ifCount);
+			ifLinkTypes = a;
+			a = new int[ifCount * 2];
+			System.arraycopy(ifTsDigits, 0, a, 0, ifCount);
+			ifTsDigits = a;
+			a = new int[ifCount * 2];
+			System.arraycopy(ifTsShift, 0, a, 0, ifCount);
+			ifTsShift = a;
+		}
+		int digits = 6;
+		int shift = -1;
+		int o = off + 16;
+		int end = off + blen - 4;
+		while(o + 4 <= end) {
+			int code = window.getShort(o) & 0xffff;
+			int len = window.getShort(o + 2) & 0xffff;
+			if(code == 0) break;
+			if(code == 9 && len >= 1) {
+				int res = window.get(o + 4) & 0xff;
+				if((res & 0x80) != 0) {
+					digits = -1;
+					shift = res & 0x7f;
+				}
+				else
+					digits = res;
+			}
+			o += 4 + ((len + 3) & ~3);
+		}
+		ifLinkTypes[ifCount] = window.getShort(off + 8) & 0xffff;
+		ifTsDigits[ifCount] = digits;
+		ifTsShift[ifCount] = shift;
+		ifCount++;
+	}
+
+	/**
+	 * Convert a pcapng timestamp to nanoseconds.
+	 */
+	private static long toNanos(long ticks, int digits, int shift) {
+		if(digits >= 0) {
+			long scale = 1;
+			for(int i = digits; i < 9; i++) scale *= 10;
+			for(int i = 9; i < digits; i++) ticks /= 10;
+			return ticks * scale;
+		}
+		if(shift >= 63) return 0;
+		long secs = ticks >>> shift;
+		long frac = ticks - (secs << shift);
+		return secs * 1000000000L + (long)(frac * 1e9 / (1L << shift));
+	}
+
+	/**
+	 * Bring octets [filePos, filePos + len) of the file into the window.
+	 * @return		where filePos is in the window, or -1 if the file
+	 *				ends first.
+	 */
+	private int ensure(long filePos, int len) {
+		if(window != null && filePos >= windowStart
+				&& filePos + len <= windowStart + windowLimit)
+			return (int)(filePos - windowStart);
+		if(filePos + len > limit)
+			return -1;
+		try {
+			int size = Math.max(windowSize, len);
+			if(mapped) {
+				long n = Math.min(size, limit - filePos);
+				window = channel.map(FileChannel.MapMode.READ_ONLY, filePos, n);
+				windowLimit = (int)n;
+			}
+			else {
+				if(window == null || window.capacity() < size)
+					window = ByteBuffer.allocate(size);
+				window.clear();
+				window.limit((int)Math.min(size, limit - filePos));
+				long at = filePos;
+				while(window.hasRemaining()) {
+					int n = channel.read(window, at);
+					if(n < 0) break;
+					at += n;
+				}
+				windowLimit = window.position();
+			}
+			windowStart = filePos;
+			window.order(order);
+			return windowLimit >= len ? 0 : -1;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapReader : cannot read " + fileName + " - " + e.toString());
+		}
+	}
+};
@@ -0,0 +1,559 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.io.FileOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+
+/**
+ * jND_PcapWriter <br>
+ * Class to save packets to pcap or pcapng files without libpcap. Packets
+ * are copied into a large buffer and written to the file a buffer at a
+ * time, so saving a packet costs a copy and no system call.
+ * <br><br>
+ * With async set, full buffers are written by a background thread while
+ * the caller fills the next one from a small pool; the caller only waits
+ * if the disk falls so far behind that every buffer is full.
+ * <br><br>
+ * Files may be rotated by size (rotateSize) or by age (rotateTime). As
+ * with tcpdump, the first file has the name given to the constructor and
+ * later files have a sequence number appended: trace.pcap, trace.pcap1,
+ * trace.pcap2 and so on.
+ * <br><br>
+ * A capture session can dump through a writer instead of libpcap; see
+ * jND_CaptureSession.dumpWriter. Writes from several threads are
+ * serialized.
+ * <br><br>
+ */
+public class jND_PcapWriter implements Runnable {
+	// File formats
+	public static final int PCAP = 0;			// microsecond timestamps
+	public static final int PCAP_NS = 1;		// nanosecond timestamps
+	public static final int PCAPNG = 2;			// one interface, ns timestamps
+
+	// Default buffer size, and number of buffers for async writing
+	public static final int DEFAULT_BUFFER = 1 << 20;
+	public static final int ASYNC_BUFFERS = 4;
+
+	private String baseName;
+	private int format;
+	private int snaplen;
+	private int linkType;
+	private int bufferSize;
+	private boolean async;
+
+	private long rotateSize;			// octets per file, 0 = no limit
+	private long rotateMs;				// msec per file, 0 = no limit
+	private long fileOctets;			// octets given to the current file
+	private int headerOctets;			// size of the file header
+	private long fileOpened;			// when the current file was begun, msec
+
+	private ByteBuffer current;			// the buffer being filled
+	private jND_Mutex writeLock;		// serializes writers
+
+	// Disk side; only the flusher thread touches these in async mode
+	private FileOutputStream out;
+	private FileChannel channel;
+	private int fileSeq;
+	private volatile String fileName;
+
+	// Async hand off
+	private jND_Mutex mutex;
+	private ArrayList full;				// buffers waiting to be written
+	private ArrayList free;				// buffers ready to be filled
+	private ByteBuffer rotateMark;		// queued to start the next file
+	private boolean busy;				// the flusher is writing a buffer
+	private boolean closing;
+	private Thread javaThread;
+	private volatile String error;
+
+	private volatile long packets;
+	private volatile long octets;
+	private volatile long files;
+
+	/**
+	 * Open a pcap file with microsecond timestamps for Ethernet packets,
+	 * written synchronously through a DEFAULT_BUFFER buffer.
+	 * @param		fname - the name of the file to create.
+	 */
+	public jND_PcapWriter(String fname) {
+		this(fname, PCAP, 65535, jND_PcapReader.LINKTYPE_ETHERNET, DEFAULT_BUFFER, false);
+	}
+
+	/**
+	 * Open a capture file for writing.
+	 * @param		fname - the name of the (first) file to create.
+	 * @param		format - PCAP, PCAP_NS or PCAPNG.
+	 * @param		snaplen - the most octets of a packet to save.
+	 * @param		linkType - the link type of the packets, e.g.
+	 *				jND_PcapReader.LINKTYPE_ETHERNET.
+	 * @param		bufferSize - the size of each write buffer.
+	 * @param		async - true to write buffers on a background thread.
+	 */
+	public jND_PcapWriter(String fname, int format, int snaplen, int linkType,
+			int bufferSize, boolean async) {
+		try {
+			if(format != PCAP && format != PCAP_NS && format != PCAPNG)
+				throw new jND_Exception("jND_PcapWriter.constructor : unknown format - " + format);
+			if(snaplen < 1)
+				throw new jND_Exception("jND_PcapWriter.constructor : snaplen must be positive - " + snaplen);
+			if(bufferSize < snaplen + 64)
+				throw new jND_Exception("jND_PcapWriter.constructor : buffer cannot hold a packet - " + bufferSize);
+			baseName = fname;
+			this.format = format;
+			this.snaplen = snaplen;
+			this.linkType = linkType;
+			this.bufferSize = bufferSize;
+			this.async = async;
+			rotateSize = 0;
+			rotateMs = 0;
+			writeLock = new jND_Mutex();
+			mutex = new jND_Mutex();
+			full = new ArrayList();
+			free = new ArrayList();
+			rotateMark = ByteBuffer.allocate(0);
+			current = newBuffer();
+			fileSeq = 0;
+			openNext();
+			beginFile();
+			if(async) {
+				for(int i = 1; i < ASYNC_BUFFERS; i++)
+					free.add(newBuffer());
+				javaThread = new Thread(this);
+				javaThread.setDaemon(true);
+				javaThread.start();
+			}
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapWriter.constructor : " + e.toString());
+		}
+	}
+
+	/**
+	 * Set the size at which a new file is begun.
+	 * @param		octets - the most octets per file, 0 for no limit.
+	 */
+	public void rotateSize(long octets) {
+		rotateSize = octets;
+	}
+
+	/**
+	 * Get the size at which a new file is begun.
+	 * @return		the most octets per file, 0 for no limit.
+	 */
+	public long rotateSize() {
+		return rotateSize;
+	}
+
+	/**
+	 * Set the age at which a new file is begun. The age is checked as
+	 * each packet is written.
+	 * @param		ms - the most milliseconds per file, 0 for no limit.
+	 */
+	public void rotateTime(long ms) {
+		rotateMs = ms;
+	}
+
+	/**
+	 * Get the age at which a new file is begun.
+	 * @return		the most milliseconds per file, 0 for no limit.
+	 */
+	public long rotateTime() {
+		return rotateMs;
+	}
+
+	/**
+	 * Save a packet, stamped with the current time.
+	 * @param		pkt - the packet.
+	 */
+	public void write(byte[] pkt) {
+		write(pkt, 0, pkt.length, jND_CapturedPacket.now(), pkt.length);
+	}
+
+	/**
+	 * Save a captured packet with its capture time and wire length.
+	 * @param		rec - the packet, as filled by jND_PacketQueue.pop.
+	 */
+	public void write(jND_CapturedPacket rec) {
+		if(rec.data() == null)
+			throw new jND_Exception("jND_PcapWriter.write : empty packet record");
+		write(rec.data(), 0, rec.caplen(), rec.timestamp(), rec.wireLength());
+	}
+
+	/**
+	 * Save a packet held in part of an array.
+	 * @param		data - the array holding the packet.
+	 * @param		offset - where the packet starts in data.
+	 * @param		length - the captured length of the packet.
+	 * @param		timestamp - the capture time, in ns since the epoch.
+	 * @param		wireLength - the length of the packet on the wire.
+	 */
+	public void write(byte[] data, int offset, int length, long timestamp, int wireLength) {
+		synchronized(writeLock) {
+			int caplen = record(length, timestamp, wireLength);
+			current.put(data, offset, caplen);
+			endRecord(caplen);
+		}
+	}
+
+	/**
+	 * Save a packet held in part of a buffer, such as a slot of a
+	 * jND_PacketArena or the window of a jND_PcapReader.
+	 * @param		buf - the buffer holding the packet.
+	 * @param		offset - where the packet starts in buf.
+	 * @param		length - the captured length of the packet.
+	 * @param		timestamp - the capture time, in ns since the epoch.
+	 * @param		wireLength - the length of the packet on the wire.
+	 */
+	public void write(ByteBuffer buf, int offset, int length, long timestamp, int wireLength) {
+		synchronized(writeLock) {
+			int caplen = record(length, timestamp, wireLength);
+			if(buf.hasArray())
+				current.put(buf.array(), buf.arrayOffset() + offset, caplen);
+			else {
+				// A duplicate, so the caller's position and limit are left alone
+				ByteBuffer src = buf.duplicate();
+				src.limit(offset + caplen);
+				src.position(offset);
+				current.put(src);
+			}
+			endRecord(caplen);
+		}
+	}
+
+	/**
+	 * Write everything saved so far to the file. In async mode this waits
+	 * for the background thread to catch up.
+	 */
+	public void flush() {
+		synchronized(writeLock) {
+			handOff();
+			if(async) {
+				try {
+					synchronized(mutex) {
+						while((busy || !full.isEmpty()) && error == null)
+							mutex.wait();
+					}
+				} catch(InterruptedException ie) {
+					throw new jND_Exception("jND_PcapWriter.flush Interrupted: " + ie.toString());
+				}
+			}
+			check();
+		}
+	}
+
+	/**
+	 * Flush and close the file, and stop the background thread.
+	 */
+	public void close() {
+		synchronized(writeLock) {
+			if(current == null) return;
+			try {
+				flush();
+			} finally {
+				if(async) {
+					synchronized(mutex) {
+						closing = true;
+						mutex.notifyAll();
+					}
+					try {
+						javaThread.join();
+					} catch(InterruptedException ie) {
+						throw new jND_Exception("jND_PcapWriter.close Interrupted: " + ie.toString());
+					}
+				}
+				closeFile();
+				current = null;
+			}
+		}
+	}
+
+	/**
+	 * Determine if the writer is closed.
+	 * @return		true once close() has been called.
+	 */
+	public boolean closed() {
+		return current == null;
+	}
+
+	/**
+	 * Get the name of the file being written.
+	 * @return		the file name.
+	 */
+	public String fileName() {
+		return fileName;
+	}
+
+	/**
+	 * Get the number of packets saved.
+	 * @return		the packet count.
+	 */
+	public long packets() {
+		return packets;
+	}
+
+	/**
+	 * Get the number of octets saved, file headers included.
+	 * @return		the octet count over all files.
+	 */
+	public long octets() {
+		return octets;
+	}
+
+	/**
+	 * Get the number of files begun.
+	 * @return		the file count.
+	 */
+	public long files() {
+		return files;
+	}
+
+	/**
+	 * Overridden method from Runnable: the background thread of an async
+	 * writer. It writes full buffers to the file and returns them to the
+	 * pool.
+	 */
+	public void run() {
+		for(;;) {
+			ByteBuffer b;
+			try {
+				synchronized(mutex) {
+					while(full.isEmpty() && !closing)
+						mutex.wait();
+					if(full.isEmpty()) return;
+					b = (ByteBuffer)full.remove(0);
+					busy = true;
+				}
+			} catch(InterruptedException ie) {
+				error = "jND_PcapWriter : writer thread interrupted";
+				return;
+			}
+			try {
+				process(b);
+			} catch(jND_Exception nde) {
+				error = nde.getMessage();
+			}
+			synchronized(mutex) {
+				if(b != rotateMark) {
+					b.clear();
+					free.add(b);
+				}
+				busy = false;
+				mutex.notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Begin a record: rotate the file if due, make room, and write the
+	 * record header.
+	 * @return		the number of packet octets to save.
+	 */
+	private int record(int length, long timestamp, int wireLength) {
+		if(current == null)
+			throw new jND_Exception("jND_PcapWriter.write : writer is closed");
+		check();
+		int caplen = Math.min(length, snaplen);
+		int size = format == PCAPNG ? 32 + ((caplen + 3) & ~3) : 16 + caplen;
+
+		if((rotateSize > 0 && fileOctets + size > rotateSize && fileOctets > headerOctets)
+				|| (rotateMs > 0 && System.currentTimeMillis() - fileOpened >= rotateMs)) {
+			handOff();
+			enqueue(rotateMark);
+			beginFile();
+		}
+		if(current.remaining() < size)
+			handOff();
+
+		long secs = timestamp / 1000000000L;
+		long nanos = timestamp % 1000000000L;
+		if(format == PCAPNG) {
+			current.putInt(6);			// Enhanced Packet block
+			current.putInt(size);
+			current.putInt(0);			// interface 0
+			current.putInt((int)(timestamp >>> 32));
+			current.putInt((int)timestamp);
+			current.putInt(caplen);
+			current.putInt(wireLength);
+		}
+		else {
+			current.putInt((int)secs);
+			current.putInt((int)(format == PCAP ? nanos / 1000 : nanos));
+			current.putInt(caplen);
+			current.putInt(wireLength);
+		}
+		fileOctets += size;
+		octets += size;
+		packets++;
+		return caplen;
+	}
+
+	/**
+	 * Finish a record after its packet octets: pad and close a pcapng block.
+	 */
+	private void endRecord(int caplen) {
+		if(format == PCAPNG) {
+			for(int i = caplen; (i & 3) != 0; i++)
+				current.put((byte)0);
+			current.putInt(32 + ((caplen + 3) & ~3));
+		}
+	}
+
+	/**
+	 * Put the file header of a new file in the current buffer.
+	 */
+	private void beginFile() {
+		int start = current.position();
+		if(format == PCAPNG) {
+			current.putInt(0x0a0d0d0a);		// Section Header block
+			current.putInt(28);
+			current.putInt(0x1a2b3c4d);
+			current.putShort((short)1);
+			current.putShort((short)0);
+			current.putLong(-1);			// section length unknown
+			current.putInt(28);
+			current.putInt(1);				// Interface Description block
+			current.putInt(32);
+			current.putShort((short)linkType);
+			current.putShort((short)0);
+			current.putInt(snaplen);
+			current.putShort((short)9);		// if_tsresol: nanoseconds
+			current.putShort((short)1);
+			current.putInt(9);
+			current.putInt(0);				// opt_endofopt
+			current.putInt(32);
+		}
+		else {
+			current.putInt(format == PCAP ? 0xa1b2c3d4 : 0xa1b23c4d);
+			current.putShort((short)2);
+			current.putShort((short)4);
+			current.putInt(0);				// GMT to local correction
+			current.putInt(0);				// accuracy of timestamps
+			current.putInt(snaplen);
+			current.putInt(linkType);
+		}
+		headerOctets = current.position() - start;
+		fileOctets = headerOctets;
+		octets += fileOctets;
+		fileOpened = System.currentTimeMillis();
+		files++;
+	}
+
+	/**
+	 * Pass the current buffer on to be written and get an empty one.
+	 */
+	private void handOff() {
+		if(current.position() == 0) return;
+		if(!async) {
+			process(current);
+			current.clear();
+			return;
+		}
+		enqueue(current);
+		try {
+			synchronized(mutex) {
+				while(free.isEmpty() && error == null)
+					mutex.wait();
+				check();
+				current = (ByteBuffer)free.remove(free.size() - 1);
+			}
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_PcapWriter.write Interrupted: " + ie.toString());
+		}
+	}
+
+	/**
+	 * Queue a buffer (or the rotate mark) for the disk side.
+	 */
+	private void enqueue(ByteBuffer b) {
+		if(!async) {
+			process(b);
+			return;
+		}
+		synchronized(mutex) {
+			full.add(b);
+			mutex.notifyAll();
+		}
+	}
+
+	/**
+	 * Disk side: write a buffer to the file, or start the next file.
+	 */
+	private void process(ByteBuffer b) {
+		try {
+			if(b == rotateMark) {
+				closeFile();
+				openNext();
+				return;
+			}
+			b.flip();
+			while(b.hasRemaining())
+				channel.write(b);
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapWriter : cannot write " + fileName + " - " + e.toString());
+		}
+	}
+
+	/**
+	 * Disk side: create the next file of the sequence.
+	 */
+	private void openNext() {
+		String name = fileSeq == 0 ? baseName : baseName + fileSeq;
+		try {
+			out = new FileOutputStream(name);
+			channel = out.getChannel();
+			fileName = name;
+			fileSeq++;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapWriter : cannot create " + name + " - " + e.toString());
+		}
+	}
+
+	/**
+	 * Disk side: close the current file.
+	 */
+	private void closeFile() {
+		try {
+			if(out != null) out.close();
+		} catch(Exception e) {
+			throw new jND_Exception("jND_PcapWriter : cannot close " + fileName + " - " + e.toString());
+		} finally {
+			out = null;
+			channel = null;
+		}
+	}
+
+	/**
+	 * Throw the error of the background thread, if any.
+	 */
+	private void check() {
+		if(error != null)
+			throw new jND_Exception(error);
+	}
+
+	/**
+	 * Allocate a write buffer in the byte order of this machine.
+	 */
+	private ByteBuffer newBuffer() {
+		return ByteBuffer.allocate(bufferSize).order(ByteOrder.nativeOrder());
+	}
+};
@@ -0,0 +1,52 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_PingListener <br>
+ * Interface of code told how each probe of a jND_Pinger turned out. See
+ * jND_Pinger.listener.
+ * <pre>
+ *     pinger.listener(new jND_PingListener() {
+ *         public void reply(int ip, int seq, long rtt) {
+ *             System.out.print(seq + ": " + rtt / 1000 + " us\n");
+ *         }
+ *         public void timeout(int ip, int seq) {
+ *             System.out.print(seq + ": timed out\n");
+ *         }
+ *     });
+ * </pre>
+ * <br>
+ */
+public interface jND_PingListener {
+	/**
+	 * Handle a reply to a probe. Called on the capture thread of the
+	 * pinger.
+	 * @param		ip - the target that answered, as an int.
+	 * @param		seq - the sequence number of the probe.
+	 * @param		rtt - the round trip time in nanoseconds.
+	 */
+	public void reply(int ip, int seq, long rtt);
+
+	/**
+	 * Handle a probe that was not answered in time. Called on the timer
+	 * thread of the pinger.
+	 * @param		ip - the target, as an int.
+	 * @param		seq - the sequence number of the probe.
+	 */
+	public void timeout(int ip, int seq);
+};
@@ -0,0 +1,1009 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import jNetDev.Headers.*;
+
+/**
+ * jND_Pinger <br>
+ * Class to ping any number of hosts at once from one NIC. Each target is
+ * sent an ICMP echo request every interval() milliseconds. All targets
+ * share one capture session, which matches the replies, and the shared
+ * jND_TimerWheel, which times the requests and gives up on those not
+ * answered within timeout() milliseconds. The requests are built and sent
+ * by a thread of the pinger's own, so a large pinger does not hold up the
+ * other timers of the wheel.
+ * <pre>
+ *     jND_Pinger pinger = new jND_Pinger(nic);
+ *     pinger.listener(...);
+ *     pinger.add(new jND_IPv4Address("192.168.1.1"));
+ *     pinger.add(new jND_IPv4Address("192.168.1.2"));
+ *     pinger.start();
+ *     ...
+ *     long rtt = pinger.averageRtt(ip);
+ *     pinger.stop();
+ * </pre>
+ * Each target holds a slot, and the ICMP identifier of its requests
+ * names the slot, so a reply is matched to its request by looking at its
+ * identifier, sequence number and source address; nothing is searched.
+ * A target has at most one request outstanding: a request is given up
+ * after timeout() or interval(), whichever is shorter.
+ * <br><br>
+ * Round trip times are taken from the capture timestamp of the reply, in
+ * nanoseconds. The requests that fall due while the sender thread is busy
+ * are sent together, BATCH at a time.
+ * <br><br>
+ * The MAC address of each target (or of the gateway, for targets on
+ * other subnets) comes from the jND_ARPResolver of the NIC. A request
+ * that is due before the address is known is not sent; it is counted by
+ * unresolved(), and the sender thread asks the resolver for the address.
+ * <br><br>
+ * A pinger may be used by any number of threads.
+ * <br><br>
+ */
+public class jND_Pinger {
+	// Defaults
+	public static final long DEFAULT_INTERVAL = 1000;
+	public static final long DEFAULT_TIMEOUT = 1000;
+	public static final int DEFAULT_PAYLOAD = 56;
+	public static final int DEFAULT_MAX_TARGETS = 4096;
+
+	// Limits
+	public static final int MAX_TARGETS = 65536;	// one identifier per target
+	public static final int MAX_PAYLOAD = 1472;		// fills an Ethernet frame
+
+	// Shortest interval and timeout, in milliseconds: a tick of the wheel
+	public static final long TICK = jND_TimerWheel.DEFAULT_TICK;
+
+	// Most requests handed to the NIC in one call
+	public static final int BATCH = 64;
+
+	private static final int HEADERS = 14 + 20 + 8;	// Ethernet, IPv4 and ICMP
+
+	private jND_NIC nic;
+	private int myIP;
+	private byte[] myMAC;
+	private int maxTargets;
+	private int identBase;			// identifier of slot 0
+
+	private jND_Mutex mutex = new jND_Mutex();
+	private Random random = new Random();
+
+	// Targets, one slot each
+	private IntMap index;			// target IP to slot
+	private int[] free;				// unused slots
+	private int freeCount;
+	private boolean[] used;
+	private int[] ips;
+	private int[] nextSeq;
+	private int[] outSeq;			// sequence number of the outstanding request, or -1
+	private long[] sentWall;		// when it was sent, in ns since the epoch
+	private long[] sentNano;		// and on the System.nanoTime clock
+	private long[] sent;
+	private long[] received;
+	private long[] lost;
+	private long[] rttLast;
+	private long[] rttMin;
+	private long[] rttMax;
+	private long[] rttSum;
+
+	// Timers of each slot: the next request, and giving up on the
+	// outstanding one
+	private jND_TimerWheel wheel = jND_TimerWheel.shared();
+	private jND_Timeout[] probeTimer;
+	private jND_Timeout[] expiryTimer;
+	private long[] armed;			// System.nanoTime the expiry timer was set
+
+	// Requests waiting to be sent, and addresses to look up, handed from
+	// the slot timers to the sender thread
+	private Thread sender = null;
+	private int sendCount;
+	private int[] sendSlot;
+	private int[] sendSeq;
+	private int[] sendIP;
+	private byte[][] sendMAC;
+	private int[] queuedAt;			// where each slot's request is queued, or -1
+	private int resolveCount;
+	private int[] resolveIP;
+
+	// The sender thread's copy, and its frames
+	private int[] flushResolve;
+	private int[] flushSlot;
+	private int[] flushSeq;
+	private int[] flushIP;
+	private byte[][] flushMAC;
+	private byte[] data;
+	private ByteBuffer buf;
+	private int[] offsets = new int[BATCH];
+	private int[] lengths = new int[BATCH];
+	private byte[] pattern = new byte[MAX_PAYLOAD];
+
+	private long interval = DEFAULT_INTERVAL;
+	private long timeout = DEFAULT_TIMEOUT;
+	private int payload = DEFAULT_PAYLOAD;
+	private jND_PingListener listener = null;
+
+	private boolean running = false;
+	private boolean starting = false;	// start or stop is opening or releasing the capture session
+	private boolean closeNIC = false;
+	private jND_CaptureSession cap = null;
+	private jND_ARPResolver resolver = null;
+
+	private long totalSent = 0;
+	private long totalReceived = 0;
+	private long totalLost = 0;
+	private long unresolved = 0;
+	private long unmatched = 0;
+
+	/**
+	 * Construct a pinger for up to DEFAULT_MAX_TARGETS targets.
+	 * @param		nic - the NIC to ping from.
+	 */
+	public jND_Pinger(jND_NIC nic) {
+		this(nic, DEFAULT_MAX_TARGETS);
+	}
+
+	/**
+	 * Construct a pinger.
+	 * @param		nic - the NIC to ping from.
+	 * @param		maxTargets - the most targets it may hold, up to
+	 *				MAX_TARGETS.
+	 */
+	public jND_Pinger(jND_NIC nic, int maxTargets) {
+		if(nic == null)
+			throw new jND_Exception("jND_Pinger.constructor : nic must not be null");
+		if(maxTargets < 1 || maxTargets > MAX_TARGETS)
+			throw new jND_Exception("jND_Pinger.constructor : maxTargets must be from 1 to "
+				+ MAX_TARGETS + " - " + maxTargets);
+		this.nic = nic;
+		myIP = nic.ipAddress().toInt();
+		myMAC = nic.macAddress().toByteArray();
+		this.maxTargets = maxTargets;
+		identBase = random.nextInt(65536);
+
+		index = new IntMap(maxTargets);
+		free = new int[maxTargets];
+		for(int i = 0; i < maxTargets; i++)
+			free[i] = maxTargets - 1 - i;
+		freeCount = maxTargets;
+		used = new boolean[maxTargets];
+		ips = new int[maxTargets];
+		nextSeq = new int[maxTargets];
+		outSeq = new int[maxTargets];
+		java.util.Arrays.fill(outSeq, -1);
+		sentWall = new long[maxTargets];
+		sentNano = new long[maxTargets];
+		sent = new long[maxTargets];
+		received = new long[maxTargets];
+		lost = new long[maxTargets];
+		rttLast = new long[maxTargets];
+		rttMin = new long[maxTargets];
+		rttMax = new long[maxTargets];
+		rttSum = new long[maxTargets];
+
+		probeTimer = new jND_Timeout[maxTargets];
+		expiryTimer = new jND_Timeout[maxTargets];
+		armed = new long[maxTargets];
+		sendSlot = new int[maxTargets];
+		sendSeq = new int[maxTargets];
+		sendIP = new int[maxTargets];
+		sendMAC = new byte[maxTargets][];
+		flushSlot = new int[maxTargets];
+		flushSeq = new int[maxTargets];
+		flushIP = new int[maxTargets];
+		flushMAC = new byte[maxTargets][];
+		queuedAt = new int[maxTargets];
+		java.util.Arrays.fill(queuedAt, -1);
+		resolveIP = new int[maxTargets];
+		flushResolve = new int[maxTargets];
+		data = new byte[BATCH * (HEADERS + MAX_PAYLOAD)];
+		buf = ByteBuffer.wrap(data);
+		for(int i = 0; i < MAX_PAYLOAD; i++)
+			pattern[i] = (byte)('a' + i % 26);
+	}
+
+	/**
+	 * Add a target. A target added while the pinger runs gets its first
+	 * request within one interval.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		true if it was added, false if it was already a target.
+	 */
+	public boolean add(int ip) {
+		synchronized(mutex) {
+			if(index.get(ip) >= 0)
+				return false;
+			if(freeCount == 0)
+				throw new jND_Exception("jND_Pinger.add : already " + maxTargets + " targets");
+			int s = free[--freeCount];
+			index.put(ip, s);
+			used[s] = true;
+			ips[s] = ip;
+			outSeq[s] = -1;
+			sent[s] = 0;
+			received[s] = 0;
+			lost[s] = 0;
+			rttLast[s] = -1;
+			rttMin[s] = -1;
+			rttMax[s] = -1;
+			rttSum[s] = 0;
+			if(probeTimer[s] == null) {
+				final int slot = s;
+				probeTimer[s] = new jND_Timeout(new Runnable() {
+					public void run() {
+						probe(slot);
+					}
+				});
+				expiryTimer[s] = new jND_Timeout(new Runnable() {
+					public void run() {
+						expire(slot);
+					}
+				});
+			}
+			if(running)
+				wheel.schedule(probeTimer[s], (long)(random.nextDouble() * interval));
+			return true;
+		}
+	}
+
+	/**
+	 * Add a target.
+	 * @param		ip - the IP address of the target.
+	 * @return		true if it was added, false if it was already a target.
+	 */
+	public boolean add(jND_IPv4Address ip) {
+		return add(ip.toInt());
+	}
+
+	/**
+	 * Remove a target. A reply to its outstanding request is ignored.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		true if it was removed, false if it was not a target.
+	 */
+	public boolean remove(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			if(s < 0)
+				return false;
+			index.remove(ip);
+			probeTimer[s].cancel();
+			expiryTimer[s].cancel();
+			used[s] = false;
+			outSeq[s] = -1;
+			free[freeCount++] = s;
+			return true;
+		}
+	}
+
+	/**
+	 * Remove a target.
+	 * @param		ip - the IP address of the target.
+	 * @return		true if it was removed, false if it was not a target.
+	 */
+	public boolean remove(jND_IPv4Address ip) {
+		return remove(ip.toInt());
+	}
+
+	/**
+	 * Find out whether an address is a target.
+	 * @param		ip - the IP address, as an int.
+	 * @return		true if it is.
+	 */
+	public boolean contains(int ip) {
+		synchronized(mutex) {
+			return index.get(ip) >= 0;
+		}
+	}
+
+	/**
+	 * Get the number of targets.
+	 * @return		the target count.
+	 */
+	public int targets() {
+		synchronized(mutex) {
+			return maxTargets - freeCount;
+		}
+	}
+
+	/**
+	 * Get the most targets the pinger may hold.
+	 * @return		the target limit.
+	 */
+	public int maxTargets() {
+		return maxTargets;
+	}
+
+	/**
+	 * Start pinging. The NIC is opened if it is not open, and closed again
+	 * by stop. A start made while the pinger is running, or while another
+	 * start or a stop is under way, throws.
+	 */
+	public void start() {
+		synchronized(mutex) {
+			if(running || starting)
+				throw new jND_Exception("jND_Pinger.start : pinger is running, starting or stopping");
+			starting = true;
+		}
+		boolean ok = false;
+		try {
+			resolver = jND_ARPResolver.forNIC(nic);
+			cap = new jND_CaptureSession(nic, false);
+			cap.filter("icmp[icmptype] = icmp-echoreply", true, nic.netMask());
+			cap.handler(new jND_PacketHandler() {
+				private jND_EthernetView eth = new jND_EthernetView();
+				private jND_IPv4View ip = new jND_IPv4View();
+				private jND_ICMPView icmp = new jND_ICMPView();
+				public void handle(jND_CapturedPacket pkt) {
+					eth.bind(pkt.data(), 0, pkt.caplen());
+					if(!eth.valid() || eth.type() != jND_EthernetII.T_IP) return;
+					ip.bind(eth);
+					if(!ip.valid() || ip.protocol() != jND_IPv4.P_ICMP
+							|| ip.destAddress() != myIP || ip.fragmentOffset() != 0)
+						return;
+					icmp.bind(ip);
+					if(!icmp.valid() || icmp.type() != jND_ICMP.T_PING_REPLY) return;
+					reply(ip.srcAddress(), icmp.identifier(), icmp.sequenceNumber(),
+						pkt.timestamp());
+				}
+			});
+			cap.start();
+			cap.getThread().setName("jND_Pinger-" + nic.name() + "-listener");
+			if(nic.closed()) {
+				closeNIC = true;
+				nic.open();
+			}
+			ok = true;
+		} catch(jND_Exception nde) {
+			throw nde;
+		} catch(Exception e) {
+			throw new jND_Exception("jND_Pinger.start : " + e.toString());
+		} finally {
+			if(!ok)
+				unstart();
+		}
+
+		synchronized(mutex) {
+			starting = false;
+			running = true;
+			sender = new Thread(new Runnable() {
+				public void run() {
+					send();
+				}
+			}, "jND_Pinger-" + nic.name() + "-sender");
+			sender.setDaemon(true);
+			sender.start();
+			for(int s = 0; s < maxTargets; s++)
+				if(used[s])
+					wheel.schedule(probeTimer[s], (long)(random.nextDouble() * interval));
+		}
+	}
+
+	/**
+	 * Stop pinging. Outstanding requests are forgotten. The pinger may be
+	 * started again.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(mutex) {
+			if(!running)
+				return;
+			running = false;
+			// Keep start out until the session and NIC are released
+			starting = true;
+			for(int s = 0; s < maxTargets; s++) {
+				if(probeTimer[s] != null) {
+					probeTimer[s].cancel();
+					expiryTimer[s].cancel();
+				}
+				outSeq[s] = -1;
+				queuedAt[s] = -1;
+			}
+			sendCount = 0;
+			resolveCount = 0;
+			t = sender;
+			sender = null;
+			mutex.notifyAll();
+		}
+		// Let the sender finish its batch before the NIC is closed
+		if(t != null && t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+		unstart();
+	}
+
+	/**
+	 * Find out whether the pinger is running.
+	 * @return		true between start and stop.
+	 */
+	public boolean running() {
+		synchronized(mutex) {
+			return running;
+		}
+	}
+
+	/**
+	 * Get the NIC the pinger works on.
+	 * @return		the NIC.
+	 */
+	public jND_NIC nic() {
+		return nic;
+	}
+
+	/**
+	 * Get the time between requests to a target.
+	 * @return		the time in milliseconds.
+	 */
+	public long interval() {
+		synchronized(mutex) {
+			return interval;
+		}
+	}
+
+	/**
+	 * Set the time between requests to a target. Takes effect after the
+	 * next request of each target.
+	 * @param		ms - the time in milliseconds, at least TICK.
+	 */
+	public void interval(long ms) {
+		if(ms < TICK)
+			throw new jND_Exception("jND_Pinger.interval : time must be at least "
+				+ TICK + " - " + ms);
+		synchronized(mutex) {
+			interval = ms;
+		}
+	}
+
+	/**
+	 * Get how long a request waits for its reply. Requests give up after
+	 * interval() if that is shorter.
+	 * @return		the time in milliseconds.
+	 */
+	public long timeout() {
+		synchronized(mutex) {
+			return timeout;
+		}
+	}
+
+	/**
+	 * Set how long a request waits for its reply.
+	 * @param		ms - the time in milliseconds, at least TICK.
+	 */
+	public void timeout(long ms) {
+		if(ms < TICK)
+			throw new jND_Exception("jND_Pinger.timeout : time must be at least "
+				+ TICK + " - " + ms);
+		synchronized(mutex) {
+			timeout = ms;
+		}
+	}
+
+	/**
+	 * Get the number of data octets in each request.
+	 * @return		the payload size.
+	 */
+	public int payloadSize() {
+		synchronized(mutex) {
+			return payload;
+		}
+	}
+
+	/**
+	 * Set the number of data octets in each request.
+	 * @param		n - the payload size, from 0 to MAX_PAYLOAD.
+	 */
+	public void payloadSize(int n) {
+		if(n < 0 || n > MAX_PAYLOAD)
+			throw new jND_Exception("jND_Pinger.payloadSize : size must be from 0 to "
+				+ MAX_PAYLOAD + " - " + n);
+		synchronized(mutex) {
+			payload = n;
+		}
+	}
+
+	/**
+	 * Get the listener told of each reply and timeout.
+	 * @return		the listener, or null if there is none.
+	 */
+	public jND_PingListener listener() {
+		synchronized(mutex) {
+			return listener;
+		}
+	}
+
+	/**
+	 * Set the listener told of each reply and timeout.
+	 * @param		l - the listener, or null for none.
+	 */
+	public void listener(jND_PingListener l) {
+		synchronized(mutex) {
+			listener = l;
+		}
+	}
+
+	/**
+	 * Get the number of requests sent to a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the request count, or -1 if it is not a target.
+	 */
+	public long sent(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : sent[s];
+		}
+	}
+
+	/**
+	 * Get the number of replies received from a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the reply count, or -1 if it is not a target.
+	 */
+	public long received(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : received[s];
+		}
+	}
+
+	/**
+	 * Get the number of requests to a target that timed out.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the timeout count, or -1 if it is not a target.
+	 */
+	public long lost(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : lost[s];
+		}
+	}
+
+	/**
+	 * Get the round trip time of the last reply from a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the time in nanoseconds, or -1 if there has been no
+	 *				reply or it is not a target.
+	 */
+	public long rtt(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : rttLast[s];
+		}
+	}
+
+	/**
+	 * Get the shortest round trip time of a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the time in nanoseconds, or -1 if there has been no
+	 *				reply or it is not a target.
+	 */
+	public long minRtt(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : rttMin[s];
+		}
+	}
+
+	/**
+	 * Get the longest round trip time of a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the time in nanoseconds, or -1 if there has been no
+	 *				reply or it is not a target.
+	 */
+	public long maxRtt(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 ? -1 : rttMax[s];
+		}
+	}
+
+	/**
+	 * Get the mean round trip time of a target.
+	 * @param		ip - the IP address of the target, as an int.
+	 * @return		the time in nanoseconds, or -1 if there has been no
+	 *				reply or it is not a target.
+	 */
+	public long averageRtt(int ip) {
+		synchronized(mutex) {
+			int s = index.get(ip);
+			return s < 0 || received[s] == 0 ? -1 : rttSum[s] / received[s];
+		}
+	}
+
+	/**
+	 * Get the number of requests sent to all targets.
+	 * @return		the request count.
+	 */
+	public long sent() {
+		synchronized(mutex) {
+			return totalSent;
+		}
+	}
+
+	/**
+	 * Get the number of replies received from all targets.
+	 * @return		the reply count.
+	 */
+	public long received() {
+		synchronized(mutex) {
+			return totalReceived;
+		}
+	}
+
+	/**
+	 * Get the number of requests to all targets that timed out.
+	 * @return		the timeout count.
+	 */
+	public long lost() {
+		synchronized(mutex) {
+			return totalLost;
+		}
+	}
+
+	/**
+	 * Get the number of requests not sent because the MAC address of the
+	 * target was not known.
+	 * @return		the request count.
+	 */
+	public long unresolved() {
+		synchronized(mutex) {
+			return unresolved;
+		}
+	}
+
+	/**
+	 * Get the number of echo replies that matched no outstanding request:
+	 * late or duplicate replies, and replies to other programs.
+	 * @return		the reply count.
+	 */
+	public long unmatched() {
+		synchronized(mutex) {
+			return unmatched;
+		}
+	}
+
+	// ================= the timers ====================
+
+	// The probe timer of slot s has expired: queue a request
+	private void probe(int s) {
+		int lostSeq = -1, ip;
+		jND_PingListener l;
+		synchronized(mutex) {
+			if(!running || !used[s])
+				return;
+			ip = ips[s];
+			l = listener;
+			if(outSeq[s] >= 0) {
+				// Given up on when the next request is due, if not before
+				lostSeq = outSeq[s];
+				lose(s);
+			}
+			wheel.schedule(probeTimer[s], interval);
+
+			byte[] mac = resolver.cached(ip);
+			if(mac == null) {
+				unresolved++;
+				if(resolveCount < resolveIP.length) {
+					resolveIP[resolveCount++] = ip;
+					if(resolveCount == 1 && sendCount == 0)
+						mutex.notifyAll();
+				}
+			} else {
+				int seq = nextSeq[s];
+				nextSeq[s] = (seq + 1) & 0xffff;
+				outSeq[s] = seq;
+				sentWall[s] = wallClock();
+				sentNano[s] = armed[s] = System.nanoTime();
+				sent[s]++;
+				totalSent++;
+				wheel.schedule(expiryTimer[s], Math.min(timeout, interval));
+
+				// A request the sender has not got to yet is replaced
+				int q = queuedAt[s];
+				if(q < 0) {
+					q = queuedAt[s] = sendCount++;
+					if(q == 0 && resolveCount == 0)
+						mutex.notifyAll();
+				}
+				sendSlot[q] = s;
+				sendSeq[q] = seq;
+				sendIP[q] = ip;
+				sendMAC[q] = mac;
+			}
+		}
+		if(lostSeq >= 0 && l != null)
+			l.timeout(ip, lostSeq);
+	}
+
+	// The expiry timer of slot s has expired: give up on the request
+	private void expire(int s) {
+		int ip, seq;
+		jND_PingListener l;
+		synchronized(mutex) {
+			// The timer is set again for each request; make sure it is
+			// this request's that has run
+			if(!used[s] || outSeq[s] < 0
+					|| System.nanoTime() - armed[s] < Math.min(timeout, interval) * 1000000)
+				return;
+			ip = ips[s];
+			seq = outSeq[s];
+			lose(s);
+			l = listener;
+		}
+		if(l != null)
+			l.timeout(ip, seq);
+	}
+
+	private void lose(int s) {
+		expiryTimer[s].cancel();
+		outSeq[s] = -1;
+		lost[s]++;
+		totalLost++;
+	}
+
+	// The sender thread: wait for requests from the slot timers and send
+	// them, and start the lookups of addresses that are not known
+	private void send() {
+		while(true) {
+			int n, r, len;
+			synchronized(mutex) {
+				while(running && sendCount == 0 && resolveCount == 0) {
+					try {
+						mutex.wait();
+					} catch(InterruptedException ie) {
+						return;
+					}
+				}
+				if(!running)
+					return;
+				n = sendCount;
+				int[] t = flushSlot; flushSlot = sendSlot; sendSlot = t;
+				t = flushSeq; flushSeq = sendSeq; sendSeq = t;
+				t = flushIP; flushIP = sendIP; sendIP = t;
+				byte[][] m = flushMAC; flushMAC = sendMAC; sendMAC = m;
+				for(int i = 0; i < n; i++)
+					queuedAt[flushSlot[i]] = -1;
+				sendCount = 0;
+				r = resolveCount;
+				t = flushResolve; flushResolve = resolveIP; resolveIP = t;
+				resolveCount = 0;
+				len = payload;
+			}
+			for(int i = 0; i < r; i++) {
+				try {
+					resolver.lookup(flushResolve[i]);
+				} catch(jND_Exception nde) {
+					// The resolver was closed; the next request asks again
+				}
+			}
+			flush(n, len);
+		}
+	}
+
+	// Send n requests taken from the queue, a batch at a time
+	private void flush(int n, int len) {
+		int size = HEADERS + MAX_PAYLOAD;
+		for(int first = 0; first < n; first += BATCH) {
+			int k = Math.min(BATCH, n - first);
+			for(int i = 0; i < k; i++) {
+				int j = first + i;
+				offsets[i] = i * size;
+				lengths[i] = build(data, buf, offsets[i], flushMAC[j], flushIP[j],
+					ident(flushSlot[j]), flushSeq[j], pattern, len);
+				flushMAC[j] = null;
+			}
+			synchronized(mutex) {
+				long wall = wallClock();
+				long mono = System.nanoTime();
+				for(int i = 0; i < k; i++) {
+					int s = flushSlot[first + i];
+					if(outSeq[s] == flushSeq[first + i]) {
+						sentWall[s] = wall;
+						sentNano[s] = mono;
+					}
+				}
+			}
+			try {
+				int done = 0;
+				while(done < k) {
+					int m = nic.injectBatch(data, offsets, lengths, k - done);
+					if(m < 1)
+						break;
+					System.arraycopy(offsets, m, offsets, 0, k - done - m);
+					System.arraycopy(lengths, m, lengths, 0, k - done - m);
+					done += m;
+				}
+			} catch(jND_Exception nde) {
+				// The requests time out like any that are lost
+				jND_Utility.debug("jND_Pinger : " + nde.getMessage());
+			}
+		}
+	}
+
+	// Called by the capture thread for each echo reply to this host
+	private void reply(int src, int ident, int seq, long timestamp) {
+		long mono = System.nanoTime();
+		long rtt;
+		jND_PingListener l;
+		synchronized(mutex) {
+			int s = (ident - identBase) & 0xffff;
+			if(s >= maxTargets || !used[s] || ips[s] != src || outSeq[s] != seq) {
+				unmatched++;
+				return;
+			}
+			outSeq[s] = -1;
+			expiryTimer[s].cancel();
+
+			// Trust the capture time unless it is out of step with our clock
+			long elapsed = mono - sentNano[s];
+			rtt = timestamp - sentWall[s];
+			if(timestamp <= 0 || rtt < 0 || rtt > elapsed)
+				rtt = elapsed;
+
+			received[s]++;
+			totalReceived++;
+			rttLast[s] = rtt;
+			rttSum[s] += rtt;
+			if(rttMin[s] < 0 || rtt < rttMin[s])
+				rttMin[s] = rtt;
+			if(rtt > rttMax[s])
+				rttMax[s] = rtt;
+			l = listener;
+		}
+		if(l != null)
+			l.reply(src, seq, rtt);
+	}
+
+	// ================= packets ====================
+
+	private int ident(int s) {
+		return (identBase + s) & 0xffff;
+	}
+
+	// Write an echo request at off; return its length
+	private int build(byte[] b, ByteBuffer buf, int off, byte[] mac, int ip,
+			int ident, int seq, byte[] pattern, int len) {
+		System.arraycopy(mac, 0, b, off, 6);
+		System.arraycopy(myMAC, 0, b, off + 6, 6);
+		b[off + 12] = (byte)(jND_EthernetII.T_IP >> 8);
+		b[off + 13] = (byte)jND_EthernetII.T_IP;
+
+		int p = off + 14;
+		b[p] = 0x45;
+		b[p + 1] = 0;
+		put16(b, p + 2, 20 + 8 + len);
+		put16(b, p + 4, seq);				// IP identification
+		put16(b, p + 6, 0);
+		b[p + 8] = 64;
+		b[p + 9] = (byte)jND_IPv4.P_ICMP;
+		put16(b, p + 10, 0);
+		put32(b, p + 12, myIP);
+		put32(b, p + 16, ip);
+		put16(b, p + 10, jND_Utility.checkSum(buf, p, 20));
+
+		int q = p + 20;
+		b[q] = jND_ICMP.T_PING_REQUEST;
+		b[q + 1] = 0;
+		put16(b, q + 2, 0);
+		put16(b, q + 4, ident);
+		put16(b, q + 6, seq);
+		System.arraycopy(pattern, 0, b, q + 8, len);
+		put16(b, q + 2, jND_Utility.checkSum(buf, q, 8 + len));
+		return HEADERS + len;
+	}
+
+	private static void put16(byte[] b, int i, int v) {
+		b[i] = (byte)(v >>> 8);
+		b[i + 1] = (byte)v;
+	}
+
+	private static void put32(byte[] b, int i, int v) {
+		b[i] = (byte)(v >>> 24);
+		b[i + 1] = (byte)(v >>> 16);
+		b[i + 2] = (byte)(v >>> 8);
+		b[i + 3] = (byte)v;
+	}
+
+	// The time in ns since the epoch, as precisely as the JVM knows it, to
+	// compare with capture timestamps
+	private static long wallClock() {
+		java.time.Instant now = java.time.Instant.now();
+		return now.getEpochSecond() * 1000000000L + now.getNano();
+	}
+
+	// Release what a failed start or a stop leaves, and let start in again
+	private void unstart() {
+		release();
+		synchronized(mutex) {
+			starting = false;
+		}
+	}
+
+	// Release the capture session and the NIC
+	private void release() {
+		if(cap != null) {
+			try {
+				cap.dispose();
+			} catch(jND_Exception nde) {
+				jND_Utility.debug("jND_Pinger : " + nde.getMessage());
+			}
+			cap = null;
+		}
+		if(closeNIC) {
+			closeNIC = false;
+			nic.close();
+		}
+	}
+
+	// Open addressing table of int keys to non-negative int values, of
+	// fixed capacity
+	private static class IntMap {
+		private int[] keys;
+		private int[] vals;		// -1 where empty
+		private int mask;
+
+		IntMap(int capacity) {
+			int n = 2;
+			while(n < 2 * capacity)
+				n <<= 1;
+			keys = new int[n];
+			vals = new int[n];
+			java.util.Arrays.fill(vals, -1);
+			mask = n - 1;
+		}
+
+		private int home(int k) {
+			int h = k * 0x9e3779b9;
+			return (h ^ (h >>> 16)) & mask;
+		}
+
+		int get(int k) {
+			for(int i = home(k); ; i = (i + 1) & mask) {
+				if(vals[i] < 0) return -1;
+				if(keys[i] == k) return vals[i];
+			}
+		}
+
+		void put(int k, int v) {
+			int i = home(k);
+			while(vals[i] >= 0 && keys[i] != k)
+				i = (i + 1) & mask;
+			keys[i] = k;
+			vals[i] = v;
+		}
+
+		void remove(int k) {
+			int i = home(k);
+			for(;; i = (i + 1) & mask) {
+				if(vals[i] < 0) return;
+				if(keys[i] == k) break;
+			}
+			// Shift back later entries of the run that belong before the hole
+			for(int j = (i + 1) & mask; vals[j] >= 0; j = (j + 1) & mask) {
+				int h = home(keys[j]);
+				if(((j - h) & mask) >= ((j - i) & mask)) {
+					keys[i] = keys[j];
+					vals[i] = vals[j];
+					i = j;
+				}
+			}
+			vals[i] = -1;
+		}
+	};
+};
@@ -0,0 +1,158 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * jND_RateLimiter <br>
+ * Class to pace a sender with a token bucket. A limiter may bound the
+ * packet rate, the bit rate, or both; a rate of 0 means no limit of that
+ * kind. Tokens accrue continuously at the configured rate, up to a burst
+ * allowance, and each send spends one token per packet and one per bit.
+ * <br><br>
+ * A send is allowed whenever no bucket is in debt, even if it spends
+ * more than the bucket holds. A large batch therefore goes out at once
+ * and the next send waits until the debt is repaid, which keeps the
+ * long term rate exact whatever the batch size.
+ * <br><br>
+ * A limiter may be shared by several threads.
+ * <br><br>
+ */
+public class jND_RateLimiter {
+	// Default burst allowance, as a time at the configured rate
+	public static final long DEFAULT_BURST_NS = 10000000L;
+
+	// Waits longer than this sleep; shorter ones park
+	private static final long SLEEP_NS = 2000000L;
+
+	private double pps;				// packets per second, 0 = unlimited
+	private double bps;				// bits per second, 0 = unlimited
+	private double pktTokens;		// packet tokens on hand, < 0 when in debt
+	private double bitTokens;		// bit tokens on hand, < 0 when in debt
+	private double pktBurst;		// most packet tokens the bucket holds
+	private double bitBurst;		// most bit tokens the bucket holds
+	private long last;				// System.nanoTime() of the last refill
+	private jND_Mutex mutex;
+
+	/**
+	 * Construct a limiter with a burst allowance of DEFAULT_BURST_NS worth
+	 * of traffic (but at least one packet and one 1518 octet frame).
+	 * @param		packetsPerSecond - the packet rate, 0 for no limit.
+	 * @param		bitsPerSecond - the bit rate, 0 for no limit.
+	 */
+	public jND_RateLimiter(double packetsPerSecond, double bitsPerSecond) {
+		if(packetsPerSecond < 0 || bitsPerSecond < 0)
+			throw new jND_Exception(
+				"jND_RateLimiter.constructor : rates must not be negative");
+		mutex = new jND_Mutex();
+		pps = packetsPerSecond;
+		bps = bitsPerSecond;
+		burst(DEFAULT_BURST_NS);
+	}
+
+	/**
+	 * Set the burst allowance, the traffic that may go out back to back
+	 * after the sender has been idle. The bucket starts full.
+	 * @param		nanos - the allowance as a time at the configured rate.
+	 */
+	public void burst(long nanos) {
+		synchronized(mutex) {
+			pktBurst = Math.max(1.0, pps * nanos / 1e9);
+			bitBurst = Math.max(1518 * 8.0, bps * nanos / 1e9);
+			pktTokens = pktBurst;
+			bitTokens = bitBurst;
+			last = System.nanoTime();
+		}
+	}
+
+	/**
+	 * Get the packet rate.
+	 * @return		packets per second, 0 if unlimited.
+	 */
+	public double packetsPerSecond() {
+		return pps;
+	}
+
+	/**
+	 * Get the bit rate.
+	 * @return		bits per second, 0 if unlimited.
+	 */
+	public double bitsPerSecond() {
+		return bps;
+	}
+
+	/**
+	 * Wait until the given traffic may be sent, and spend its tokens.
+	 * @param		packets - the number of packets about to be sent.
+	 * @param		octets - their total length.
+	 * @return		the time spent waiting, in nanoseconds.
+	 */
+	public long acquire(int packets, long octets) throws jND_Exception {
+		long begin = 0;
+		for(;;) {
+			long wait = tryTake(packets, octets);
+			if(wait == 0) return begin == 0 ? 0 : System.nanoTime() - begin;
+			if(begin == 0) begin = System.nanoTime();
+			if(wait > SLEEP_NS) {
+				try {
+					Thread.sleep((wait - SLEEP_NS / 2) / 1000000L);
+				} catch(InterruptedException ie) {
+					throw new jND_Exception("jND_RateLimiter.acquire Interrupted: " + ie.toString());
+				}
+			}
+			else
+				LockSupport.parkNanos(wait);
+		}
+	}
+
+	/**
+	 * Spend the tokens for the given traffic if it may be sent now.
+	 * @param		packets - the number of packets about to be sent.
+	 * @param		octets - their total length.
+	 * @return		true if the traffic may be sent, false if the caller
+	 *				must wait.
+	 */
+	public boolean tryAcquire(int packets, long octets) {
+		return tryTake(packets, octets) == 0;
+	}
+
+	/**
+	 * Refill the buckets and, if neither is in debt, spend the tokens.
+	 * @return		0 if the tokens were spent, otherwise how long to wait
+	 *				until they may be, in nanoseconds.
+	 */
+	private long tryTake(int packets, long octets) {
+		synchronized(mutex) {
+			long now = System.nanoTime();
+			double secs = (now - last) / 1e9;
+			last = now;
+			pktTokens = Math.min(pktBurst, pktTokens + pps * secs);
+			bitTokens = Math.min(bitBurst, bitTokens + bps * secs);
+
+			long wait = 0;
+			if(pps > 0 && pktTokens < 0)
+				wait = (long)(-pktTokens / pps * 1e9) + 1;
+			if(bps > 0 && bitTokens < 0)
+				wait = Math.max(wait, (long)(-bitTokens / bps * 1e9) + 1);
+			if(wait != 0) return wait;
+
+			if(pps > 0) pktTokens -= packets;
+			if(bps > 0) bitTokens -= octets * 8.0;
+			return 0;
+		}
+	}
+};
@@ -0,0 +1,104 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_Timeout <br>
+ * Class to hold a task scheduled on a jND_TimerWheel. The same timeout
+ * may be scheduled again and again, so a protocol that restarts a timer
+ * for every packet need not allocate one each time.
+ * <pre>
+ *     jND_Timeout idle = new jND_Timeout(new Runnable() {
+ *         public void run() {
+ *             ...
+ *         }
+ *     });
+ *     jND_TimerWheel.shared().schedule(idle, 15000);
+ *     ...
+ *     jND_TimerWheel.shared().schedule(idle, 15000);	// push it back
+ *     ...
+ *     idle.cancel();
+ * </pre>
+ * <br>
+ */
+public class jND_Timeout {
+	// States
+	public static final int IDLE = 0;			// never scheduled
+	public static final int PENDING = 1;
+	public static final int FIRED = 2;
+	public static final int CANCELLED = 3;
+
+	// Managed by the wheel, under its mutex
+	jND_TimerWheel wheel = null;
+	jND_Timeout prev = null;
+	jND_Timeout next = null;
+	long deadline;					// tick the task is due at
+	int state = IDLE;
+
+	private Runnable task;
+
+	/**
+	 * Construct a timeout for a task. It does nothing until it is
+	 * scheduled with jND_TimerWheel.schedule.
+	 * @param		task - the task to run when the timeout expires.
+	 */
+	public jND_Timeout(Runnable task) {
+		if(task == null)
+			throw new jND_Exception("jND_Timeout.constructor : task must not be null");
+		this.task = task;
+	}
+
+	/**
+	 * Get the task run when the timeout expires.
+	 * @return		the task.
+	 */
+	public Runnable task() {
+		return task;
+	}
+
+	/**
+	 * Stop the timeout from expiring.
+	 * @return		true if it was pending, false if it had already
+	 *				expired, been cancelled or never been scheduled. A
+	 *				timeout that has expired may still be running its task.
+	 */
+	public boolean cancel() {
+		jND_TimerWheel w = wheel;
+		return w != null && w.cancel(this);
+	}
+
+	/**
+	 * Get the state of the timeout.
+	 * @return		IDLE, PENDING, FIRED or CANCELLED.
+	 */
+	public int state() {
+		jND_TimerWheel w = wheel;
+		if(w == null)
+			return state;
+		synchronized(w.mutex()) {
+			return state;
+		}
+	}
+
+	/**
+	 * Find out whether the timeout is waiting to expire.
+	 * @return		true if it is.
+	 */
+	public boolean pending() {
+		return state() == PENDING;
+	}
+};
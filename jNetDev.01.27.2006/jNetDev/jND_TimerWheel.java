@@ -0,0 +1,405 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_TimerWheel <br>
+ * Class to run tasks after a delay, built for very many short lived
+ * timeouts such as request retries, probe expiries and idle timers,
+ * most of which are cancelled before they expire. Timeouts are kept on
+ * a hashed timing wheel: a ring of slots, each a list of the timeouts
+ * due when the wheel reaches it, so scheduling and cancelling a timeout
+ * take the same short time however many are pending.
+ * <pre>
+ *            current
+ *               v
+ *     +----+----+----+----+--   --+----+
+ *     |    | t1 |    | t2 |  ...  | t3 |   slot = deadline tick % slots()
+ *     +----+----+----+----+--   --+----+
+ * </pre>
+ * One thread turns the wheel, a slot every tick() milliseconds, and runs
+ * the tasks that are due. Tasks therefore run up to about a tick late,
+ * never early, and must be short; anything long should be handed to another thread. A
+ * task that throws is counted by errors() and does not stop the wheel.
+ * <br><br>
+ * Most code should use the wheel given by shared(), so the whole
+ * library needs only one timer thread. The thread is a daemon, and sleeps
+ * while nothing is pending.
+ * <br><br>
+ * A wheel may be used by any number of threads.
+ * <br><br>
+ */
+public class jND_TimerWheel {
+	// Defaults
+	public static final long DEFAULT_TICK = 10;
+	public static final int DEFAULT_SLOTS = 512;
+
+	private static jND_Mutex sharedMutex = new jND_Mutex();
+	private static jND_TimerWheel shared = null;
+
+	private jND_Mutex mutex = new jND_Mutex();
+	private String name;
+	private long tickNs;
+	private jND_Timeout[] head;
+	private int mask;
+	private long origin = System.nanoTime();	// time of tick 0
+	private long current = 0;					// tick being processed, or next to be
+	private Thread ticker = null;
+	private boolean idle = false;				// the ticker waits for work
+	private boolean stopped = false;
+	private jND_Timeout[] batch = new jND_Timeout[64];	// due timeouts, for the ticker
+
+	private int pending = 0;
+	private long scheduled = 0;
+	private long fired = 0;
+	private long cancelled = 0;
+	private long errors = 0;
+
+	/**
+	 * Get the wheel shared by the whole library.
+	 * @return		the shared wheel.
+	 */
+	public static jND_TimerWheel shared() {
+		synchronized(sharedMutex) {
+			if(shared == null)
+				shared = new jND_TimerWheel("jND_TimerWheel", DEFAULT_TICK, DEFAULT_SLOTS);
+			return shared;
+		}
+	}
+
+	/**
+	 * Construct a wheel of DEFAULT_SLOTS slots, turning every DEFAULT_TICK
+	 * milliseconds.
+	 */
+	public jND_TimerWheel() {
+		this("jND_TimerWheel-private", DEFAULT_TICK, DEFAULT_SLOTS);
+	}
+
+	/**
+	 * Construct a wheel. Timeouts longer than tick * slots milliseconds
+	 * are passed over by the wheel until their turn comes, so slots should
+	 * be large enough that most timeouts fit in one turn.
+	 * @param		tick - the milliseconds per slot, at least 1.
+	 * @param		slots - the number of slots, rounded up to a power of 2.
+	 */
+	public jND_TimerWheel(long tick, int slots) {
+		this("jND_TimerWheel-private", tick, slots);
+	}
+
+	private jND_TimerWheel(String name, long tick, int slots) {
+		if(tick < 1)
+			throw new jND_Exception("jND_TimerWheel.constructor : tick must be positive - " + tick);
+		if(slots < 1 || slots > 1 << 24)
+			throw new jND_Exception("jND_TimerWheel.constructor : slots must be from 1 to "
+				+ (1 << 24) + " - " + slots);
+		int n = 1;
+		while(n < slots)
+			n <<= 1;
+		this.name = name;
+		tickNs = tick * 1000000;
+		head = new jND_Timeout[n];
+		mask = n - 1;
+	}
+
+	/**
+	 * Run a task after a delay.
+	 * @param		task - the task.
+	 * @param		delay - the delay in milliseconds.
+	 * @return		the timeout, which may be cancelled or scheduled again.
+	 */
+	public jND_Timeout schedule(Runnable task, long delay) {
+		jND_Timeout t = new jND_Timeout(task);
+		schedule(t, delay);
+		return t;
+	}
+
+	/**
+	 * Schedule a timeout. A timeout that is already pending on this wheel
+	 * is moved to the new time.
+	 * @param		t - the timeout.
+	 * @param		delay - the delay in milliseconds. The task runs within
+	 *				one tick after it.
+	 */
+	public void schedule(jND_Timeout t, long delay) {
+		if(delay < 0)
+			throw new jND_Exception("jND_TimerWheel.schedule : delay must not be negative - " + delay);
+		long now = System.nanoTime();
+		synchronized(mutex) {
+			if(stopped)
+				throw new jND_Exception("jND_TimerWheel.schedule : wheel is stopped");
+			if(t.state == jND_Timeout.PENDING) {
+				if(t.wheel != this)
+					throw new jND_Exception("jND_TimerWheel.schedule : timeout is pending on another wheel");
+				unlink(t);
+			} else {
+				pending++;
+			}
+			if(idle) {
+				// Nothing was due while the ticker slept; start from now
+				current = Math.max(current, (now - origin) / tickNs);
+				idle = false;
+				mutex.notifyAll();
+			}
+			// The first tick that starts no sooner than the delay ends; with
+			// no delay, the tick being processed. A delay too long to count
+			// in ns, such as Long.MAX_VALUE for never, is cut to 146 years.
+			long ns = delay >= Long.MAX_VALUE / 2000000L ? Long.MAX_VALUE / 2 : delay * 1000000L;
+			t.deadline = Math.max(delay == 0 ? (now - origin) / tickNs
+				: (now - origin + ns + tickNs - 1) / tickNs, current);
+			t.wheel = this;
+			t.state = jND_Timeout.PENDING;
+			int s = (int)(t.deadline & mask);
+			t.prev = null;
+			t.next = head[s];
+			if(head[s] != null)
+				head[s].prev = t;
+			head[s] = t;
+			scheduled++;
+			if(ticker == null)
+				start();
+		}
+	}
+
+	/**
+	 * Cancel a timeout. The same as t.cancel().
+	 * @param		t - the timeout.
+	 * @return		true if it was pending on this wheel.
+	 */
+	public boolean cancel(jND_Timeout t) {
+		synchronized(mutex) {
+			if(t.wheel != this || t.state != jND_Timeout.PENDING)
+				return false;
+			unlink(t);
+			t.state = jND_Timeout.CANCELLED;
+			pending--;
+			cancelled++;
+			return true;
+		}
+	}
+
+	/**
+	 * Stop the wheel. Pending timeouts are cancelled without running. The
+	 * shared wheel may not be stopped.
+	 */
+	public void stop() {
+		Thread t;
+		synchronized(sharedMutex) {
+			if(this == shared)
+				throw new jND_Exception("jND_TimerWheel.stop : the shared wheel may not be stopped");
+		}
+		synchronized(mutex) {
+			if(stopped)
+				return;
+			stopped = true;
+			for(int s = 0; s <= mask; s++) {
+				for(jND_Timeout e = head[s]; e != null; e = e.next) {
+					e.state = jND_Timeout.CANCELLED;
+					cancelled++;
+				}
+				head[s] = null;
+			}
+			pending = 0;
+			mutex.notifyAll();
+			t = ticker;
+		}
+		if(t != null && t != Thread.currentThread()) {
+			try {
+				t.join();
+			} catch(InterruptedException ie) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Find out whether the wheel has been stopped.
+	 * @return		true if stop has been called.
+	 */
+	public boolean stopped() {
+		synchronized(mutex) {
+			return stopped;
+		}
+	}
+
+	/**
+	 * Get the milliseconds per slot.
+	 * @return		the tick.
+	 */
+	public long tick() {
+		return tickNs / 1000000;
+	}
+
+	/**
+	 * Get the number of slots.
+	 * @return		the slot count.
+	 */
+	public int slots() {
+		return mask + 1;
+	}
+
+	/**
+	 * Get the number of timeouts waiting to expire.
+	 * @return		the timeout count.
+	 */
+	public int pending() {
+		synchronized(mutex) {
+			return pending;
+		}
+	}
+
+	/**
+	 * Get the number of times a timeout has been scheduled.
+	 * @return		the count.
+	 */
+	public long scheduled() {
+		synchronized(mutex) {
+			return scheduled;
+		}
+	}
+
+	/**
+	 * Get the number of timeouts that have expired and run their task.
+	 * @return		the count.
+	 */
+	public long fired() {
+		synchronized(mutex) {
+			return fired;
+		}
+	}
+
+	/**
+	 * Get the number of timeouts cancelled before they expired.
+	 * @return		the count.
+	 */
+	public long cancelled() {
+		synchronized(mutex) {
+			return cancelled;
+		}
+	}
+
+	/**
+	 * Get the number of tasks that threw an exception.
+	 * @return		the count.
+	 */
+	public long errors() {
+		synchronized(mutex) {
+			return errors;
+		}
+	}
+
+	/**
+	 * The mutex guarding the wheel and the state of its timeouts.
+	 */
+	jND_Mutex mutex() {
+		return mutex;
+	}
+
+	private void unlink(jND_Timeout t) {
+		int s = (int)(t.deadline & mask);
+		if(t.prev != null)
+			t.prev.next = t.next;
+		else
+			head[s] = t.next;
+		if(t.next != null)
+			t.next.prev = t.prev;
+		t.prev = t.next = null;
+	}
+
+	// Called with the mutex held
+	private void start() {
+		ticker = new Thread(new Runnable() {
+			public void run() {
+				turn();
+			}
+		}, name);
+		ticker.setDaemon(true);
+		ticker.start();
+	}
+
+	// Body of the ticker thread
+	private void turn() {
+		for(;;) {
+			int n = 0;
+			long wake = 0;
+			synchronized(mutex) {
+				for(;;) {
+					if(stopped)
+						return;
+					if(pending > 0)
+						break;
+					idle = true;
+					try {
+						mutex.wait();
+					} catch(InterruptedException ie) {
+						// Only stop ends the ticker
+					}
+				}
+				idle = false;
+				// Take what is due in the next slot. The same tick is taken
+				// again after its tasks have run, in case they scheduled more
+				// for it.
+				long now = (System.nanoTime() - origin) / tickNs;
+				while(current <= now && (n = detach(current)) == 0)
+					current++;
+				if(n == 0)
+					wake = origin + current * tickNs;
+			}
+			if(n > 0) {
+				for(int i = 0; i < n; i++) {
+					jND_Timeout t = batch[i];
+					batch[i] = null;
+					try {
+						t.task().run();
+					} catch(Throwable e) {
+						synchronized(mutex) {
+							errors++;
+						}
+						jND_Utility.debug("jND_TimerWheel : task failed - " + e.toString());
+					}
+				}
+				continue;
+			}
+			long left = wake - System.nanoTime();
+			if(left > 0)
+				java.util.concurrent.locks.LockSupport.parkNanos(left);
+		}
+	}
+
+	// Take the timeouts due at tick t off the wheel, into batch. Called
+	// with the mutex held.
+	private int detach(long t) {
+		int s = (int)(t & mask);
+		int n = 0;
+		for(jND_Timeout e = head[s]; e != null; ) {
+			jND_Timeout next = e.next;
+			if(e.deadline <= t) {
+				unlink(e);
+				e.state = jND_Timeout.FIRED;
+				pending--;
+				fired++;
+				if(n == batch.length) {
+					jND_Timeout[] b = new jND_Timeout[2 * n];
+					System.arraycopy(batch, 0, b, 0, n);
+					batch = b;
+				}
+				batch[n++] = e;
+			}
+			e = next;
+		}
+		return n;
+	}
+};
@@ -0,0 +1,226 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import jNetDev.Headers.*;
+import java.nio.ByteBuffer;
+
+/**
+ * jND_TracePacket <br>
+ * Class to hold one packet of a trace being processed by a
+ * jND_ParallelTrace, decoded with the header views. The views are bound
+ * to the packet where it lies in the file, so decoding copies nothing.
+ * <br><br>
+ * Each worker reuses one jND_TracePacket for all its packets, so a
+ * packet and its views are only valid during jND_TraceReducer.packet.
+ * Use toByteArray() to keep the packet.
+ * <br><br>
+ */
+public class jND_TracePacket {
+	private jND_EthernetView eth;
+	private jND_IPv4View ip;
+	private jND_TCPView tcp;
+	private jND_UDPView udp;
+	private boolean hasEth;
+	private boolean hasIP;
+	private boolean hasTCP;
+	private boolean hasUDP;
+
+	private ByteBuffer buffer;
+	private int offset;
+	private int caplen;
+	private int wireLength;
+	private long timestamp;
+	private long index;
+	private int ifIndex;
+	private int linkType;
+	private int flowHash;
+	private boolean hashed;
+
+	/**
+	 * Construct an empty packet. Only jND_ParallelTrace creates these.
+	 */
+	jND_TracePacket() {
+		eth = new jND_EthernetView();
+		ip = new jND_IPv4View();
+		tcp = new jND_TCPView();
+		udp = new jND_UDPView();
+	}
+
+	/**
+	 * Take the current packet of a reader and decode its headers.
+	 * @param		r - the reader, positioned at the packet.
+	 * @param		n - the number of the packet in the file, from 0.
+	 */
+	void load(jND_PcapReader r, long n) {
+		buffer = r.buffer();
+		offset = r.offset();
+		caplen = r.caplen();
+		wireLength = r.wireLength();
+		timestamp = r.timestamp();
+		ifIndex = r.ifIndex();
+		linkType = r.linkType();
+		index = n;
+		hashed = false;
+
+		hasEth = hasIP = hasTCP = hasUDP = false;
+		if(linkType != jND_PcapReader.LINKTYPE_ETHERNET) return;
+		eth.bind(buffer, offset, caplen);
+		if(!eth.valid()) return;
+		hasEth = true;
+		if(eth.type() != jND_EthernetII.T_IP) return;
+		ip.bind(eth);
+		if(!ip.valid() || ip.version() != 4) return;
+		hasIP = true;
+		if(ip.fragmentOffset() != 0) return;
+		if(ip.protocol() == jND_IPv4.P_TCP) {
+			tcp.bind(ip);
+			hasTCP = tcp.valid();
+		}
+		else if(ip.protocol() == jND_IPv4.P_UDP) {
+			udp.bind(ip);
+			hasUDP = udp.valid();
+		}
+	}
+
+	/**
+	 * Set the flow hash, when it is already known.
+	 */
+	void flowHash(int h) {
+		flowHash = h;
+		hashed = true;
+	}
+
+	/**
+	 * Get the Ethernet header.
+	 * @return		a view of the header, or null if the packet is not an
+	 *				Ethernet frame.
+	 */
+	public jND_EthernetView ethernet() {
+		return hasEth ? eth : null;
+	}
+
+	/**
+	 * Get the IPv4 header.
+	 * @return		a view of the header, or null if the packet is not IPv4.
+	 */
+	public jND_IPv4View ipv4() {
+		return hasIP ? ip : null;
+	}
+
+	/**
+	 * Get the TCP header.
+	 * @return		a view of the header, or null if the packet is not TCP
+	 *				(or is a fragment other than the first).
+	 */
+	public jND_TCPView tcp() {
+		return hasTCP ? tcp : null;
+	}
+
+	/**
+	 * Get the UDP header.
+	 * @return		a view of the header, or null if the packet is not UDP
+	 *				(or is a fragment other than the first).
+	 */
+	public jND_UDPView udp() {
+		return hasUDP ? udp : null;
+	}
+
+	/**
+	 * Get the flow hash of the packet (see jND_FlowHash).
+	 * @return		the hash.
+	 */
+	public int flowHash() {
+		if(!hashed)
+			flowHash(jND_FlowHash.hash(buffer, offset, caplen));
+		return flowHash;
+	}
+
+	/**
+	 * Get the buffer holding the packet.
+	 * @return		the reader's window onto the file.
+	 */
+	public ByteBuffer buffer() {
+		return buffer;
+	}
+
+	/**
+	 * Get the offset of the packet in buffer().
+	 * @return		where the packet starts.
+	 */
+	public int offset() {
+		return offset;
+	}
+
+	/**
+	 * Get the captured length of the packet.
+	 * @return		the number of octets saved in the file.
+	 */
+	public int caplen() {
+		return caplen;
+	}
+
+	/**
+	 * Get the length the packet had on the wire.
+	 * @return		the original length of the packet.
+	 */
+	public int wireLength() {
+		return wireLength;
+	}
+
+	/**
+	 * Get the time the packet was captured.
+	 * @return		the capture time in nanoseconds since the epoch.
+	 */
+	public long timestamp() {
+		return timestamp;
+	}
+
+	/**
+	 * Get the number of the packet in the file.
+	 * @return		the packet number, from 0.
+	 */
+	public long index() {
+		return index;
+	}
+
+	/**
+	 * Get the interface the packet was captured on.
+	 * @return		the pcapng interface id, 0 for pcap.
+	 */
+	public int ifIndex() {
+		return ifIndex;
+	}
+
+	/**
+	 * Get the link type of the packet.
+	 * @return		the link type, e.g. jND_PcapReader.LINKTYPE_ETHERNET.
+	 */
+	public int linkType() {
+		return linkType;
+	}
+
+	/**
+	 * Copy the packet out of the file.
+	 * @return		a new byte array containing the packet.
+	 */
+	public byte[] toByteArray() {
+		byte[] pkt = new byte[caplen];
+		for(int i = 0; i < caplen; i++)
+			pkt[i] = buffer.get(offset + i);
+		return pkt;
+	}
+};
@@ -0,0 +1,65 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+
+/**
+ * jND_TraceReducer <br>
+ * Interface of the user code run by a jND_ParallelTrace. The trace is cut
+ * into pieces; each piece gets its own result from start(), which is fed
+ * the packets of the piece one at a time by packet(). The results of the
+ * pieces are then combined pairwise by merge(), in file order.
+ * <pre>
+ *     jND_TraceReducer countTCP = new jND_TraceReducer() {
+ *         public Object start() { return new long[1]; }
+ *         public Object packet(Object r, jND_TracePacket p) {
+ *             if(p.tcp() != null) ((long[])r)[0]++;
+ *             return r;
+ *         }
+ *         public Object merge(Object a, Object b) {
+ *             ((long[])a)[0] += ((long[])b)[0];
+ *             return a;
+ *         }
+ *     };
+ * </pre>
+ * The methods are called from several threads at once, but never on the
+ * same result at once, so a result needs no locking of its own.
+ * <br><br>
+ */
+public interface jND_TraceReducer {
+	/**
+	 * Create the empty result of one piece of the trace.
+	 * @return		a new result.
+	 */
+	public Object start();
+
+	/**
+	 * Add one packet to a result.
+	 * @param		result - the result of the piece the packet is in.
+	 * @param		pkt - the decoded packet. It is only valid during the
+	 *				call; copy out anything that must be kept.
+	 * @return		the updated result; usually result itself.
+	 */
+	public Object packet(Object result, jND_TracePacket pkt);
+
+	/**
+	 * Combine the results of two pieces.
+	 * @param		first - the result of the earlier piece.
+	 * @param		second - the result of the later piece.
+	 * @return		the combined result; may be first, updated.
+	 */
+	public Object merge(Object first, Object second);
+};
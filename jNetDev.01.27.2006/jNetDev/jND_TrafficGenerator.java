@@ -0,0 +1,357 @@
+/****************************************************************************
+**
+** Copyright (C) 2005 Peter H. Lutz. All rights reserved.
+**
+** This file is part of the jNetDev network development system.
+**
+** This file may be used under the terms of the GNU General Public
+** License version 2.0 as published by the Free Software Foundation
+** and appearing in the file LICENSE included in the packaging of
+** this file.  Please review the LICENSE file to ensure that GNU
+** General Public Licensing requirements are met
+**
+** This file is provided AS IS with NO WARRANTY OF ANY KIND, INCLUDING THE
+** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
+**
+****************************************************************************/
+package jNetDev;
+import jNetDev.Headers.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+
+/**
+ * jND_TrafficGenerator <br>
+ * Class to send a stream of packets through an open jND_NIC, as fast as
+ * possible or at a controlled rate. A generator works in one of two modes:
+ * <UL>
+ * <LI>Template - packets are built by a jND_PacketBuilder. Before each
+ * packet the jND_FieldMutators of the generator adjust the headers (IP
+ * identification, ports, sequence numbers and so on), and the headers are
+ * rebuilt in front of a payload that is copied into place only once.
+ * Lengths and checksums are therefore always correct.</LI>
+ * <LI>Replay - a fixed list of frames is sent round robin, unchanged.</LI>
+ * </UL>
+ * Packets are prepared a batch at a time into preallocated frames, the
+ * jND_RateLimiter (if any) is consulted once per batch, and the batch is
+ * handed to the NIC with a single jND_NIC.injectBatch call. Sending
+ * allocates nothing per packet.
+ * <br><br>
+ * A generator may send on the calling thread with send(n), or on a thread
+ * of its own with start() and stop(). The counters packetsSent(),
+ * octetsSent() and errors() may be read from any thread at any time.
+ * <br><br>
+ * The header layout of the template (in particular the IP and TCP
+ * options) must not change once the generator is constructed, as the
+ * frame length is fixed then.
+ * <br><br>
+ */
+public class jND_TrafficGenerator implements Runnable {
+	// Packets prepared and sent together by default
+	public static final int DEFAULT_BATCH = 32;
+
+	private jND_NIC nic;
+	private jND_PacketBuilder template;		// null in replay mode
+	private int payloadLength;				// template payload length
+	private byte[][] replay;				// frames to replay, or null
+	private ArrayList mutators;
+	private jND_RateLimiter limiter;
+	private long count;						// packets for run(), 0 = no limit
+
+	private byte[][] frames;				// the batch being prepared
+	private ByteBuffer[] buffers;			// frames, wrapped for the builder
+	private long seq;						// number of the next packet
+
+	private Thread javaThread;
+	private volatile boolean running;
+	private volatile long sent;
+	private volatile long octets;
+	private volatile long errors;
+	private volatile long startTime;		// System.nanoTime() of first send
+	private volatile long lastTime;			// System.nanoTime() of last send
+	private volatile String lastError;
+
+	/**
+	 * Construct a generator in template mode.
+	 * @param		nic - the NIC to send through. It must be open
+	 *				before packets are sent.
+	 * @param		template - the builder whose headers describe the
+	 *				packets.
+	 * @param		payload - the payload of every packet, or null for none.
+	 */
+	public jND_TrafficGenerator(jND_NIC nic, jND_PacketBuilder template, byte[] payload) {
+		if(nic == null || template == null)
+			throw new jND_Exception("jND_TrafficGenerator.constructor : null NIC or template");
+		this.nic = nic;
+		this.template = template;
+		payloadLength = payload == null ? 0 : payload.length;
+		replay = null;
+		init();
+
+		// Lay the payload into every frame once; only headers are rebuilt
+		int pos = template.payloadOffset(0);
+		int len = pos + payloadLength;
+		for(int i = 0; i < DEFAULT_BATCH; i++) {
+			frames[i] = new byte[len];
+			if(payload != null)
+				System.arraycopy(payload, 0, frames[i], pos, payloadLength);
+			buffers[i] = ByteBuffer.wrap(frames[i]);
+		}
+	}
+
+	/**
+	 * Construct a generator in replay mode.
+	 * @param		nic - the NIC to send through. It must be open
+	 *				before packets are sent.
+	 * @param		frames - the complete frames to send, in order. The
+	 *				list is repeated as often as needed.
+	 */
+	public jND_TrafficGenerator(jND_NIC nic, byte[][] frames) {
+		if(nic == null || frames == null || frames.length == 0)
+			throw new jND_Exception("jND_TrafficGenerator.constructor : null NIC or no frames");
+		this.nic = nic;
+		template = null;
+		payloadLength = 0;
+		replay = frames;
+		init();
+	}
+
+	/**
+	 * Set up the state common to both modes.
+	 */
+	private void init() {
+		mutators = new ArrayList();
+		limiter = null;
+		count = 0;
+		frames = new byte[DEFAULT_BATCH][];
+		buffers = new ByteBuffer[DEFAULT_BATCH];
+		seq = 0;
+		javaThread = null;
+		running = false;
+		lastError = null;
+	}
+
+	/**
+	 * Add a mutator to vary a header field from packet to packet.
+	 * Mutators are applied in the order added. They are ignored in
+	 * replay mode.
+	 * @param		m - the mutator.
+	 */
+	public void add(jND_FieldMutator m) {
+		if(m == null)
+			throw new jND_Exception("jND_TrafficGenerator.add : null mutator");
+		mutators.add(m);
+	}
+
+	/**
+	 * Accessor for the rate limiter.
+	 * @return		the limiter, or null if sending is not paced.
+	 */
+	public jND_RateLimiter rateLimiter() {
+		return limiter;
+	}
+
+	/**
+	 * Mutator for the rate limiter.
+	 * @param		r - the limiter, or null to send as fast as possible.
+	 */
+	public void rateLimiter(jND_RateLimiter r) {
+		limiter = r;
+	}
+
+	/**
+	 * Accessor for the number of packets a generator started with
+	 * start() sends before stopping by itself.
+	 * @return		the packet count, 0 for no limit.
+	 */
+	public long count() {
+		return count;
+	}
+
+	/**
+	 * Mutator for the number of packets a generator started with
+	 * start() sends before stopping by itself.
+	 * @param		n - the packet count, 0 for no limit.
+	 */
+	public void count(long n) {
+		if(n < 0)
+			throw new jND_Exception("jND_TrafficGenerator.count : count must not be negative");
+		count = n;
+	}
+
+	/**
+	 * Send packets on the calling thread.
+	 * @param		n - the number of packets to send.
+	 * @return		the number of packets sent without error.
+	 */
+	public long send(long n) throws jND_Exception {
+		if(nic.closed())
+			throw new jND_Exception("jND_TrafficGenerator.send : NIC is not open");
+		long before = sent;
+		long left = n;
+		if(startTime == 0) startTime = System.nanoTime();
+		while(left > 0 && (Thread.currentThread() != javaThread || running)) {
+			int batch = (int)Math.min(left, DEFAULT_BATCH);
+			long len = prepare(batch);
+			if(limiter != null)
+				limiter.acquire(batch, len);
+			flush(batch);
+			left -= batch;
+		}
+		return sent - before;
+	}
+
+	/**
+	 * Start sending on a thread of the generator's own. The thread sends
+	 * count() packets, or until stop() is called if count() is 0.
+	 */
+	public void start() throws jND_Exception {
+		if(running)
+			throw new jND_Exception("jND_TrafficGenerator.start : already running");
+		if(nic.closed())
+			throw new jND_Exception("jND_TrafficGenerator.start : NIC is not open");
+		running = true;
+		javaThread = new Thread(this);
+		javaThread.start();
+	}
+
+	/**
+	 * Stop a generator started with start(), and wait for its thread to
+	 * finish the batch in hand.
+	 */
+	public void stop() throws jND_Exception {
+		running = false;
+		Thread t = javaThread;
+		if(t == null || t == Thread.currentThread()) return;
+		try {
+			t.join();
+		} catch(InterruptedException ie) {
+			throw new jND_Exception("jND_TrafficGenerator.stop Interrupted: " + ie.toString());
+		}
+	}
+
+	/**
+	 * Determine if a generator started with start() is still sending.
+	 * @return		true while the thread of the generator is sending.
+	 */
+	public boolean running() {
+		return running && javaThread != null && javaThread.isAlive();
+	}
+
+	/**
+	 * Overridden method from Runnable. Sends count() packets, or until
+	 * stop() is called. Call start() rather than calling this directly.
+	 */
+	public void run() {
+		try {
+			if(count == 0) {
+				while(running)
+					send(DEFAULT_BATCH);
+			}
+			else
+				send(count);
+		} catch(jND_Exception nde) {
+			lastError = nde.getMessage();
+		} finally {
+			running = false;
+		}
+	}
+
+	/**
+	 * Get the number of packets sent without error.
+	 * @return		the count since the generator was constructed.
+	 */
+	public long packetsSent() {
+		return sent;
+	}
+
+	/**
+	 * Get the number of octets in the packets sent without error.
+	 * @return		the count since the generator was constructed.
+	 */
+	public long octetsSent() {
+		return octets;
+	}
+
+	/**
+	 * Get the number of packets the NIC failed to send.
+	 * @return		the count since the generator was constructed.
+	 */
+	public long errors() {
+		return errors;
+	}
+
+	/**
+	 * Get the message of the most recent send error.
+	 * @return		the message, or null if there has been no error.
+	 */
+	public String lastError() {
+		return lastError;
+	}
+
+	/**
+	 * Get the mean packet rate from the first send to the last.
+	 * @return		packets per second.
+	 */
+	public double packetRate() {
+		long ns = lastTime - startTime;
+		return ns <= 0 ? 0 : sent * 1e9 / ns;
+	}
+
+	/**
+	 * Get the mean bit rate from the first send to the last.
+	 * @return		bits per second.
+	 */
+	public double bitRate() {
+		long ns = lastTime - startTime;
+		return ns <= 0 ? 0 : octets * 8e9 / ns;
+	}
+
+	/**
+	 * Fill the first n frames of the batch with the next n packets.
+	 * @return		the total length of the n packets.
+	 */
+	private long prepare(int n) {
+		long len = 0;
+		for(int i = 0; i < n; i++, seq++) {
+			if(replay != null) {
+				frames[i] = replay[(int)(seq % replay.length)];
+			}
+			else {
+				for(int m = 0; m < mutators.size(); m++)
+					((jND_FieldMutator)mutators.get(m)).apply(template, seq);
+				template.build(buffers[i], 0, payloadLength);
+			}
+			len += frames[i].length;
+		}
+		return len;
+	}
+
+	/**
+	 * Hand the first n frames of the batch to the NIC with one batched
+	 * send. Frames the NIC refuses are counted as errors.
+	 */
+	private void flush(int n) {
+		int done = 0;
+		while(done < n) {
+			int c;
+			try {
+				c = nic.injectBatch(frames, done, n - done);
+			} catch(jND_Exception nde) {
+				lastError = nde.getMessage();
+				c = 0;
+			}
+			if(c == 0) {
+				// Skip the frame that cannot be sent and go on
+				errors++;
+				c = 1;
+			}
+			else {
+				sent += c;
+				for(int i = done; i < done + c; i++)
+					octets += frames[i].length;
+			}
+			done += c;
+		}
+		lastTime = System.nanoTime();
+	}
+};
@@ -16,6 +16,7 @@
 ****************************************************************************/
 package jNetDev;
 import jNetDev.Headers.*;
+import java.nio.ByteBuffer;
 
 /**
  * jND_Utility <br>
@@ -28,8 +29,6 @@ import jNetDev.Headers.*;
 public class jND_Utility {
 	private static boolean debugFlag = true;
 
-        /** Static counter of arps **/
-	private static int arpNo = 0;
 	
 	/**
 	 * Method to print debug info to stdout. Printing only occurs if
@@ -1844,6 +1843,64 @@ public class jND_Utility {
 		}
 	}    
 
+	/**
+	 * Method to compute a 16-bit checksum of part of a buffer, in place.
+	 * The octets are read one at a time, so the byte order of the buffer
+	 * does not matter.
+	 * @param		buf - the buffer holding the data.
+	 * @param		offset - where the data starts in buf.
+	 * @param		length - the number of octets to sum.
+	 * @return		the checksum as an int.
+	 */
+	public static int checkSum(ByteBuffer buf, int offset, int length) {
+		return (int)((~fold(sum(buf, offset, length))) & 0xffff);
+	}
+
+	/**
+	 * Method to compute a 16-bit transport checksum of part of a buffer,
+	 * in place. The pseudo header is the same as for
+	 * transportCheckSum(int, jND_IPv4Address, jND_IPv4Address, byte[]).
+	 * The checksum field of the transport header must hold 0.
+	 * @param		protocol - the transport layer protocol number
+	 * @param		srcIP - the source IP address, first octet highest
+	 * @param		dstIP - the destination IP address, first octet highest
+	 * @param		buf - the buffer holding the transport header and payload
+	 * @param		offset - where the transport header starts in buf
+	 * @param		length - the length of transport header and payload
+	 * @return		the checksum as an int
+	 */
+	public static int transportCheckSum(int protocol, int srcIP, int dstIP,
+	  ByteBuffer buf, int offset, int length) {
+		long sum = sum(buf, offset, length);
+		sum += (srcIP >>> 16) + (srcIP & 0xffff);
+		sum += (dstIP >>> 16) + (dstIP & 0xffff);
+		sum += protocol + length;
+		return (int)((~fold(sum)) & 0xffff);
+	}
+
+	/**
+	 * Sum part of a buffer as 16-bit big-endian words, padding an odd
+	 * final octet with 0.
+	 */
+	private static long sum(ByteBuffer buf, int offset, int length) {
+		long sum = 0;
+		int end = offset + (length & ~1);
+		for(int i = offset; i < end; i += 2)
+			sum += ((buf.get(i) & 0xff) << 8) | (buf.get(i+1) & 0xff);
+		if((length & 1) != 0)
+			sum += (buf.get(end) & 0xff) << 8;
+		return sum;
+	}
+
+	/**
+	 * Fold the carries of a 1's complement sum back into its low 16 bits.
+	 */
+	private static long fold(long sum) {
+		while((sum >> 16) != 0)
+			sum = (sum & 0xffff) + (sum >> 16);
+		return sum;
+	}
+
 	/**
 	 * Method to ARP for an IP address and return the MAC address
 	 * as a byte array. If the IP address is on the same subnet as
@@ -1851,101 +1908,21 @@ public class jND_Utility {
 	 * then arpFor substitutes the IP of the gateway for that of the
 	 * given IP address.
 	 * 
+	 * The lookup goes through the shared jND_ARPResolver of the NIC, so
+	 * addresses seen recently are answered from its cache without sending
+	 * anything, and callers asking for the same address at once share one
+	 * request.
+	 * 
 	 * @param		nic - the NIC to use for the ARP
 	 * @param		ipAddress - the protocol address to lookup
-	 * @return		the MAC address corresponding the the 'ipAddr'
+	 * @return		the MAC address corresponding the the 'ipAddr', or null
+	 *				if there is no answer
 	 * @author	Pete Lutz
 	 */
 	public static byte[] arpFor(jND_NIC nic, byte[] ipAddress) {
-	    arpNo++;
-
-	    // My network or another network??
-	    int myIP = nic.ipAddress().toByte4().toInt();
-	    int hisIP = new jND_IPv4Address(ipAddress).toByte4().toInt();
-	    int mask = nic.netMask().toByte4().toInt();
-	    if((myIP & mask) != (hisIP & mask)) {
-	        // different subnet, use router
-			hisIP = nic.gateway().toByte4().toInt();
-	    }
-	    
-	    // Build ARP packet
-	    jND_ARP arp = new jND_ARP();
-	    arp.hwAddressType(new jND_BYTE2(1));
-	    arp.hwAddressLength(new jND_BYTE1(6));
-		arp.protocolAddressType(new jND_BYTE2(jND_EthernetII.T_IP));
-	    arp.protocolAddressLength(new jND_BYTE1(4));
-		arp.opcode(new jND_BYTE2(jND_ARP.ARP_REQUEST));
-	    arp.sourceHWAddress(nic.macAddress().toByteArray());
-	    arp.sourceProtocolAddress(nic.ipAddress().toByteArray());
-	    byte[] allZeros = new byte[6];
-		for(int i = 0; i < 6; i++) allZeros[i] = 0;
-	    arp.targetHWAddress(allZeros);
-		arp.targetProtocolAddress(new jND_IPv4Address(
-		    new jND_BYTE4(hisIP)).toByteArray());
-	    
-	    byte[] arpPkt = arp.build();
-	    
-	    // Build Ethernet frame
-	    jND_EthernetII frame = new jND_EthernetII();
-	    byte[] bcast = new byte[jND_ARP.HW_MAX_LEN];
-		for(int i = 0; i < jND_ARP.HW_MAX_LEN; i++) bcast[i] = (byte)0xff;
-	    frame.destAddress(new jND_EthernetAddress(bcast));
-	    frame.srcAddress(nic.macAddress());
-		frame.type(new jND_BYTE2(jND_EthernetII.T_ARP));
-	    frame.payload(arpPkt);
-	    
-	    byte[] framePkt = frame.build();
-	    
-	    // Start listening for a reply
-	    jND_CaptureSession cap = new jND_CaptureSession(nic, false);
-		cap.filter("arp", false, nic.netMask());
-	    cap.start();
-	    cap.getThread().setName("ARP-" + arpNo);
-	    
-	    // Send arp
-	    boolean closeNIC = false;
-		if(nic.closed()) {
-			closeNIC = true;
-			nic.open();
-		}
-	    nic.inject(framePkt);
-	    if(closeNIC)
-	    	nic.close();
-	    
-	    // Wait for a reply
-	    long accumTime = 0;
-	    final int INCREMENT = 100;
-	    
-	    jND_PacketQueue pq = cap.packetQueue();
-	    while(accumTime < 2000) {
-	        if(pq.size() == 0) {
-				try {
-					Thread.sleep(INCREMENT);
-				} catch(InterruptedException ie) {
-					break;
-				}
-	            accumTime += INCREMENT;
-	        }
-	        else {
-	            jND_EthernetII repEther = new jND_EthernetII();
-	            byte[] pkt = pq.pop();
-	            
-				repEther.parse(pkt, 0);
-				if(repEther.type().toInt() != jND_EthernetII.T_ARP) continue;
-	            
-	            jND_ARP reply = new jND_ARP();
-				reply.parse(repEther.payload(), 0);
-				if(reply.opcode().toShort() != jND_ARP.ARP_REPLY) continue;
-	            
-				int srcIP = new jND_IPv4Address(reply.sourceProtocolAddress()).toByte4().toInt();
-	            if(srcIP != hisIP) continue;
-	            
-	    		cap.dispose();
-	            return reply.sourceHWAddress();
-	        }
-	    }
-	    cap.dispose();
-	    return null;
+		jND_ARPResolver arp = jND_ARPResolver.forNIC(nic);
+		return arp.resolve(new jND_IPv4Address(ipAddress).toInt(),
+			arp.retries() * arp.retryInterval() + 500);
 	}
 
 };
@@ -24,10 +24,10 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_openCapture
 /*
  * Class:     jNetDev_jND_CaptureSession
  * Method:    closeCapture
- * Signature: ([B[B[B)V
+ * Signature: ([B[B)V
  */
 JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_closeCapture
-  (JNIEnv *, jclass, jbyteArray, jbyteArray, jbyteArray);
+  (JNIEnv *, jclass, jbyteArray, jbyteArray);
 
 /*
  * Class:     jNetDev_jND_CaptureSession
@@ -40,10 +40,10 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_dumpOpen
 /*
  * Class:     jNetDev_jND_CaptureSession
  * Method:    dump1
- * Signature: ([B[B)V
+ * Signature: ([B[BIJI)V
  */
 JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_dump1
-  (JNIEnv *, jclass, jbyteArray, jbyteArray);
+  (JNIEnv *, jclass, jbyteArray, jbyteArray, jint, jlong, jint);
 
 /*
  * Class:     jNetDev_jND_CaptureSession
@@ -55,11 +55,27 @@ JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_dumpClose
 
 /*
  * Class:     jNetDev_jND_CaptureSession
- * Method:    installFilter
- * Signature: ([B[BLjava/lang/String;ZI)[B
+ * Method:    setFilter
+ * Signature: ([B[I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_jNetDev_jND_1CaptureSession_setFilter
+  (JNIEnv *, jclass, jbyteArray, jintArray);
+
+/*
+ * Class:     jNetDev_jND_CaptureSession
+ * Method:    datalink
+ * Signature: ([B)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureSession_datalink
+  (JNIEnv *, jclass, jbyteArray);
+
+/*
+ * Class:     jNetDev_jND_CaptureSession
+ * Method:    snapshot
+ * Signature: ([B)I
  */
-JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_installFilter
-  (JNIEnv *, jclass, jbyteArray, jbyteArray, jstring, jboolean, jint);
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureSession_snapshot
+  (JNIEnv *, jclass, jbyteArray);
 
 #ifdef __cplusplus
 }
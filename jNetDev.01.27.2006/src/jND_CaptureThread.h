@@ -10,10 +10,26 @@ extern "C" {
 /*
  * Class:     jNetDev_jND_CaptureThread
  * Method:    capture1
- * Signature: ([BLjNetDev/jND_PacketQueue;)I
+ * Signature: ([BLjNetDev/jND_PacketQueue;I)I
  */
 JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_capture1
-  (JNIEnv *, jclass, jbyteArray, jobject);
+  (JNIEnv *, jclass, jbyteArray, jobject, jint);
+
+/*
+ * Class:     jNetDev_jND_CaptureThread
+ * Method:    captureBatch
+ * Signature: ([B[B[I[I[I[JII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_captureBatch
+  (JNIEnv *, jclass, jbyteArray, jbyteArray, jintArray, jintArray, jintArray, jlongArray, jint, jint);
+
+/*
+ * Class:     jNetDev_jND_CaptureThread
+ * Method:    captureDirect
+ * Signature: ([BLjava/nio/ByteBuffer;I[I[I[I[JII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_captureDirect
+  (JNIEnv *, jclass, jbyteArray, jobject, jint, jintArray, jintArray, jintArray, jlongArray, jint, jint);
 
 #ifdef __cplusplus
 }
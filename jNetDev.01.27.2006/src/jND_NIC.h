@@ -31,6 +31,30 @@ JNIEXPORT void JNICALL Java_jNetDev_jND_1NIC_nic_1close
 JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1NIC_nic_1inject
   (JNIEnv *, jclass, jbyteArray, jbyteArray, jint);
 
+/*
+ * Class:     jNetDev_jND_NIC
+ * Method:    nic_injectFrames
+ * Signature: ([BI[[BII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectFrames
+  (JNIEnv *, jclass, jbyteArray, jint, jobjectArray, jint, jint);
+
+/*
+ * Class:     jNetDev_jND_NIC
+ * Method:    nic_injectBatch
+ * Signature: ([BI[B[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectBatch
+  (JNIEnv *, jclass, jbyteArray, jint, jbyteArray, jintArray, jintArray, jint);
+
+/*
+ * Class:     jNetDev_jND_NIC
+ * Method:    nic_injectDirect
+ * Signature: ([BILjava/nio/ByteBuffer;[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectDirect
+  (JNIEnv *, jclass, jbyteArray, jint, jobject, jintArray, jintArray, jint);
+
 #ifdef __cplusplus
 }
 #endif
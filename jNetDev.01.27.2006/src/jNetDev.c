@@ -14,6 +14,9 @@
 ** WARRANTY OF DESIGN, MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE.
 **
 ****************************************************************************/
+#ifdef LINUX
+#define _GNU_SOURCE			// for sendmmsg
+#endif /*LINUX*/
 #include <pcap.h>			// MUST BE FIRST to avoid conflicts$G$G
 #include <jni.h>
 
@@ -77,13 +80,26 @@ struct bpf_stat {
 #ifdef LINUX
 #include <linux/in.h>
 #include <stdint.h>
+#include <stdlib.h>
+#include <string.h>
 #include <sys/socket.h>
 
 #define _LINUX_IF_H
 #include <linux/if.h>
 #include <linux/if_arp.h>
+
+/* For the PACKET_MMAP ring of jND_MmapRing */
+#include <linux/if_packet.h>
+#include <linux/if_ether.h>
+#include <linux/filter.h>
+#include <sys/mman.h>
+#include <poll.h>
+#include <errno.h>
+#include <endian.h>
+#include <unistd.h>
 #endif /*LINUX*/
 #include <sys/ioctl.h>
+#include <sys/time.h>
 
 extern int errno;
 
@@ -95,12 +111,15 @@ extern int errno;
 #include "jND_CaptureThread.h"
 #include "jND_NICList.h"
 #include "jND_NIC.h"
+#include "jND_MmapRing.h"
+#include "jND_BPFProgram.h"
 
-/*** NOTE These three constants MUST coincide 
+/*** NOTE These four constants MUST coincide 
  *** with those in jND_CaptureSession.java     ***/
 #define jND_NONE	0
 #define jND_LIVE	1
 #define jND_OFFLINE	2
+#define jND_MMAP	3
 
   
 // ==========  General Utility Routines  ==========
@@ -211,6 +230,32 @@ static void* getPtr(JNIEnv *env, jbyteArray jptr_ba) {
   	return (void*)ptr;
 }
 
+/*
+ * Unpack the instructions of a jND_BPFProgram, two ints per instruction
+ * (code | jt << 16 | jf << 24, k), into a bpf_program. The caller frees
+ * prog->bf_insns.
+ * Returns 0, or -1 if out of memory.
+ */
+static int to_program(JNIEnv *env, jintArray jinsns, struct bpf_program* prog) {
+	jsize n = (*env)->GetArrayLength(env, jinsns) / 2;
+	jint* w;
+	int i;
+
+	prog->bf_len = n;
+	prog->bf_insns = (struct bpf_insn*)malloc((n > 0 ? n : 1) * sizeof(struct bpf_insn));
+	if(prog->bf_insns == 0)
+		return -1;
+	w = (*env)->GetIntArrayElements(env, jinsns, NULL);
+	for(i = 0; i < n; i++) {
+		prog->bf_insns[i].code = (u_short)(w[2 * i] & 0xffff);
+		prog->bf_insns[i].jt = (u_char)((w[2 * i] >> 16) & 0xff);
+		prog->bf_insns[i].jf = (u_char)((w[2 * i] >> 24) & 0xff);
+		prog->bf_insns[i].k = (bpf_u_int32)w[2 * i + 1];
+	}
+	(*env)->ReleaseIntArrayElements(env, jinsns, w, JNI_ABORT);
+	return 0;
+}
+
 // ==========  jND_CaptureSession Support  ==========
 
 /*
@@ -271,24 +316,18 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_openCapture
 /*
  * Class:     jNetDev_jND_0005fCaptureSession
  * Method:    closeCapture
- * Signature: ([B)V
+ * Signature: ([B[B)V
  */
 JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_closeCapture
   (JNIEnv *env, jclass class, 
   jbyteArray jpcap_d_ba, 		// pcap_d
-  jbyteArray jpfilter_ba, 		// p_filter
   jbyteArray jdumper_ba) {		// dumper
   	void* pcap_d = getPtr(env, jpcap_d_ba);
-  	void* pfilter = getPtr(env, jpfilter_ba);
   	void* dumper = getPtr(env, jdumper_ba);
   	
 	if(pcap_d != 0) {
 		pcap_close((pcap_t*)pcap_d);
 	}
-	if(pfilter != 0) {
-		pcap_freecode(pfilter);
-		free(pfilter);
-	}
 	if(dumper != 0) {
 		pcap_dump_close((pcap_dumper_t*)dumper);
 	}
@@ -305,7 +344,16 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_dumpOpen
   	char* fname = (char*)(*env)->GetStringUTFChars(env, jfname, NULL);
   	jbyteArray ret_msg;
   	
-  	void* dumper = (void*)pcap_dump_open((pcap_t*)pcap_d, fname);
+  	void* dumper;
+	if(pcap_d != 0)
+		dumper = (void*)pcap_dump_open((pcap_t*)pcap_d, fname);
+	else {
+		// No pcap descriptor (jND_MMAP session) ... the dump file
+		// only needs a link type and snapshot length from one
+		pcap_t* dead = pcap_open_dead(DLT_EN10MB, 65535);
+		dumper = (void*)pcap_dump_open(dead, fname);
+		pcap_close(dead);
+	}
 	if(dumper == 0) {
 		char msg[1024];
 		sprintf(msg, "jND_CaptureSession.dumpOpen: Cannot open dump session.");
@@ -322,10 +370,11 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_dumpOpen
 /*
  * Class:     jNetDev_jND_0005fCaptureSession
  * Method:    dump1
- * Signature: ([B[B)V
+ * Signature: ([B[BIJI)V
  */
 JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_dump1
-  (JNIEnv *env, jclass class, jbyteArray jdumper, jbyteArray jpkt){
+  (JNIEnv *env, jclass class, jbyteArray jdumper, jbyteArray jpkt,
+  jint caplen, jlong stamp, jint wirelen){
   	void* dumper = getPtr(env, jdumper);
   	jbyte *pkt = (*env)->GetByteArrayElements(env, jpkt, NULL);
 	struct pcap_pkthdr hdr;
@@ -336,10 +385,18 @@ JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_dump1
 	}
 	
   	int size = (*env)->GetArrayLength(env, jpkt);
-	hdr.caplen = hdr.len = size;
-	pcap_dump((u_char *)dumper, &hdr, pkt);
-
-  	(*env)->ReleaseByteArrayElements(env, jpkt, pkt, 0);
+	if(caplen < 0 || caplen > size)
+		caplen = size;
+	if(wirelen < caplen)
+		wirelen = caplen;
+	hdr.caplen = caplen;
+	hdr.len = wirelen;
+	hdr.ts.tv_sec = (long)(stamp / 1000000000LL);
+	hdr.ts.tv_usec = (long)((stamp % 1000000000LL) / 1000);
+	pcap_dump((u_char *)dumper, &hdr, (u_char *)pkt);
+
+	// Nothing was changed ... no need to copy back
+  	(*env)->ReleaseByteArrayElements(env, jpkt, pkt, JNI_ABORT);
   }
 
 /*
@@ -357,68 +414,58 @@ JNIEXPORT void JNICALL Java_jNetDev_jND_1CaptureSession_dumpClose
 
 /*
  * Class:     jNetDev_jND_0005fCaptureSession
- * Method:    installFilter
- * Signature: ([B[BLjava/lang/String;ZI)[B
+ * Method:    setFilter
+ * Signature: ([B[I)Ljava/lang/String;
  */
-JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_installFilter
-  (JNIEnv *env , jclass class, 
+JNIEXPORT jstring JNICALL Java_jNetDev_jND_1CaptureSession_setFilter
+  (JNIEnv *env, jclass class, 
   jbyteArray jpcap_d_ba, 
-  jbyteArray jpfilter_ba,
-  jstring jfilter, 
-  jboolean optimize, 
-  jint netmask) {
+  jintArray jinsns) {
   	void* pcap_d = getPtr(env, jpcap_d_ba);
-  	void* pfilter = getPtr(env, jpfilter_ba);
-  	char* filter = (char*)(*env)->GetStringUTFChars(env, jfilter, NULL);
-  	jbyteArray ret_msg;  	
-  	
-	int retn;
-		
-	/* Free any existing filter program */
-	if(pfilter != 0) {
-		pcap_freecode((struct bpf_program*)pfilter);
-	}
-	else {
-		pfilter = (void*) malloc(sizeof(struct bpf_program));
-		if(pfilter == 0) {
-			char msg[1024];
-			sprintf(msg, "jND_CaptureSession.installFilter: out of memory");
-			ret_msg = message(env, 0, 0, msg, strlen(msg));
-		}
-	}
+	char msg[1024];
+	struct bpf_program prog;
 
-	if(pfilter != 0) {
-		/* Install the new filter */
-		retn = pcap_compile((pcap_t*)pcap_d,
-			(struct bpf_program*)pfilter,
-			filter,
-			optimize,
-			(bpf_u_int32)netmask);
-	
-		if(retn < 0) {
-			char msg[1024];
-			sprintf(msg, "jND_CaptureSession.installFilter: cannot compile filter");
-			ret_msg = message(env, 0, 0, msg, strlen(msg));
-			free(pfilter);
-		}
-		else {
-			retn = pcap_setfilter((pcap_t*)pcap_d, (struct bpf_program*)pfilter);
-	
-			if(retn < 0) {
-				char msg[1024];
-				sprintf(msg, "jND_CaptureSession.installFilter: cannot install filter");
-				ret_msg = message(env, 0, 0, msg, strlen(msg));
-				pcap_freecode((struct bpf_program*)pfilter);
-				free(pfilter);
-			}
-			else {
-				ret_msg = message(env, pfilter, sizeof(void*), "", 0);
-			}
-		}
-	}			
-  	
-  	(*env)->ReleaseStringUTFChars(env, jfilter, filter);
-  	return ret_msg;
+	if(pcap_d == 0)
+		return (*env)->NewStringUTF(env, "jND_CaptureSession.setFilter: no capture descriptor");
+	if(to_program(env, jinsns, &prog) < 0)
+		return (*env)->NewStringUTF(env, "jND_CaptureSession.setFilter: out of memory");
+
+	/* pcap_setfilter keeps its own copy of the program */
+	msg[0] = 0;
+	if(pcap_setfilter((pcap_t*)pcap_d, &prog) < 0)
+		sprintf(msg, "jND_CaptureSession.setFilter: cannot install filter: %.900s",
+			pcap_geterr((pcap_t*)pcap_d));
+	free(prog.bf_insns);
+
+	if(msg[0] == 0)
+		return 0;
+	return (*env)->NewStringUTF(env, msg);
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fCaptureSession
+ * Method:    datalink
+ * Signature: ([B)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureSession_datalink
+  (JNIEnv *env, jclass class, jbyteArray jpcap_d_ba) {
+  	void* pcap_d = getPtr(env, jpcap_d_ba);
+	if(pcap_d == 0)
+		return -1;
+	return pcap_datalink((pcap_t*)pcap_d);
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fCaptureSession
+ * Method:    snapshot
+ * Signature: ([B)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureSession_snapshot
+  (JNIEnv *env, jclass class, jbyteArray jpcap_d_ba) {
+  	void* pcap_d = getPtr(env, jpcap_d_ba);
+	if(pcap_d == 0)
+		return -1;
+	return pcap_snapshot((pcap_t*)pcap_d);
   }
 
 // ==========  jND_CaptureThread Support ==========
@@ -426,10 +473,10 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1CaptureSession_installFilter
 /*
  * Class:     jNetDev_jND_0005fCaptureThread
  * Method:    capture1
- * Signature: ([BLjNetDev/jND_PacketQueue;)I
+ * Signature: ([BLjNetDev/jND_PacketQueue;I)I
  */
 JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_capture1
-  (JNIEnv *env, jclass class, jbyteArray jpcap_d_ba, jobject jpktq) {
+  (JNIEnv *env, jclass class, jbyteArray jpcap_d_ba, jobject jpktq, jint ifindex) {
 
   	void* pcap_d = getPtr(env, jpcap_d_ba);
 	if(pcap_d == 0)
@@ -463,28 +510,575 @@ JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_capture1
 		exit(105);
 	}
 
-	// Copy the packet into the byte array and call push
+	// Copy the packet into the byte array and call push with the
+	// capture time and wire length from the pcap header
         (*env)->SetByteArrayRegion(env, pkt, 0, caplen, (jbyte *)packet);
 
-	// Get the jND_PacketQueue class and the ID of the push method
-	jclass qclass = (*env)->FindClass(env, "jNetDev/jND_PacketQueue");
-	if(qclass == 0) {
-		printf("jND_CaptureThread: jni error: capture1: cannot find jND_PacketQueue class(114)\n");
-		exit(114);
-	}
-
-        jmethodID mid = (*env)->GetMethodID(env, qclass, "push", "([B)V");
+	// Get the jND_PacketQueue class and the ID of the push method.
+	// Both are looked up on the first packet only and kept thereafter.
+	static jclass qclass = 0;
+	static jmethodID mid = 0;
 	if(mid == 0) {
-		printf("jND_CaptureThread: jni error: capture1: cannot find void push(byte[]) method(115)\n");
-		exit(115);
+		jclass lclass = (*env)->FindClass(env, "jNetDev/jND_PacketQueue");
+		if(lclass == 0) {
+			printf("jND_CaptureThread: jni error: capture1: cannot find jND_PacketQueue class(114)\n");
+			exit(114);
+		}
+		qclass = (jclass)(*env)->NewGlobalRef(env, lclass);
+		(*env)->DeleteLocalRef(env, lclass);
+
+		mid = (*env)->GetMethodID(env, qclass, "push", "([BJII)V");
+		if(mid == 0) {
+			printf("jND_CaptureThread: jni error: capture1: cannot find void push(byte[], long, int, int) method(115)\n");
+			exit(115);
+		}
 	}
 
 	// Add packet to queue
-        (*env)->CallVoidMethod(env, jpktq, mid, pkt);
+	jlong stamp = (jlong)hdr->ts.tv_sec * 1000000000LL
+		+ (jlong)hdr->ts.tv_usec * 1000LL;
+        (*env)->CallVoidMethod(env, jpktq, mid, pkt, stamp, (jint)hdr->len, ifindex);
+	(*env)->DeleteLocalRef(env, pkt);
 
         return flag;
   }
 
+/*
+ * Milliseconds from an arbitrary origin, for timing batch flushes.
+ */
+static jlong now_ms() {
+#ifdef WIN32
+	return (jlong)GetTickCount();
+#else
+	struct timeval tv;
+	gettimeofday(&tv, NULL);
+	return (jlong)tv.tv_sec * 1000 + tv.tv_usec / 1000;
+#endif
+}
+
+/* State shared between captureBatch/captureDirect and the
+ * pcap_dispatch callback */
+struct batch_ctx {
+	JNIEnv* env;
+	jbyteArray jdata;	// Java buffer receiving the packets (captureBatch)
+	u_char* base;		// direct buffer receiving the packets (captureDirect)
+	jint slotsize;		// octets per slot of the direct buffer
+	jint* slots;		// slot to fill for each packet (captureDirect)
+	jsize dlen;		// size of jdata
+	jsize used;		// octets of jdata filled so far
+	int n;			// packets captured so far
+	jint* offsets;		// staging for the index, copied to Java once
+	jint* lengths;
+	jint* wirelens;
+	jlong* stamps;
+};
+
+/** One packet arrived ... append it to the batch
+ **/
+static void batch_packet(
+  u_char* uptr, 
+  const struct pcap_pkthdr* hdr, 
+  const u_char* pkt) {
+	struct batch_ctx* b = (struct batch_ctx*)uptr;
+	jsize caplen = hdr->caplen;
+
+	if(b->base != 0) {
+		// Direct buffer: the packet goes straight into its slot
+		if(caplen > b->slotsize)
+			caplen = b->slotsize;
+		memcpy(b->base + (size_t)b->slots[b->n] * b->slotsize, pkt, caplen);
+	}
+	else {
+		// captureBatch only asks for as many packets as fit, but a file
+		// may hold packets longer than its snapshot length ... truncate
+		if(caplen > b->dlen - b->used)
+			caplen = b->dlen - b->used;
+
+		(*b->env)->SetByteArrayRegion(b->env, b->jdata, b->used, caplen, (jbyte*)pkt);
+		b->offsets[b->n] = b->used;
+		b->used += caplen;
+	}
+	b->lengths[b->n] = caplen;
+	b->wirelens[b->n] = hdr->len;
+	b->stamps[b->n] = (jlong)hdr->ts.tv_sec * 1000000000LL
+		+ (jlong)hdr->ts.tv_usec * 1000LL;
+	b->n++;
+}
+
+/** Dispatch pcap until the batch is full or flushMs has passed.
+ ** Returns the packet count, or -1 (error) / -2 (EOF) if none were read.
+ **/
+static int batch_loop(pcap_t* pcap_d, struct batch_ctx* b, int maxPackets, jint flushMs) {
+	int snap = pcap_snapshot(pcap_d);
+	if(snap <= 0) snap = 65535;
+	int offline = pcap_file(pcap_d) != NULL;
+	jlong start = now_ms();
+
+	while(b->n < maxPackets) {
+		int cnt = maxPackets - b->n;
+		if(b->base == 0) {
+			// Never ask pcap for more packets than the buffer can hold
+			int room = (b->dlen - b->used) / snap;
+			if(cnt > room) cnt = room;
+			if(cnt <= 0) {
+				if(b->n > 0) break;
+				cnt = 1;
+			}
+		}
+
+		int r = pcap_dispatch(pcap_d, cnt, batch_packet, (u_char*)b);
+		if(r < 0) {			// error (-1) or pcap_breakloop (-2)
+			if(b->n == 0) return -1;
+			break;
+		}
+		if(r == 0) {			// timeout, or EOF for an offline capture
+			if(offline && b->n == 0) return -2;
+			break;
+		}
+		if(flushMs <= 0 || now_ms() - start >= flushMs)
+			break;
+	}
+	return b->n;
+}
+
+/*
+ * Class:     jNetDev_jND_0005fCaptureThread
+ * Method:    captureBatch
+ * Signature: ([B[B[I[I[I[JII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_captureBatch
+  (JNIEnv *env, jclass class, 
+  jbyteArray jpcap_d_ba, 
+  jbyteArray jdata, 
+  jintArray joffsets, 
+  jintArray jlengths, 
+  jintArray jwirelens, 
+  jlongArray jstamps, 
+  jint maxPackets, 
+  jint flushMs) {
+
+  	pcap_t* pcap_d = (pcap_t*)getPtr(env, jpcap_d_ba);
+	if(pcap_d == 0)
+		return -3;	// Bad capture descriptor
+
+	struct batch_ctx b;
+	memset(&b, 0, sizeof(b));
+	b.env = env;
+	b.jdata = jdata;
+	b.dlen = (*env)->GetArrayLength(env, jdata);
+	if(maxPackets > (*env)->GetArrayLength(env, joffsets))
+		maxPackets = (*env)->GetArrayLength(env, joffsets);
+	b.offsets = (jint*)malloc(maxPackets * sizeof(jint));
+	b.lengths = (jint*)malloc(maxPackets * sizeof(jint));
+	b.wirelens = (jint*)malloc(maxPackets * sizeof(jint));
+	b.stamps = (jlong*)malloc(maxPackets * sizeof(jlong));
+	if(b.offsets == 0 || b.lengths == 0 || b.wirelens == 0 || b.stamps == 0) {
+		printf("jND_CaptureThread: jni error: captureBatch: out of memory for index(116)\n");
+		exit(116);
+	}
+
+	int flag = batch_loop(pcap_d, &b, maxPackets, flushMs);
+
+	// Hand the index to Java in one piece
+	if(b.n > 0) {
+		(*env)->SetIntArrayRegion(env, joffsets, 0, b.n, b.offsets);
+		(*env)->SetIntArrayRegion(env, jlengths, 0, b.n, b.lengths);
+		(*env)->SetIntArrayRegion(env, jwirelens, 0, b.n, b.wirelens);
+		(*env)->SetLongArrayRegion(env, jstamps, 0, b.n, b.stamps);
+	}
+	free(b.offsets);
+	free(b.lengths);
+	free(b.wirelens);
+	free(b.stamps);
+	return flag;
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fCaptureThread
+ * Method:    captureDirect
+ * Signature: ([BLjava/nio/ByteBuffer;I[I[I[I[JII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1CaptureThread_captureDirect
+  (JNIEnv *env, jclass class, 
+  jbyteArray jpcap_d_ba, 
+  jobject jbuf, 
+  jint slotsize, 
+  jintArray jslots, 
+  jintArray jlengths, 
+  jintArray jwirelens, 
+  jlongArray jstamps, 
+  jint maxPackets, 
+  jint flushMs) {
+
+  	pcap_t* pcap_d = (pcap_t*)getPtr(env, jpcap_d_ba);
+	if(pcap_d == 0)
+		return -3;	// Bad capture descriptor
+
+	struct batch_ctx b;
+	memset(&b, 0, sizeof(b));
+	b.env = env;
+	b.base = (u_char*)(*env)->GetDirectBufferAddress(env, jbuf);
+	if(b.base == 0) {
+		printf("jND_CaptureThread: jni error: captureDirect: buffer is not direct(117)\n");
+		exit(117);
+	}
+	b.slotsize = slotsize;
+	if(maxPackets > (*env)->GetArrayLength(env, jslots))
+		maxPackets = (*env)->GetArrayLength(env, jslots);
+	b.slots = (jint*)malloc(maxPackets * sizeof(jint));
+	b.lengths = (jint*)malloc(maxPackets * sizeof(jint));
+	b.wirelens = (jint*)malloc(maxPackets * sizeof(jint));
+	b.stamps = (jlong*)malloc(maxPackets * sizeof(jlong));
+	if(b.slots == 0 || b.lengths == 0 || b.wirelens == 0 || b.stamps == 0) {
+		printf("jND_CaptureThread: jni error: captureDirect: out of memory for index(116)\n");
+		exit(116);
+	}
+	(*env)->GetIntArrayRegion(env, jslots, 0, maxPackets, b.slots);
+
+	int flag = batch_loop(pcap_d, &b, maxPackets, flushMs);
+
+	if(b.n > 0) {
+		(*env)->SetIntArrayRegion(env, jlengths, 0, b.n, b.lengths);
+		(*env)->SetIntArrayRegion(env, jwirelens, 0, b.n, b.wirelens);
+		(*env)->SetLongArrayRegion(env, jstamps, 0, b.n, b.stamps);
+	}
+	free(b.slots);
+	free(b.lengths);
+	free(b.wirelens);
+	free(b.stamps);
+	return flag;
+  }
+
+// ==========  jND_MmapRing Support ==========
+
+#ifdef LINUX
+/* A TPACKET_V3 receive ring */
+struct jnd_ring {
+	int fd;			// the PF_PACKET socket
+	u_char* map;		// the mapped ring
+	size_t maplen;		// blocksize * blockcount
+	int blocksize;
+	int blockcount;
+	int next;		// the next block the kernel will retire
+};
+#endif /*LINUX*/
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    openRing
+ * Signature: (Ljava/lang/String;IIIIZ)[B
+ */
+JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1MmapRing_openRing
+  (JNIEnv *env, jclass class, 
+  jstring jifname, 
+  jint blocksize, 
+  jint blockcount, 
+  jint framesize, 
+  jint blocktimeout, 
+  jboolean promisc) {
+	char msg[1024];
+#ifdef LINUX
+	const char* ifname = (*env)->GetStringUTFChars(env, jifname, NULL);
+	jbyteArray ret_msg;
+	struct jnd_ring* ring = 0;
+	int fd = -1;
+	int ifindex = if_nametoindex(ifname);
+
+	if(ifindex == 0) {
+		sprintf(msg, "jND_MmapRing.openRing : no such interface: %.200s", ifname);
+		goto fail;
+	}
+
+	fd = socket(PF_PACKET, SOCK_RAW, htobe16(ETH_P_ALL));
+	if(fd < 0) {
+		sprintf(msg, "jND_MmapRing.openRing : socket: %s", strerror(errno));
+		goto fail;
+	}
+
+	int version = TPACKET_V3;
+	if(setsockopt(fd, SOL_PACKET, PACKET_VERSION, &version, sizeof(version)) < 0) {
+		sprintf(msg, "jND_MmapRing.openRing : TPACKET_V3 not supported: %s", strerror(errno));
+		goto fail;
+	}
+
+	struct tpacket_req3 req;
+	memset(&req, 0, sizeof(req));
+	req.tp_block_size = blocksize;
+	req.tp_block_nr = blockcount;
+	req.tp_frame_size = framesize;
+	req.tp_frame_nr = (blocksize / framesize) * blockcount;
+	req.tp_retire_blk_tov = blocktimeout;
+	req.tp_feature_req_word = 0;
+	if(setsockopt(fd, SOL_PACKET, PACKET_RX_RING, &req, sizeof(req)) < 0) {
+		sprintf(msg, "jND_MmapRing.openRing : PACKET_RX_RING: %s", strerror(errno));
+		goto fail;
+	}
+
+	size_t maplen = (size_t)blocksize * blockcount;
+	u_char* map = (u_char*)mmap(0, maplen, PROT_READ | PROT_WRITE,
+		MAP_SHARED | MAP_LOCKED, fd, 0);
+	if(map == MAP_FAILED) {
+		// MAP_LOCKED needs RLIMIT_MEMLOCK ... try without
+		map = (u_char*)mmap(0, maplen, PROT_READ | PROT_WRITE, MAP_SHARED, fd, 0);
+	}
+	if(map == MAP_FAILED) {
+		sprintf(msg, "jND_MmapRing.openRing : mmap: %s", strerror(errno));
+		goto fail;
+	}
+
+	struct sockaddr_ll ll;
+	memset(&ll, 0, sizeof(ll));
+	ll.sll_family = PF_PACKET;
+	ll.sll_protocol = htobe16(ETH_P_ALL);
+	ll.sll_ifindex = ifindex;
+	if(bind(fd, (struct sockaddr*)&ll, sizeof(ll)) < 0) {
+		sprintf(msg, "jND_MmapRing.openRing : bind: %s", strerror(errno));
+		munmap(map, maplen);
+		goto fail;
+	}
+
+	if(promisc) {
+		struct packet_mreq mr;
+		memset(&mr, 0, sizeof(mr));
+		mr.mr_ifindex = ifindex;
+		mr.mr_type = PACKET_MR_PROMISC;
+		setsockopt(fd, SOL_PACKET, PACKET_ADD_MEMBERSHIP, &mr, sizeof(mr));
+	}
+
+	ring = (struct jnd_ring*)malloc(sizeof(struct jnd_ring));
+	if(ring == 0) {
+		printf("jND_MmapRing: jni error: openRing out of memory(118)\n");
+		exit(118);
+	}
+	ring->fd = fd;
+	ring->map = map;
+	ring->maplen = maplen;
+	ring->blocksize = blocksize;
+	ring->blockcount = blockcount;
+	ring->next = 0;
+
+	ret_msg = message(env, ring, sizeof(ring), "", 0);
+	(*env)->ReleaseStringUTFChars(env, jifname, ifname);
+	return ret_msg;
+
+fail:
+	if(fd >= 0)
+		close(fd);
+	(*env)->ReleaseStringUTFChars(env, jifname, ifname);
+	return message(env, 0, 0, msg, strlen(msg));
+#else
+	sprintf(msg, "jND_MmapRing.openRing : memory mapped capture is only supported on Linux");
+	return message(env, 0, 0, msg, strlen(msg));
+#endif /*LINUX*/
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    ringBuffer
+ * Signature: ([B)Ljava/nio/ByteBuffer;
+ */
+JNIEXPORT jobject JNICALL Java_jNetDev_jND_1MmapRing_ringBuffer
+  (JNIEnv *env, jclass class, jbyteArray jring) {
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring == 0)
+		return 0;
+	return (*env)->NewDirectByteBuffer(env, ring->map, (jlong)ring->maplen);
+#else
+	return 0;
+#endif /*LINUX*/
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    nextBlock
+ * Signature: ([BI)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1MmapRing_nextBlock
+  (JNIEnv *env, jclass class, jbyteArray jring, jint timeout) {
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring == 0)
+		return -3;	// Bad ring
+
+	struct tpacket_block_desc* bd = (struct tpacket_block_desc*)
+		(ring->map + (size_t)ring->next * ring->blocksize);
+
+	if((bd->hdr.bh1.block_status & TP_STATUS_USER) == 0) {
+		// Wait for the kernel to retire the block
+		struct pollfd pfd;
+		pfd.fd = ring->fd;
+		pfd.events = POLLIN | POLLERR;
+		pfd.revents = 0;
+		int r = poll(&pfd, 1, timeout);
+		if(r < 0 && errno != EINTR)
+			return -2;
+		if((bd->hdr.bh1.block_status & TP_STATUS_USER) == 0)
+			return -1;	// Timeout
+	}
+	// Read the block only after seeing its status
+	__sync_synchronize();
+
+	int block = ring->next;
+	ring->next = (ring->next + 1) % ring->blockcount;
+	return block;
+#else
+	return -3;
+#endif /*LINUX*/
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    releaseBlock
+ * Signature: ([BI)V
+ */
+JNIEXPORT void JNICALL Java_jNetDev_jND_1MmapRing_releaseBlock
+  (JNIEnv *env, jclass class, jbyteArray jring, jint block) {
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring == 0 || block < 0 || block >= ring->blockcount)
+		return;
+
+	struct tpacket_block_desc* bd = (struct tpacket_block_desc*)
+		(ring->map + (size_t)block * ring->blocksize);
+	// Finish reading the block before the kernel may refill it
+	__sync_synchronize();
+	bd->hdr.bh1.block_status = TP_STATUS_KERNEL;
+#endif /*LINUX*/
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    attachProgram
+ * Signature: ([B[I)Ljava/lang/String;
+ */
+JNIEXPORT jstring JNICALL Java_jNetDev_jND_1MmapRing_attachProgram
+  (JNIEnv *env, jclass class, 
+  jbyteArray jring, 
+  jintArray jinsns) {
+	char msg[1024];
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring == 0)
+		return (*env)->NewStringUTF(env, "jND_MmapRing.filter : ring is closed");
+
+	struct bpf_program prog;
+	if(to_program(env, jinsns, &prog) < 0)
+		return (*env)->NewStringUTF(env, "jND_MmapRing.filter : out of memory");
+
+	// A bpf_insn is laid out exactly as the kernel's sock_filter
+	struct sock_fprog fprog;
+	fprog.len = prog.bf_len;
+	fprog.filter = (struct sock_filter*)prog.bf_insns;
+	msg[0] = 0;
+	if(setsockopt(ring->fd, SOL_SOCKET, SO_ATTACH_FILTER, &fprog, sizeof(fprog)) < 0)
+		sprintf(msg, "jND_MmapRing.filter : SO_ATTACH_FILTER: %s", strerror(errno));
+	free(prog.bf_insns);
+
+	if(msg[0] == 0)
+		return 0;
+	return (*env)->NewStringUTF(env, msg);
+#else
+	sprintf(msg, "jND_MmapRing.filter : memory mapped capture is only supported on Linux");
+	return (*env)->NewStringUTF(env, msg);
+#endif /*LINUX*/
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    ringStats
+ * Signature: ([B)[J
+ */
+JNIEXPORT jlongArray JNICALL Java_jNetDev_jND_1MmapRing_ringStats
+  (JNIEnv *env, jclass class, jbyteArray jring) {
+	jlong stats[3] = { 0, 0, 0 };
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring != 0) {
+		// The kernel resets its counters on each read
+		struct tpacket_stats_v3 st;
+		socklen_t len = sizeof(st);
+		if(getsockopt(ring->fd, SOL_PACKET, PACKET_STATISTICS, &st, &len) == 0) {
+			stats[0] = st.tp_packets;
+			stats[1] = st.tp_drops;
+			stats[2] = st.tp_freeze_q_cnt;
+		}
+	}
+#endif /*LINUX*/
+	jlongArray jstats = (*env)->NewLongArray(env, 3);
+	if(jstats == 0) {
+		printf("jND_MmapRing: jni error: ringStats out of memory(119)\n");
+		exit(119);
+	}
+	(*env)->SetLongArrayRegion(env, jstats, 0, 3, stats);
+	return jstats;
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fMmapRing
+ * Method:    closeRing
+ * Signature: ([B)V
+ */
+JNIEXPORT void JNICALL Java_jNetDev_jND_1MmapRing_closeRing
+  (JNIEnv *env, jclass class, jbyteArray jring) {
+#ifdef LINUX
+	struct jnd_ring* ring = (struct jnd_ring*)getPtr(env, jring);
+	if(ring == 0)
+		return;
+	munmap(ring->map, ring->maplen);
+	close(ring->fd);
+	free(ring);
+#endif /*LINUX*/
+  }
+
+// ==========  jND_BPFProgram Support ==========
+
+/*
+ * Class:     jNetDev_jND_0005fBPFProgram
+ * Method:    pcapCompile
+ * Signature: (Ljava/lang/String;ZIII)Ljava/lang/Object;
+ */
+JNIEXPORT jobject JNICALL Java_jNetDev_jND_1BPFProgram_pcapCompile
+  (JNIEnv *env, jclass class, 
+  jstring jfilter, 
+  jboolean optimize, 
+  jint netmask, 
+  jint linktype, 
+  jint snaplen) {
+	char msg[1024];
+	jobject result;
+	struct bpf_program prog;
+	pcap_t* dead = pcap_open_dead(linktype, snaplen);
+	if(dead == 0)
+		return (*env)->NewStringUTF(env, "cannot open a pcap descriptor for the link type");
+
+	char* filter = (char*)(*env)->GetStringUTFChars(env, jfilter, NULL);
+	if(pcap_compile(dead, &prog, filter, optimize, (bpf_u_int32)netmask) == -1) {
+		sprintf(msg, "%.1000s", pcap_geterr(dead));
+		result = (*env)->NewStringUTF(env, msg);
+	}
+	else {
+		// Two ints per instruction: code | jt << 16 | jf << 24, then k
+		jintArray insns = (*env)->NewIntArray(env, 2 * prog.bf_len);
+		if(insns != 0) {
+			jint* w = (*env)->GetIntArrayElements(env, insns, NULL);
+			u_int i;
+			for(i = 0; i < prog.bf_len; i++) {
+				w[2 * i] = prog.bf_insns[i].code
+					| (prog.bf_insns[i].jt << 16)
+					| (prog.bf_insns[i].jf << 24);
+				w[2 * i + 1] = (jint)prog.bf_insns[i].k;
+			}
+			(*env)->ReleaseIntArrayElements(env, insns, w, 0);
+		}
+		result = insns;
+		pcap_freecode(&prog);
+	}
+	pcap_close(dead);
+	(*env)->ReleaseStringUTFChars(env, jfilter, filter);
+	return result;
+  }
+
 // ==========  jND_NICList Support ==========
 
 static int ndevs = -1;
@@ -1353,3 +1947,180 @@ JNIEXPORT jbyteArray JNICALL Java_jNetDev_jND_1NIC_nic_1inject
 	return ret_msg;
   }
 
+// ==========  Batched injection for jND_NIC  ==========
+
+/* Frames handed to the OS per call */
+#define JND_INJECT_CHUNK 64
+
+/** Send up to JND_INJECT_CHUNK frames through an adapter opened by
+ ** nic_open. Returns the number of frames sent, or -errno (-1 if
+ ** errno is not available) if not even the first could be sent.
+ **/
+static int inject_frames(void* v_adapter, int nicno,
+  jbyte** pkts, int* lens, int n) {
+#ifdef LINUX
+	struct sockaddr addr;
+	struct mmsghdr msgs[JND_INJECT_CHUNK];
+	struct iovec iovs[JND_INJECT_CHUNK];
+	int i, c;
+
+	memset(&addr, 0, sizeof(addr));
+	strncpy(addr.sa_data, v_name[nicno], sizeof(addr.sa_data));
+	memset(msgs, 0, n * sizeof(struct mmsghdr));
+	for(i = 0; i < n; i++) {
+		iovs[i].iov_base = pkts[i];
+		iovs[i].iov_len = lens[i];
+		msgs[i].msg_hdr.msg_name = &addr;
+		msgs[i].msg_hdr.msg_namelen = sizeof(addr);
+		msgs[i].msg_hdr.msg_iov = &iovs[i];
+		msgs[i].msg_hdr.msg_iovlen = 1;
+	}
+	do
+		c = sendmmsg((int)(long)v_adapter, msgs, n, 0);
+	while(c < 0 && errno == EINTR);
+	return c < 0 ? -errno : c;
+#endif /*LINUX*/
+
+#ifdef OSX
+	int i;
+	for(i = 0; i < n; i++)
+		if(write((int)(long)v_adapter, pkts[i], lens[i]) < 0)
+			return i > 0 ? i : -errno;
+	return n;
+#endif /*OSX*/
+
+#ifdef WIN32
+	int i;
+	for(i = 0; i < n; i++) {
+		LPPACKET packet = PacketAllocatePacket();
+		int ok;
+		if(packet == 0)
+			return i > 0 ? i : -1;
+		PacketInitPacket(packet, pkts[i], lens[i]);
+		ok = PacketSendPacket(((LPADAPTER)v_adapter), packet, FALSE);
+		PacketFreePacket(packet);
+		if(!ok)
+			return i > 0 ? i : -1;
+	}
+	return n;
+#endif /* WIN32 */
+}
+
+/** Fold the result of one chunk into the running total of a batch.
+ ** Returns 1 if the batch should go on with the next chunk.
+ **/
+static int inject_tally(int* sent, int c, int n) {
+	if(c < 0) {
+		if(*sent == 0) *sent = c;
+		return 0;
+	}
+	*sent += c;
+	return c == n;
+}
+
+/*
+ * Class:     jNetDev_jND_0005fNIC
+ * Method:    nic_injectFrames
+ * Signature: ([BI[[BII)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectFrames
+  (JNIEnv *env, jclass class, jbyteArray jadapter, jint nicno,
+   jobjectArray jframes, jint first, jint count) {
+	void* v_adapter = getPtr(env, jadapter);
+	jbyteArray frames[JND_INJECT_CHUNK];
+	jbyte* pkts[JND_INJECT_CHUNK];
+	int lens[JND_INJECT_CHUNK];
+	int base, i, n, c, sent = 0;
+
+	for(base = 0; base < count; base += n) {
+		n = count - base < JND_INJECT_CHUNK ? count - base : JND_INJECT_CHUNK;
+		// Fetch every frame before pinning any: no other JNI calls are
+		// allowed while an array is held critical
+		for(i = 0; i < n; i++) {
+			frames[i] = (jbyteArray)(*env)->GetObjectArrayElement(env, jframes, first + base + i);
+			lens[i] = (*env)->GetArrayLength(env, frames[i]);
+		}
+		for(i = 0; i < n; i++) {
+			pkts[i] = (*env)->GetPrimitiveArrayCritical(env, frames[i], NULL);
+			if(pkts[i] == NULL)
+				break;
+		}
+		if(i < n) {
+			// Out of memory: unpin the frames pinned so far and return, so
+			// that the pending OutOfMemoryError is thrown
+			while(--i >= 0)
+				(*env)->ReleasePrimitiveArrayCritical(env, frames[i], pkts[i], JNI_ABORT);
+			for(i = 0; i < n; i++)
+				(*env)->DeleteLocalRef(env, frames[i]);
+			return -1;
+		}
+		c = inject_frames(v_adapter, nicno, pkts, lens, n);
+		for(i = n - 1; i >= 0; i--) {
+			(*env)->ReleasePrimitiveArrayCritical(env, frames[i], pkts[i], JNI_ABORT);
+			(*env)->DeleteLocalRef(env, frames[i]);
+		}
+		if(!inject_tally(&sent, c, n)) break;
+	}
+	return sent;
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fNIC
+ * Method:    nic_injectBatch
+ * Signature: ([BI[B[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectBatch
+  (JNIEnv *env, jclass class, jbyteArray jadapter, jint nicno,
+   jbyteArray jdata, jintArray joffsets, jintArray jlengths, jint count) {
+	void* v_adapter = getPtr(env, jadapter);
+	jint offsets[JND_INJECT_CHUNK];
+	int lens[JND_INJECT_CHUNK];
+	jbyte* pkts[JND_INJECT_CHUNK];
+	jbyte* data;
+	int base, i, n, c, sent = 0;
+
+	for(base = 0; base < count; base += n) {
+		n = count - base < JND_INJECT_CHUNK ? count - base : JND_INJECT_CHUNK;
+		(*env)->GetIntArrayRegion(env, joffsets, base, n, offsets);
+		(*env)->GetIntArrayRegion(env, jlengths, base, n, (jint*)lens);
+		data = (*env)->GetPrimitiveArrayCritical(env, jdata, NULL);
+		if(data == NULL)
+			return -1;	// the OutOfMemoryError is pending
+		for(i = 0; i < n; i++)
+			pkts[i] = data + offsets[i];
+		c = inject_frames(v_adapter, nicno, pkts, lens, n);
+		(*env)->ReleasePrimitiveArrayCritical(env, jdata, data, JNI_ABORT);
+		if(!inject_tally(&sent, c, n)) break;
+	}
+	return sent;
+  }
+
+/*
+ * Class:     jNetDev_jND_0005fNIC
+ * Method:    nic_injectDirect
+ * Signature: ([BILjava/nio/ByteBuffer;[I[II)I
+ */
+JNIEXPORT jint JNICALL Java_jNetDev_jND_1NIC_nic_1injectDirect
+  (JNIEnv *env, jclass class, jbyteArray jadapter, jint nicno,
+   jobject jbuf, jintArray joffsets, jintArray jlengths, jint count) {
+	void* v_adapter = getPtr(env, jadapter);
+	jbyte* data = (jbyte*)(*env)->GetDirectBufferAddress(env, jbuf);
+	jint offsets[JND_INJECT_CHUNK];
+	int lens[JND_INJECT_CHUNK];
+	jbyte* pkts[JND_INJECT_CHUNK];
+	int base, i, n, c, sent = 0;
+
+	if(data == NULL)
+		return -1;
+	for(base = 0; base < count; base += n) {
+		n = count - base < JND_INJECT_CHUNK ? count - base : JND_INJECT_CHUNK;
+		(*env)->GetIntArrayRegion(env, joffsets, base, n, offsets);
+		(*env)->GetIntArrayRegion(env, jlengths, base, n, (jint*)lens);
+		for(i = 0; i < n; i++)
+			pkts[i] = data + offsets[i];
+		c = inject_frames(v_adapter, nicno, pkts, lens, n);
+		if(!inject_tally(&sent, c, n)) break;
+	}
+	return sent;
+  }
+